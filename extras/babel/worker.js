@@ -0,0 +1,29 @@
+// Long-lived Babel worker used by TAJS (see dk.brics.tajs.preprocessing.BabelWorker).
+//
+// Reads one JSON request per line from stdin:
+//   {"plugins": [...], "files": [{"filename": ..., "code": ...}, ...]}
+// and writes one JSON response per line to stdout:
+//   {"results": [{"code": ...} or {"error": ...}, ...]}
+// Configuration is loaded from the nearest babel.config.js above this directory, as with 'babel --root-mode upward'.
+
+var babel = require("@babel/core");
+var readline = require("readline");
+
+var rl = readline.createInterface({input: process.stdin, terminal: false});
+rl.on("line", function (line) {
+    var request = JSON.parse(line);
+    var results = request.files.map(function (file) {
+        try {
+            var result = babel.transformSync(file.code, {
+                filename: file.filename,
+                cwd: __dirname,
+                rootMode: "upward",
+                plugins: request.plugins
+            });
+            return {code: result.code};
+        } catch (e) {
+            return {error: String(e && e.message || e)};
+        }
+    });
+    process.stdout.write(JSON.stringify({results: results}) + "\n");
+});
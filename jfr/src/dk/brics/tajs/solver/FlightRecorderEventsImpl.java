@@ -0,0 +1,175 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package dk.brics.tajs.solver;
+
+import dk.brics.tajs.flowgraph.AbstractNode;
+import dk.brics.tajs.flowgraph.BasicBlock;
+import dk.brics.tajs.flowgraph.Function;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Implementation of {@link FlightRecorderEvents} using <code>jdk.jfr</code>.
+ * <p>
+ * This class is in a separate source directory that is only compiled if the JDK provides <code>jdk.jfr</code>
+ * (Java 8u262 and later), and it is loaded by reflection.
+ */
+final class FlightRecorderEventsImpl implements FlightRecorderEvents.Recorder {
+
+    @Override
+    public Object beginNodeTransfer() {
+        NodeTransfer e = new NodeTransfer();
+        e.begin();
+        return e;
+    }
+
+    @Override
+    public void endNodeTransfer(Object event, AbstractNode n, IContext<?> context, IState<?, ?, ?> state) {
+        NodeTransfer e = (NodeTransfer) event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.nodeIndex = n.getIndex();
+            e.nodeClass = n.getClass().getSimpleName();
+            e.function = getFunctionName(n.getBlock().getFunction());
+            e.contextHash = context.hashCode();
+            e.stateSize = state.getSize();
+            e.commit();
+        }
+    }
+
+    @Override
+    public Object beginPropagation() {
+        Propagation e = new Propagation();
+        e.begin();
+        return e;
+    }
+
+    @Override
+    public void endPropagation(Object event, BlockAndContext<?> from, BlockAndContext<?> to, IState<?, ?, ?> state, IState<?, ?, ?> result, boolean changed) {
+        Propagation e = (Propagation) event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.fromBlockIndex = from.getBlock().getIndex();
+            e.toBlockIndex = to.getBlock().getIndex();
+            e.function = getFunctionName(to.getBlock().getFunction());
+            e.contextHash = to.getContext().hashCode();
+            e.stateSize = state.getSize();
+            e.resultStateSize = result != null ? result.getSize() : -1;
+            e.changed = changed;
+            e.commit();
+        }
+    }
+
+    @Override
+    public void callEdge(boolean charge, AbstractNode caller, IContext<?> callerContext, BasicBlock callee, IContext<?> calleeContext) {
+        CallEdge e = new CallEdge();
+        if (e.shouldCommit()) {
+            e.charge = charge;
+            e.callNodeIndex = caller.getIndex();
+            e.callerContextHash = callerContext.hashCode();
+            e.callee = getFunctionName(callee.getFunction());
+            e.calleeContextHash = calleeContext.hashCode();
+            e.commit();
+        }
+    }
+
+    private static String getFunctionName(Function f) {
+        if (f.isMain())
+            return "<main>";
+        return f.getName() != null ? f.getName() : "<anonymous>";
+    }
+
+    @Name("dk.brics.tajs.NodeTransfer")
+    @Label("Node Transfer")
+    @Category("TAJS")
+    @StackTrace(false)
+    static class NodeTransfer extends jdk.jfr.Event {
+
+        @Label("Node Index")
+        int nodeIndex;
+
+        @Label("Node Class")
+        String nodeClass;
+
+        @Label("Function")
+        String function;
+
+        @Label("Context Hash")
+        int contextHash;
+
+        @Label("State Size")
+        @Description("Number of abstract objects in the state after the transfer")
+        int stateSize;
+    }
+
+    @Name("dk.brics.tajs.Propagation")
+    @Label("Propagation")
+    @Category("TAJS")
+    @StackTrace(false)
+    static class Propagation extends jdk.jfr.Event {
+
+        @Label("From Block Index")
+        int fromBlockIndex;
+
+        @Label("To Block Index")
+        int toBlockIndex;
+
+        @Label("Function")
+        String function;
+
+        @Label("Context Hash")
+        int contextHash;
+
+        @Label("State Size")
+        @Description("Number of abstract objects in the propagated state")
+        int stateSize;
+
+        @Label("Result State Size")
+        @Description("Number of abstract objects in the destination state after propagation")
+        int resultStateSize;
+
+        @Label("Changed")
+        boolean changed;
+    }
+
+    @Name("dk.brics.tajs.CallEdge")
+    @Label("Call Edge Charging")
+    @Category("TAJS")
+    @StackTrace(false)
+    static class CallEdge extends jdk.jfr.Event {
+
+        @Label("Charge")
+        @Description("True if the call edge was charged, false if discharged")
+        boolean charge;
+
+        @Label("Call Node Index")
+        int callNodeIndex;
+
+        @Label("Caller Context Hash")
+        int callerContextHash;
+
+        @Label("Callee")
+        String callee;
+
+        @Label("Callee Context Hash")
+        int calleeContextHash;
+    }
+}
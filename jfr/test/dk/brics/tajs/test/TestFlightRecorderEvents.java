@@ -0,0 +1,69 @@
+package dk.brics.tajs.test;
+
+import dk.brics.tajs.Main;
+import dk.brics.tajs.solver.FlightRecorderEvents;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static dk.brics.tajs.util.Collections.newMap;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link FlightRecorderEvents}.
+ */
+public class TestFlightRecorderEvents {
+
+    @Before
+    public void init() {
+        Misc.disableLogging();
+        Main.reset();
+    }
+
+    @After
+    public void disable() {
+        FlightRecorderEvents.disable();
+    }
+
+    @Test
+    public void events() throws IOException {
+        Path file = Files.createTempFile("tajs", ".jfr");
+        try (Recording r = new Recording()) {
+            r.enable("dk.brics.tajs.NodeTransfer");
+            r.enable("dk.brics.tajs.Propagation");
+            r.enable("dk.brics.tajs.CallEdge");
+            r.start();
+            Main.run(Main.init(new String[]{"-test", "-quiet", "-jfr", "test-resources/src/google/richards.js"}, null));
+            r.stop();
+            r.dump(file);
+        }
+        assertTrue(FlightRecorderEvents.isEnabled());
+        Map<String, Integer> counts = newMap();
+        boolean named = false;
+        for (RecordedEvent e : RecordingFile.readAllEvents(file)) {
+            counts.merge(e.getEventType().getName(), 1, Integer::sum);
+            if (e.getEventType().getName().equals("dk.brics.tajs.NodeTransfer") && "Scheduler".equals(e.getString("function")))
+                named = true;
+        }
+        Files.delete(file);
+        assertTrue(counts.getOrDefault("dk.brics.tajs.NodeTransfer", 0) > 0);
+        assertTrue(counts.getOrDefault("dk.brics.tajs.Propagation", 0) > 0);
+        assertTrue(counts.getOrDefault("dk.brics.tajs.CallEdge", 0) > 0);
+        assertTrue(named);
+    }
+
+    @Test
+    public void disabledByDefault() {
+        Main.run(Main.init(new String[]{"-test", "-quiet", "test-resources/src/google/richards.js"}, null));
+        assertFalse(FlightRecorderEvents.isEnabled());
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.brics.tajs.jmh;
+
+import dk.brics.tajs.util.HybridArrayHashMap;
+import dk.brics.tajs.util.HybridArrayHashSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Benchmarks for {@link HybridArrayHashMap} and {@link HybridArrayHashSet} compared to the JDK collections.
+ */
+@State(Scope.Thread)
+public class CollectionBenchmarks {
+
+    /**
+     * Number of elements, around the threshold where the hybrid collections switch from arrays to hash tables.
+     */
+    @Param({"2", "8", "32"})
+    public int size;
+
+    private String[] keys;
+
+    @Setup
+    public void makeKeys() {
+        keys = new String[size];
+        for (int i = 0; i < size; i++)
+            keys[i] = "p" + i;
+    }
+
+    @Benchmark
+    public void hybridMap(Blackhole bh) {
+        map(new HybridArrayHashMap<>(), bh);
+    }
+
+    @Benchmark
+    public void jdkMap(Blackhole bh) {
+        map(new HashMap<>(), bh);
+    }
+
+    @Benchmark
+    public void hybridSet(Blackhole bh) {
+        set(new HybridArrayHashSet<>(), bh);
+    }
+
+    @Benchmark
+    public void jdkSet(Blackhole bh) {
+        set(new HashSet<>(), bh);
+    }
+
+    private void map(Map<String, String> m, Blackhole bh) {
+        for (String k : keys)
+            m.put(k, k);
+        for (String k : keys)
+            bh.consume(m.get(k));
+    }
+
+    private void set(Set<String> s, Blackhole bh) {
+        for (String k : keys)
+            s.add(k);
+        for (String k : keys)
+            bh.consume(s.contains(k));
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.brics.tajs.jmh;
+
+import dk.brics.tajs.Main;
+import dk.brics.tajs.analysis.Analysis;
+import dk.brics.tajs.flowgraph.BasicBlock;
+import dk.brics.tajs.flowgraph.Function;
+import dk.brics.tajs.lattice.Context;
+import dk.brics.tajs.lattice.Obj;
+import dk.brics.tajs.lattice.State;
+import dk.brics.tajs.lattice.Value;
+import dk.brics.tajs.solver.IAnalysisLatticeElement;
+import dk.brics.tajs.util.Pair;
+import org.apache.log4j.PropertyConfigurator;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static dk.brics.tajs.util.Collections.newList;
+
+/**
+ * Abstract states and values captured from the fixpoint of a bundled benchmark program.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Benchmark)
+public class Fixpoint {
+
+    @Param({"test-resources/src/google/richards.js", "test-resources/src/google/delta-blue.js"})
+    public String file;
+
+    /**
+     * The block entry states of the fixpoint.
+     */
+    public List<State> states;
+
+    /**
+     * Pairs of states at a block and a successor block in the same context, as propagated by the solver.
+     */
+    public List<Pair<State, State>> flows;
+
+    /**
+     * Property values of the objects in the fixpoint states, excluding polymorphic and 'unknown' values.
+     */
+    public List<Value> values;
+
+    /**
+     * Polymorphic property values, together with the state they appear in.
+     */
+    public List<Pair<Value, State>> polymorphic;
+
+    @Setup(Level.Trial)
+    public void analyze() {
+        Properties prop = new Properties();
+        prop.put("log4j.rootLogger", "INFO, tajs");
+        prop.put("log4j.appender.tajs", "org.apache.log4j.varia.NullAppender");
+        PropertyConfigurator.configure(prop);
+        Main.reset();
+        Analysis a = Main.init(new String[]{"-quiet", file}, null);
+        Main.run(a);
+        IAnalysisLatticeElement<State, Context, ?> lattice = a.getSolver().getAnalysisLatticeElement();
+        states = newList();
+        flows = newList();
+        values = newList();
+        polymorphic = newList();
+        for (Function f : a.getSolver().getFlowGraph().getFunctions()) {
+            for (BasicBlock b : f.getBlocks()) {
+                for (Map.Entry<Context, State> e : lattice.getStates(b).entrySet()) {
+                    State s = e.getValue();
+                    states.add(s);
+                    for (BasicBlock succ : b.getSuccessors()) {
+                        State t = lattice.getStates(succ).get(e.getKey());
+                        if (t != null)
+                            flows.add(Pair.make(s, t));
+                    }
+                    for (Obj obj : s.getStore().values()) {
+                        for (Value v : obj.getProperties().values()) {
+                            if (v.isPolymorphic())
+                                polymorphic.add(Pair.make(v, s));
+                            else if (!v.isUnknown())
+                                values.add(v);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
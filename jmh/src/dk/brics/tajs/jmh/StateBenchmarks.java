@@ -0,0 +1,59 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.brics.tajs.jmh;
+
+import dk.brics.tajs.lattice.Obj;
+import dk.brics.tajs.lattice.ObjectLabel;
+import dk.brics.tajs.lattice.State;
+import dk.brics.tajs.util.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for {@link State} and {@link Obj}.
+ */
+public class StateBenchmarks {
+
+    /**
+     * Clones each fixpoint state.
+     */
+    @Benchmark
+    public void cloneState(Fixpoint fixpoint, Blackhole bh) {
+        for (State s : fixpoint.states)
+            bh.consume(s.clone());
+    }
+
+    /**
+     * Propagates each state at a block to a clone of the state at a successor block.
+     */
+    @Benchmark
+    public void propagate(Fixpoint fixpoint, Blackhole bh) {
+        for (Pair<State, State> flow : fixpoint.flows)
+            bh.consume(flow.getSecond().clone().propagate(flow.getFirst(), false, false));
+    }
+
+    /**
+     * Makes each object of a clone of each fixpoint state writable, which copies the object.
+     */
+    @Benchmark
+    public void objCopyOnWrite(Fixpoint fixpoint, Blackhole bh) {
+        for (State s : fixpoint.states) {
+            State c = s.clone();
+            for (ObjectLabel l : s.getStore().keySet())
+                bh.consume(c.getObject(l, true));
+        }
+    }
+}
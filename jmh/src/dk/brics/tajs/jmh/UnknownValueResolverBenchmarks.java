@@ -0,0 +1,38 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.brics.tajs.jmh;
+
+import dk.brics.tajs.lattice.State;
+import dk.brics.tajs.lattice.UnknownValueResolver;
+import dk.brics.tajs.lattice.Value;
+import dk.brics.tajs.util.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for {@link UnknownValueResolver}.
+ */
+public class UnknownValueResolverBenchmarks {
+
+    /**
+     * Recovers each polymorphic fixpoint value in a clone of its state.
+     */
+    @Benchmark
+    public void getRealValue(Fixpoint fixpoint, Blackhole bh) {
+        for (Pair<Value, State> p : fixpoint.polymorphic)
+            bh.consume(UnknownValueResolver.getRealValue(p.getFirst(), p.getSecond().clone()));
+    }
+}
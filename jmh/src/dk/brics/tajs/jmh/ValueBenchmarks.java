@@ -0,0 +1,83 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.brics.tajs.jmh;
+
+import dk.brics.tajs.lattice.Value;
+import dk.brics.tajs.options.Options;
+import dk.brics.tajs.util.Canonicalizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+
+/**
+ * Benchmarks for {@link Value}.
+ * <p>
+ * The same operations are repeated in every invocation, so with the value operation cache enabled,
+ * {@link #join} and {@link #canonicalizeNew} only measure cache hits.
+ * The cache is therefore disabled unless selected with <code>-p operationCache=true</code>.
+ */
+public class ValueBenchmarks {
+
+    @State(Scope.Benchmark)
+    public static class OperationCacheSetting {
+
+        @Param({"false"})
+        public boolean operationCache;
+
+        @Setup(Level.Trial)
+        public void setup(Fixpoint fixpoint) { // after the fixpoint has been computed, which resets the options
+            if (operationCache)
+                Options.get().disableNoValueCache();
+            else
+                Options.get().enableNoValueCache();
+        }
+    }
+
+    /**
+     * Joins each fixpoint value with the next one.
+     */
+    @Benchmark
+    public void join(Fixpoint fixpoint, OperationCacheSetting setting, Blackhole bh) {
+        List<Value> values = fixpoint.values;
+        for (int i = 1; i < values.size(); i++)
+            bh.consume(values.get(i - 1).join(values.get(i)));
+    }
+
+    /**
+     * Modifies each fixpoint value, which creates and canonicalizes a new value.
+     */
+    @Benchmark
+    public void canonicalizeNew(Fixpoint fixpoint, OperationCacheSetting setting, Blackhole bh) {
+        for (Value v : fixpoint.values)
+            bh.consume(v.joinModified());
+    }
+
+    /**
+     * Looks up each fixpoint value, which is already canonical.
+     */
+    @Benchmark
+    public void canonicalizeExisting(Fixpoint fixpoint, Blackhole bh) {
+        Canonicalizer canonicalizer = Canonicalizer.get();
+        for (Value v : fixpoint.values)
+            bh.consume(canonicalizer.canonicalize(v));
+    }
+}
@@ -26,24 +26,31 @@ import dk.brics.tajs.flowgraph.HostEnvSources;
 import dk.brics.tajs.flowgraph.JavaScriptSource;
 import dk.brics.tajs.flowgraph.JavaScriptSource.Kind;
 import dk.brics.tajs.flowgraph.SourceLocation;
+import dk.brics.tajs.flowgraph.SourceLocation.SourceLocationMaker;
 import dk.brics.tajs.js2flowgraph.FlowGraphBuilder;
 import dk.brics.tajs.js2flowgraph.HTMLParser;
+import dk.brics.tajs.js2flowgraph.LazyFunctionBodies;
 import dk.brics.tajs.lattice.Context;
+import dk.brics.tajs.lattice.GarbageCollectionPolicy;
 import dk.brics.tajs.lattice.Obj;
 import dk.brics.tajs.lattice.ObjectLabel;
 import dk.brics.tajs.lattice.PKey;
-import dk.brics.tajs.lattice.ScopeChain;
 import dk.brics.tajs.lattice.State;
 import dk.brics.tajs.lattice.Value;
 import dk.brics.tajs.monitoring.AnalysisMonitor;
 import dk.brics.tajs.monitoring.AnalysisPhase;
 import dk.brics.tajs.monitoring.AnalysisTimeLimiter;
+import dk.brics.tajs.monitoring.ColdStateCompactionMonitor;
 import dk.brics.tajs.monitoring.CompositeMonitor;
 import dk.brics.tajs.monitoring.IAnalysisMonitoring;
+import dk.brics.tajs.monitoring.JsonMetricsExporter;
 import dk.brics.tajs.monitoring.MaxMemoryUsageMonitor;
 import dk.brics.tajs.monitoring.MemoryUsageDiagnosisMonitor;
+import dk.brics.tajs.monitoring.MetricsExporter;
+import dk.brics.tajs.monitoring.MetricsMonitor;
 import dk.brics.tajs.monitoring.ProgramExitReachabilityChecker;
 import dk.brics.tajs.monitoring.ProgressMonitor;
+import dk.brics.tajs.monitoring.PrometheusMetricsExporter;
 import dk.brics.tajs.monitoring.TAJSAssertionReachabilityCheckerMonitor;
 import dk.brics.tajs.monitoring.inspector.datacollection.InspectorFactory;
 import dk.brics.tajs.monitoring.soundness.SoundnessTesterMonitor;
@@ -52,13 +59,16 @@ import dk.brics.tajs.options.OptionValues;
 import dk.brics.tajs.options.Options;
 import dk.brics.tajs.options.TAJSEnvironmentConfig;
 import dk.brics.tajs.preprocessing.Babel;
+import dk.brics.tajs.solver.FlightRecorderEvents;
 import dk.brics.tajs.solver.SolverSynchronizer;
 import dk.brics.tajs.typetesting.ITypeTester;
 import dk.brics.tajs.util.AnalysisException;
+import dk.brics.tajs.util.AnalysisSession;
 import dk.brics.tajs.util.Canonicalizer;
 import dk.brics.tajs.util.Collectors;
 import dk.brics.tajs.util.Lists;
 import dk.brics.tajs.util.Loader;
+import dk.brics.tajs.util.Metrics;
 import dk.brics.tajs.util.Pair;
 import dk.brics.tajs.util.PathAndURLUtils;
 import dk.brics.tajs.util.Strings;
@@ -118,6 +128,8 @@ public class Main {
 
     /**
      * Resets all internal counters, caches, and canonicalized static fields.
+     * The counters and caches are those of the current {@link AnalysisSession}, the canonicalized fields are shared
+     * by all sessions, so this method must not be called while analyses are running in other sessions.
      */
     public static void reset() {
         Canonicalizer.reset();
@@ -127,13 +139,15 @@ public class Main {
         Value.reset();
         Obj.reset();
         Strings.reset();
-        ScopeChain.reset();
         NodeJSRequire.reset();
         PathAndURLUtils.reset();
         PKey.StringPKey.reset();
         ObjectLabel.reset();
         InitialStateBuilder.reset();
         BlendedAnalysisOptions.reset();
+        Metrics.reset();
+        LazyFunctionBodies.reset();
+        GarbageCollectionPolicy.reset();
     }
 
     /**
@@ -164,6 +178,8 @@ public class Main {
         checkValidOptions(options);
         Options.set(options);
         TAJSEnvironmentConfig.init();
+        if (Options.get().isJFREnabled())
+            FlightRecorderEvents.enable();
 
         if (monitoring == null)
             monitoring = new AnalysisMonitor();
@@ -211,12 +227,14 @@ public class Main {
             else if (!js_files.isEmpty()) {
                 if (htmlFile != null)
                     throw new AnalysisException("Cannot analyze an HTML file and JavaScript files at the same time");
-                // build flowgraph for JS files
+                // build flowgraph for JS files (parsed concurrently)
+                List<Pair<String, SourceLocationMaker>> sources = newList();
                 for (URL js_file : js_files) {
                     if (!Options.get().isQuietEnabled())
                         log.info("Loading " + js_file);
-                    builder.transformStandAloneCode(Loader.getString(js_file, Charset.forName("UTF-8")), new SourceLocation.StaticLocationMaker(js_file));
+                    sources.add(Pair.make(Loader.getString(js_file, Charset.forName("UTF-8")), new SourceLocation.StaticLocationMaker(js_file)));
                 }
+                builder.transformStandAloneCode(sources);
             } else {
                 // build flowgraph for JavaScript code in or referenced from HTML file
                 Options.get().enableIncludeDom(); // always enable DOM if any HTML files are involved
@@ -224,11 +242,13 @@ public class Main {
                     log.info("Loading " + htmlFile);
                 HTMLParser p = new HTMLParser(htmlFile);
                 document = p.getHTML();
+                List<Pair<JavaScriptSource, SourceLocationMaker>> sources = newList();
                 for (Pair<URL, JavaScriptSource> js : p.getJavaScript()) {
                     if (!Options.get().isQuietEnabled() && js.getSecond().getKind() == Kind.FILE)
                         log.info("Loading " + PathAndURLUtils.getRelativeToWorkingDirectory(PathAndURLUtils.toPath(js.getFirst(), false)));
-                    builder.transformWebAppCode(js.getSecond(), new SourceLocation.StaticLocationMaker(js.getFirst()));
+                    sources.add(Pair.make(js.getSecond(), new SourceLocation.StaticLocationMaker(js.getFirst())));
                 }
+                builder.transformWebAppCode(sources);
             }
             fg = builder.close();
         } catch (IOException e) {
@@ -330,6 +350,19 @@ public class Main {
         }
         extraMonitors.add(new TAJSAssertionReachabilityCheckerMonitor());
 
+        // Metrics exporters
+        List<MetricsExporter> metricsExporters = newList();
+        if (Options.get().getMetricsJsonFile() != null)
+            metricsExporters.add(new JsonMetricsExporter(Paths.get(Options.get().getMetricsJsonFile())));
+        if (Options.get().getMetricsPort() != -1)
+            metricsExporters.add(new PrometheusMetricsExporter(Options.get().getMetricsPort()));
+        if (!metricsExporters.isEmpty())
+            extraMonitors.add(new MetricsMonitor(metricsExporters));
+
+        if (Options.get().getCompactColdStates() != -1) {
+            extraMonitors.add(new ColdStateCompactionMonitor(Options.get().getCompactColdStates()));
+        }
+
         // put inspector *after* checking
         if (Options.get().isInspectorEnabled()) {
             extraMonitors.add(InspectorFactory.createInspectorMonitor());
@@ -373,25 +406,32 @@ public class Main {
 
         long time = System.currentTimeMillis();
 
-        enterPhase(AnalysisPhase.ANALYSIS, monitoring);
+        boolean scanned = false;
         try {
-            boolean completed = analysis.getSolver().solve();
-            if (!completed && Options.get().isTestEnabled() && !Options.get().isInspectorEnabled() && !Options.get().isAnalysisLimitationWarnOnly())
-                return; // skip scan phase if not reached fixpoint, unless in test mode (unless inspector enabled or warn-only)
-        } finally {
-            leavePhase(AnalysisPhase.ANALYSIS, monitoring);
-        }
+            enterPhase(AnalysisPhase.ANALYSIS, monitoring);
+            try {
+                boolean completed = analysis.getSolver().solve();
+                if (!completed && Options.get().isTestEnabled() && !Options.get().isInspectorEnabled() && !Options.get().isAnalysisLimitationWarnOnly())
+                    return; // skip scan phase if not reached fixpoint, unless in test mode (unless inspector enabled or warn-only)
+            } finally {
+                leavePhase(AnalysisPhase.ANALYSIS, monitoring);
+            }
 
-        long elapsed = System.currentTimeMillis() - time;
-        if (Options.get().isTimingEnabled())
-            log.info("Analysis finished in " + elapsed + "ms");
+            long elapsed = System.currentTimeMillis() - time;
+            if (Options.get().isTimingEnabled())
+                log.info("Analysis finished in " + elapsed + "ms");
 
-        if (Options.get().isFlowGraphEnabled())
-            dumpFlowGraph(analysis.getSolver().getFlowGraph(), true);
+            if (Options.get().isFlowGraphEnabled())
+                dumpFlowGraph(analysis.getSolver().getFlowGraph(), true);
 
-        enterPhase(AnalysisPhase.SCAN, monitoring);
-        analysis.getSolver().scan();
-        leavePhase(AnalysisPhase.SCAN, monitoring);
+            enterPhase(AnalysisPhase.SCAN, monitoring);
+            analysis.getSolver().scan();
+            leavePhase(AnalysisPhase.SCAN, monitoring);
+            scanned = true;
+        } finally {
+            if (!scanned)
+                monitoring.visitAnalysisAborted();
+        }
     }
 
     /**
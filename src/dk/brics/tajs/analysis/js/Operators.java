@@ -32,6 +32,7 @@ import dk.brics.tajs.options.Options;
 import dk.brics.tajs.util.AnalysisException;
 import dk.brics.tajs.util.Collectors;
 import dk.brics.tajs.util.Pair;
+import dk.brics.tajs.util.StringSet;
 import dk.brics.tajs.util.Strings;
 
 import java.util.Collection;
@@ -354,15 +355,10 @@ public class Operators {
             if (s1.isMaybeSingleStr() && s2.isMaybeSingleStr() && s1.getIncludedStrings() == null && s2.getIncludedStrings() == null) {
                 r = r.joinStr(s1.getStr() + s2.getStr());
             } else {
-                Set<Value> vs = newSet();
                 Set<String> vs1 = s1.getAllKnownStr();
                 Set<String> vs2 = s2.getAllKnownStr();
-                for (String ss1 : vs1) {
-                    for (String ss2 : vs2) {
-                        vs.add(Value.makeStr(ss1 + ss2));
-                    }
-                }
-                r = r.join(Value.join(vs));
+                StringSet vs = StringSet.concat(vs1, vs2);
+                r = r.join(Value.makeStrings(vs));
                 if (((vs.size() > Options.Constants.STRING_CONCAT_SETS_BOUND) && vs1.size() > 1 && vs2.size() > 1) || vs.size() > Options.Constants.STRING_SETS_BOUND) {
                     // widen
                     r = r.forgetExcludedIncludedStrings();
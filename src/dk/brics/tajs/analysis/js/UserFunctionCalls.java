@@ -31,6 +31,7 @@ import dk.brics.tajs.flowgraph.jsnodes.CallNode;
 import dk.brics.tajs.flowgraph.jsnodes.DeclareFunctionNode;
 import dk.brics.tajs.flowgraph.jsnodes.EventDispatcherNode;
 import dk.brics.tajs.flowgraph.jsnodes.NopNode;
+import dk.brics.tajs.js2flowgraph.LazyFunctionBodies;
 import dk.brics.tajs.lattice.CallEdge;
 import dk.brics.tajs.lattice.Context;
 import dk.brics.tajs.lattice.ExecutionContext;
@@ -190,6 +191,7 @@ public class UserFunctionCalls {
 
         Function f = obj_f.getFunction();
         AbstractNode n = call.getSourceNode();
+        LazyFunctionBodies.materialize(f, c.getFlowGraph());
 
         if (log.isDebugEnabled())
             log.debug("enterUserFunction " + (implicit ? "(implicit)" : "") + "from node " + n.getIndex() + " at " + n.getSourceLocation()
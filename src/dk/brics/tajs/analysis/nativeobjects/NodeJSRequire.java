@@ -1,9 +1,11 @@
 package dk.brics.tajs.analysis.nativeobjects;
 
 import dk.brics.tajs.flowgraph.HostEnvSources;
+import dk.brics.tajs.options.Options;
 import dk.brics.tajs.options.TAJSEnvironmentConfig;
 import dk.brics.tajs.util.AnalysisException;
 import dk.brics.tajs.util.AnalysisLimitationException;
+import dk.brics.tajs.util.AnalysisSession;
 import dk.brics.tajs.util.Collectors;
 import dk.brics.tajs.util.Pair;
 import dk.brics.tajs.util.PathAndURLUtils;
@@ -21,34 +23,40 @@ import java.util.Map;
 import static dk.brics.tajs.util.Collections.newMap;
 
 /**
- * Models the NodeJS 'require.resolve' mechanism by running 'node'.
+ * Models the NodeJS 'require.resolve' mechanism, using {@link NodeJSResolver} or by running 'node'.
  */
 public class NodeJSRequire {
 
-    private static NodeJSRequire instance;
+    private static final AnalysisSession.Slot<NodeJSRequire> instance = AnalysisSession.newSlot(() -> null);
 
     private Map<Pair<String, URL>, URL> resolveCache;
 
+    private NodeJSResolveCache persistentCache; // null if disabled
+
     public NodeJSRequire() {
         this.resolveCache = newMap();
+        if (Options.get().getNodeJSResolveCacheFile() != null)
+            this.persistentCache = new NodeJSResolveCache(Paths.get(Options.get().getNodeJSResolveCacheFile()));
     }
 
     public static NodeJSRequire get() {
-        if (instance == null) {
+        NodeJSRequire r = AnalysisSession.current().get(instance);
+        if (r == null) {
             throw new AnalysisException("NodeJSRequire is not initialized!");
         }
-        return instance;
+        return r;
     }
 
     public static void reset() {
-        instance = null;
+        AnalysisSession.current().clear(instance);
     }
 
     public static void init() {
-        if (instance != null) {
+        AnalysisSession session = AnalysisSession.current();
+        if (session.get(instance) != null) {
             throw new AnalysisException("NodeJSRequire is already initialized!");
         }
-        instance = new NodeJSRequire();
+        session.set(instance, new NodeJSRequire());
     }
 
     /**
@@ -79,37 +87,66 @@ public class NodeJSRequire {
             }
         }
         if (resolved == null) {
-            if (!"file".equals(location.getProtocol())) {
-                // TODO: if we implement NodeJS's 'require.resolve' manually, we could support other protocols
-                throw new AnalysisLimitationException.NodeJSRequireException(String.format("NodeJS process cannot 'resolve' inside %s-protocol file systems", location.getProtocol()));
-            }
-            String expression = "console.log(require.resolve('" + arg + "'))"; // <-- FIXME: malicious injection possible here
-            String[] cmd = {TAJSEnvironmentConfig.get().getNode().toString(), "-e", expression};
-            final ProcessBuilder pb = new ProcessBuilder(cmd);
-            Path resolveLocation = PathAndURLUtils.toPath(location, false);
-            pb.directory((Files.isDirectory(resolveLocation) ? resolveLocation : resolveLocation.getParent()).toFile());
-            try {
-                Process process = pb.start();
-                BufferedReader brStd = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                BufferedReader brErr = new BufferedReader(new InputStreamReader(process.getErrorStream()));
-                List<String> lineStds = brStd.lines().collect(Collectors.toList());
-                List<String> lineErrs = brErr.lines().collect(Collectors.toList());
-                process.waitFor();
-                if (process.exitValue() != 0) {
-                    if (lineErrs.contains("Error: Cannot find module '" + arg + "'")) {
-                        return null;
-                    }
-                    throw new AnalysisLimitationException.NodeJSRequireException("NodeJS process exited with exit code: " + process.exitValue());
-                }
-                if (lineStds.size() != 1) {
-                    throw new AnalysisLimitationException.NodeJSRequireException("Unexpected output from NodeJS process: " + lineStds);
-                }
-                resolved = PathAndURLUtils.toURL(Paths.get(lineStds.get(0)));
-            } catch (IOException | InterruptedException e) {
-                throw new RuntimeException(e);
-            }
+            if (Options.get().isNodeJSResolveSubprocessEnabled())
+                resolved = resolveWithNode(arg, location);
+            else
+                resolved = resolveWithResolver(arg, location);
         }
         resolveCache.put(cacheKey, resolved);
         return resolved;
     }
+
+    /**
+     * Resolves using {@link NodeJSResolver}, and the persistent cache if enabled.
+     */
+    private URL resolveWithResolver(String arg, URL location) {
+        Path resolveLocation = PathAndURLUtils.toPath(location, false);
+        Path dir = Files.isDirectory(resolveLocation) ? resolveLocation : resolveLocation.getParent();
+        boolean cacheable = persistentCache != null && "file".equals(location.getProtocol());
+        Path resolved;
+        NodeJSResolveCache.Entry e = cacheable ? persistentCache.get(arg, dir) : null;
+        if (e != null) {
+            resolved = e.result;
+        } else {
+            NodeJSResolver resolver = new NodeJSResolver();
+            resolved = resolver.resolve(arg, dir);
+            if (cacheable)
+                persistentCache.put(arg, dir, resolved, resolver.getDependencies());
+        }
+        return resolved == null ? null : PathAndURLUtils.toURL(resolved);
+    }
+
+    /**
+     * Resolves by running 'node'.
+     */
+    private static URL resolveWithNode(String arg, URL location) {
+        if (!"file".equals(location.getProtocol())) {
+            throw new AnalysisLimitationException.NodeJSRequireException(String.format("NodeJS process cannot 'resolve' inside %s-protocol file systems", location.getProtocol()));
+        }
+        String expression = "console.log(require.resolve('" + arg + "'))"; // <-- FIXME: malicious injection possible here
+        String[] cmd = {TAJSEnvironmentConfig.get().getNode().toString(), "-e", expression};
+        final ProcessBuilder pb = new ProcessBuilder(cmd);
+        Path resolveLocation = PathAndURLUtils.toPath(location, false);
+        pb.directory((Files.isDirectory(resolveLocation) ? resolveLocation : resolveLocation.getParent()).toFile());
+        try {
+            Process process = pb.start();
+            BufferedReader brStd = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            BufferedReader brErr = new BufferedReader(new InputStreamReader(process.getErrorStream()));
+            List<String> lineStds = brStd.lines().collect(Collectors.toList());
+            List<String> lineErrs = brErr.lines().collect(Collectors.toList());
+            process.waitFor();
+            if (process.exitValue() != 0) {
+                if (lineErrs.contains("Error: Cannot find module '" + arg + "'")) {
+                    return null;
+                }
+                throw new AnalysisLimitationException.NodeJSRequireException("NodeJS process exited with exit code: " + process.exitValue());
+            }
+            if (lineStds.size() != 1) {
+                throw new AnalysisLimitationException.NodeJSRequireException("Unexpected output from NodeJS process: " + lineStds);
+            }
+            return PathAndURLUtils.toURL(Paths.get(lineStds.get(0)));
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
 }
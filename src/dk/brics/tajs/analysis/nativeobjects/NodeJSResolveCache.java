@@ -0,0 +1,145 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package dk.brics.tajs.analysis.nativeobjects;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static dk.brics.tajs.util.Collections.newMap;
+
+/**
+ * Persistent cache of Node.js module resolutions (see {@link NodeJSResolver}).
+ * <p>
+ * The cache is a text file with an entry for each resolved specifier and directory.
+ * An entry contains the result and the modification times of the paths examined during the resolution,
+ * and it is only used if the modification times are unchanged.
+ * New entries are appended to the file, and later entries take precedence.
+ * Modification times have the granularity of the file system,
+ * so changes made within the same time unit as the resolution may go unnoticed.
+ */
+class NodeJSResolveCache {
+
+    private static final Logger log = Logger.getLogger(NodeJSResolveCache.class);
+
+    private static final String HEADER = "# TAJS Node.js resolution cache, version 1";
+
+    private final Path file;
+
+    private final Map<String, Entry> entries = newMap();
+
+    /**
+     * Cached resolution.
+     */
+    static class Entry {
+
+        final Path result; // null if not found
+
+        final Map<Path, Long> dependencies;
+
+        Entry(Path result, Map<Path, Long> dependencies) {
+            this.result = result;
+            this.dependencies = dependencies;
+        }
+
+        boolean isValid() {
+            for (Map.Entry<Path, Long> me : dependencies.entrySet())
+                if (NodeJSResolver.getModificationTime(me.getKey()) != me.getValue())
+                    return false;
+            return true;
+        }
+    }
+
+    /**
+     * Constructs a cache backed by the given file, loading the existing entries.
+     */
+    NodeJSResolveCache(Path file) {
+        this.file = file;
+        try {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            if (lines.isEmpty() || !lines.get(0).equals(HEADER)) {
+                log.debug("Ignoring Node.js resolution cache with unknown format " + file);
+                return;
+            }
+            Iterator<String> it = lines.iterator();
+            it.next();
+            while (it.hasNext()) {
+                String[] entry = it.next().split("\t", -1);
+                if (entry.length != 5 || !entry[0].equals("R"))
+                    throw new IllegalArgumentException("Unexpected entry " + String.join(" ", entry));
+                Map<Path, Long> dependencies = newMap();
+                int n = Integer.parseInt(entry[4]);
+                for (int i = 0; i < n; i++) {
+                    String[] dep = it.next().split("\t", -1);
+                    if (dep.length != 3 || !dep[0].equals("D"))
+                        throw new IllegalArgumentException("Unexpected dependency " + String.join(" ", dep));
+                    dependencies.put(Paths.get(dep[1]), Long.parseLong(dep[2]));
+                }
+                entries.put(makeKey(entry[1], entry[2]), new Entry(entry[3].isEmpty() ? null : Paths.get(entry[3]), dependencies));
+            }
+        } catch (NoSuchFileException e) {
+            // no entries yet
+        } catch (IOException | RuntimeException e) {
+            log.debug("Ignoring unreadable Node.js resolution cache " + file + ": " + e);
+            entries.clear();
+        }
+    }
+
+    private static String makeKey(String dir, String arg) {
+        return dir + "\t" + arg;
+    }
+
+    /**
+     * Looks up the resolution of the given specifier from the given directory.
+     *
+     * @return null if not in the cache or no longer valid, otherwise the cached entry (whose result is null if not found)
+     */
+    Entry get(String arg, Path dir) {
+        Entry e = entries.get(makeKey(dir.toString(), arg));
+        return e != null && e.isValid() ? e : null;
+    }
+
+    /**
+     * Adds the resolution of the given specifier from the given directory.
+     */
+    void put(String arg, Path dir, Path result, Map<Path, Long> dependencies) {
+        entries.put(makeKey(dir.toString(), arg), new Entry(result, dependencies));
+        StringBuilder b = new StringBuilder();
+        b.append("R\t").append(dir).append('\t').append(arg).append('\t').append(result == null ? "" : result).append('\t').append(dependencies.size()).append('\n');
+        dependencies.forEach((p, t) -> b.append("D\t").append(p).append('\t').append(t).append('\n'));
+        try {
+            if (!Files.exists(file)) {
+                if (file.toAbsolutePath().getParent() != null)
+                    Files.createDirectories(file.toAbsolutePath().getParent());
+                b.insert(0, HEADER + "\n");
+            }
+            Files.write(file, b.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            log.debug("Unable to write Node.js resolution cache " + file + ": " + e);
+        }
+    }
+}
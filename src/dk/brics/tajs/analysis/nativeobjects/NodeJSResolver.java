@@ -0,0 +1,287 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package dk.brics.tajs.analysis.nativeobjects;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import dk.brics.tajs.util.AnalysisLimitationException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static dk.brics.tajs.util.Collections.newList;
+import static dk.brics.tajs.util.Collections.newMap;
+import static dk.brics.tajs.util.Collections.newSet;
+
+/**
+ * Implementation of the Node.js 'require.resolve' algorithm.
+ * <p>
+ * Supports core modules (which resolve to their own names, as in Node.js), relative and absolute paths,
+ * lookup in 'node_modules' directories, NODE_PATH and the home directory folders,
+ * the 'main' and 'exports' fields of 'package.json' (with the 'require', 'node', 'node-addons' and 'default' conditions and subpath patterns),
+ * and extension and index probing. Symbolic links in the resolved path are resolved, as done by Node.js by default.
+ * Package imports ('#...') and self-references by package name are not supported.
+ * <p>
+ * The paths examined during resolution are recorded together with their modification times,
+ * so results can be cached across runs (see {@link #getDependencies()}).
+ */
+public class NodeJSResolver {
+
+    private static final List<String> EXTENSIONS = Arrays.asList(".js", ".json", ".node");
+
+    private static final Set<String> CONDITIONS = newSet(Arrays.asList("require", "node", "node-addons", "default"));
+
+    private static final Set<String> CORE_MODULES = newSet(Arrays.asList(
+            "assert", "assert/strict", "async_hooks", "buffer", "child_process", "cluster", "console", "constants",
+            "crypto", "dgram", "diagnostics_channel", "dns", "dns/promises", "domain", "events", "fs", "fs/promises",
+            "http", "http2", "https", "inspector", "module", "net", "os", "path", "path/posix", "path/win32",
+            "perf_hooks", "process", "punycode", "querystring", "readline", "repl", "stream", "stream/promises",
+            "stream/web", "string_decoder", "sys", "timers", "timers/promises", "tls", "trace_events", "tty", "url",
+            "util", "util/types", "v8", "vm", "wasi", "worker_threads", "zlib"));
+
+    /**
+     * Paths whose contents affect the result, with their modification times (-1 for paths that do not exist).
+     */
+    private final Map<Path, Long> dependencies = newMap();
+
+    /**
+     * Resolves the given module specifier from the given directory.
+     *
+     * @return the resolved path, or null if the module cannot be found
+     * @throws AnalysisLimitationException.NodeJSRequireException if a 'package.json' file is invalid or does not export the given subpath
+     */
+    public Path resolve(String arg, Path dir) {
+        if (CORE_MODULES.contains(arg) || arg.startsWith("node:"))
+            return Paths.get(arg);
+        dir = dir.toAbsolutePath().normalize();
+        boolean dir_only = arg.endsWith("/");
+        if (arg.startsWith("/"))
+            return loadAsFileOrDirectory(dir.getRoot().resolve(arg).normalize(), dir_only);
+        if (arg.equals(".") || arg.equals("..") || arg.startsWith("./") || arg.startsWith("../"))
+            return loadAsFileOrDirectory(dir.resolve(arg).normalize(), dir_only);
+        for (Path node_modules : getNodeModulesPaths(dir)) {
+            Optional<Path> exported = loadPackageExports(arg, node_modules);
+            if (exported != null)
+                return exported.orElse(null);
+            Path res = loadAsFileOrDirectory(node_modules.resolve(arg).normalize(), dir_only);
+            if (res != null)
+                return res;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the paths that have been examined by this resolver, with their modification times.
+     * The results of the resolver are unchanged as long as the modification times are unchanged.
+     */
+    public Map<Path, Long> getDependencies() {
+        return Collections.unmodifiableMap(dependencies);
+    }
+
+    /**
+     * Returns the modification time of the given path, or -1 if it does not exist.
+     */
+    public static long getModificationTime(Path p) {
+        try {
+            return Files.getLastModifiedTime(p).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static List<Path> getNodeModulesPaths(Path dir) {
+        List<Path> res = newList();
+        for (Path p = dir; p != null; p = p.getParent())
+            if (p.getFileName() == null || !p.getFileName().toString().equals("node_modules"))
+                res.add(p.resolve("node_modules"));
+        String node_path = System.getenv("NODE_PATH");
+        if (node_path != null)
+            for (String s : node_path.split(File.pathSeparator))
+                if (!s.isEmpty())
+                    res.add(Paths.get(s).toAbsolutePath().normalize());
+        String home = System.getProperty("user.home");
+        if (home != null) {
+            res.add(Paths.get(home, ".node_modules"));
+            res.add(Paths.get(home, ".node_libraries"));
+        }
+        return res;
+    }
+
+    private Path loadAsFileOrDirectory(Path x, boolean dir_only) {
+        if (!dir_only) {
+            Path res = loadAsFile(x);
+            if (res != null)
+                return res;
+        }
+        return loadAsDirectory(x);
+    }
+
+    private Path loadAsFile(Path x) {
+        if (isFile(x))
+            return toRealPath(x);
+        if (x.getFileName() == null)
+            return null;
+        for (String ext : EXTENSIONS) {
+            Path p = x.resolveSibling(x.getFileName() + ext);
+            if (isFile(p))
+                return toRealPath(p);
+        }
+        return null;
+    }
+
+    private Path loadIndex(Path x) {
+        for (String ext : EXTENSIONS) {
+            Path p = x.resolve("index" + ext);
+            if (isFile(p))
+                return toRealPath(p);
+        }
+        return null;
+    }
+
+    private Path loadAsDirectory(Path x) {
+        Path package_json = x.resolve("package.json");
+        if (isFile(package_json)) {
+            JsonElement main = readPackageJson(package_json).get("main");
+            if (main != null && main.isJsonPrimitive() && !main.getAsString().isEmpty()) {
+                Path m = x.resolve(main.getAsString()).normalize();
+                Path res = loadAsFile(m);
+                if (res == null)
+                    res = loadIndex(m);
+                if (res == null)
+                    res = loadIndex(x);
+                return res;
+            }
+        }
+        return loadIndex(x);
+    }
+
+    /**
+     * Resolves the given specifier using the 'exports' field of the package in the given 'node_modules' directory.
+     *
+     * @return null if the package does not exist or has no 'exports' field,
+     * otherwise the resolved path or empty if the exported file does not exist
+     */
+    private Optional<Path> loadPackageExports(String arg, Path node_modules) {
+        String[] segments = arg.split("/", -1);
+        int name_length = arg.startsWith("@") ? 2 : 1;
+        if (segments.length < name_length)
+            return null;
+        String name = String.join("/", Arrays.asList(segments).subList(0, name_length));
+        String subpath = "." + arg.substring(name.length());
+        Path package_dir = node_modules.resolve(name).normalize();
+        Path package_json = package_dir.resolve("package.json");
+        if (!isFile(package_json))
+            return null;
+        JsonElement exports = readPackageJson(package_json).get("exports");
+        if (exports == null || exports.isJsonNull())
+            return null;
+        Path target = resolvePackageExports(package_dir, subpath, exports);
+        if (target == null)
+            throw new AnalysisLimitationException.NodeJSRequireException(String.format("Package subpath '%s' is not defined by \"exports\" in %s", subpath, package_json));
+        return isFile(target) ? Optional.of(toRealPath(target)) : Optional.empty();
+    }
+
+    private static Path resolvePackageExports(Path package_dir, String subpath, JsonElement exports) {
+        if (!exports.isJsonObject() || exports.getAsJsonObject().entrySet().stream().noneMatch(e -> e.getKey().startsWith(".")))
+            return subpath.equals(".") ? resolvePackageTarget(package_dir, exports, null) : null;
+        JsonObject subpaths = exports.getAsJsonObject();
+        JsonElement target = subpaths.get(subpath);
+        if (target != null && !subpath.contains("*"))
+            return resolvePackageTarget(package_dir, target, null);
+        String best_key = null;
+        String best_match = null;
+        for (Map.Entry<String, JsonElement> e : subpaths.entrySet()) {
+            String key = e.getKey();
+            int star = key.indexOf('*');
+            if (star == -1 || key.indexOf('*', star + 1) != -1)
+                continue;
+            String prefix = key.substring(0, star);
+            String suffix = key.substring(star + 1);
+            if (subpath.length() >= key.length() && subpath.startsWith(prefix) && subpath.endsWith(suffix) &&
+                    (best_key == null || star > best_key.indexOf('*') || (star == best_key.indexOf('*') && key.length() > best_key.length()))) {
+                best_key = key;
+                best_match = subpath.substring(prefix.length(), subpath.length() - suffix.length());
+            }
+        }
+        return best_key != null ? resolvePackageTarget(package_dir, subpaths.get(best_key), best_match) : null;
+    }
+
+    private static Path resolvePackageTarget(Path package_dir, JsonElement target, String pattern_match) {
+        if (target.isJsonPrimitive()) {
+            String t = target.getAsString();
+            if (!t.startsWith("./"))
+                return null;
+            if (pattern_match != null)
+                t = t.replace("*", pattern_match);
+            Path res = package_dir.resolve(t).normalize();
+            return res.startsWith(package_dir) ? res : null;
+        } else if (target.isJsonArray()) {
+            for (JsonElement t : target.getAsJsonArray()) {
+                Path res = resolvePackageTarget(package_dir, t, pattern_match);
+                if (res != null)
+                    return res;
+            }
+        } else if (target.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> e : target.getAsJsonObject().entrySet())
+                if (CONDITIONS.contains(e.getKey())) {
+                    Path res = resolvePackageTarget(package_dir, e.getValue(), pattern_match);
+                    if (res != null)
+                        return res;
+                }
+        }
+        return null;
+    }
+
+    private JsonObject readPackageJson(Path package_json) {
+        dependencies.put(package_json, getModificationTime(package_json));
+        try (Reader r = Files.newBufferedReader(package_json, StandardCharsets.UTF_8)) {
+            JsonElement json = new JsonParser().parse(r);
+            return json.isJsonObject() ? json.getAsJsonObject() : new JsonObject();
+        } catch (IOException | JsonParseException e) {
+            throw new AnalysisLimitationException.NodeJSRequireException("Invalid package.json " + package_json + ": " + e.getMessage());
+        }
+    }
+
+    private boolean isFile(Path p) {
+        Path parent = p.getParent();
+        if (parent != null)
+            dependencies.computeIfAbsent(parent, NodeJSResolver::getModificationTime);
+        return Files.isRegularFile(p);
+    }
+
+    private static Path toRealPath(Path p) {
+        try {
+            return p.toRealPath();
+        } catch (IOException e) {
+            return p;
+        }
+    }
+}
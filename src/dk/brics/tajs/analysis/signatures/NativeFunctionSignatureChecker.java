@@ -60,7 +60,7 @@ import static dk.brics.tajs.util.Collections.singleton;
  */
 public class NativeFunctionSignatureChecker {
 
-    private static NativeFunctionSignatureChecker instance;
+    private static volatile NativeFunctionSignatureChecker instance; // immutable, shared by all analysis sessions
 
     /**
      * The supported signatures.
@@ -72,10 +72,15 @@ public class NativeFunctionSignatureChecker {
     }
 
     public static NativeFunctionSignatureChecker get() {
-        if (instance == null) {
-            instance = new NativeFunctionSignatureChecker(); // TODO avoid singleton pattern. Initialize this during initial state building
+        NativeFunctionSignatureChecker c = instance;
+        if (c == null) {
+            synchronized (NativeFunctionSignatureChecker.class) {
+                c = instance;
+                if (c == null)
+                    instance = c = new NativeFunctionSignatureChecker(); // TODO avoid singleton pattern. Initialize this during initial state building
+            }
         }
-        return instance;
+        return c;
     }
 
     /**
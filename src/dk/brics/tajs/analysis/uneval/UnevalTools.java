@@ -41,6 +41,7 @@ import dk.brics.tajs.lattice.State;
 import dk.brics.tajs.lattice.UnknownValueResolver;
 import dk.brics.tajs.lattice.Value;
 import dk.brics.tajs.unevalizer.AnalyzerCallback;
+import dk.brics.tajs.util.AnalysisSession;
 import dk.brics.tajs.util.Collections;
 import dk.brics.tajs.util.Strings;
 
@@ -453,9 +454,10 @@ public class UnevalTools {
         return res.isEmpty() ? null : res;
     }
 
-    private static Set<String> usedGenSyms = newSet();
+    private static final AnalysisSession.Slot<Set<String>> usedGenSyms = AnalysisSession.newSlot(() -> newSet());
 
     public static String gensym() {
+        Set<String> usedGenSyms = AnalysisSession.current().get(UnevalTools.usedGenSyms);
         String gensym;
         while (usedGenSyms.contains(gensym = "a" + Strings.randomString(10))) ;
         usedGenSyms.add(gensym);
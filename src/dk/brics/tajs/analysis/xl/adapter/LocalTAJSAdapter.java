@@ -1,12 +1,14 @@
 package dk.brics.tajs.analysis.xl.adapter;
 
+import dk.brics.tajs.util.AnalysisSession;
+
 public class LocalTAJSAdapter {
 
-    private static TajsAdapter tajsAdapter;
+    private static final AnalysisSession.Slot<TajsAdapter> tajsAdapter = AnalysisSession.newSlot(() -> null);
 
         public static void setLocalTAJSAdapter(TajsAdapter tajsAdapter){
-            LocalTAJSAdapter.tajsAdapter = tajsAdapter;
+            AnalysisSession.current().set(LocalTAJSAdapter.tajsAdapter, tajsAdapter);
         }
 
-        public static TajsAdapter getLocalTajsAdapter(){return tajsAdapter;}
+        public static TajsAdapter getLocalTajsAdapter(){return AnalysisSession.current().get(tajsAdapter);}
 }
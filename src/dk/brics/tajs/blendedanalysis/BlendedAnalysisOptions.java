@@ -16,23 +16,23 @@
 
 package dk.brics.tajs.blendedanalysis;
 
+import dk.brics.tajs.util.AnalysisSession;
+
 import java.io.Serializable;
 
 public class BlendedAnalysisOptions implements Serializable {
 
-    private static BlendedAnalysisOptionValues blendedAnalysisOptionValues;
+    private static final AnalysisSession.Slot<BlendedAnalysisOptionValues> blendedAnalysisOptionValues = AnalysisSession.newSlot(BlendedAnalysisOptionValues::new);
 
     public static BlendedAnalysisOptionValues get() {
-        if(blendedAnalysisOptionValues == null)
-            blendedAnalysisOptionValues = new BlendedAnalysisOptionValues();
-        return blendedAnalysisOptionValues;
+        return AnalysisSession.current().get(blendedAnalysisOptionValues);
     }
 
     public static void set(BlendedAnalysisOptionValues blendedAnalysisOptionValues) {
-        BlendedAnalysisOptions.blendedAnalysisOptionValues = blendedAnalysisOptionValues;
+        AnalysisSession.current().set(BlendedAnalysisOptions.blendedAnalysisOptionValues, blendedAnalysisOptionValues);
     }
 
     public static void reset() {
-        blendedAnalysisOptionValues = null;
+        AnalysisSession.current().clear(blendedAnalysisOptionValues);
     }
 }
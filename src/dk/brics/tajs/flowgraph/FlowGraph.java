@@ -32,6 +32,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
+import static dk.brics.tajs.util.Collections.addAllToMapSet;
 import static dk.brics.tajs.util.Collections.newList;
 import static dk.brics.tajs.util.Collections.newMap;
 import static dk.brics.tajs.util.Collections.newSet;
@@ -297,7 +298,7 @@ public class FlowGraph {
         this.rawSyntacticInformation.getConditionRefinedArgumentVariables().putAll(rawSyntacticInformation.getConditionRefinedArgumentVariables());
         this.rawSyntacticInformation.getStackVariables().putAll(rawSyntacticInformation.getStackVariables());
         this.rawSyntacticInformation.getFunctionClosureVariables().putAll(rawSyntacticInformation.getFunctionClosureVariables());
-        this.rawSyntacticInformation.getFunctionClosureVariablesTransitively().putAll(rawSyntacticInformation.getFunctionClosureVariablesTransitively());
+        rawSyntacticInformation.getFunctionClosureVariablesTransitively().forEach((f, vs) -> addAllToMapSet(this.rawSyntacticInformation.getFunctionClosureVariablesTransitively(), f, vs)); // extensions may add to outer functions
         this.rawSyntacticInformation.getFunctionsWithThisReference().addAll(rawSyntacticInformation.getFunctionsWithThisReference());
 
         this.valueLogLocationInformation.getDeclaredAccessorAllocationSites().addAll(valueLogLocationInformation.getDeclaredAccessorAllocationSites());
@@ -29,6 +29,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static dk.brics.tajs.util.Collections.newList;
 import static dk.brics.tajs.util.Collections.newSet;
@@ -39,6 +40,11 @@ import static dk.brics.tajs.util.Collections.newSet;
  */
 public class Function implements Serializable {
 
+    /**
+     * Incremented whenever the block orders of a function are (re)computed.
+     */
+    private static final AtomicInteger block_order_generation = new AtomicInteger();
+
     /**
      * Unique index of this function in the flow graph, or -1 if not belonging to a flow graph.
      */
@@ -386,10 +392,18 @@ public class Function implements Serializable {
         return max_register;
     }
 
+    /**
+     * Returns a number that changes whenever the block orders of some function are (re)computed by {@link #complete()}.
+     */
+    public static int getBlockOrderGeneration() {
+        return block_order_generation.get();
+    }
+
     /**
      * Sets the block orders. Call after construction or modification of the function.
      */
     public void complete() {
+        block_order_generation.incrementAndGet();
         // Force the ordinary and exceptional exit to be last, it produces prettier dotfiles without changing anything else
         Set<BasicBlock> topologicalBlocks = newSet(blocks);
         Set<BasicBlock> nonTopologicalBlocks = newSet(Arrays.asList(ordinary_exit, exceptional_exit));
@@ -126,9 +126,11 @@ public class SourceLocation implements DeepImmutable, Serializable {
 
     @Override
     public boolean equals(Object o) {
-        if (!Canonicalizer.get().isCanonicalizing())
-            return this == o;
+        return this == o;
+    }
 
+    @Override
+    public boolean canonicalEquals(Object o) {
         if (this == o) return true;
         if (!(o instanceof SourceLocation)) return false;
 
@@ -157,6 +159,13 @@ public class SourceLocation implements DeepImmutable, Serializable {
         return hashCode;
     }
 
+    /**
+     * Canonicalizes deserialized source locations (and recomputes the hash code, which depends on enum identity hashes).
+     */
+    private Object readResolve() {
+        return Canonicalizer.get().canonicalize(new SourceLocation(customName, location, lineNumber, columnNumber, endLineNumber, endColumnNumber, loaderLocation, kind));
+    }
+
     /**
      * Returns the source line number.
      * 0 means "no number".
@@ -49,6 +49,7 @@ import dk.brics.tajs.js2flowgraph.JavaScriptParser.ParseResult;
 import dk.brics.tajs.js2flowgraph.JavaScriptParser.SyntaxMesssage;
 import dk.brics.tajs.options.Options;
 import dk.brics.tajs.util.AnalysisException;
+import dk.brics.tajs.util.AnalysisSession;
 import dk.brics.tajs.util.Collections;
 import dk.brics.tajs.util.Collectors;
 import dk.brics.tajs.util.Pair;
@@ -111,6 +112,19 @@ public class FlowGraphBuilder {
      * @param fab function/block manager
      */
     public FlowGraphBuilder(AstEnv env, FunctionAndBlockManager fab) {
+        this(env, fab, new RawSyntacticInformation(), new ValueLogLocationInformation());
+    }
+
+    /**
+     * Constructs a flow graph builder that continues with a fragment loaded from a {@link FlowGraphCache}.
+     * @param env traversal environment
+     * @param fragment the fragment
+     */
+    FlowGraphBuilder(AstEnv env, FlowGraphCache.Fragment fragment) {
+        this(env, fragment.functionAndBlocksManager, fragment.syntacticInformation, fragment.valueLogLocationInformation);
+    }
+
+    private FlowGraphBuilder(AstEnv env, FunctionAndBlockManager fab, RawSyntacticInformation syntacticInformation, ValueLogLocationInformation valueLogMappingInformation) {
         assert env != null;
         assert fab != null;
         functionAndBlocksManager = fab;
@@ -118,8 +132,8 @@ public class FlowGraphBuilder {
         initialEnv = env;
         parser = new JavaScriptParser(mode, strict);
         processed = TranslationResult.makeAppendBlock(initialEnv.getAppendBlock());
-        syntacticInformation = new RawSyntacticInformation();
-        valueLogMappingInformation = new ValueLogLocationInformation();
+        this.syntacticInformation = syntacticInformation;
+        this.valueLogMappingInformation = valueLogMappingInformation;
     }
 
     /**
@@ -137,12 +151,31 @@ public class FlowGraphBuilder {
      * @param columnOffset number of columns preceding the first line of the code
      */
     Function transformCode(String source, int lineOffset, int columnOffset, SourceLocationMaker sourceLocationMaker) {
+        return transformCode(makeAST(source, lineOffset, columnOffset, sourceLocationMaker), sourceLocationMaker);
+    }
+
+    private Function transformCode(ProgramTree t, SourceLocationMaker sourceLocationMaker) {
         final AstEnv env = initialEnv.makeAppendBlock(processed.getAppendBlock());
-        ProgramTree t = makeAST(source, lineOffset, columnOffset, sourceLocationMaker);
         processed = new FunctionBuilder(astInfo, functionAndBlocksManager, sourceLocationMaker, makeSyntacticAnalysis()).process(t, env);
         return processed.getAppendBlock().getFunction();
     }
 
+    /**
+     * Transforms the given stand-alone JavaScript source codes and appends them to the main function, in the given order.
+     * The sources are parsed concurrently, and the resulting flow graph is the same as when transforming them one at a time.
+     *
+     * @param sources the source codes and their source location makers
+     */
+    public List<Function> transformStandAloneCode(List<Pair<String, SourceLocationMaker>> sources) {
+        List<ProgramTree> trees = makeASTs(sources.stream()
+                .map(s -> new ParseTask(s.getFirst(), 0, 0, s.getSecond()))
+                .collect(Collectors.toList()));
+        List<Function> res = newList();
+        for (int i = 0; i < sources.size(); i++)
+            res.add(transformCode(trees.get(i), sources.get(i).getSecond()));
+        return res;
+    }
+
     /**
      * Parses the given JavaScript code.
      */
@@ -150,23 +183,83 @@ public class FlowGraphBuilder {
         if (closed) {
             throw new RuntimeException("Already closed.");
         }
+        return addAST(parse(new ParseTask(sourceContent, lineOffset, columnOffset, sourceLocationMaker)));
+    }
 
+    /**
+     * Parses the given JavaScript codes concurrently.
+     * The ASTs are returned, and their parse messages reported, in the given order.
+     */
+    private List<ProgramTree> makeASTs(List<ParseTask> tasks) {
+        if (closed) {
+            throw new RuntimeException("Already closed.");
+        }
+        AnalysisSession session = AnalysisSession.current();
+        List<ParseResult> parseResults = tasks.parallelStream()
+                .map(t -> parseInSession(session, t))
+                .collect(Collectors.toList());
+        List<ProgramTree> res = newList();
+        for (ParseResult parseResult : parseResults)
+            res.add(addAST(parseResult));
+        return res;
+    }
+
+    private ParseResult parseInSession(AnalysisSession session, ParseTask task) {
+        try {
+            return session.call(() -> parse(task));
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Exception e) {
+            throw new AnalysisException(e);
+        }
+    }
+
+    /**
+     * Parses the given JavaScript code without updating the builder (may be called concurrently).
+     */
+    private ParseResult parse(ParseTask task) {
         // add line/column offsets (a bit hacky - but it avoids other silly encodings or extra fields)
         StringBuilder s = new StringBuilder();
-        for (int i = 0; i < lineOffset; i++) {
+        for (int i = 0; i < task.lineOffset; i++) {
             s.append("\n");
         }
-        for (int i = 0; i < columnOffset; i++) {
+        for (int i = 0; i < task.columnOffset; i++) {
             s.append(" ");
         }
-        s.append(sourceContent);
+        s.append(task.sourceContent);
+        return parser.parse(s.toString(), task.sourceLocationMaker);
+    }
 
-        ParseResult parseResult = parser.parse(s.toString(), sourceLocationMaker);
+    /**
+     * Reports the parse messages and records the AST information of the given parse result.
+     */
+    private ProgramTree addAST(ParseResult parseResult) {
         reportParseMessages(parseResult);
         astInfo.updateWith(parseResult.getProgramAST());
         return parseResult.getProgramAST();
     }
 
+    /**
+     * JavaScript code to be parsed.
+     */
+    private static class ParseTask {
+
+        final String sourceContent;
+
+        final int lineOffset;
+
+        final int columnOffset;
+
+        final SourceLocationMaker sourceLocationMaker;
+
+        ParseTask(String sourceContent, int lineOffset, int columnOffset, SourceLocationMaker sourceLocationMaker) {
+            this.sourceContent = sourceContent;
+            this.lineOffset = lineOffset;
+            this.columnOffset = columnOffset;
+            this.sourceLocationMaker = sourceLocationMaker;
+        }
+    }
+
     /**
      * Reports parse errors and warnings to the log.
      *
@@ -191,21 +284,48 @@ public class FlowGraphBuilder {
      * Transforms the given web application JavaScript source code.
      */
     public Function transformWebAppCode(JavaScriptSource s, SourceLocationMaker sourceLocationMaker) {
+        ParseTask task = makeParseTask(s, sourceLocationMaker);
+        return transformWebAppCode(s, makeAST(task.sourceContent, task.lineOffset, task.columnOffset, sourceLocationMaker), sourceLocationMaker);
+    }
+
+    /**
+     * Transforms the given web application JavaScript source codes, in the given order.
+     * The sources are parsed concurrently, and the resulting flow graph is the same as when transforming them one at a time.
+     *
+     * @param sources the source codes and their source location makers
+     */
+    public List<Function> transformWebAppCode(List<Pair<JavaScriptSource, SourceLocationMaker>> sources) {
+        List<ProgramTree> trees = makeASTs(sources.stream()
+                .map(s -> makeParseTask(s.getFirst(), s.getSecond()))
+                .collect(Collectors.toList()));
+        List<Function> res = newList();
+        for (int i = 0; i < sources.size(); i++)
+            res.add(transformWebAppCode(sources.get(i).getFirst(), trees.get(i), sources.get(i).getSecond()));
+        return res;
+    }
+
+    private static ParseTask makeParseTask(JavaScriptSource s, SourceLocationMaker sourceLocationMaker) {
+        if (s.getKind() == JavaScriptSource.Kind.FILE)
+            return new ParseTask(s.getCode(), 0, 0, sourceLocationMaker);
+        return new ParseTask(s.getCode(), s.getLineOffset(), s.getColumnOffset(), sourceLocationMaker);
+    }
+
+    private Function transformWebAppCode(JavaScriptSource s, ProgramTree tree, SourceLocationMaker sourceLocationMaker) {
         switch (s.getKind()) {
 
             case FILE: { // TODO: (#119) processing order of external JavaScript files (sync/async loading...)
                 // TODO: (#119) should be added as a load event, but that does not work currently...
                 // Function function = processFunctionBody(Collections.<String>newList(), s.getFileName(), s.getJavaScript(), 0, initialEnv);
                 // eventHandlers.add(Pair.make(function, EventHandlerKind.DOM_LOAD));
-                return transformStandAloneCode(s.getCode(), sourceLocationMaker);
+                return transformCode(tree, sourceLocationMaker);
             }
 
             case EMBEDDED: { // TODO: (#119) currently ignoring events during page load (unsound)
-                return transformCode(s.getCode(), s.getLineOffset(), s.getColumnOffset(), sourceLocationMaker);
+                return transformCode(tree, sourceLocationMaker);
             }
 
             case EVENTHANDLER: {
-                Function function = transformFunctionBody(s.getCode(), s.getLineOffset(), s.getColumnOffset(), initialEnv, sourceLocationMaker);
+                Function function = transformFunctionBody(tree, initialEnv, sourceLocationMaker);
                 function.getNode().setDomEventType(s.getEventKind());
                 return function;
             }
@@ -219,8 +339,7 @@ public class FlowGraphBuilder {
      *
      * @return the new function
      */
-    private Function transformFunctionBody(String sourceContent, int lineOffset, int columnOffset, AstEnv env, SourceLocationMaker sourceLocationMaker) {
-        ProgramTree tree = makeAST(sourceContent, lineOffset, columnOffset, sourceLocationMaker);
+    private Function transformFunctionBody(ProgramTree tree, AstEnv env, SourceLocationMaker sourceLocationMaker) {
         FormalParameterListTree params = new FormalParameterListTree(tree.location, ImmutableList.of());
         return new FunctionBuilder(astInfo, functionAndBlocksManager, sourceLocationMaker, makeSyntacticAnalysis()).processFunctionDeclaration(Kind.DECLARATION, null, params, tree, env, makeSourceLocation(tree, sourceLocationMaker), null);
     }
@@ -277,11 +396,98 @@ public class FlowGraphBuilder {
         }
         flowGraph.getFunctions().forEach(f -> setEntryBlocks(f, functionAndBlocksManager));
 
-        // bypass empty basic blocks
+        bypassEmptyBlocks(blocksAndFunctions.getSecond());
+
+        // add each non-empty basic block to the flow graph
+        for (BasicBlock b : blocksAndFunctions.getSecond()) {
+            if (!b.isEmpty()) {
+                flowGraph.addBlock(b);
+            }
+        }
+
+        // complete links from end-for-in nodes to begin-for-in nodes (cannot be done at constructor time due to later cloning)
+        linkForInNodes(flowGraph.getFunctions());
+
+        // set block orders
+        flowGraph.complete();
+
+        // Avoid changes to block- & node-indexes due to a change in a hostenv-source.
+        // (dynamically added code from eval et. al will still change)
+        List<Function> sortedFunctions = newList(flowGraph.getFunctions());
+        FlowGraph finalFlowGraph = flowGraph;
+        sortedFunctions.sort((f1, f2) -> {
+            boolean f1host = finalFlowGraph.isHostEnvironmentSource(f1.getSourceLocation());
+            boolean f2host = finalFlowGraph.isHostEnvironmentSource(f2.getSourceLocation());
+            if (f1host != f2host) {
+                return f1host ? 1 : -1;
+            }
+            return SourceLocation.Comparator.compareStatic(f1.getSourceLocation(), f2.getSourceLocation());
+        });
+        assignIndices(sortedFunctions, origBlockCount, origNodeCount);
+
+        return flowGraph;
+    }
+
+    /**
+     * Constructs the body of a function whose construction has been postponed, and adds it to the given flow graph.
+     * Unlike {@link #close(FlowGraph, BasicBlock)}, only the function and the functions declared in its body are revisited.
+     */
+    static void addLazyFunctionBody(FlowGraph flowGraph, Function function, LazyFunctionBodies.Body body) {
+        FunctionAndBlockManager fab = new FunctionAndBlockManager();
+        BasicBlock declarationBlock = makeBasicBlock(function.getExceptionalExit(), fab);
+        BasicBlock firstBodyBlock = makeBasicBlock(function.getExceptionalExit(), fab);
+        declarationBlock.addSuccessor(firstBodyBlock);
+        AstEnv env = body.env.makeDeclarationBlock(declarationBlock).makeAppendBlock(firstBodyBlock);
+        FlowGraphBuilder builder = new FlowGraphBuilder(env, fab);
+        builder.astInfo = body.astInfo;
+        SyntacticAnalysis syntacticAnalysis = builder.makeSyntacticAnalysis();
+        builder.processed = new FunctionBuilder(body.astInfo, fab, body.sourceLocationMaker, syntacticAnalysis).process(body.tree.functionBody, env);
+        builder.processed.getAppendBlock().addSuccessor(function.getOrdinaryExit());
+        syntacticAnalysis.registerStackVariables(function, body.tree, body.astInfo); // the variable names are now known
+        function.setMaxRegister(env.getRegisterManager().getRegister());
+        function.getEntry().removeSuccessor(function.getOrdinaryExit());
+        function.getEntry().addSuccessor(declarationBlock);
+        builder.closeFunctionBody(flowGraph, function);
+    }
+
+    private void closeFunctionBody(FlowGraph flowGraph, Function function) {
+        closed = true;
+        flowGraph.addSyntacticInformation(syntacticInformation, valueLogMappingInformation);
+
+        int origBlockCount = flowGraph.getNumberOfBlocks();
+        int origNodeCount = flowGraph.getNumberOfNodes();
+
+        Pair<List<Function>, List<BasicBlock>> blocksAndFunctions = functionAndBlocksManager.close();
+        List<Function> functions = newList();
+        functions.add(function);
+        for (Function f : blocksAndFunctions.getFirst()) {
+            flowGraph.addFunction(f);
+            functions.add(f);
+        }
+        functions.forEach(f -> setEntryBlocks(f, functionAndBlocksManager));
+
+        List<BasicBlock> blocks = newList(blocksAndFunctions.getSecond());
+        blocks.add(function.getEntry()); // the entry block now leads to the new blocks
+        bypassEmptyBlocks(blocks);
+        for (BasicBlock b : blocksAndFunctions.getSecond()) {
+            if (!b.isEmpty()) {
+                flowGraph.addBlock(b);
+            }
+        }
+
+        linkForInNodes(functions);
+        functions.forEach(Function::complete);
+        assignIndices(functions, origBlockCount, origNodeCount);
+    }
+
+    /**
+     * Bypasses the empty basic blocks that are successors of the given blocks.
+     */
+    private static void bypassEmptyBlocks(List<BasicBlock> blocks) {
         boolean changed;
         do {
             changed = false;
-            for (BasicBlock b1 : blocksAndFunctions.getSecond()) {
+            for (BasicBlock b1 : blocks) {
                 for (BasicBlock b2 : newList(b1.getSuccessors())) {
                     // b1 has an ordinary edge to b2
                     if (b2.isEmpty()) {
@@ -307,17 +513,14 @@ public class FlowGraphBuilder {
                 }
             }
         } while (changed);
+    }
 
-        // add each non-empty basic block to the flow graph
-        for (BasicBlock b : blocksAndFunctions.getSecond()) {
-            if (!b.isEmpty()) {
-                flowGraph.addBlock(b);
-            }
-        }
-
-        // complete links from end-for-in nodes to begin-for-in nodes (cannot be done at constructor time due to later cloning)
+    /**
+     * Completes the links from end-for-in nodes to begin-for-in nodes in the given functions.
+     */
+    private static void linkForInNodes(Collection<Function> functions) {
         Collection<EndForInNode> ends = newList();
-        for (Function f : flowGraph.getFunctions()) {
+        for (Function f : functions) {
             for (BasicBlock b : f.getBlocks()) {
                 for (AbstractNode n : b.getNodes()) {
                     if (n instanceof EndForInNode) {
@@ -332,25 +535,13 @@ public class FlowGraphBuilder {
         for (EndForInNode end : ends) {
             end.getBeginNode().getEndNodes().add(end);
         }
+    }
 
-        // set block orders
-        flowGraph.complete();
-
-        // Avoid changes to block- & node-indexes due to a change in a hostenv-source.
-        // (dynamically added code from eval et. al will still change)
-        List<Function> sortedFunctions = newList(flowGraph.getFunctions());
-        FlowGraph finalFlowGraph = flowGraph;
-        sortedFunctions.sort((f1, f2) -> {
-            boolean f1host = finalFlowGraph.isHostEnvironmentSource(f1.getSourceLocation());
-            boolean f2host = finalFlowGraph.isHostEnvironmentSource(f2.getSourceLocation());
-            if (f1host != f2host) {
-                return f1host ? 1 : -1;
-            }
-            return SourceLocation.Comparator.compareStatic(f1.getSourceLocation(), f2.getSourceLocation());
-        });
-        int nodeCount = origNodeCount;
-        int blockCount = origBlockCount;
-        for (Function function : sortedFunctions) {
+    /**
+     * Sets the index on each new basic block and node in the given functions, in the given order.
+     */
+    private static void assignIndices(List<Function> functions, int blockCount, int nodeCount) {
+        for (Function function : functions) {
             List<BasicBlock> blocks = newList(function.getBlocks());
             blocks.sort(Comparator.comparingInt(BasicBlock::getTopologicalOrder));
 
@@ -364,8 +555,6 @@ public class FlowGraphBuilder {
                     }
             }
         }
-
-        return flowGraph;
     }
 
     /**
@@ -569,6 +758,16 @@ public class FlowGraphBuilder {
         return astInfo;
     }
 
+    /**
+     * Returns the fragment built so far, for storing in a {@link FlowGraphCache}.
+     * Must be called before {@link #close(FlowGraph, BasicBlock)}.
+     */
+    FlowGraphCache.Fragment makeFragment(Function function) {
+        if (closed)
+            throw new AnalysisException("Already closed");
+        return new FlowGraphCache.Fragment(function, functionAndBlocksManager, syntacticInformation, valueLogMappingInformation);
+    }
+
     /**
      * Creates a call to a function that defines and calls functions containing the host function sources.
      *
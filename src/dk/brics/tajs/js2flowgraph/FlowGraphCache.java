@@ -0,0 +1,304 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.brics.tajs.js2flowgraph;
+
+import dk.brics.tajs.flowgraph.Function;
+import dk.brics.tajs.flowgraph.SourceLocation;
+import dk.brics.tajs.flowgraph.SourceLocation.SourceLocationMaker;
+import dk.brics.tajs.flowgraph.ValueLogLocationInformation;
+import dk.brics.tajs.flowgraph.syntaticinfo.RawSyntacticInformation;
+import dk.brics.tajs.options.Options;
+import dk.brics.tajs.util.AnalysisException;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static dk.brics.tajs.util.Collections.newSet;
+
+/**
+ * Persistent on-disk cache of flow graph fragments for top-level functions loaded from files
+ * (host environment models, polyfills, and Node.js modules).
+ * <p>
+ * An entry is keyed by the SHA-256 of the source code, the parameter names, the source location, and the options
+ * that affect flow graph construction. It contains the Java serialization of the fragment as it is before being added
+ * to a flow graph (see {@link FlowGraphBuilder#close(dk.brics.tajs.flowgraph.FlowGraph, dk.brics.tajs.flowgraph.BasicBlock)}),
+ * so block and node indices are assigned as usual when the fragment is added.
+ * The main function of the enclosing flow graph is written as a placeholder and resolved when the entry is read.
+ * Entries that cannot be read, for example after changes to the flow graph classes, are ignored and rebuilt.
+ */
+class FlowGraphCache {
+
+    private static final Logger log = Logger.getLogger(FlowGraphCache.class);
+
+    /**
+     * Version of the cache format. Must be increased when flow graph construction changes without changing the serialized classes.
+     */
+    private static final int VERSION = 1;
+
+    private final Path dir;
+
+    private FlowGraphCache(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Returns the cache selected by the options, or null if caching is disabled.
+     */
+    static FlowGraphCache get() {
+        String dir = Options.get().getFlowGraphCacheDir();
+        if (dir == null)
+            return null;
+        return new FlowGraphCache(Paths.get(dir));
+    }
+
+    /**
+     * Flow graph fragment that has been built but not yet added to a flow graph.
+     */
+    static class Fragment implements Serializable {
+
+        final Function function;
+
+        final FunctionAndBlockManager functionAndBlocksManager;
+
+        final RawSyntacticInformation syntacticInformation;
+
+        final ValueLogLocationInformation valueLogLocationInformation;
+
+        Fragment(Function function, FunctionAndBlockManager functionAndBlocksManager, RawSyntacticInformation syntacticInformation, ValueLogLocationInformation valueLogLocationInformation) {
+            this.function = function;
+            this.functionAndBlocksManager = functionAndBlocksManager;
+            this.syntacticInformation = syntacticInformation;
+            this.valueLogLocationInformation = valueLogLocationInformation;
+        }
+    }
+
+    /**
+     * Computes the cache key for a top-level function.
+     */
+    String makeKey(List<String> parameterNames, String source, SourceLocationMaker sourceLocationMaker) {
+        SourceLocation loc = sourceLocationMaker.makeUnspecifiedPosition();
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AnalysisException(e);
+        }
+        StringBuilder b = new StringBuilder();
+        b.append(VERSION).append('\0');
+        b.append(Options.get().isNoStrictEnabled()).append('\0');
+        b.append(Options.get().isUnevalizerEnabled()).append('\0');
+        b.append(Options.get().isDeterministicCollectionsEnabled()).append('\0');
+        b.append(loc.getKind()).append('\0').append(loc.getLocation()).append('\0').append(loc.toUserFriendlyString(false)).append('\0');
+        for (String p : parameterNames)
+            b.append(p).append('\0');
+        md.update(b.toString().getBytes(StandardCharsets.UTF_8));
+        md.update(source.getBytes(StandardCharsets.UTF_8));
+        StringBuilder key = new StringBuilder();
+        for (byte x : md.digest())
+            key.append(String.format("%02x", x));
+        return key.toString();
+    }
+
+    /**
+     * Loads the fragment with the given key, or returns null if not in the cache.
+     * The entry file is memory-mapped.
+     */
+    Fragment load(String key, Function main) {
+        Path file = dir.resolve(key + ".fg");
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            try (FragmentInputStream in = new FragmentInputStream(new ByteBufferInputStream(buf), main)) {
+                if (in.readInt() != VERSION)
+                    return null;
+                Fragment fragment = (Fragment) in.readObject();
+                if (log.isDebugEnabled())
+                    log.debug("Loaded flow graph fragment " + file);
+                return fragment;
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            log.debug("Ignoring unreadable flow graph cache entry " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the given fragment.
+     * The entry is written to a temporary file and then moved into place, so concurrent readers never see partial entries.
+     */
+    void store(String key, Fragment fragment, Function main) {
+        Path file = dir.resolve(key + ".fg");
+        Path tmp = null;
+        try {
+            Files.createDirectories(dir);
+            tmp = Files.createTempFile(dir, key, ".tmp");
+            try (FragmentOutputStream out = new FragmentOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)), main)) {
+                out.writeInt(VERSION);
+                out.writeObject(fragment);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+        } catch (IOException e) {
+            log.debug("Unable to write flow graph cache entry " + file + ": " + e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Placeholder for the main function of the enclosing flow graph.
+     */
+    private enum MainFunctionPlaceholder {
+        INSTANCE
+    }
+
+    private static class FragmentOutputStream extends ObjectOutputStream {
+
+        private final Function main;
+
+        FragmentOutputStream(OutputStream out, Function main) throws IOException {
+            super(out);
+            this.main = main;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) {
+            return obj == main ? MainFunctionPlaceholder.INSTANCE : obj;
+        }
+    }
+
+    private static class FragmentInputStream extends ObjectInputStream {
+
+        private final Function main;
+
+        FragmentInputStream(InputStream in, Function main) throws IOException {
+            super(in);
+            this.main = main;
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) {
+            return obj == MainFunctionPlaceholder.INSTANCE ? main : obj;
+        }
+
+        /**
+         * Only resolves the classes that flow graph fragments consist of, so a tampered entry cannot instantiate other classes.
+         */
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!isAllowed(desc.getName()))
+                throw new InvalidClassException(desc.getName(), "Class not allowed in flow graph cache entry");
+            return super.resolveClass(desc);
+        }
+
+        private static boolean isAllowed(String name) {
+            int dims = 0;
+            while (name.charAt(dims) == '[')
+                dims++;
+            if (dims > 0) {
+                if (name.charAt(dims) != 'L')
+                    return true; // array of primitives
+                name = name.substring(dims + 1, name.length() - 1);
+            }
+            if (name.startsWith("dk.brics.tajs."))
+                return true;
+            if (name.startsWith("java.util.") && name.indexOf('.', "java.util.".length()) == -1)
+                return true; // collections, including the nested classes of java.util.Collections
+            return ALLOWED_CLASSES.contains(name);
+        }
+    }
+
+    private static final Set<String> ALLOWED_CLASSES = newSet(Arrays.asList(
+            Object.class.getName(),
+            String.class.getName(),
+            Boolean.class.getName(),
+            Byte.class.getName(),
+            Character.class.getName(),
+            Short.class.getName(),
+            Integer.class.getName(),
+            Long.class.getName(),
+            Float.class.getName(),
+            Double.class.getName(),
+            Number.class.getName(),
+            Enum.class.getName(),
+            URL.class.getName()));
+
+    /**
+     * Input stream reading from a (memory-mapped) byte buffer.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buf;
+
+        ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!buf.hasRemaining())
+                return -1;
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+    }
+}
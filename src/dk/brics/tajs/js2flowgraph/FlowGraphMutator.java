@@ -148,7 +148,7 @@ public class FlowGraphMutator {
         if (!existingFlowgraph.getFunctionCache().containsKey(key)) {
             try {
                 String source = Loader.getString(sourceFile, Charset.forName("UTF-8"));
-                Function function = addTopLevelFunction(parameterNames, source, existingFlowgraph, sourceLocationMaker);
+                Function function = addTopLevelFunction(parameterNames, source, existingFlowgraph, sourceLocationMaker, FlowGraphCache.get());
                 existingFlowgraph.getFunctionCache().put(key, function);
             } catch (IOException e) {
                 throw new AnalysisException(e);
@@ -165,7 +165,7 @@ public class FlowGraphMutator {
         SourceLocation location = sourceLocationMaker.makeUnspecifiedPosition();
         FlowGraph.FunctionDynamicSourceCacheKey key = new FlowGraph.FunctionDynamicSourceCacheKey(location, parameterNames, source);
         if (!existingFlowgraph.getFunctionCache().containsKey(key)) {
-            Function function = addTopLevelFunction(parameterNames, source, existingFlowgraph, sourceLocationMaker);
+            Function function = addTopLevelFunction(parameterNames, source, existingFlowgraph, sourceLocationMaker, null);
             existingFlowgraph.getFunctionCache().put(key, function);
         }
         return existingFlowgraph.getFunctionCache().get(key);
@@ -173,12 +173,30 @@ public class FlowGraphMutator {
 
     /**
      * Adds a new top level function with the given parameter names and body source.
+     *
+     * @param cache flow graph cache to use, or null if none
      */
-    private static Function addTopLevelFunction(List<String> parameterNames, String source, FlowGraph existingFlowgraph, SourceLocationMaker sourceLocationMaker) {
-        BasicBlock standaloneBlock = new BasicBlock(existingFlowgraph.getMain());
-        AstEnv env = AstEnv.makeInitial().makeEnclosingFunction(existingFlowgraph.getMain()).makeAppendBlock(standaloneBlock);
-        FlowGraphBuilder builder = new FlowGraphBuilder(env, new FunctionAndBlockManager());
-        Function function = builder.transformFunctionBody(source, parameterNames, sourceLocationMaker);
+    private static Function addTopLevelFunction(List<String> parameterNames, String source, FlowGraph existingFlowgraph, SourceLocationMaker sourceLocationMaker, FlowGraphCache cache) {
+        Function main = existingFlowgraph.getMain();
+        BasicBlock standaloneBlock = new BasicBlock(main);
+        AstEnv env = AstEnv.makeInitial().makeEnclosingFunction(main).makeAppendBlock(standaloneBlock);
+        String key = null;
+        FlowGraphCache.Fragment fragment = null;
+        if (cache != null) {
+            key = cache.makeKey(parameterNames, source, sourceLocationMaker);
+            fragment = cache.load(key, main);
+        }
+        FlowGraphBuilder builder;
+        Function function;
+        if (fragment != null) {
+            builder = new FlowGraphBuilder(env, fragment);
+            function = fragment.function;
+        } else {
+            builder = new FlowGraphBuilder(env, new FunctionAndBlockManager());
+            function = builder.transformFunctionBody(source, parameterNames, sourceLocationMaker);
+            if (cache != null)
+                cache.store(key, builder.makeFragment(function), main);
+        }
         builder.close(existingFlowgraph, null);
         return function;
     }
@@ -22,6 +22,7 @@ import dk.brics.tajs.util.AnalysisException;
 import dk.brics.tajs.util.Collections;
 import dk.brics.tajs.util.Pair;
 
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
@@ -35,7 +36,7 @@ import static dk.brics.tajs.util.Collections.newSet;
 /**
  * Registers creation of functions and blocks.
  */
-public class FunctionAndBlockManager {
+public class FunctionAndBlockManager implements Serializable {
 
     private final Map<SessionKey, Collection<BasicBlock>> sessionMap;
 
@@ -174,7 +175,7 @@ public class FunctionAndBlockManager {
     /**
      * Session key object.
      */
-    static class SessionKey {
+    static class SessionKey implements Serializable {
 
         private SessionKey() {
         }
@@ -815,6 +815,15 @@ public class FunctionBuilder extends DefaultDispatchingParseTreeAuxVisitor<Trans
      * Processes a function declaration.
      */
     Function processFunctionDeclaration(FunctionDeclarationTree.Kind kind, String name, FormalParameterListTree parameters, ParseTree body, AstEnv env, SourceLocation location, String source) {
+        return processFunctionDeclaration(kind, name, parameters, body, env, location, source, null);
+    }
+
+    /**
+     * Processes a function declaration.
+     *
+     * @param lazyTree if non-null, the construction of the body is postponed until the function is called (see {@link LazyFunctionBodies})
+     */
+    private Function processFunctionDeclaration(FunctionDeclarationTree.Kind kind, String name, FormalParameterListTree parameters, ParseTree body, AstEnv env, SourceLocation location, String source, FunctionDeclarationTree lazyTree) {
         // 1. prepare function object
         List<String> parameterNames = newList();
         for (ParseTree parameter : parameters.parameters) {
@@ -848,9 +857,14 @@ public class FunctionBuilder extends DefaultDispatchingParseTreeAuxVisitor<Trans
             }
         }
 
-        // 3. wire the function body
-        TranslationResult processedBody = process(body, functionEnv);
-        processedBody.getAppendBlock().addSuccessor(function.getOrdinaryExit());
+        // 3. wire the function body, or postpone it until the function is called
+        if (lazyTree != null) {
+            functionEnv.getAppendBlock().addSuccessor(function.getOrdinaryExit());
+            LazyFunctionBodies.defer(function, new LazyFunctionBodies.Body(lazyTree, functionEnv, astInfo, sourceLocationMaker));
+        } else {
+            TranslationResult processedBody = process(body, functionEnv);
+            processedBody.getAppendBlock().addSuccessor(function.getOrdinaryExit());
+        }
 
         function.setMaxRegister(functionEnv.getRegisterManager().getRegister()); // assumes monotonically increasing register implementation
 
@@ -1088,7 +1102,8 @@ public class FunctionBuilder extends DefaultDispatchingParseTreeAuxVisitor<Trans
             unsupportedLanguageFeature(tree, "ES6 arrow functions");
         }
         String name = tree.name == null ? null : tree.name.value;
-        Function function = processFunctionDeclaration(tree.kind, name, tree.formalParameterList, tree.functionBody, env, makeSourceLocation(tree), getSource(tree));
+        FunctionDeclarationTree lazyTree = LazyFunctionBodies.isEnabled() ? tree : null;
+        Function function = processFunctionDeclaration(tree.kind, name, tree.formalParameterList, tree.functionBody, env, makeSourceLocation(tree), getSource(tree), lazyTree);
         syntacticInformationCollector.registerFunction(function, tree, astInfo);
         return TranslationResult.makeAppendBlock(env.getAppendBlock());
     }
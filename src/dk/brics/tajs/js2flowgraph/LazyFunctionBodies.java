@@ -0,0 +1,96 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package dk.brics.tajs.js2flowgraph;
+
+import com.google.javascript.jscomp.parsing.parser.trees.FunctionDeclarationTree;
+import dk.brics.tajs.flowgraph.FlowGraph;
+import dk.brics.tajs.flowgraph.Function;
+import dk.brics.tajs.flowgraph.SourceLocation.SourceLocationMaker;
+import dk.brics.tajs.options.Options;
+import dk.brics.tajs.util.AnalysisSession;
+
+import java.util.Map;
+
+import static dk.brics.tajs.util.Collections.newMap;
+
+/**
+ * Function bodies whose flow graph construction is postponed until the function is first called.
+ * <p>
+ * Enabled with {@link dk.brics.tajs.options.OptionValues#isLazyFunctionBodiesEnabled()}, except when the
+ * {@link FlowGraphCache} is used (the parse trees cannot be stored in the cache).
+ * Only functions that are declared inside other code are postponed.
+ * Until its body is constructed, a function consists of its entry and exit blocks,
+ * and the syntactic information about the functions declared in its body is missing.
+ */
+public class LazyFunctionBodies {
+
+    private static final AnalysisSession.Slot<Map<Function, Body>> pending = AnalysisSession.newSlot(() -> newMap());
+
+    private LazyFunctionBodies() {
+    }
+
+    public static void reset() {
+        AnalysisSession.current().clear(pending);
+    }
+
+    /**
+     * The information needed for constructing a function body.
+     */
+    static final class Body {
+
+        final FunctionDeclarationTree tree;
+
+        final AstEnv env;
+
+        final ASTInfo astInfo;
+
+        final SourceLocationMaker sourceLocationMaker;
+
+        Body(FunctionDeclarationTree tree, AstEnv env, ASTInfo astInfo, SourceLocationMaker sourceLocationMaker) {
+            this.tree = tree;
+            this.env = env;
+            this.astInfo = astInfo;
+            this.sourceLocationMaker = sourceLocationMaker;
+        }
+    }
+
+    /**
+     * Checks whether function bodies are postponed.
+     */
+    static boolean isEnabled() {
+        return Options.get().isLazyFunctionBodiesEnabled() && FlowGraphCache.get() == null;
+    }
+
+    /**
+     * Postpones the construction of the body of the given function.
+     */
+    static void defer(Function function, Body body) {
+        AnalysisSession.current().get(pending).put(function, body);
+    }
+
+    /**
+     * Constructs the body of the given function and adds it to the flow graph, if it has been postponed.
+     */
+    public static void materialize(Function function, FlowGraph flowGraph) {
+        if (!Options.get().isLazyFunctionBodiesEnabled())
+            return;
+        Body body = AnalysisSession.current().get(pending).remove(function);
+        if (body != null)
+            FlowGraphBuilder.addLazyFunctionBody(flowGraph, function, body);
+    }
+}
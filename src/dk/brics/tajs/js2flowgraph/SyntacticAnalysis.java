@@ -110,15 +110,23 @@ public class SyntacticAnalysis {
         if (candidates.containsKey(functionTree)) {
             rawSyntacticInformation.getCorrelatedAccessFunctions().add(function);
         }
+        registerStackVariables(function, functionTree, astInfo);
+        rawSyntacticInformation.registerFunctionClosureVariables(function, astInfo.getFunctionClosureVariables().get(functionTree));
+        if (astInfo.getFunctionsWithThisReference().contains(functionTree)) {
+            rawSyntacticInformation.getFunctionsWithThisReference().add(function);
+        }
+    }
+
+    /**
+     * Registers the variables of the function that are not used by inner functions.
+     * Must be called again if more variables are declared after {@link #registerFunction(Function, FunctionDeclarationTree, ASTInfo)}.
+     */
+    public void registerStackVariables(Function function, FunctionDeclarationTree functionTree, ASTInfo astInfo) {
         Set<String> stackVariables = newSet();
         stackVariables.addAll(function.getVariableNames());
         stackVariables.addAll(function.getParameterNames());
         stackVariables.removeAll(astInfo.getNonStackVariables().getOrDefault(functionTree, newSet()));
         rawSyntacticInformation.getStackVariables().put(function, stackVariables);
-        rawSyntacticInformation.registerFunctionClosureVariables(function, astInfo.getFunctionClosureVariables().get(functionTree));
-        if (astInfo.getFunctionsWithThisReference().contains(functionTree)) {
-            rawSyntacticInformation.getFunctionsWithThisReference().add(function);
-        }
     }
 
     public void registerFunctionCall(CallNode callNode, ParseTree operand, ArgumentListTree arguments, SyntacticReference reference) {
@@ -278,8 +278,11 @@ public final class Context implements IContext<Context>, DeepImmutable {
 
     @Override
     public boolean equals(Object obj) {
-        if (!Canonicalizer.get().isCanonicalizing())
-            return this == obj;
+        return obj == this;
+    }
+
+    @Override
+    public boolean canonicalEquals(Object obj) {
         if (obj == this)
             return true;
         if (!(obj instanceof Context))
@@ -68,8 +68,11 @@ public class FunctionPartitions implements DeepImmutable {
 
     @Override
     public boolean equals(Object o) {
-        if (!Canonicalizer.get().isCanonicalizing())
-            return this == o;
+        return this == o;
+    }
+
+    @Override
+    public boolean canonicalEquals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         FunctionPartitions that = (FunctionPartitions) o;
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package dk.brics.tajs.lattice;
+
+import dk.brics.tajs.flowgraph.Function;
+import dk.brics.tajs.options.Options;
+import dk.brics.tajs.util.AnalysisSession;
+import dk.brics.tajs.util.Metrics;
+
+import java.util.Map;
+
+import static dk.brics.tajs.util.Collections.newMap;
+
+/**
+ * Policy and statistics for abstract garbage collection (see {@link State#gc(Value)}).
+ * <p>
+ * If adaptive garbage collection is enabled, the number of objects reclaimed is tracked for each function.
+ * After {@link Options.Constants#ADAPTIVE_GC_FRUITLESS_LIMIT} consecutive collections in a function that reclaim nothing,
+ * only every 2nd, 4th, ... (up to {@link Options.Constants#ADAPTIVE_GC_MAX_BACKOFF}th) collection in that function is performed,
+ * until a collection reclaims something again.
+ * Collection is always performed if the store has at least {@link Options.Constants#ADAPTIVE_GC_STORE_SIZE_THRESHOLD} objects.
+ * Skipping a collection is sound but may cost precision, since dead objects remain in the state.
+ */
+public final class GarbageCollectionPolicy {
+
+    private static final AnalysisSession.Slot<GarbageCollectionPolicy> instance = AnalysisSession.newSlot(GarbageCollectionPolicy::new);
+
+    private final Metrics.Counter runs = Metrics.get().counter("tajs_gc_runs_total", "Number of abstract garbage collections");
+
+    private final Metrics.Counter skipped = Metrics.get().counter("tajs_gc_skipped_total", "Number of abstract garbage collections skipped by the adaptive policy");
+
+    private final Metrics.Counter reclaimed = Metrics.get().counter("tajs_gc_reclaimed_objects_total", "Number of objects reclaimed by abstract garbage collection");
+
+    private final Metrics.Counter nanos = Metrics.get().counter("tajs_gc_nanoseconds_total", "Time spent on abstract garbage collection");
+
+    private final Map<Function, FunctionStats> function_stats = newMap();
+
+    /**
+     * Collection history of a function.
+     */
+    private static final class FunctionStats {
+
+        int fruitless; // number of consecutive collections that reclaimed nothing
+
+        int skipped; // number of collections skipped since the last one performed
+    }
+
+    private GarbageCollectionPolicy() {}
+
+    /**
+     * Discards the policy and statistics of the current analysis session.
+     */
+    public static void reset() {
+        AnalysisSession.current().clear(instance);
+    }
+
+    /**
+     * Returns the policy of the current analysis session.
+     */
+    public static GarbageCollectionPolicy get() {
+        return AnalysisSession.current().get(instance);
+    }
+
+    /**
+     * Checks whether garbage collection should be performed for a state in the given function with the given store size.
+     */
+    boolean shouldCollect(Function f, int store_size) {
+        if (!Options.get().isAdaptiveGCEnabled() || store_size >= Options.Constants.ADAPTIVE_GC_STORE_SIZE_THRESHOLD)
+            return true;
+        FunctionStats s = function_stats.get(f);
+        if (s == null || s.fruitless < Options.Constants.ADAPTIVE_GC_FRUITLESS_LIMIT)
+            return true;
+        int backoff = Math.min(Options.Constants.ADAPTIVE_GC_MAX_BACKOFF, 1 << Math.min(30, s.fruitless - Options.Constants.ADAPTIVE_GC_FRUITLESS_LIMIT + 1));
+        if (++s.skipped < backoff) {
+            skipped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records a garbage collection for a state in the given function.
+     */
+    void record(Function f, int reclaimed_objects, long elapsed_nanos) {
+        runs.increment();
+        reclaimed.add(reclaimed_objects);
+        nanos.add(elapsed_nanos);
+        if (Options.get().isAdaptiveGCEnabled()) {
+            FunctionStats s = function_stats.computeIfAbsent(f, k -> new FunctionStats());
+            s.skipped = 0;
+            if (reclaimed_objects == 0)
+                s.fruitless++;
+            else
+                s.fruitless = 0;
+        }
+    }
+
+    /**
+     * Returns the number of garbage collections performed.
+     */
+    public long getRuns() {
+        return runs.get();
+    }
+
+    /**
+     * Returns the number of garbage collections skipped.
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * Returns the total number of objects reclaimed.
+     */
+    public long getReclaimedObjects() {
+        return reclaimed.get();
+    }
+
+    /**
+     * Returns the total time spent on garbage collection, in milliseconds.
+     */
+    public long getTime() {
+        return nanos.get() / 1000000;
+    }
+}
@@ -22,9 +22,11 @@ import dk.brics.tajs.util.Collections;
 import dk.brics.tajs.util.Collectors;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import static dk.brics.tajs.util.Collections.newList;
 import static dk.brics.tajs.util.Collections.newMap;
 import static dk.brics.tajs.util.Collections.newSet;
 
@@ -40,14 +42,17 @@ public class MustEquals {// TODO: use copy-on-write?
      */
     private Map<ObjectLabel, Map<PKey, Set<Integer>>> mustEquals;
 
-    private Map<Integer, Set<ObjectProperty>> mustEqualsReverse;
+    /**
+     * List from register to set of fixed properties of singleton objects that must have the same value, or null if none.
+     */
+    private List<Set<ObjectProperty>> mustEqualsReverse;
 
     /**
      * Constructs a new empty MustEquals.
      */
     public MustEquals() {
         mustEquals = newMap();
-        mustEqualsReverse = newMap();
+        mustEqualsReverse = newList();
     }
 
     /**
@@ -60,15 +65,16 @@ public class MustEquals {// TODO: use copy-on-write?
             mustEquals.put(objlabel, mn);
             m.forEach((pkey, s) -> mn.put(pkey, newSet(s)));
         });
-        mustEqualsReverse = newMap();
-        old.mustEqualsReverse.forEach((reg, s) -> mustEqualsReverse.put(reg, newSet(s)));
+        mustEqualsReverse = newList();
+        for (Set<ObjectProperty> s : old.mustEqualsReverse)
+            mustEqualsReverse.add(s == null ? null : newSet(s));
         checkInvariants();
     }
 
     private void checkInvariants() {
         if (Options.get().isDebugEnabled()) {
-            for (int reg : mustEqualsReverse.keySet()) {
-                Set<ObjectProperty> objectProperties = mustEqualsReverse.get(reg);
+            for (int reg = 0; reg < mustEqualsReverse.size(); reg++) {
+                Set<ObjectProperty> objectProperties = getMustEquals(reg);
                 for (ObjectProperty objectProperty : objectProperties) {
                     Set<Integer> regs = mustEquals.get(objectProperty.getObjectLabel()).get(objectProperty.getPropertyName());
                     if (regs == null || !regs.contains(reg)) {
@@ -79,7 +85,7 @@ public class MustEquals {// TODO: use copy-on-write?
             for (ObjectLabel objectLabel : mustEquals.keySet()) {
                 for (PKey propname : mustEquals.get(objectLabel).keySet()) {
                     for (int reg : mustEquals.get(objectLabel).get(propname)) {
-                        if (!mustEqualsReverse.get(reg).contains(ObjectProperty.makeOrdinary(objectLabel, propname))) {
+                        if (!getMustEquals(reg).contains(ObjectProperty.makeOrdinary(objectLabel, propname))) {
                             throw new AnalysisException("MustEquals contains information not in MustEqualsReverse");
                         }
                     }
@@ -103,11 +109,11 @@ public class MustEquals {// TODO: use copy-on-write?
         Map<PKey, Set<Integer>> m = mustEquals.remove(objlabel);
         if (m != null)
             m.values().forEach(regs -> regs.forEach(reg -> {
-                Set<ObjectProperty> s = mustEqualsReverse.get(reg);
+                Set<ObjectProperty> s = getReverse(reg);
                 if (s != null) {
                     s.removeIf(objprop -> objprop.getObjectLabel().equals(objlabel));
                     if (s.isEmpty())
-                        mustEqualsReverse.remove(reg);
+                        mustEqualsReverse.set(reg, null);
                 }
             }));
         checkInvariants();
@@ -122,11 +128,11 @@ public class MustEquals {// TODO: use copy-on-write?
             Set<Integer> regs = m.remove(pkey);
             if (regs != null)
                 regs.forEach(reg -> {
-                    Set<ObjectProperty> s = mustEqualsReverse.get(reg);
+                    Set<ObjectProperty> s = getReverse(reg);
                     if (s != null) {
                         s.remove(ObjectProperty.makeOrdinary(objlabel, pkey));
                         if (s.isEmpty())
-                            mustEqualsReverse.remove(reg);
+                            mustEqualsReverse.set(reg, null);
                     }
                 });
             if (m.isEmpty())
@@ -151,8 +157,9 @@ public class MustEquals {// TODO: use copy-on-write?
      */
     public void setToBottom(int reg) {
         checkInvariants();
-        Set<ObjectProperty> ops = mustEqualsReverse.remove(reg);
-        if (ops != null)
+        Set<ObjectProperty> ops = getReverse(reg);
+        if (ops != null) {
+            mustEqualsReverse.set(reg, null);
             ops.forEach(op -> {
                 Map<PKey, Set<Integer>> m = mustEquals.get(op.getObjectLabel());
                 if (m != null) {
@@ -165,6 +172,7 @@ public class MustEquals {// TODO: use copy-on-write?
                         mustEquals.remove(op.getObjectLabel());
                 }
             });
+        }
         checkInvariants();
     }
 
@@ -178,17 +186,17 @@ public class MustEquals {// TODO: use copy-on-write?
         Map<PKey, Set<Integer>> m = mustEquals.get(objlabel);
         if (m != null)
             for (int aliasreg : m.getOrDefault(pkey, java.util.Collections.emptySet())) {
-                Set<ObjectProperty> aliases = mustEqualsReverse.get(aliasreg);
+                Set<ObjectProperty> aliases = getReverse(aliasreg);
                 if (aliases != null) {
                     for (ObjectProperty alias : aliases)
                         if (!alias.getObjectLabel().equals(objlabel) || !alias.getPropertyName().equals(pkey)) {
                             Collections.addToMapMapSet(mustEquals, alias.getObjectLabel(), alias.getPropertyName(), reg);
-                            Collections.addToMapSet(mustEqualsReverse, reg, alias);
+                            addReverse(reg, alias);
                         }
                 }
             }
         Collections.addToMapMapSet(mustEquals, objlabel, pkey, reg);
-        Collections.addToMapSet(mustEqualsReverse, reg, ObjectProperty.makeOrdinary(objlabel, pkey));
+        addReverse(reg, ObjectProperty.makeOrdinary(objlabel, pkey));
         checkInvariants();
     }
 
@@ -213,7 +221,23 @@ public class MustEquals {// TODO: use copy-on-write?
      * Returns the must-equal facts for the given register.
      */
     public Set<ObjectProperty> getMustEquals(int ref) {
-        return mustEqualsReverse.getOrDefault(ref, java.util.Collections.emptySet());
+        Set<ObjectProperty> s = getReverse(ref);
+        return s != null ? s : java.util.Collections.emptySet();
+    }
+
+    private Set<ObjectProperty> getReverse(int reg) {
+        return reg >= 0 && reg < mustEqualsReverse.size() ? mustEqualsReverse.get(reg) : null;
+    }
+
+    private void addReverse(int reg, ObjectProperty objprop) {
+        while (reg >= mustEqualsReverse.size())
+            mustEqualsReverse.add(null);
+        Set<ObjectProperty> s = mustEqualsReverse.get(reg);
+        if (s == null) {
+            s = newSet();
+            mustEqualsReverse.set(reg, s);
+        }
+        s.add(objprop);
     }
 
     /**
@@ -252,17 +276,17 @@ public class MustEquals {// TODO: use copy-on-write?
                 changed = true;
             }
         }
-        for (Iterator<Map.Entry<Integer, Set<ObjectProperty>>> it = mustEqualsReverse.entrySet().iterator(); it.hasNext();) {
-            Map.Entry<Integer, Set<ObjectProperty>> thisme = it.next();
-            int reg = thisme.getKey();
-            Set<ObjectProperty> others = other.mustEqualsReverse.get(reg);
+        for (int reg = 0; reg < mustEqualsReverse.size(); reg++) {
+            Set<ObjectProperty> thiss = mustEqualsReverse.get(reg);
+            if (thiss == null)
+                continue;
+            Set<ObjectProperty> others = other.getReverse(reg);
             if (others != null) {
-                Set<ObjectProperty> thiss = thisme.getValue();
                 thiss.retainAll(others);
                 if (thiss.isEmpty())
-                    it.remove();
+                    mustEqualsReverse.set(reg, null);
             } else
-                it.remove();
+                mustEqualsReverse.set(reg, null);
         }
         checkInvariants();
         return changed;
@@ -280,7 +304,7 @@ public class MustEquals {// TODO: use copy-on-write?
             mustEquals.put(newlabel, m);
             for (Set<Integer> regs : m.values())
                 for (int reg : regs)
-                    mustEqualsReverse.put(reg, ObjectProperty.replaceObjectLabel(mustEqualsReverse.get(reg), oldlabel, newlabel));
+                    mustEqualsReverse.set(reg, ObjectProperty.replaceObjectLabel(getReverse(reg), oldlabel, newlabel));
         }
         checkInvariants();
     }
@@ -291,9 +315,9 @@ public class MustEquals {// TODO: use copy-on-write?
         mustEquals.forEach((objlabel, m) ->
                 m.forEach((pkey, regs) -> b.append("\n    ").append(objlabel).append(".").append(pkey).append(": ").append(regs.stream().map(r -> "v" + r).collect(Collectors.toList())))
         );
-        mustEqualsReverse.forEach((reg, objprops) ->
-                b.append("\n    v").append(reg).append(": ").append(objprops)
-        );
+        for (int reg = 0; reg < mustEqualsReverse.size(); reg++)
+            if (mustEqualsReverse.get(reg) != null)
+                b.append("\n    v").append(reg).append(": ").append(mustEqualsReverse.get(reg));
         return b.toString();
     }
 
@@ -17,11 +17,10 @@
 package dk.brics.tajs.lattice;
 
 import dk.brics.tajs.flowgraph.AbstractNode;
-import dk.brics.tajs.util.Collectors;
+import dk.brics.tajs.util.AnalysisException;
 
-import java.util.Map;
-
-import static dk.brics.tajs.util.Collections.newMap;
+import java.util.Arrays;
+import java.util.Comparator;
 
 /**
  * Local must-reaching definitions.
@@ -29,56 +28,100 @@ import static dk.brics.tajs.util.Collections.newMap;
  * The must-reaching definition of a register is the node where the register must have obtained its value.
  * This information is used for filtering at explicit and implicit branches.
  */
-public class MustReachingDefs { // TODO: use copy-on-write?
+public class MustReachingDefs {
+
+    private static final AbstractNode[] EMPTY = new AbstractNode[0];
+
+    private static final int LIMIT = 50;
 
     /**
-     * Map from register to the node that must have defined the value of the register, or absent if no such node.
+     * Array from register to the node that must have defined the value of the register, or null if no such node.
      */
-    private Map<Integer, AbstractNode> registerDefs;
+    private AbstractNode[] registerDefs;
+
+    /**
+     * Number of non-null entries in registerDefs.
+     */
+    private int size;
+
+    private boolean writable; // for copy-on-write
 
     /**
      * Constructs a new empty MustReachingDefs.
      */
     public MustReachingDefs() {
-        registerDefs = newMap();
+        registerDefs = EMPTY;
     }
 
     /**
      * Constructs a new MustReachingDefs as a copy of the given one.
      */
     public MustReachingDefs(MustReachingDefs old) {
-        registerDefs = newMap(old.registerDefs);
+        registerDefs = old.registerDefs;
+        size = old.size;
+        old.writable = false;
+    }
+
+    /**
+     * Makes registerDefs writable (for copy-on-write) with room for the given number of registers.
+     */
+    private void makeWritable(int length) {
+        if (writable && length <= registerDefs.length)
+            return;
+        registerDefs = Arrays.copyOf(registerDefs, length <= registerDefs.length ? registerDefs.length : Math.max(length, 2 * registerDefs.length));
+        writable = true;
     }
 
     /**
      * Empties this MustReachingDefs.
      */
     public void setToBottom() {
-        registerDefs.clear();
+        registerDefs = EMPTY;
+        size = 0;
+        writable = false;
     }
 
     /**
      * Empties this MustReachingDefs for the given register.
      */
     public void setToBottom(int reg) {
-        registerDefs.remove(reg);
+        if (getReachingDef(reg) != null) {
+            makeWritable(registerDefs.length);
+            registerDefs[reg] = null;
+            size--;
+        }
     }
 
     /**
      * Adds a must-reaching definition for a register.
      */
     public void addReachingDef(int reg, AbstractNode node) {
+        if (reg < 0)
+            throw new AnalysisException("Unexpected register " + reg);
         discardOldEntries();
-        registerDefs.put(reg, node);
+        makeWritable(reg + 1);
+        if (registerDefs[reg] == null)
+            size++;
+        registerDefs[reg] = node;
     }
 
     /**
      * Discard old entries if too many.
      */
     private void discardOldEntries() {
-        int LIMIT = 50;
-        if (registerDefs.size() > LIMIT) {
-            registerDefs = registerDefs.entrySet().stream().sorted((e1, e2) -> e2.getValue().getIndex() - e1.getValue().getIndex()).limit(LIMIT / 2).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        if (size > LIMIT) {
+            Integer[] regs = new Integer[size];
+            int n = 0;
+            for (int reg = 0; reg < registerDefs.length; reg++)
+                if (registerDefs[reg] != null)
+                    regs[n++] = reg;
+            Arrays.sort(regs, Comparator.comparingInt((Integer reg) -> registerDefs[reg].getIndex()).reversed());
+            AbstractNode[] newRegisterDefs = new AbstractNode[registerDefs.length];
+            for (int i = 0; i < LIMIT / 2; i++)
+                newRegisterDefs[regs[i]] = registerDefs[regs[i]];
+            registerDefs = newRegisterDefs;
+            size = LIMIT / 2;
+            writable = true;
         }
     }
 
@@ -86,7 +129,7 @@ public class MustReachingDefs { // TODO: use copy-on-write?
      * Returns the must-reaching definition for the given register, or null if not available.
      */
     public AbstractNode getReachingDef(int reg) {
-        return registerDefs.get(reg);
+        return reg >= 0 && reg < registerDefs.length ? registerDefs[reg] : null;
     }
 
     /**
@@ -94,20 +137,27 @@ public class MustReachingDefs { // TODO: use copy-on-write?
      * @return if this MustReachingDefs changed
      */
     public boolean propagate(MustReachingDefs must_reaching_defs) {
-        Map<Integer, AbstractNode> newRegisterDefs = newMap();
-        registerDefs.forEach((reg, node) -> {
-            if (node == must_reaching_defs.getReachingDef(reg))
-                newRegisterDefs.put(reg, node);
-        });
-        boolean changed = newRegisterDefs.size() != registerDefs.size();
-        registerDefs = newRegisterDefs;
+        boolean changed = false;
+        for (int reg = 0; reg < registerDefs.length; reg++) {
+            AbstractNode node = registerDefs[reg];
+            if (node != null && node != must_reaching_defs.getReachingDef(reg)) {
+                makeWritable(registerDefs.length);
+                registerDefs[reg] = null;
+                size--;
+                changed = true;
+            }
+        }
         return changed;
     }
 
     @Override
     public String toString() {
         StringBuilder b = new StringBuilder();
-        registerDefs.forEach((reg, node) -> b.append("\n    v").append(reg).append(": node ").append(node.getIndex()).append(" (").append(node.getSourceLocation()).append(')'));
+        for (int reg = 0; reg < registerDefs.length; reg++) {
+            AbstractNode node = registerDefs[reg];
+            if (node != null)
+                b.append("\n    v").append(reg).append(": node ").append(node.getIndex()).append(" (").append(node.getSourceLocation()).append(')');
+        }
         return b.toString();
     }
 }
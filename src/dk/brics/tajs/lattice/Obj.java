@@ -20,6 +20,8 @@ import dk.brics.tajs.flowgraph.AbstractNode;
 import dk.brics.tajs.lattice.PKey.StringPKey;
 import dk.brics.tajs.options.Options;
 import dk.brics.tajs.util.AnalysisException;
+import dk.brics.tajs.util.AnalysisSession;
+import dk.brics.tajs.util.Metrics;
 
 import java.util.Collections;
 import java.util.HashMap;
@@ -27,8 +29,8 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
-import static dk.brics.tajs.util.Collections.newMap;
 import static dk.brics.tajs.util.Collections.newSet;
+import static dk.brics.tajs.util.Collections.newStoreMap;
 import static dk.brics.tajs.util.Collections.sortedEntries;
 
 /**
@@ -56,9 +58,24 @@ public final class Obj {
 
     private int hash_code; // hash code, only used if non-writable, 0 means uninitialized
 
-    private static int number_of_objs_created;
+    private int version; // incremented on each modification, for delta propagation
 
-    private static int number_of_makewritable_properties;
+    private static final AnalysisSession.Slot<Counters> counters = AnalysisSession.newSlot(Counters::new);
+
+    /**
+     * Statistics counters of an analysis session.
+     */
+    private static final class Counters {
+
+        final Metrics.Counter number_of_objs_created = Metrics.get().counter("tajs_objs_created_total", "Number of abstract objects created");
+
+        final Metrics.Counter number_of_makewritable_properties = Metrics.get().counter("tajs_obj_makewritable_properties_total", "Number of copy-on-write copies of object properties");
+
+        void reset() {
+            number_of_objs_created.reset();
+            number_of_makewritable_properties.reset();
+        }
+    }
 
     private static Obj the_absent_modified;
 
@@ -73,7 +90,7 @@ public final class Obj {
     }
 
     private Obj() {
-        number_of_objs_created++;
+        AnalysisSession.current().get(counters).number_of_objs_created.increment();
     }
 
     /**
@@ -88,13 +105,13 @@ public final class Obj {
         scope = x.scope;
         scope_unknown = x.scope_unknown;
         if (Options.get().isCopyOnWriteDisabled()) {
-            properties = newMap(x.properties);
+            properties = newStoreMap(x.properties);
         } else {
             properties = x.properties;
             x.writable_properties = writable_properties = false;
         }
         writable = true;
-        number_of_objs_created++;
+        AnalysisSession.current().get(counters).number_of_objs_created.increment();
     }
 
     /**
@@ -267,6 +284,14 @@ public final class Obj {
     private void checkWritable() {
         if (!writable)
             throw new AnalysisException("Attempt to modify non-writable Obj");
+        version++;
+    }
+
+    /**
+     * Returns the number of modifications of this object (wraps around).
+     */
+    int getVersion() {
+        return version;
     }
 
     /**
@@ -277,7 +302,7 @@ public final class Obj {
     public Obj rename(Renamings s) {
         Obj res = new Obj();
         res.writable = true;
-        res.properties = newMap();
+        res.properties = newStoreMap();
         for (Entry<PKey, Value> me : properties.entrySet()) {
             Set<PKey> renamed_key = me.getKey().rename(s);
             Value renamed_value = me.getValue().rename(s);
@@ -307,7 +332,7 @@ public final class Obj {
      */
     public void replaceNonModifiedParts(Obj other, Set<AbstractNode> maybePartitionNodes) {
         checkWritable();
-        Map<PKey, Value> newproperties = newMap();
+        Map<PKey, Value> newproperties = newStoreMap();
         for (Entry<PKey, Value> me : properties.entrySet()) {
             Value v = me.getValue();
             if (!v.isMaybeModified()) { // property is definitely not modified, so replace it
@@ -348,16 +373,16 @@ public final class Obj {
     private void makeWritableProperties() {
         if (writable_properties)
             return;
-        properties = newMap(properties);
+        properties = newStoreMap(properties);
         writable_properties = true;
-        number_of_makewritable_properties++;
+        AnalysisSession.current().get(counters).number_of_makewritable_properties.increment();
     }
 
     /**
      * Returns the total number of Obj objects created.
      */
     public static int getNumberOfObjsCreated() {
-        return number_of_objs_created;
+        return (int) AnalysisSession.current().get(counters).number_of_objs_created.get();
     }
 
     /**
@@ -369,15 +394,14 @@ public final class Obj {
         the_none = makeTheNone();
         the_none_modified = makeTheNoneModified();
         the_unknown = makeTheUnknown();
-        number_of_objs_created = 0;
-        number_of_makewritable_properties = 0;
+        AnalysisSession.current().get(counters).reset();
     }
 
     /**
      * Returns the total number of makeWritableProperties operations.
      */
     public static int getNumberOfMakeWritablePropertiesCalls() {
-        return number_of_makewritable_properties;
+        return (int) AnalysisSession.current().get(counters).number_of_makewritable_properties.get();
     }
 
     /**
@@ -385,7 +409,7 @@ public final class Obj {
      */
     public void clearModified() {
         checkWritable();
-        Map<PKey, Value> new_properties = newMap();
+        Map<PKey, Value> new_properties = newStoreMap();
         for (Entry<PKey, Value> me : properties.entrySet())
             new_properties.put(me.getKey(), me.getValue().restrictToNotModified());
         properties = new_properties;
@@ -567,7 +591,7 @@ public final class Obj {
      */
     public void replaceObjectLabel(ObjectLabel oldlabel, ObjectLabel newlabel, Map<ScopeChain, ScopeChain> cache) {
         checkWritable();
-        Map<PKey, Value> newproperties = newMap();
+        Map<PKey, Value> newproperties = newStoreMap();
         for (Entry<PKey, Value> me : properties.entrySet())
             newproperties.put(me.getKey().replaceObjectLabel(oldlabel, newlabel), me.getValue().replaceObjectLabel(oldlabel, newlabel));
         properties = newproperties;
@@ -886,7 +910,7 @@ public final class Obj {
         internal_prototype = UnknownValueResolver.localize(internal_prototype, obj.internal_prototype, s,
                 ObjectProperty.makeInternalPrototype(objlabel));
         UnknownValueResolver.localizeScopeChain(objlabel, this, obj, s);
-        Map<PKey, Value> new_properties = newMap();
+        Map<PKey, Value> new_properties = newStoreMap();
         for (Entry<PKey, Value> me : properties.entrySet()) { // obj is writable, so materializations from defaults will appear here
             PKey propertyname = me.getKey();
             Value v = me.getValue();
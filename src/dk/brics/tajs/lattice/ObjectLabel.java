@@ -350,15 +350,16 @@ public final class ObjectLabel<ContextType> implements DeepImmutable {
      */
     @Override
     public boolean equals(Object obj) {
-        if (!Canonicalizer.get().isCanonicalizing()) {
-            if (Options.get().isDebugOrTestEnabled() && this != obj && this.eq(obj))
-                throw new AnalysisException("Canonicalization error, objects are equal but not identical");
-            return this == obj;
-        }
-        return eq(obj);
+        if (Options.get().isDebugOrTestEnabled() && this != obj && this.canonicalEquals(obj))
+            throw new AnalysisException("Canonicalization error, objects are equal but not identical");
+        return this == obj;
     }
 
-    private boolean eq(Object obj) {
+    /**
+     * Checks whether the given object label is structurally equal to this one.
+     */
+    @Override
+    public boolean canonicalEquals(Object obj) {
         if (obj == this)
             return true;
         if (!(obj instanceof ObjectLabel))
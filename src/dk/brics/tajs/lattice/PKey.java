@@ -157,8 +157,11 @@ abstract public class PKey implements DeepImmutable { // XXX: rename class (and
 
         @Override
         public boolean equals(Object obj) {
-            if (!Canonicalizer.get().isCanonicalizing())
-                return this == obj;
+            return this == obj;
+        }
+
+        @Override
+        public boolean canonicalEquals(Object obj) {
             return obj instanceof StringPKey && getStr().equals(((StringPKey)obj).getStr());
         }
 
@@ -235,8 +238,11 @@ abstract public class PKey implements DeepImmutable { // XXX: rename class (and
 
         @Override
         public boolean equals(Object obj) {
-            if (!Canonicalizer.get().isCanonicalizing())
-                return this == obj;
+            return this == obj;
+        }
+
+        @Override
+        public boolean canonicalEquals(Object obj) {
             return obj instanceof SymbolPKey && getObjectLabel().equals(((SymbolPKey)obj).getObjectLabel());
         }
 
@@ -71,8 +71,11 @@ public abstract class PartitionToken implements DeepImmutable {
 
         @Override
         public boolean equals(Object o) {
-            if (!Canonicalizer.get().isCanonicalizing())
-                return this == o;
+            return this == o;
+        }
+
+        @Override
+        public boolean canonicalEquals(Object o) {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             PropertyNamePartitionToken that = (PropertyNamePartitionToken) o;
@@ -230,8 +233,11 @@ public abstract class PartitionToken implements DeepImmutable {
 
         @Override
         public boolean equals(Object o) {
-            if (!Canonicalizer.get().isCanonicalizing())
-                return this == o;
+            return this == o;
+        }
+
+        @Override
+        public boolean canonicalEquals(Object o) {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             FunctionPartitionToken that = (FunctionPartitionToken) o;
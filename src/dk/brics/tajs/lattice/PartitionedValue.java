@@ -91,10 +91,7 @@ public final class PartitionedValue extends Value implements Undef, Null, Bool,
     private static PartitionedValue make(Value v, Map<AbstractNode, Map<PartitionToken, Value>> partitions) {
         Map<AbstractNode, Partitions> transformedMap =
                 partitions.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> Partitions.make(e.getValue())));
-        canonicalizing = true;
-        PartitionedValue canonicalize = Canonicalizer.get().canonicalize(new PartitionedValue(v, Canonicalizer.get().canonicalizeMap(transformedMap)));
-        canonicalizing = false;
-        return canonicalize;
+        return Canonicalizer.get().canonicalize(new PartitionedValue(v, Canonicalizer.get().canonicalizeMap(transformedMap)));
     }
 
     /**
@@ -315,15 +312,13 @@ public final class PartitionedValue extends Value implements Undef, Null, Bool,
     }
 
     @Override
-    public boolean equals(Object obj) {
-        if (!Canonicalizer.get().isCanonicalizing())
-            return this == obj;
+    public boolean canonicalEquals(Object obj) {
         if (obj == this)
             return true;
         if (!(obj instanceof PartitionedValue))
             return false;
         PartitionedValue v = (PartitionedValue) obj;
-        return super.equals(v) && Objects.equals(partitions, v.partitions);
+        return super.canonicalEquals(v) && Objects.equals(partitions, v.partitions);
     }
 
     /**
@@ -968,8 +963,11 @@ public final class PartitionedValue extends Value implements Undef, Null, Bool,
 
         @Override
         public boolean equals(Object o) {
-            if (!Canonicalizer.get().isCanonicalizing())
-                return this == o;
+            return this == o;
+        }
+
+        @Override
+        public boolean canonicalEquals(Object o) {
             if (this == o)
                 return true;
             if (o == null || getClass() != o.getClass())
@@ -16,69 +16,47 @@
 
 package dk.brics.tajs.lattice;
 
+import dk.brics.tajs.util.Canonicalizer;
 import dk.brics.tajs.util.Collections;
+import dk.brics.tajs.util.DeepImmutable;
 
-import java.lang.ref.WeakReference;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
 
 import static dk.brics.tajs.util.Collections.newSet;
 
 /**
  * Abstract scope chain.
- * Immutable.
+ * Immutable and canonicalized, so scope chains can be compared by identity.
  */
-public final class ScopeChain {
+public final class ScopeChain implements DeepImmutable {
 
-    private Set<ObjectLabel> obj; // TODO: canonicalize? (#140)
+    private final Set<ObjectLabel> obj; // canonical
 
-    private ScopeChain next;
+    private final ScopeChain next;
 
     private int hashcode;
 
-    private static Map<ScopeChain, WeakReference<ScopeChain>> cache = new WeakHashMap<>();
-
-    private static int cache_hits;
-
-    private static int cache_misses;
-
-    /**
-     * Clears the canonicalization cache.
-     */
-    public static void clearCache() {
-        cache.clear();
-    }
-
     /**
      * Returns the canonicalization cache size.
      */
-    public static int getCacheSize() {
-        return cache.size();
+    public static long getCacheSize() {
+        return Canonicalizer.get().getSize(ScopeChain.class);
     }
 
     /**
      * Returns the number of cache misses.
      */
-    public static int getNumberOfCacheMisses() {
-        return cache_misses;
+    public static long getNumberOfCacheMisses() {
+        return Canonicalizer.get().getCacheMisses(ScopeChain.class);
     }
 
     /**
      * Returns the number of cache hits.
      */
-    public static int getNumberOfCacheHits() {
-        return cache_hits;
-    }
-
-    /**
-     * Resets the cache numbers.
-     */
-    public static void reset() {
-        cache_hits = 0;
-        cache_misses = 0;
-        clearCache();
+    public static long getNumberOfCacheHits() {
+        return Canonicalizer.get().getCacheHits(ScopeChain.class);
     }
 
     /**
@@ -94,7 +72,7 @@ public final class ScopeChain {
      * This object gets ownership of the set.
      */
     public static ScopeChain make(Set<ObjectLabel> obj, ScopeChain next) {
-        return canonicalize(new ScopeChain(obj, next));
+        return Canonicalizer.get().canonicalize(new ScopeChain(Canonicalizer.get().canonicalizeSet(obj), next));
     }
 
     /**
@@ -104,19 +82,6 @@ public final class ScopeChain {
         return make(Collections.singleton(obj), null);
     }
 
-    private static ScopeChain canonicalize(ScopeChain e) {
-        WeakReference<ScopeChain> ref = cache.get(e);
-        ScopeChain c = ref != null ? ref.get() : null;
-        if (c == null) {
-            cache.put(e, new WeakReference<>(e));
-            cache_misses++;
-        } else {
-            e = c;
-            cache_hits++;
-        }
-        return e;
-    }
-
     /**
      * Returns the tail of this scope chain, or null if none.
      */
@@ -207,7 +172,7 @@ public final class ScopeChain {
     public static ScopeChain add(ScopeChain s1, ScopeChain s2) {
         if (s1 == null)
             return s2;
-        if (s2 == null)
+        if (s2 == null || s1 == s2)
             return s1;
         ScopeChain n = add(s1.next, s2.next);
         Set<ObjectLabel> newobj = newSet();
@@ -242,14 +207,20 @@ public final class ScopeChain {
      */
     @Override
     public boolean equals(Object x) {
+        return x == this;
+    }
+
+    /**
+     * Checks whether the given scope chain is structurally equal to this one.
+     */
+    @Override
+    public boolean canonicalEquals(Object x) {
         if (x == this)
             return true;
         if (!(x instanceof ScopeChain))
             return false;
         ScopeChain e = (ScopeChain) x;
-        if ((next == null) != (e.next == null) || (next != null && !next.equals(e.next)))
-            return false;
-        return obj.equals(e.obj);
+        return next == e.next && obj == e.obj; // the components are canonical
     }
 
     /**
@@ -26,8 +26,12 @@ import dk.brics.tajs.solver.BlockAndContext;
 import dk.brics.tajs.solver.GenericSolver;
 import dk.brics.tajs.solver.IState;
 import dk.brics.tajs.util.AnalysisException;
+import dk.brics.tajs.util.AnalysisSession;
 import dk.brics.tajs.util.Canonicalizer;
 import dk.brics.tajs.util.Collectors;
+import dk.brics.tajs.util.CompactMap;
+import dk.brics.tajs.util.Metrics;
+import dk.brics.tajs.util.PersistentMap;
 import dk.brics.tajs.util.Strings;
 import org.apache.log4j.Logger;
 
@@ -44,8 +48,8 @@ import java.util.TreeSet;
 import java.util.function.Function;
 
 import static dk.brics.tajs.util.Collections.newList;
-import static dk.brics.tajs.util.Collections.newMap;
 import static dk.brics.tajs.util.Collections.newSet;
+import static dk.brics.tajs.util.Collections.newStoreMap;
 import static dk.brics.tajs.util.Collections.sortedEntries;
 
 /**
@@ -122,11 +126,62 @@ public class State implements IState<State, Context, CallEdge> {
 
     private MustEquals must_equals;
 
-    private static int number_of_states_created;
+    /**
+     * Objects that have been propagated into this state, for each source block and context.
+     * Only used if delta propagation is enabled, null if nothing has been recorded.
+     */
+    private Map<BlockAndContext<Context>, Map<ObjectLabel, PropagatedObj>> propagated_objs;
+
+    private static final AnalysisSession.Slot<Counters> counters = AnalysisSession.newSlot(Counters::new);
+
+    /**
+     * Statistics counters of an analysis session.
+     */
+    private static final class Counters {
+
+        final Metrics.Counter number_of_states_created = Metrics.get().counter("tajs_states_created_total", "Number of abstract states created");
+
+        final Metrics.Counter number_of_makewritable_store = Metrics.get().counter("tajs_state_makewritable_store_total", "Number of copy-on-write copies of state stores");
+
+        final Metrics.Counter number_of_makewritable_registers = Metrics.get().counter("tajs_state_makewritable_registers_total", "Number of copy-on-write copies of state registers");
+
+        final Metrics.Counter number_of_delta_skipped_objs = Metrics.get().counter("tajs_state_delta_skipped_objects_total", "Number of objects skipped by delta propagation");
+
+        final Metrics.Counter number_of_compactions = Metrics.get().counter("tajs_state_compactions_total", "Number of block entry states compacted while not being transferred");
+
+        void reset() {
+            number_of_states_created.reset();
+            number_of_compactions.reset();
+            number_of_makewritable_store.reset();
+            number_of_makewritable_registers.reset();
+            number_of_delta_skipped_objs.reset();
+        }
+    }
+
+    /**
+     * Object that has been propagated into this state, and the resulting object in this state.
+     */
+    private static final class PropagatedObj {
+
+        final Obj from; // non-writable
+
+        final Obj to;
+
+        final int to_version;
 
-    private static int number_of_makewritable_store;
+        PropagatedObj(Obj from, Obj to) {
+            this.from = from;
+            this.to = to;
+            this.to_version = to.getVersion();
+        }
 
-    private static int number_of_makewritable_registers; // TODO: currently not used
+        /**
+         * Checks whether propagating the given object into the given object is known to have no effect.
+         */
+        boolean isUnchanged(Obj from, Obj to) {
+            return this.from == from && this.to == to && to_version == to.getVersion();
+        }
+    }
 
     private PartitioningInfo partitioning;
 
@@ -141,7 +196,7 @@ public class State implements IState<State, Context, CallEdge> {
         must_reaching_defs = new MustReachingDefs();
         must_equals = new MustEquals();
         setToBottom();
-        number_of_states_created++;
+        AnalysisSession.current().get(counters).number_of_states_created.increment();
     }
 
     /**
@@ -152,7 +207,7 @@ public class State implements IState<State, Context, CallEdge> {
         block = x.block;
         context = x.context;
         setToState(x);
-        number_of_states_created++;
+        AnalysisSession.current().get(counters).number_of_states_created.increment();
     }
 
     /**
@@ -173,16 +228,14 @@ public class State implements IState<State, Context, CallEdge> {
         must_reaching_defs = new MustReachingDefs(x.must_reaching_defs);
         must_equals = new MustEquals(x.must_equals);
 //        if (Options.get().isCopyOnWriteDisabled()) {
-        store = newMap();
-        for (Map.Entry<ObjectLabel, Obj> xs : x.store.entrySet()) {
-            Obj obj =  Canonicalizer.get().canonicalizeViaImmutableBox(xs.getValue().freeze());
-            writeToStore(xs.getKey(), obj);
-            xs.setValue(obj); // write back canonicalized object
-        }
+        for (Map.Entry<ObjectLabel, Obj> xs : x.store.entrySet())
+            xs.setValue(Canonicalizer.get().canonicalizeViaImmutableBox(xs.getValue().freeze())); // write back canonicalized object
+        store = newStoreMap(x.store);
         basis_store = x.basis_store;
         writable_store = true;
         execution_context = x.execution_context.clone();
         writable_execution_context = true;
+        propagated_objs = null;
         registers = newList(x.registers);
         writable_registers = true;
         stacked_objlabels = newSet(x.stacked_objlabels);
@@ -236,6 +289,14 @@ public class State implements IState<State, Context, CallEdge> {
         return block;
     }
 
+    /**
+     * Returns the number of abstract objects in the store.
+     */
+    @Override
+    public int getSize() {
+        return store.size();
+    }
+
     @Override
     public Context getContext() {
         return context;
@@ -352,6 +413,7 @@ public class State implements IState<State, Context, CallEdge> {
      * Removes objects that are equal to the default object.
      */
     public void removeObjectsEqualToDefault(boolean default_none_at_entry) {
+        makeWritableStore();
         for (Iterator<Map.Entry<ObjectLabel, Obj>> it = store.entrySet().iterator(); it.hasNext(); ) {
             Map.Entry<ObjectLabel, Obj> me = it.next();
             if (me.getValue().equals(store_default)) {
@@ -381,7 +443,7 @@ public class State implements IState<State, Context, CallEdge> {
     public void freezeBasisStore() {
         if (Options.get().isLazyDisabled()) {
             basis_store = store;
-            store = newMap();
+            store = newStoreMap();
             writable_store = true;
             log.debug("freezeBasisStore()");
         }
@@ -393,9 +455,44 @@ public class State implements IState<State, Context, CallEdge> {
     public void makeWritableStore() {
         if (writable_store)
             return;
-        store = newMap(store);
+        store = newStoreMap(store);
         writable_store = true;
-        number_of_makewritable_store++;
+        AnalysisSession.current().get(counters).number_of_makewritable_store.increment();
+    }
+
+    /**
+     * Compacts this state to reduce its memory usage while it is not being transferred.
+     * The objects in the store are frozen and canonicalized, and a store with more entries than the array form
+     * of {@link dk.brics.tajs.util.HybridArrayHashMap} is replaced by a read-only {@link CompactMap},
+     * which is copied back to an ordinary map by {@link #makeWritableStore()} when the store is modified.
+     * Ignores the basis store. Does nothing if the state is already compact.
+     */
+    public void compact() {
+        if (isCompact())
+            return;
+        for (Map.Entry<ObjectLabel, Obj> xs : store.entrySet())
+            xs.setValue(Canonicalizer.get().canonicalizeViaImmutableBox(xs.getValue().freeze()));
+        store_default = Canonicalizer.get().canonicalizeViaImmutableBox(store_default.freeze());
+        if (!(store instanceof PersistentMap) // persistent maps share structure with other states
+                && store.size() > Options.Constants.HYBRID_ARRAY_HASH_MAP_ARRAY_SIZE) // smaller maps are already compact
+            store = new CompactMap<>(store);
+        writable_store = false;
+        propagated_objs = null;
+        AnalysisSession.current().get(counters).number_of_compactions.increment();
+    }
+
+    /**
+     * Checks whether this state is compact, that is, whether the store has not been modified since {@link #compact()}.
+     */
+    public boolean isCompact() {
+        return !writable_store;
+    }
+
+    /**
+     * Returns the total number of state compactions.
+     */
+    public static int getNumberOfCompactions() {
+        return (int) AnalysisSession.current().get(counters).number_of_compactions.get();
     }
 
     /**
@@ -416,7 +513,7 @@ public class State implements IState<State, Context, CallEdge> {
             return;
         registers = newList(registers);
         writable_registers = true;
-        number_of_makewritable_registers++;
+        AnalysisSession.current().get(counters).number_of_makewritable_registers.increment();
     }
 
     /**
@@ -460,23 +557,21 @@ public class State implements IState<State, Context, CallEdge> {
      * Returns the total number of State objects created.
      */
     public static int getNumberOfStatesCreated() {
-        return number_of_states_created;
+        return (int) AnalysisSession.current().get(counters).number_of_states_created.get();
     }
 
     /**
      * Resets the global counters.
      */
     public static void reset() {
-        number_of_states_created = 0;
-        number_of_makewritable_store = 0;
-        number_of_makewritable_registers = 0;
+        AnalysisSession.current().get(counters).reset();
     }
 
     /**
      * Returns the total number of makeWritableStore operations.
      */
     public static int getNumberOfMakeWritableStoreCalls() {
-        return number_of_makewritable_store;
+        return (int) AnalysisSession.current().get(counters).number_of_makewritable_store.get();
     }
 
     /**
@@ -485,7 +580,7 @@ public class State implements IState<State, Context, CallEdge> {
      */
     private void clearModified() {
         Map<ObjectLabel, Obj> oldStore = store;
-        store = newMap();
+        store = newStoreMap();
         for (Map.Entry<ObjectLabel, Obj> xs : oldStore.entrySet()) {
             Obj obj = xs.getValue();
             if (obj.isSomeModified()) {
@@ -495,19 +590,20 @@ public class State implements IState<State, Context, CallEdge> {
             writeToStore(xs.getKey(), obj);
         }
         writable_store = true;
-        number_of_makewritable_store++;
+        AnalysisSession.current().get(counters).number_of_makewritable_store.increment();
         log.debug("clearModified()");
     }
 
     @Override
     public void setToBottom() {
         basis_store = null;
+        propagated_objs = null;
         renamings.clear();
         extras.setToBottom();
         must_reaching_defs.setToBottom();
         must_equals.setToBottom();
 //        if (Options.get().isCopyOnWriteDisabled()) {
-        store = newMap();
+        store = newStoreMap();
         writable_store = true;
         registers = new ArrayList<>();
         writable_registers = true;
@@ -882,11 +978,32 @@ public class State implements IState<State, Context, CallEdge> {
         makeWritableRegisters();
         makeWritableStacked();
         boolean changed = execution_context.add(s.execution_context);
-        Set<ObjectLabel> labs = newSet();
-        labs.addAll(store.keySet());
-        labs.addAll(s.store.keySet());
-        for (ObjectLabel lab : labs)
+        Set<ObjectLabel> labs;
+        if (store instanceof PersistentMap && s.store instanceof PersistentMap) {
+            // objects that are shared by the stores are skipped by propagateObj anyway
+            labs = ((PersistentMap<ObjectLabel, Obj>) store).getKeysWithDifferentValues((PersistentMap<ObjectLabel, Obj>) s.store);
+        } else {
+            labs = newSet();
+            labs.addAll(store.keySet());
+            labs.addAll(s.store.keySet());
+        }
+        Map<ObjectLabel, PropagatedObj> previous = null;
+        if (Options.get().isDeltaPropagationEnabled() && s.block != null && s.context != null) {
+            if (propagated_objs == null)
+                propagated_objs = new HashMap<>();
+            previous = propagated_objs.computeIfAbsent(new BlockAndContext<>(s.block, s.context), k -> new HashMap<>());
+        }
+        for (ObjectLabel lab : labs) {
+            if (previous != null) {
+                PropagatedObj p = previous.get(lab);
+                if (p != null && p.isUnchanged(s.store.get(lab), store.get(lab))) {
+                    // the same object has been joined into the current object before
+                    AnalysisSession.current().get(counters).number_of_delta_skipped_objs.increment();
+                    continue;
+                }
+            }
             changed |= propagateObj(lab, s, lab, false, widen);
+        }
         if (Options.get().isLazyDisabled())
             changed |= stacked_objlabels.addAll(s.stacked_objlabels);
         changed |= stacked_funentries.addAll(s.stacked_funentries);
@@ -922,6 +1039,8 @@ public class State implements IState<State, Context, CallEdge> {
             store_default = s.store_default = Canonicalizer.get().canonicalizeViaImmutableBox(s.store_default.freeze());
             changed = true;
         }
+        if (previous != null)
+            recordPropagatedObjs(previous, s, labs);
         if (log.isDebugEnabled()) {
             if (Options.get().isIntermediateStatesEnabled())
                 log.debug("propagate result state: " + this);
@@ -931,6 +1050,50 @@ public class State implements IState<State, Context, CallEdge> {
         return changed;
     }
 
+    /**
+     * Records the objects of the given state that have been propagated into this state.
+     * An object is only recorded if it is non-writable and joining it into the resulting object does not depend on other
+     * states, see {@link #isIndependentJoin(Obj, Obj)}.
+     */
+    private void recordPropagatedObjs(Map<ObjectLabel, PropagatedObj> previous, State s, Set<ObjectLabel> labs) {
+        for (ObjectLabel lab : labs) {
+            Obj from = s.store.get(lab);
+            Obj to = store.get(lab);
+            PropagatedObj p = previous.get(lab);
+            if (p != null && p.isUnchanged(from, to))
+                continue;
+            if (from != null && to != null && from != to && !from.isWritable()
+                    && isIndependentJoin(from, to))
+                previous.put(lab, new PropagatedObj(from, to));
+            else if (p != null)
+                previous.remove(lab);
+        }
+    }
+
+    /**
+     * Checks whether joining the first object into the second object does not depend on the states containing them,
+     * meaning that no values are polymorphic and the values are either 'unknown' in both objects or in none of them.
+     */
+    private static boolean isIndependentJoin(Obj from, Obj to) {
+        if (from.isScopeChainUnknown() != to.isScopeChainUnknown()
+                || !isIndependentJoin(from.getDefaultNumericProperty(), to.getDefaultNumericProperty())
+                || !isIndependentJoin(from.getDefaultOtherProperty(), to.getDefaultOtherProperty())
+                || !isIndependentJoin(from.getInternalPrototype(), to.getInternalPrototype())
+                || !isIndependentJoin(from.getInternalValue(), to.getInternalValue()))
+            return false;
+        for (PKey propertyname : from.getPropertyNames())
+            if (!isIndependentJoin(from.getProperty(propertyname), to.getProperty(propertyname)))
+                return false;
+        for (PKey propertyname : to.getPropertyNames())
+            if (!from.getProperties().containsKey(propertyname) && !isIndependentJoin(from.getProperty(propertyname), to.getProperty(propertyname)))
+                return false;
+        return true;
+    }
+
+    private static boolean isIndependentJoin(Value from, Value to) {
+        return !from.isPolymorphic() && !to.isPolymorphic() && from.isUnknown() == to.isUnknown();
+    }
+
     /**
      * Propagates objlabel2 from state2 into objlabel1 in this state.
      * Replaces 'unknown' and polymorphic values when necessary.
@@ -1876,11 +2039,16 @@ public class State implements IState<State, Context, CallEdge> {
 
     /**
      * Runs garbage collection on the contents of this state.
-     * Ignored if {@link OptionValues#isGCDisabled()} or {@link OptionValues#isRecencyDisabled()} is set.
+     * Ignored if {@link OptionValues#isGCDisabled()} or {@link OptionValues#isRecencyDisabled()} is set,
+     * or if skipped by the {@link GarbageCollectionPolicy}.
      */
     public void gc(Value extra) {
         if (Options.get().isGCDisabled() || Options.get().isRecencyDisabled())
             return;
+        GarbageCollectionPolicy policy = GarbageCollectionPolicy.get();
+        if (!policy.shouldCollect(block.getFunction(), store.size()))
+            return;
+        long time = System.nanoTime();
         if (Options.get().isIntermediateStatesEnabled())
             if (log.isDebugEnabled())
                 log.debug("gc(): Before: " + this);
@@ -1891,12 +2059,16 @@ public class State implements IState<State, Context, CallEdge> {
             log.debug("gc(): Unreachable objects: " + dead);
         }
         makeWritableStore();
+        int reclaimed = 0;
         for (ObjectLabel objlabel : dead) {
+            if (!store.get(objlabel).isAllNone())
+                reclaimed++;
             if (noneAtEntry(objlabel, entry_state))
                 store.remove(objlabel);
             else
                 writeToStore(objlabel, Obj.makeNoneModified());
         }
+        policy.record(block.getFunction(), reclaimed, System.nanoTime() - time);
         // don't remove from renamings (it may contain dead object labels)
         if (Options.get().isIntermediateStatesEnabled())
             if (log.isDebugEnabled())
@@ -2141,7 +2313,7 @@ public class State implements IState<State, Context, CallEdge> {
         if (!Options.get().isLazyDisabled()) {
             if (s == null) {
                 // set everything to unknown
-                store = newMap();
+                store = newStoreMap();
                 writable_store = true;
                 store_default = Obj.makeUnknown();
             } else {
@@ -2159,7 +2331,7 @@ public class State implements IState<State, Context, CallEdge> {
                 }
                 // remove all-unknown objects
                 Map<ObjectLabel, Obj> oldStore = store;
-                store = newMap();
+                store = newStoreMap();
                 for (Map.Entry<ObjectLabel, Obj> xs : oldStore.entrySet())
                     if (!xs.getValue().isUnknown())
                         writeToStore(xs.getKey(), xs.getValue());
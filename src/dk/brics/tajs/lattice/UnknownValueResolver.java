@@ -593,14 +593,14 @@ public final class UnknownValueResolver {
      * The enclosing entry is the nearest for-in body entry or function entry.
      */
     private static State getEntryState(State s) {
-        return s.getSolverInterface().getAnalysisLatticeElement().getState(BlockAndContext.makeEntry(s.getBasicBlock(), s.getContext()));
+        return s.getSolverInterface().getAnalysisLatticeElement().getState(s.getBasicBlock().getEntryBlock(), s.getContext().getContextAtEntry()); // avoids allocating a BlockAndContext
     }
 
     /**
      * Returns the enclosing entry state for the given node and context.
      */
     private static State getEntryState(GenericSolver<State, Context, CallEdge, ?, ?>.SolverInterface c, Context context, AbstractNode node) {
-        return c.getAnalysisLatticeElement().getState(BlockAndContext.makeEntry(node.getBlock(), context));
+        return c.getAnalysisLatticeElement().getState(node.getBlock().getEntryBlock(), context.getContextAtEntry());
     }
 
     /**
@@ -20,9 +20,13 @@ import dk.brics.tajs.flowgraph.SourceLocation;
 import dk.brics.tajs.lattice.ObjectLabel.Kind;
 import dk.brics.tajs.options.Options;
 import dk.brics.tajs.util.AnalysisException;
+import dk.brics.tajs.util.AnalysisSession;
 import dk.brics.tajs.util.Canonicalizer;
 import dk.brics.tajs.util.Collectors;
 import dk.brics.tajs.util.DeepImmutable;
+import dk.brics.tajs.util.Metrics;
+import dk.brics.tajs.util.OperationCache;
+import dk.brics.tajs.util.StringSet;
 import dk.brics.tajs.util.Strings;
 
 import java.util.Arrays;
@@ -206,7 +210,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
      * &&
      * !((flags & STR_PREFIX) != 0 && (str == null || str.length == 0))
      * &&
-     * !((flags & NUM_ANY) != 0 && num != null)
+     * !((flags & NUM_ANY) != 0 && hasNum())
      * &&
      * !(object_labels != null && object_labels.isEmpty())
      * &&
@@ -220,11 +224,9 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
      * &&
      * !(v.excluded_strings != null && v.included_strings != null)
      * &&
-     * !(num != null && Double.isNaN(num))
+     * !((flags & UNKNOWN) != 0 && ((flags & ~UNKNOWN) != 0 || str != null || hasNum() || !object_labels.isEmpty()) || !getters.isEmpty()) || !setters.isEmpty()))
      * &&
-     * !((flags & UNKNOWN) != 0 && ((flags & ~UNKNOWN) != 0 || str != null || num != null || !object_labels.isEmpty()) || !getters.isEmpty()) || !setters.isEmpty()))
-     * &&
-     * !(var != null && ((flags & PRIMITIVE) != 0 || str != null || num != null || !object_labels.isEmpty()) || !getters.isEmpty()) || !setters.isEmpty()))
+     * !(var != null && ((flags & PRIMITIVE) != 0 || str != null || hasNum() || !object_labels.isEmpty()) || !getters.isEmpty()) || !setters.isEmpty()))
      * &&
      * !((flags & (PRESENT_DATA | PRESENT_ACCESSOR) != 0 && var == null)
      * &&
@@ -241,9 +243,10 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
     private int flags; // see invariant above
 
     /**
-     * Constant number, may be +/-Infinity but not NaN.
+     * Constant number, may be +/-Infinity.
+     * NaN means absent (the number NaN is represented by the NUM_NAN flag), which avoids boxing.
      */
-    private Double num;
+    private double num = Double.NaN;
 
     /**
      * Constant string or prefix.
@@ -302,7 +305,18 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
      */
     protected boolean locked;
 
-    protected static boolean canonicalizing; // set during canonicalization
+    /**
+     * Operations on canonical values whose results are cached.
+     */
+    private static final int OP_JOIN = 0, OP_JOIN_WIDEN = 1, OP_JOIN_MODIFIED = 2, OP_RESTRICT_TO_NOT_MODIFIED = 3,
+            OP_RESTRICT_TO_NOT_ABSENT = 4, OP_JOIN_ABSENT = 5, OP_JOIN_ABSENT_MODIFIED = 6, OP_REPLACE_VALUE = 7;
+
+    private static final AnalysisSession.Slot<OperationCache<Value>> operation_cache = AnalysisSession.newSlot(() -> {
+        OperationCache<Value> c = new OperationCache<>(Options.Constants.VALUE_OPERATION_CACHE_SIZE);
+        Metrics.get().gauge("tajs_value_operation_cache_hits", "Number of operations on values whose results were found in the cache", c::getHits);
+        Metrics.get().gauge("tajs_value_operation_cache_misses", "Number of operations on values whose results were not found in the cache", c::getMisses);
+        return c;
+    });
 
     static {
         init();
@@ -341,7 +355,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
      */
     protected Value() {
         flags = 0;
-        num = null;
+        num = Double.NaN;
         str = null;
         object_labels = getters = setters = null;
         excluded_strings = included_strings = null;
@@ -379,10 +393,8 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
                 msg = "fixed string and flags inconsistent";
             else if ((v.flags & STR_PREFIX) != 0 && (v.str == null || v.str.isEmpty()))
                 msg = "prefix string inconsistent";
-            else if ((v.flags & NUM) != 0 && v.num != null)
+            else if ((v.flags & NUM) != 0 && v.hasNum())
                 msg = "number facet inconsistent";
-            else if (v.num != null && Double.isNaN(v.num))
-                msg = "number constant is NaN";
             else if (v.object_labels != null && v.object_labels.isEmpty())
                 msg = "empty set of object labels";
             else if (v.getters != null && v.getters.isEmpty())
@@ -397,12 +409,12 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
                 msg = "invalid number of included strings";
             else if (v.excluded_strings != null && v.included_strings != null)
                 msg = "has both excluded strings and included strings";
-            else if ((v.flags & UNKNOWN) != 0 && ((v.flags & ~UNKNOWN) != 0 || v.str != null || v.num != null
+            else if ((v.flags & UNKNOWN) != 0 && ((v.flags & ~UNKNOWN) != 0 || v.str != null || v.hasNum()
                     || (v.object_labels != null && !v.object_labels.isEmpty())
                     || (v.getters != null && !v.getters.isEmpty())
                     || (v.setters != null && !v.setters.isEmpty())))
                 msg = "'unknown' inconsistent with other flags";
-            else if (v.var != null && ((v.flags & PRIMITIVE) != 0 || v.str != null || v.num != null
+            else if (v.var != null && ((v.flags & PRIMITIVE) != 0 || v.str != null || v.hasNum()
                     || (v.object_labels != null && !v.object_labels.isEmpty())
                     || (v.getters != null && !v.getters.isEmpty())
                     || (v.setters != null && !v.setters.isEmpty())))
@@ -421,7 +433,6 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
             if (Options.get().isPolymorphicDisabled() && v.isPolymorphic())
                 throw new AnalysisException("Unexpected polymorphic value");
         }
-        canonicalizing = true;
         if (v.object_labels != null)
             v.object_labels = Canonicalizer.get().canonicalizeSet(v.object_labels);
         if (v.getters != null)
@@ -434,7 +445,6 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
             v.included_strings = Canonicalizer.get().canonicalizeStringSet(v.included_strings);
         v.hashcode = v.computeHashCode();
         Value cv = Canonicalizer.get().canonicalize(v);
-        canonicalizing = false;
         cv.locked = true;
         return cv;
     }
@@ -445,7 +455,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
     protected int computeHashCode() {
         return flags * 17
                 + (var != null ? var.hashCode() : 0)
-                + (num != null ? num.hashCode() : 0)
+                + (hasNum() ? Double.hashCode(num) : 0)
                 + (str != null ? str.hashCode() : 0)
                 + (object_labels != null ? object_labels.hashCode() : 0)
                 + (getters != null ? getters.hashCode() : 0)
@@ -460,9 +470,19 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
      * Resets the cache.
      */
     public static void reset() {
+        AnalysisSession.current().get(operation_cache).clear();
         init();
     }
 
+    /**
+     * Returns the operation cache of the current session, or null if disabled or if the operands are not canonical.
+     */
+    private static OperationCache<Value> getOperationCache(Value a, Value b) {
+        if (!a.locked || (b != null && !b.locked) || Options.get().isValueCacheDisabled())
+            return null;
+        return AnalysisSession.current().get(operation_cache);
+    }
+
     /**
      * Returns the free variable info, or null if empty.
      */
@@ -610,7 +630,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
      */
     public boolean isNone() {
         if (var == null)
-            return (flags & (PRIMITIVE | ABSENT | UNKNOWN)) == 0 && num == null && str == null && object_labels == null && getters == null && setters == null;
+            return (flags & (PRIMITIVE | ABSENT | UNKNOWN)) == 0 && !hasNum() && str == null && object_labels == null && getters == null && setters == null;
         else
             return (flags & (ABSENT | PRESENT_DATA | PRESENT_ACCESSOR)) == 0;
     }
@@ -631,9 +651,14 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         checkNotUnknown();
         if (isMaybeModified())
             return this;
+        OperationCache<Value> cache = getOperationCache(this, null);
+        Value c = cache != null ? cache.get(OP_JOIN_MODIFIED, this, null) : null;
+        if (c != null)
+            return c;
         Value r = new Value(this);
         r.flags |= MODIFIED;
-        return canonicalize(r);
+        r = canonicalize(r);
+        return cache != null ? cache.put(OP_JOIN_MODIFIED, this, null, r) : r;
     }
 
     /**
@@ -642,9 +667,14 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
     public Value restrictToNotModified() {
         if (!isMaybeModified())
             return this;
+        OperationCache<Value> cache = getOperationCache(this, null);
+        Value c = cache != null ? cache.get(OP_RESTRICT_TO_NOT_MODIFIED, this, null) : null;
+        if (c != null)
+            return c;
         Value r = new Value(this);
         r.flags &= ~MODIFIED;
-        return canonicalize(r);
+        r = canonicalize(r);
+        return cache != null ? cache.put(OP_RESTRICT_TO_NOT_MODIFIED, this, null, r) : r;
     }
 
     /**
@@ -675,11 +705,16 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         checkNotUnknown();
         if (isNotAbsent())
             return this;
+        OperationCache<Value> cache = getOperationCache(this, null);
+        Value c = cache != null ? cache.get(OP_RESTRICT_TO_NOT_ABSENT, this, null) : null;
+        if (c != null)
+            return c;
         Value r = new Value(this);
         r.flags &= ~ABSENT;
         if (r.var != null && (r.flags & (PRESENT_DATA | PRESENT_ACCESSOR)) == 0)
             r.var = null;
-        return canonicalize(r);
+        r = canonicalize(r);
+        return cache != null ? cache.put(OP_RESTRICT_TO_NOT_ABSENT, this, null, r) : r;
     }
 
     /**
@@ -691,7 +726,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
             return this;
         Value r = new Value(this);
         r.flags &= ~PRIMITIVE;
-        r.num = null;
+        r.num = Double.NaN;
         r.str = null;
         r.object_labels = null;
         r.excluded_strings = r.included_strings = null;
@@ -787,9 +822,14 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         checkNotUnknown();
         if (isMaybeAbsent())
             return this;
+        OperationCache<Value> cache = getOperationCache(this, null);
+        Value c = cache != null ? cache.get(OP_JOIN_ABSENT, this, null) : null;
+        if (c != null)
+            return c;
         Value r = new Value(this);
         r.flags |= ABSENT;
-        return canonicalize(r);
+        r = canonicalize(r);
+        return cache != null ? cache.put(OP_JOIN_ABSENT, this, null, r) : r;
     }
 
     /**
@@ -799,9 +839,14 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         checkNotUnknown();
         if (isMaybeAbsent() && isMaybeModified())
             return this;
+        OperationCache<Value> cache = getOperationCache(this, null);
+        Value c = cache != null ? cache.get(OP_JOIN_ABSENT_MODIFIED, this, null) : null;
+        if (c != null)
+            return c;
         Value r = new Value(this);
         r.flags |= ABSENT | MODIFIED;
-        return canonicalize(r);
+        r = canonicalize(r);
+        return cache != null ? cache.put(OP_JOIN_ABSENT_MODIFIED, this, null, r) : r;
     }
 
     private static Value reallyMakeAbsent() {
@@ -1123,11 +1168,17 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
     protected Value joinSingleValue(Value v, boolean widen) {
         if (v == this)
             return this;
+        int op = widen ? OP_JOIN_WIDEN : OP_JOIN;
+        OperationCache<Value> cache = getOperationCache(this, v);
+        Value c = cache != null ? cache.get(op, this, v) : null;
+        if (c != null)
+            return c;
         Value r = new Value(this);
-        if (r.joinMutableSingleValue(v, widen)) {
-            return canonicalize(r);
-        }
-        return this;
+        if (r.joinMutableSingleValue(v, widen))
+            r = canonicalize(r);
+        else
+            r = this;
+        return cache != null ? cache.put(op, this, v, r) : r;
     }
 
     /**
@@ -1177,14 +1228,14 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         int oldflags = flags;
         if (!v.isPolymorphic()) {
             // numbers
-            if (num != null)
-                if (v.num != null) {
+            if (hasNum())
+                if (v.hasNum()) {
                     // both this and v are single numbers
-                    if (!num.equals(v.num)) {
+                    if (!isSameNum(num, v.num)) {
                         // both this and v are single numbers, and the numbers are different
                         joinSingleNumberAsFuzzy(num);
                         joinSingleNumberAsFuzzy(v.num);
-                        num = null;
+                        num = Double.NaN;
                         modified = true;
                     } // otherwise this and v are equal single numbers, so do nothing
                 } else {
@@ -1192,11 +1243,11 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
                     if ((v.flags & NUM) != 0) {
                         // this is a single number, v is fuzzy
                         joinSingleNumberAsFuzzy(num);
-                        num = null;
+                        num = Double.NaN;
                         modified = true;
                     } // otherwise v is empty. so do nothing
                 }
-            else if (v.num != null) {
+            else if (v.hasNum()) {
                 // this is not a single number, v is a single number
                 if ((flags & NUM) != 0) {
                     // this is a fuzzy number, v is a single number
@@ -1289,8 +1340,9 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
     private boolean joinIncludedStrings(Value v, boolean widen) {
         if (included_strings != null && v.included_strings != null) {
             // both this and v have included strings, so just union
-            this.included_strings = newSet(included_strings);
-            boolean changed = included_strings.addAll(v.included_strings);
+            Set<String> union = StringSet.of(included_strings).union(v.included_strings);
+            boolean changed = union.size() != included_strings.size();
+            included_strings = union;
             if (widen && changed) {
                 // apply widening
                 included_strings = null;
@@ -1310,8 +1362,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
                         return false;
                     } else if (!widen) {
                         // v contains a fixed string that is not already in included_strings
-                        included_strings = newSet(included_strings);
-                        included_strings.add(v.str);
+                        included_strings = StringSet.of(included_strings).with(v.str);
                         if (included_strings.size() > Options.Constants.STRING_SETS_BOUND)
                             included_strings = null;
                         return true;
@@ -1336,8 +1387,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
                         return true;
                     } else {
                         // this contains a fixed string that is not already in v.included_strings
-                        included_strings = newSet(v.included_strings);
-                        included_strings.add(str); // str is set to null later by joinSingleStringOrPrefixString
+                        included_strings = StringSet.of(v.included_strings).with(str); // str is set to null later by joinSingleStringOrPrefixString
                         if (included_strings.size() > Options.Constants.STRING_SETS_BOUND)
                             included_strings = null;
                         return true;
@@ -1381,11 +1431,18 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
 
     /**
      * Checks whether the given object is equal to this one.
+     * Values are canonicalized, so object identity is used as equality.
      */
     @Override
     public boolean equals(Object obj) {
-        if (!canonicalizing) // use object identity as equality, except during canonicalization
-            return obj == this;
+        return obj == this;
+    }
+
+    /**
+     * Checks whether the given object is structurally equal to this one.
+     */
+    @Override
+    public boolean canonicalEquals(Object obj) {
         if (obj == this)
             return true;
         if (!(obj instanceof Value))
@@ -1394,7 +1451,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         // noinspection StringEquality
         return flags == v.flags
                 && (var == v.var || (var != null && v.var != null && var.equals(v.var)))
-                && ((num == null && v.num == null) || (num != null && v.num != null && num.equals(v.num)))
+                && isSameNum(num, v.num)
                 && (str == v.str || (str != null && v.str != null && str.equals(v.str)))
                 && (object_labels == v.object_labels || (object_labels != null && v.object_labels != null && object_labels.equals(v.object_labels)))
                 && (getters == v.getters || (getters != null && v.getters != null && getters.equals(v.getters)))
@@ -1529,7 +1586,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
                 b.append("Num");
                 any = true;
             } else {
-                if (num == null && isMaybeZero() && !isMaybeNumUIntPos()) {
+                if (!hasNum() && isMaybeZero() && !isMaybeNumUIntPos()) {
                     if (any)
                         b.append('|');
                     b.append("Zero");
@@ -1563,7 +1620,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
                     b.append("Inf");
                     any = true;
                 }
-                if (num != null) {
+                if (hasNum()) {
                     if (any)
                         b.append('|');
                     b.append(num);
@@ -1921,7 +1978,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
     @Override
     public boolean isMaybeOtherThanUndef() {
         checkNotPolymorphicOrUnknown();
-        return (flags & (NULL | BOOL | NUM | STR)) != 0 || num != null || str != null || object_labels != null || getters != null || setters != null;
+        return (flags & (NULL | BOOL | NUM | STR)) != 0 || hasNum() || str != null || object_labels != null || getters != null || setters != null;
     }
 
     @Override
@@ -1981,7 +2038,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
     @Override
     public boolean isMaybeOtherThanNull() {
         checkNotPolymorphicOrUnknown();
-        return (flags & (UNDEF | BOOL | NUM | STR)) != 0 || num != null || str != null || object_labels != null || getters != null || setters != null;
+        return (flags & (UNDEF | BOOL | NUM | STR)) != 0 || hasNum() || str != null || object_labels != null || getters != null || setters != null;
     }
 
     @Override
@@ -2017,7 +2074,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
     public boolean isNullOrUndef() {
         checkNotPolymorphicOrUnknown();
         return (flags & (NULL | UNDEF)) != 0
-                && (flags & (NUM | STR | BOOL)) == 0 && num == null && str == null && object_labels == null && getters == null && setters == null;
+                && (flags & (NUM | STR | BOOL)) == 0 && !hasNum() && str == null && object_labels == null && getters == null && setters == null;
     }
 
     /**
@@ -2086,7 +2143,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
     @Override
     public boolean isMaybeOtherThanBool() {
         checkNotPolymorphicOrUnknown();
-        return (flags & (UNDEF | NULL | NUM | STR)) != 0 || num != null || str != null || object_labels != null || getters != null || setters != null;
+        return (flags & (UNDEF | NULL | NUM | STR)) != 0 || hasNum() || str != null || object_labels != null || getters != null || setters != null;
     }
 
     @Override
@@ -2195,8 +2252,8 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         Value r = new Value(this);
         if ((r.flags & STR_PREFIX) == 0 && r.str != null && r.str.isEmpty())
             r.str = null;
-        if (r.num != null && Math.abs(r.num) == 0.0)
-            r.num = null;
+        if (r.hasNum() && Math.abs(r.num) == 0.0)
+            r.num = Double.NaN;
         r.flags &= ~(BOOL_FALSE | NULL | UNDEF | NUM_NAN | NUM_ZERO | ABSENT);
         if (r.isMaybeFuzzyStr())
             return r.restrictToNotStrings(singleton(""));
@@ -2216,8 +2273,8 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         else
             r.str = null;
         r.flags &= ~STR;
-        if (r.num != null && Math.abs(r.num) != 0.0)
-            r.num = null;
+        if (r.hasNum() && Math.abs(r.num) != 0.0)
+            r.num = Double.NaN;
         r.object_labels = r.getters = r.setters = null;
         r.flags &= ~(BOOL_TRUE | STR_PREFIX | (NUM & ~(NUM_ZERO | NUM_NAN)));
         r.excluded_strings = r.included_strings = null;
@@ -2252,13 +2309,13 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
     @Override
     public boolean isMaybeSingleNum() {
         checkNotPolymorphicOrUnknown();
-        return num != null;
+        return hasNum();
     }
 
     @Override
     public boolean isMaybeSingleNumUInt() {
         checkNotPolymorphicOrUnknown();
-        return num != null && isUInt32(num);
+        return hasNum() && isUInt32(num);
     }
 
     @Override
@@ -2294,7 +2351,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
     @Override
     public boolean isMaybeNum(double num) {
         checkNotPolymorphicOrUnknown();
-        if (this.num != null) {
+        if (this.hasNum()) {
             return this.num == num;
         } else if (Double.isInfinite(num)) {
             return (flags & NUM_INF) != 0;
@@ -2313,6 +2370,20 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         return num == 0;
     }
 
+    /**
+     * Checks whether this value has a constant number.
+     */
+    private boolean hasNum() {
+        return !Double.isNaN(num);
+    }
+
+    /**
+     * Checks whether the given numbers are identical, distinguishing 0 and -0 (like {@link Double#equals(Object)}).
+     */
+    private static boolean isSameNum(double a, double b) {
+        return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+    }
+
     @Override
     public boolean isMaybeNumUInt() {
         checkNotPolymorphicOrUnknown();
@@ -2340,13 +2411,13 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
     @Override
     public Double getNum() {
         checkNotPolymorphicOrUnknown();
-        return num != null ? num : (flags & NUM_NAN) != 0 ? Double.NaN : null;
+        return hasNum() ? Double.valueOf(num) : (flags & NUM_NAN) != 0 ? Double.valueOf(Double.NaN) : null;
     }
 
     @Override
     public boolean isNotNum() {
         checkNotPolymorphicOrUnknown();
-        return (flags & NUM) == 0 && num == null;
+        return (flags & NUM) == 0 && !hasNum();
     }
 
     @Override
@@ -2355,7 +2426,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         if (isMaybeAnyNum())
             return this;
         Value r = new Value(this);
-        r.num = null;
+        r.num = Double.NaN;
         r.flags |= NUM;
         return canonicalize(r);
     }
@@ -2367,8 +2438,8 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
             return this;
         Value r = new Value(this);
         r.flags |= NUM_UINT;
-        r.num = null;
-        if (num != null)
+        r.num = Double.NaN;
+        if (hasNum())
             r.joinSingleNumberAsFuzzy(num);
         return canonicalize(r);
     }
@@ -2380,8 +2451,8 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
             return this;
         Value r = new Value(this);
         r.flags |= NUM_OTHER;
-        r.num = null;
-        if (num != null)
+        r.num = Double.NaN;
+        if (hasNum())
             r.joinSingleNumberAsFuzzy(num);
         return canonicalize(r);
     }
@@ -2434,14 +2505,14 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         checkNotPolymorphicOrUnknown();
         if (Double.isNaN(v))
             return joinNumNaN();
-        if (num != null && num.equals(v))
+        if (hasNum() && isSameNum(num, v))
             return this;
         Value r = new Value(this);
         if (isNotNum())
             r.num = v;
         else {
-            if (num != null) {
-                r.num = null;
+            if (hasNum()) {
+                r.num = Double.NaN;
                 r.joinSingleNumberAsFuzzy(num);
             }
             r.joinSingleNumberAsFuzzy(v);
@@ -2456,8 +2527,8 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
             return this;
         Value r = new Value(this);
         r.flags |= NUM_NAN;
-        r.num = null;
-        if (num != null)
+        r.num = Double.NaN;
+        if (hasNum())
             r.joinSingleNumberAsFuzzy(num);
         return canonicalize(r);
     }
@@ -2469,8 +2540,8 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
             return this;
         Value r = new Value(this);
         r.flags |= NUM_INF;
-        r.num = null;
-        if (num != null)
+        r.num = Double.NaN;
+        if (hasNum())
             r.joinSingleNumberAsFuzzy(num);
         return canonicalize(r);
     }
@@ -2593,7 +2664,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         checkNotPolymorphicOrUnknown();
         Value r = new Value(this);
         r.flags &= ~NUM;
-        r.num = null;
+        r.num = Double.NaN;
         return canonicalize(r);
     }
 
@@ -2700,7 +2771,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
     @Override
     public boolean isStrJSON() {
         checkNotPolymorphicOrUnknown();
-        return (flags & PRIMITIVE) == STR_JSON && str == null && num == null && object_labels == null && getters == null && setters == null;
+        return (flags & PRIMITIVE) == STR_JSON && str == null && !hasNum() && object_labels == null && getters == null && setters == null;
     }
 
     @Override
@@ -2709,7 +2780,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         if (included_strings != null)
             return included_strings.stream().allMatch(Strings::isIdentifierParts);
         return (((flags & STR_IDENTIFIERPARTS) != 0 && (flags & PRIMITIVE & ~STR_IDENTIFIERPARTS) == 0)
-                || (str != null && Strings.isIdentifierParts(str))) && num == null && object_labels == null && getters == null && setters == null;
+                || (str != null && Strings.isIdentifierParts(str))) && !hasNum() && object_labels == null && getters == null && setters == null;
     }
 
     @Override
@@ -2718,7 +2789,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         if (included_strings != null)
             return included_strings.stream().allMatch(Strings::isIdentifier);
         return ((flags & PRIMITIVE) == STR_IDENTIFIER
-                || (str != null && Strings.isIdentifier(str))) && num == null && object_labels == null && getters == null && setters == null;
+                || (str != null && Strings.isIdentifier(str))) && !hasNum() && object_labels == null && getters == null && setters == null;
     }
 
     @Override
@@ -2768,7 +2839,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
 
     public boolean isMaybeOtherThanStrOrSymbol() {
         checkNotPolymorphicOrUnknown();
-        if ((flags & (UNDEF | NULL | BOOL | NUM)) != 0 || num != null || getters != null || setters != null) {
+        if ((flags & (UNDEF | NULL | BOOL | NUM)) != 0 || hasNum() || getters != null || setters != null) {
             return true;
         }
         return object_labels != null && object_labels.stream().anyMatch(x -> x.getKind() != Kind.SYMBOL);
@@ -2797,7 +2868,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         checkNotPolymorphicOrUnknown();
         Value r = new Value(this);
         r.flags &= ~PRIMITIVE;
-        r.num = null;
+        r.num = Double.NaN;
         r.str = null;
         r.getters = r.setters = null;
         r.excluded_strings = r.included_strings = null;
@@ -2818,7 +2889,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         checkNotPolymorphicOrUnknown();
         Value r = new Value(this);
         r.flags &= ~PRIMITIVE;
-        r.num = null;
+        r.num = Double.NaN;
         r.str = null;
         r.getters = r.setters = null;
         r.excluded_strings = r.included_strings = null;
@@ -2863,7 +2934,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
     @Override
     public boolean isMaybeOtherThanStr() {
         checkNotPolymorphicOrUnknown();
-        return (flags & (UNDEF | NULL | BOOL | NUM)) != 0 || num != null || object_labels != null || getters != null || setters != null;
+        return (flags & (UNDEF | NULL | BOOL | NUM)) != 0 || hasNum() || object_labels != null || getters != null || setters != null;
     }
 
     @Override
@@ -2881,8 +2952,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
 
     private static Set<String> removeStringsIf(Set<String> ss, Predicate<String> p) {
         if (ss != null) {
-            ss = newSet(ss);
-            ss.removeIf(p);
+            ss = StringSet.of(ss).filter(p.negate());
             if (ss.isEmpty())
                 ss = null;
         }
@@ -3078,9 +3148,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
                         return false;
                     } else if (!Options.get().isNoStringSets()) {
                         // different single strings, and string sets enabled
-                        included_strings = newSet();
-                        included_strings.add(str);
-                        included_strings.add(v.str);
+                        included_strings = StringSet.of(Arrays.asList(str, v.str));
                         modified = true;
                     }
                 }
@@ -3124,8 +3192,9 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         } // otherwise, neither is a single/prefix string so do nothing
         // if this has included_strings and v is a single string, then add it
         if (included_strings != null && v.str != null && !v_is_prefix) {
-            included_strings = newSet(included_strings);
-            modified |= included_strings.add(v.str);
+            Set<String> old_included_strings = included_strings;
+            included_strings = StringSet.of(included_strings).with(v.str);
+            modified |= included_strings.size() != old_included_strings.size();
         }
         return modified;
     }
@@ -3304,7 +3373,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         checkNotPolymorphicOrUnknown();
         Value r = new Value();
         if (included_strings != null) {
-            r.included_strings = included_strings.stream().filter(Strings::isNumeric).collect(Collectors.toSet());
+            r.included_strings = StringSet.of(included_strings).filter(Strings::isNumeric);
         }
         r.flags = flags & (STR_OTHERNUM | STR_UINT);
         if (isMaybeStrPrefix() && Strings.isNumeric(str)) {
@@ -3321,7 +3390,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         checkNotPolymorphicOrUnknown();
         Value r = new Value();
         if (included_strings != null) {
-            r.included_strings = included_strings.stream().filter(s -> !Strings.isNumeric(s)).collect(Collectors.toSet());
+            r.included_strings = StringSet.of(included_strings).filter(s -> !Strings.isNumeric(s));
         }
         r.flags = flags & (STR & ~(STR_OTHERNUM | STR_UINT));
         if (isMaybeStrPrefix()) {
@@ -3506,11 +3575,28 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
 
     /**
      * Constructs a new value representing the given strings.
+     * The result is the shared prefix of the strings if nonempty, and otherwise the union of their string categories,
+     * computed directly from the strings without joining a value for each of them.
      */
     public static Value makeStrings(Collection<String> strings) {
-        Value r = new Value(join(strings.stream().map(Value::makeStr).collect(Collectors.toSet())));
-        if (!Options.get().isNoStringSets() && r.isMaybeFuzzyStr())
-            r.included_strings = newSet(strings);
+        StringSet set = StringSet.of(strings);
+        if (set.isEmpty())
+            return makeNone();
+        if (set.size() == 1)
+            return makeStr(set.iterator().next());
+        String prefix = null;
+        for (String s : set)
+            prefix = prefix == null ? s : Strings.getSharedPrefix(prefix, s);
+        Value r = new Value();
+        if (!prefix.isEmpty()) {
+            r.flags |= STR_PREFIX;
+            r.str = prefix;
+        } else {
+            for (String s : set)
+                r.joinSingleStringOrPrefixStringAsFuzzyNonPrefix(s, false);
+        }
+        if (!Options.get().isNoStringSets())
+            r.included_strings = set;
         return canonicalize(r);
     }
 
@@ -3603,7 +3689,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
             return this;
         Value r = new Value(this);
         r.flags &= ~PRIMITIVE;
-        r.num = null;
+        r.num = Double.NaN;
         r.str = null;
         r.getters = r.setters = null;
         r.excluded_strings = r.included_strings = null;
@@ -3624,7 +3710,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         checkNotPolymorphicOrUnknown();
         Value r = new Value(this);
         r.flags &= (~PRIMITIVE) | NULL;
-        r.num = null;
+        r.num = Double.NaN;
         r.str = null;
         r.getters = r.setters = null;
         r.excluded_strings = r.included_strings = null;
@@ -3662,7 +3748,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         checkNotPolymorphicOrUnknown();
         Value r = new Value(this);
         r.flags &= ~PRIMITIVE;
-        r.num = null;
+        r.num = Double.NaN;
         r.str = null;
         r.excluded_strings = r.included_strings = null;
         r.object_labels = newSet();
@@ -3737,7 +3823,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
             return this;
         Value r = new Value(this);
         r.flags &= ~PRIMITIVE;
-        r.num = null;
+        r.num = Double.NaN;
         r.str = null;
         r.excluded_strings = r.included_strings = null;
         r.object_labels = newSet(object_labels);
@@ -3803,7 +3889,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         if (isPolymorphic())
             return (flags & (PRESENT_DATA | PRESENT_ACCESSOR)) != 0;
         else
-            return (flags & PRIMITIVE) != 0 || num != null || str != null || object_labels != null || getters != null || setters != null;
+            return (flags & PRIMITIVE) != 0 || hasNum() || str != null || object_labels != null || getters != null || setters != null;
     }
 
     /**
@@ -3814,7 +3900,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         if (isPolymorphic())
             return (flags & PRESENT_DATA) != 0;
         else
-            return (flags & PRIMITIVE) != 0 || num != null || str != null || object_labels != null;
+            return (flags & PRIMITIVE) != 0 || hasNum() || str != null || object_labels != null;
     }
 
     /**
@@ -3922,7 +4008,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
      */
     public boolean isMaybePrimitive() {
         checkNotPolymorphicOrUnknown();
-        return (flags & PRIMITIVE) != 0 || num != null || str != null;
+        return (flags & PRIMITIVE) != 0 || hasNum() || str != null;
     }
 
     /**
@@ -4089,7 +4175,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         checkNotUnknown();
         if (isPolymorphic())
             return;
-        if ((flags & PRIMITIVE) == 0 && num == null && str == null && object_labels == null && getters == null && setters == null
+        if ((flags & PRIMITIVE) == 0 && !hasNum() && str == null && object_labels == null && getters == null && setters == null
                 && !Options.get().isPropagateDeadFlow())
             throw new AnalysisException("Empty value");
     }
@@ -4160,7 +4246,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
      */
     public Value restrictToAttributes() {
         Value r = new Value(this);
-        r.num = null;
+        r.num = Double.NaN;
         r.str = null;
         r.var = null;
         r.flags &= ATTR | ABSENT | UNKNOWN;
@@ -4183,12 +4269,20 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
      * Constructs a value as a copy of the given value but with the attributes from this value.
      */
     public Value replaceValue(Value v) {
+        int f = v.flags & ~(PROPERTYDATA | ABSENT | PRESENT_DATA | PRESENT_ACCESSOR);
+        f |= flags & (PROPERTYDATA | ABSENT);
+        if (v.var != null)
+            f |= flags & (PRESENT_DATA | PRESENT_ACCESSOR);
+        if (f == v.flags && v.locked && v.getClass() == Value.class)
+            return v; // common case, avoid allocation
+        OperationCache<Value> cache = getOperationCache(this, v);
+        Value c = cache != null ? cache.get(OP_REPLACE_VALUE, this, v) : null;
+        if (c != null)
+            return c;
         Value r = new Value(v);
-        r.flags &= ~(PROPERTYDATA | ABSENT | PRESENT_DATA | PRESENT_ACCESSOR);
-        r.flags |= flags & (PROPERTYDATA | ABSENT);
-        if (r.var != null)
-            r.flags |= flags & (PRESENT_DATA | PRESENT_ACCESSOR);
-        return canonicalize(r);
+        r.flags = f;
+        r = canonicalize(r);
+        return cache != null ? cache.put(OP_REPLACE_VALUE, this, v, r) : r;
     }
 
     /**
@@ -4257,8 +4351,8 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
             return this;
         }
         Value r = new Value(this);
-        if (r.num != null && isZero(r.num)) {
-            r.num = null;
+        if (r.hasNum() && isZero(r.num)) {
+            r.num = Double.NaN;
         }
         r.flags &= ~NUM_ZERO;
         return canonicalize(r);
@@ -4267,7 +4361,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
     @Override
     public boolean isMaybeZero() {
         checkNotPolymorphicOrUnknown();
-        if (num != null && isZero(num)) {
+        if (hasNum() && isZero(num)) {
             return true;
         }
         return (flags & NUM_ZERO) != 0;
@@ -4282,10 +4376,10 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
     @Override
     public boolean isMaybeSameNumber(Value v) {
         checkNotPolymorphicOrUnknown();
-        if (num != null) {
+        if (hasNum()) {
             return v.isMaybeNum(num);
         }
-        if (v.num != null) {
+        if (v.hasNum()) {
             return isMaybeNum(v.num);
         }
         return (flags & v.flags & NUM) != 0;
@@ -4294,10 +4388,10 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
     @Override
     public boolean isMaybeSameNumberWhenNegated(Value v) {
         checkNotPolymorphicOrUnknown();
-        if (num != null) {
+        if (hasNum()) {
             return v.isMaybeNum(-num);
         }
-        if (v.num != null) {
+        if (v.hasNum()) {
             return isMaybeNum(-v.num);
         }
         boolean maybePos = (flags & NUM_UINT_POS) != 0;
@@ -4341,7 +4435,7 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
         // handle numbers
         if (isMaybeSingleNum()) {
             if (!v.isMaybeNum(num))
-                r.num = null;
+                r.num = Double.NaN;
         } else { // this is fuzzy number (or not a number)
             if (v.isMaybeSingleNum()) {
                 if (isMaybeNum(v.num))
@@ -4506,8 +4600,8 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
                 r.flags &= ~BOOL_FALSE;
             else if (vIsNumber) {
                 Double vnum = v.getNum();
-                if (r.num != null && r.num.equals(vnum) && !Double.isNaN(vnum)) // note: NaN !== NaN
-                    r.num = null;
+                if (r.hasNum() && vnum != null && isSameNum(r.num, vnum)) // note: NaN !== NaN
+                    r.num = Double.NaN;
                 // TODO: could also handle NUM_ZERO and NUM_NAN (but treated as fuzzy by isMaybeFuzzyNum above)
             } else if (r.object_labels != null) { // vIsObjectOrSymbol must be true here, and there can be only one object label
                 r.object_labels = newSet(r.object_labels);
@@ -4596,19 +4690,19 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
             // remove all numbers if v is definitely not a number, false, the empty string, or a numeric string
             if (vIsNotNumber && vIsNotFalse && vIsNotEmptyString && vIsNotNumericString) {
                 r.flags &= ~NUM;
-                r.num = null;
+                r.num = Double.NaN;
             }
             // remove 0, false, "", "  0.0 ", etc. if v is definitely not 0, false, "", or "  0.0 ", etc.
             if (vIsNotZero && vIsNotFalse && vIsNotEmptyString && vIsNotNumericStringZero) {
                 r.flags &= ~(BOOL_FALSE | NUM_ZERO);
-                if (r.num != null && r.num == 0)
-                    r.num = null;
+                if (r.hasNum() && r.num == 0)
+                    r.num = Double.NaN;
                 r.removeIncludedAddExcludedString("");
                 r.removeIncludedAddExcludedString("0"); // could also exclude "0.0", "  -0 ", etc.
             }
             // remove non-zero number if v is definitely not that number or a string that is coerced to that number
-            if (r.num != null && r.num != 0 && !v.isMaybeNum(r.num) && vNumericStringNumber != null && vNumericStringNumber.doubleValue() != r.num.doubleValue()) {
-                r.num = null;
+            if (r.hasNum() && r.num != 0 && !v.isMaybeNum(r.num) && vNumericStringNumber != null && vNumericStringNumber.doubleValue() != r.num) {
+                r.num = Double.NaN;
             }
             // remove non-empty string if v is definitely not that string or a number that is coerced to that string
             if (isMaybeSingleStr() && !str.isEmpty() && !v.isMaybeStr(str) && (vIsNotNumber || thisIsNotNumericString)) {
@@ -4667,8 +4761,8 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
             r.flags &= ~BOOL_TRUE;
         } else if (vIsNumberZero || vIsFalse) {
             // can't be 0, false, "", "  0.0 ", etc.
-            if (r.num != null && r.num == 0)
-                r.num = null;
+            if (r.hasNum() && r.num == 0)
+                r.num = Double.NaN;
             r.flags &= ~(NUM_ZERO | BOOL_FALSE);
             if (thisNumberIfStringNumeric != null && thisNumberIfStringNumeric == 0)
                 r.str = null;
@@ -4676,16 +4770,16 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
             r.removeIncludedAddExcludedString("0"); // could also exclude "0.0", "  -0 ", etc.
         } else if (vIsNumber) {
             // can't be that (non-zero) number, also not as string
-            if (r.num != null && r.num.doubleValue() == v.num.doubleValue()) // using == to handle +/- 0 correctly
-                r.num = null;
-            if (thisNumberIfStringNumeric != null && v.num != null && thisNumberIfStringNumeric.doubleValue() == v.num.doubleValue())
+            if (r.hasNum() && r.num == v.num) // using == to handle +/- 0 correctly
+                r.num = Double.NaN;
+            if (thisNumberIfStringNumeric != null && v.hasNum() && thisNumberIfStringNumeric.doubleValue() == v.num)
                 r.str = null;
-            if (v.num != null)
+            if (v.hasNum())
                 r.removeIncludedAddExcludedString(Double.toString(v.num));
         } else if (vIsStringZero || vIsStringEmpty) {
             // can't be 0, false, or that string
-            if (r.num != null && r.num == 0)
-                r.num = null;
+            if (r.hasNum() && r.num == 0)
+                r.num = Double.NaN;
             r.flags &= ~(NUM_ZERO | BOOL_FALSE);
             if (r.isMaybeSingleStr() && r.str.equals(v.str))
                 r.str = null;
@@ -4694,8 +4788,8 @@ public class Value implements Undef, Null, Bool, Num, Str, PKeys, DeepImmutable
             // can't be that (non-zero, non-empty) string, also not as number
             if (r.isMaybeSingleStr() && r.str.equals(v.str))
                 r.str = null;
-            if (vNumberIfStringNumeric != null && r.num != null && vNumberIfStringNumeric.doubleValue() == r.num.doubleValue())
-                r.num = null;
+            if (vNumberIfStringNumeric != null && r.hasNum() && vNumberIfStringNumeric.doubleValue() == r.num)
+                r.num = Double.NaN;
             r.removeIncludedAddExcludedString(v.str);
         }
         r.cleanupIncludedExcluded();
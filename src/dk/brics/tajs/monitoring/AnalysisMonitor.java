@@ -55,6 +55,7 @@ import dk.brics.tajs.flowgraph.jsnodes.WritePropertyNode;
 import dk.brics.tajs.flowgraph.jsnodes.WriteVariableNode;
 import dk.brics.tajs.lattice.CallEdge;
 import dk.brics.tajs.lattice.Context;
+import dk.brics.tajs.lattice.GarbageCollectionPolicy;
 import dk.brics.tajs.lattice.HostObject;
 import dk.brics.tajs.lattice.Obj;
 import dk.brics.tajs.lattice.ObjectLabel;
@@ -633,12 +634,17 @@ public class AnalysisMonitor implements IAnalysisMonitoring {
             b.append("\nBlockState: created=").append(State.getNumberOfStatesCreated()).append(", makeWritableStore=").append(State.getNumberOfMakeWritableStoreCalls());
             b.append("\nObj: created=").append(Obj.getNumberOfObjsCreated()).append(", makeWritableProperties=").append(Obj.getNumberOfMakeWritablePropertiesCalls());
             b.append("\nScopeChain cache: hits=").append(ScopeChain.getNumberOfCacheHits()).append(", misses=").append(ScopeChain.getNumberOfCacheMisses()).append(", finalSize=").append(ScopeChain.getCacheSize());
+            b.append("\nContext cache: hits=").append(Canonicalizer.get().getCacheHits(Context.class)).append(", misses=").append(Canonicalizer.get().getCacheMisses(Context.class)).append(", finalSize=").append(Canonicalizer.get().getSize(Context.class));
+            b.append("\nStringPKey cache: hits=").append(Canonicalizer.get().getCacheHits(StringPKey.class)).append(", misses=").append(Canonicalizer.get().getCacheMisses(StringPKey.class)).append(", finalSize=").append(Canonicalizer.get().getSize(StringPKey.class));
+            GarbageCollectionPolicy gc = GarbageCollectionPolicy.get();
+            b.append("\nGC: runs=").append(gc.getRuns()).append(", skipped=").append(gc.getSkipped()).append(", reclaimed=").append(gc.getReclaimedObjects()).append(", time=").append(gc.getTime()).append("ms");
             b.append("\nBasic blocks: ").append(flowgraph.getNumberOfBlocks());
             b.append("\nRecovery graph sizes: ").append(recovery_graph_sizes);
 
             b.append("\n\nTotal time for state joins:                                                   ").append(joinTime).append("ms");
 
-            b.append("\n\nCanonicalizer: hits=").append(Canonicalizer.get().getCacheHits()).append(", misses=").append(Canonicalizer.get().getCacheMisses());
+            b.append("\n\nCanonicalizer: hits=").append(Canonicalizer.get().getCacheHits()).append(", misses=").append(Canonicalizer.get().getCacheMisses())
+                    .append(", size=").append(Canonicalizer.get().getSize()).append(", purged=").append(Canonicalizer.get().getPurged());
 
             log.info(b);
         }
@@ -1568,6 +1574,10 @@ public class AnalysisMonitor implements IAnalysisMonitoring {
         }
     }
 
+    @Override
+    public void visitAnalysisAborted() {
+    }
+
     /**
      * Ignored.
      */
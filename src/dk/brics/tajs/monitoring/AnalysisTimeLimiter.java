@@ -19,6 +19,7 @@ package dk.brics.tajs.monitoring;
 import dk.brics.tajs.flowgraph.AbstractNode;
 import dk.brics.tajs.lattice.State;
 import dk.brics.tajs.util.AnalysisLimitationException;
+import dk.brics.tajs.util.Metrics;
 import org.apache.log4j.Logger;
 
 /**
@@ -38,7 +39,9 @@ public class AnalysisTimeLimiter extends DefaultAnalysisMonitoring {
 
     private long maxNanoTime = -1;
 
-    private int nodeTransfers = 0;
+    private final Metrics.Counter nodeTransfers = Metrics.get().counter("tajs_node_transfers_total", "Number of node transfers (excluding the scan phase)");
+
+    private long nodeTransfersAtStart = 0;
 
     /**
      * @param secondsTimeLimit  the number of second the analysis is allowed to run, or -1 if no limit
@@ -69,7 +72,7 @@ public class AnalysisTimeLimiter extends DefaultAnalysisMonitoring {
             }
         }
         if (nodeTransferLimit != -1) {
-            if (nodeTransfers > nodeTransferLimit) {
+            if (nodeTransfers.get() - nodeTransfersAtStart > nodeTransferLimit) {
                 throw new AnalysisLimitationException.AnalysisTimeException("Analysis exceeded node transfer limit " + nodeTransferLimit);
             }
         }
@@ -79,6 +82,7 @@ public class AnalysisTimeLimiter extends DefaultAnalysisMonitoring {
     @Override
     public void visitPhasePre(AnalysisPhase phase) {
         if (phase == AnalysisPhase.ANALYSIS) {
+            nodeTransfersAtStart = nodeTransfers.get();
             if (secondsTimeLimit != -1) {
                 long now = System.nanoTime();
                 long delta = secondsTimeLimit * nanoFactor;
@@ -91,7 +95,7 @@ public class AnalysisTimeLimiter extends DefaultAnalysisMonitoring {
     @Override
     public void visitNodeTransferPre(AbstractNode n, State s) {
         if (!s.getSolverInterface().isScanning()) {
-            nodeTransfers++;
+            nodeTransfers.increment();
         }
     }
 }
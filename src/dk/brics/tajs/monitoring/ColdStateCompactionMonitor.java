@@ -0,0 +1,123 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package dk.brics.tajs.monitoring;
+
+import dk.brics.tajs.analysis.Solver;
+import dk.brics.tajs.flowgraph.BasicBlock;
+import dk.brics.tajs.lattice.Context;
+import dk.brics.tajs.lattice.State;
+import dk.brics.tajs.solver.BlockAndContext;
+import org.apache.log4j.Logger;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Monitor that compacts the block entry states that have not been transferred recently (see {@link State#compact()}).
+ * <p>
+ * During the fixpoint computation, the monitor keeps a queue of the states that have been transferred
+ * or changed by propagation, ordered by when that last happened.
+ * After every <i>interval</i> block transfers, the states at the front of the queue that have not been used
+ * for at least <i>interval</i> block transfers are compacted, so the check only visits the states it compacts.
+ * A compacted state is restored lazily when its store is modified by propagation into it.
+ */
+public class ColdStateCompactionMonitor extends DefaultAnalysisMonitoring {
+
+    private static final Logger log = Logger.getLogger(ColdStateCompactionMonitor.class);
+
+    private final int interval;
+
+    private Solver.SolverInterface c;
+
+    private boolean analysis;
+
+    private int block_transfers;
+
+    /**
+     * Number of block transfers when each state was last transferred or changed, least recently used first.
+     */
+    private final LinkedHashMap<State, Integer> last_used = new LinkedHashMap<>();
+
+    public ColdStateCompactionMonitor(int interval) {
+        if (interval <= 0)
+            throw new IllegalArgumentException("Interval must be positive");
+        this.interval = interval;
+    }
+
+    @Override
+    public void setSolverInterface(Solver.SolverInterface c) {
+        this.c = c;
+    }
+
+    @Override
+    public void visitPhasePre(AnalysisPhase phase) {
+        analysis = phase == AnalysisPhase.ANALYSIS;
+    }
+
+    @Override
+    public void visitPhasePost(AnalysisPhase phase) {
+        if (phase == AnalysisPhase.ANALYSIS) {
+            analysis = false;
+            last_used.clear();
+        }
+    }
+
+    @Override
+    public void visitBlockTransferPre(BasicBlock block, State state) {
+        if (!analysis)
+            return;
+        block_transfers++;
+        touch(c.getAnalysisLatticeElement().getState(block, state.getContext()));
+        if (block_transfers % interval == 0)
+            compactColdStates();
+    }
+
+    @Override
+    public void visitPropagationPost(BlockAndContext<Context> from, BlockAndContext<Context> to, boolean changed) {
+        if (analysis && changed)
+            touch(c.getAnalysisLatticeElement().getState(to));
+    }
+
+    /**
+     * Moves the given state to the back of the queue.
+     */
+    private void touch(State s) {
+        if (s == null)
+            return;
+        last_used.remove(s);
+        last_used.put(s, block_transfers);
+    }
+
+    private void compactColdStates() {
+        int compacted = 0;
+        for (Iterator<Map.Entry<State, Integer>> it = last_used.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<State, Integer> me = it.next();
+            if (block_transfers - me.getValue() < interval)
+                break; // the remaining states have been used more recently
+            it.remove();
+            State s = me.getKey();
+            if (!s.isCompact()) {
+                s.compact();
+                compacted++;
+            }
+        }
+        if (log.isDebugEnabled())
+            log.debug("Compacted " + compacted + " cold states after " + block_transfers + " block transfers");
+    }
+}
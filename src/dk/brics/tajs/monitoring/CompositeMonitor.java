@@ -98,6 +98,11 @@ public class CompositeMonitor implements IAnalysisMonitoring {
         monitors.forEach(m -> m.visitPhasePost(phase));
     }
 
+    @Override
+    public void visitAnalysisAborted() {
+        monitors.forEach(IAnalysisMonitoring::visitAnalysisAborted);
+    }
+
     @Override
     public void setSolverInterface(Solver.SolverInterface c) {
         monitors.forEach(m -> m.setSolverInterface(c));
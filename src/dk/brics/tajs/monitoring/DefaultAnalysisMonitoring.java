@@ -68,6 +68,10 @@ public class DefaultAnalysisMonitoring implements IAnalysisMonitoring {
     public void visitPhasePost(AnalysisPhase phase) {
     }
 
+    @Override
+    public void visitAnalysisAborted() {
+    }
+
     @Override
     public void setSolverInterface(Solver.SolverInterface c) {
     }
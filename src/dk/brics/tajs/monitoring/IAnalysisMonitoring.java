@@ -81,6 +81,11 @@ public interface IAnalysisMonitoring extends ILatticeMonitoring {
      */
     void visitPhasePost(AnalysisPhase phase);
 
+    /**
+     * Invoked when the analysis ends without completing the scan phase, due to an exception or an analysis limit.
+     */
+    void visitAnalysisAborted();
+
     /**
      * Invoked when a function call occurs.
      * @param n      node responsible for the call
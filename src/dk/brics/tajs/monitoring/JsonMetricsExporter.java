@@ -0,0 +1,86 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.brics.tajs.monitoring;
+
+import com.google.gson.stream.JsonWriter;
+import dk.brics.tajs.util.AnalysisException;
+import dk.brics.tajs.util.Metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Writes the metrics to a JSON file when the analysis has finished.
+ */
+public class JsonMetricsExporter implements MetricsExporter {
+
+    private final Path file;
+
+    public JsonMetricsExporter(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public void finish(Metrics metrics) {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            JsonWriter w = new JsonWriter(out);
+            w.setIndent("  ");
+            w.beginArray();
+            for (Metrics.Metric m : metrics.getMetrics()) {
+                w.beginObject();
+                w.name("name").value(m.getName());
+                w.name("type").value(m.getKind().name().toLowerCase());
+                List<String> labels = m.getLabels();
+                if (!labels.isEmpty()) {
+                    w.name("labels").beginObject();
+                    for (int i = 0; i < labels.size(); i += 2)
+                        w.name(labels.get(i)).value(labels.get(i + 1));
+                    w.endObject();
+                }
+                switch (m.getKind()) {
+                    case COUNTER:
+                        w.name("value").value(((Metrics.Counter) m).get());
+                        break;
+                    case GAUGE:
+                        w.name("value").value(((Metrics.Gauge) m).get());
+                        break;
+                    case HISTOGRAM:
+                        Metrics.Histogram h = (Metrics.Histogram) m;
+                        w.name("count").value(h.getCount());
+                        w.name("sum").value(h.getSum());
+                        w.name("bounds").beginArray();
+                        for (double b : h.getBounds())
+                            w.value(b);
+                        w.endArray();
+                        w.name("buckets").beginArray();
+                        for (long n : h.getBucketCounts())
+                            w.value(n);
+                        w.endArray();
+                        break;
+                }
+                w.endObject();
+            }
+            w.endArray();
+            w.flush();
+        } catch (IOException e) {
+            throw new AnalysisException(e);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.brics.tajs.monitoring;
+
+import dk.brics.tajs.util.Metrics;
+
+/**
+ * Exporter of the {@link Metrics} of an analysis, used by {@link MetricsMonitor}.
+ */
+public interface MetricsExporter {
+
+    /**
+     * Invoked when the analysis starts.
+     */
+    default void start(Metrics metrics) {
+    }
+
+    /**
+     * Invoked when the analysis, including the scan phase, has finished, or when the analysis is aborted.
+     */
+    void finish(Metrics metrics);
+}
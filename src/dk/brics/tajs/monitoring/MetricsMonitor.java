@@ -0,0 +1,112 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.brics.tajs.monitoring;
+
+import dk.brics.tajs.analysis.Solver;
+import dk.brics.tajs.flowgraph.AbstractNode;
+import dk.brics.tajs.flowgraph.BasicBlock;
+import dk.brics.tajs.lattice.Context;
+import dk.brics.tajs.lattice.ObjectLabel;
+import dk.brics.tajs.lattice.PKey;
+import dk.brics.tajs.lattice.ScopeChain;
+import dk.brics.tajs.lattice.State;
+import dk.brics.tajs.lattice.Value;
+import dk.brics.tajs.util.Canonicalizer;
+import dk.brics.tajs.util.Metrics;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Monitor that records the transfer time of each kind of node and the work list length in the {@link Metrics}
+ * of the analysis, and passes the metrics to the given exporters.
+ * The statistics of the {@link Canonicalizer} are also exported for the most frequently interned classes.
+ */
+public class MetricsMonitor extends DefaultAnalysisMonitoring {
+
+    private static final double[] LATENCY_BOUNDS = Metrics.exponentialBounds(1e-6, 4, 10); // 1us to 262ms
+
+    private static final double[] LENGTH_BOUNDS = Metrics.exponentialBounds(1, 4, 10); // 1 to 262144
+
+    private final Metrics metrics = Metrics.get();
+
+    private final List<MetricsExporter> exporters;
+
+    private final Map<Class<?>, Metrics.Histogram> transferTimes = new IdentityHashMap<>();
+
+    private final Metrics.Histogram worklistLength = metrics.histogram("tajs_worklist_length", "Work list length at block transfers", LENGTH_BOUNDS);
+
+    private Solver.SolverInterface c;
+
+    private long nodeStart;
+
+    public MetricsMonitor(List<MetricsExporter> exporters) {
+        this.exporters = exporters;
+        for (Class<?> k : Arrays.asList(Context.class, ScopeChain.class, PKey.StringPKey.class, ObjectLabel.class, Value.class)) {
+            String name = k.getSimpleName();
+            metrics.gauge("tajs_interned_hits", "Number of canonicalizer lookups that found an existing instance (all sessions)", () -> Canonicalizer.get().getCacheHits(k), "class", name);
+            metrics.gauge("tajs_interned_misses", "Number of canonicalizer lookups that added a new instance (all sessions)", () -> Canonicalizer.get().getCacheMisses(k), "class", name);
+            metrics.gauge("tajs_interned_instances", "Number of canonical instances (all sessions)", () -> Canonicalizer.get().getSize(k), "class", name);
+        }
+    }
+
+    @Override
+    public void setSolverInterface(Solver.SolverInterface c) {
+        this.c = c;
+    }
+
+    @Override
+    public void visitPhasePre(AnalysisPhase phase) {
+        if (phase == AnalysisPhase.ANALYSIS)
+            exporters.forEach(e -> e.start(metrics));
+    }
+
+    @Override
+    public void visitPhasePost(AnalysisPhase phase) {
+        if (phase == AnalysisPhase.SCAN)
+            exporters.forEach(e -> e.finish(metrics));
+    }
+
+    @Override
+    public void visitAnalysisAborted() {
+        exporters.forEach(e -> e.finish(metrics));
+    }
+
+    @Override
+    public void visitBlockTransferPre(BasicBlock b, State s) {
+        worklistLength.observe(c.getWorklist().size());
+    }
+
+    @Override
+    public void visitNodeTransferPre(AbstractNode n, State s) {
+        nodeStart = System.nanoTime();
+    }
+
+    @Override
+    public void visitNodeTransferPost(AbstractNode n, State s) {
+        long t = System.nanoTime() - nodeStart;
+        if (c.isScanning())
+            return;
+        Metrics.Histogram h = transferTimes.get(n.getClass());
+        if (h == null) {
+            h = metrics.histogram("tajs_node_transfer_seconds", "Time spent in node transfer functions", LATENCY_BOUNDS, "node_type", n.getClass().getSimpleName());
+            transferTimes.put(n.getClass(), h);
+        }
+        h.observe(t / 1e9);
+    }
+}
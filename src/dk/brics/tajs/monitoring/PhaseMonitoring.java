@@ -100,6 +100,11 @@ public class PhaseMonitoring<PreScanMonitorType extends IAnalysisMonitoring, Sca
         activeMonitor.visitPhasePost(phase);
     }
 
+    @Override
+    public void visitAnalysisAborted() {
+        activeMonitor.visitAnalysisAborted();
+    }
+
     @Override
     public void setSolverInterface(Solver.SolverInterface c) {
         preScanMonitor.setSolverInterface(c);
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.brics.tajs.monitoring;
+
+import com.sun.net.httpserver.HttpServer;
+import dk.brics.tajs.util.AnalysisException;
+import dk.brics.tajs.util.Metrics;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the metrics in the Prometheus text format at <code>http://localhost:PORT/metrics</code> while the analysis is running.
+ */
+public class PrometheusMetricsExporter implements MetricsExporter {
+
+    private static final Logger log = Logger.getLogger(PrometheusMetricsExporter.class);
+
+    private final int port;
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    public PrometheusMetricsExporter(int port) {
+        this.port = port;
+    }
+
+    @Override
+    public void start(Metrics metrics) {
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        } catch (IOException e) {
+            throw new AnalysisException("Unable to serve metrics at port " + port + ": " + e.getMessage(), e);
+        }
+        server.createContext("/metrics", exchange -> {
+            byte[] body = format(metrics).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "tajs-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.start();
+        log.info("Serving metrics at http://localhost:" + server.getAddress().getPort() + "/metrics");
+    }
+
+    @Override
+    public void finish(Metrics metrics) {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Formats the metrics in the Prometheus text exposition format.
+     */
+    static String format(Metrics metrics) {
+        StringBuilder b = new StringBuilder();
+        String last = null;
+        for (Metrics.Metric m : metrics.getMetrics()) {
+            if (!m.getName().equals(last)) {
+                last = m.getName();
+                b.append("# HELP ").append(m.getName()).append(' ').append(m.getHelp().replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+                b.append("# TYPE ").append(m.getName()).append(' ').append(m.getKind().name().toLowerCase()).append('\n');
+            }
+            switch (m.getKind()) {
+                case COUNTER:
+                    sample(b, m.getName(), m.getLabels(), null, ((Metrics.Counter) m).get());
+                    break;
+                case GAUGE:
+                    sample(b, m.getName(), m.getLabels(), null, ((Metrics.Gauge) m).get());
+                    break;
+                case HISTOGRAM:
+                    Metrics.Histogram h = (Metrics.Histogram) m;
+                    double[] bounds = h.getBounds();
+                    long[] counts = h.getBucketCounts();
+                    long cumulative = 0;
+                    for (int i = 0; i < counts.length; i++) {
+                        cumulative += counts[i];
+                        sample(b, m.getName() + "_bucket", m.getLabels(), i < bounds.length ? Double.toString(bounds[i]) : "+Inf", cumulative);
+                    }
+                    sample(b, m.getName() + "_sum", m.getLabels(), null, h.getSum());
+                    sample(b, m.getName() + "_count", m.getLabels(), null, h.getCount());
+                    break;
+            }
+        }
+        return b.toString();
+    }
+
+    private static void sample(StringBuilder b, String name, List<String> labels, String le, double value) {
+        b.append(name);
+        if (!labels.isEmpty() || le != null) {
+            b.append('{');
+            String sep = "";
+            for (int i = 0; i < labels.size(); i += 2) {
+                b.append(sep).append(labels.get(i)).append("=\"").append(escape(labels.get(i + 1))).append('"');
+                sep = ",";
+            }
+            if (le != null)
+                b.append(sep).append("le=\"").append(le).append('"');
+            b.append('}');
+        }
+        b.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value))
+            b.append((long) value);
+        else
+            b.append(value);
+        b.append('\n');
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -134,6 +134,11 @@ public class TogglableMonitor implements IAnalysisMonitoring {
         active.visitPhasePost(phase);
     }
 
+    @Override
+    public void visitAnalysisAborted() {
+        active.visitAnalysisAborted();
+    }
+
     @Override
     public void visitPropagationPost(BlockAndContext<Context> from, BlockAndContext<Context> to, boolean changed) {
         active.visitPropagationPost(from, to, changed);
@@ -16,6 +16,8 @@
 
 package dk.brics.tajs.options;
 
+import dk.brics.tajs.util.AnalysisSession;
+
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collection;
@@ -139,21 +141,18 @@ public class ExperimentalOptions implements Serializable {
      */
     public static class ExperimentalOptionsManager {
 
-        private static ExperimentalOptions options = null;
+        private static final AnalysisSession.Slot<ExperimentalOptions> options = AnalysisSession.newSlot(ExperimentalOptions::new);
 
         public static ExperimentalOptions get() {
-            if (options == null) {
-                options = new ExperimentalOptions();
-            }
-            return options;
+            return AnalysisSession.current().get(options);
         }
 
         public static void reset() {
-            options = null;
+            AnalysisSession.current().clear(options);
         }
 
         public static void set(ExperimentalOptions options) {
-            ExperimentalOptionsManager.options = options;
+            AnalysisSession.current().set(ExperimentalOptionsManager.options, options);
         }
     }
 }
@@ -74,6 +74,9 @@ public class OptionValues {
     @Option(name = "-no-hybrid-collections", usage = "Disable hybrid collections")
     private boolean noHybridCollections;
 
+    @Option(name = "-no-value-cache", usage = "Disable caching of the results of joins and other operations on abstract values")
+    private boolean noValueCache;
+
     @Option(name = "-no-charged-calls", usage = "Disable charged calls")
     private boolean noChargedCalls;
 
@@ -288,6 +291,45 @@ public class OptionValues {
     @Option(name = "-no-error-capture-stack-trace-polyfill", usage = "Disable the use of Error.captureStackTrace polyfill")
     private boolean noErrorCaptureStackTracePolyfill;
 
+    @Option(name = "-flowgraph-cache", usage = "Cache the flow graphs of loaded files in the given directory")
+    private String flowGraphCacheDir;
+
+    @Option(name = "-metrics-json", usage = "Write the analysis metrics to the given JSON file")
+    private String metricsJsonFile;
+
+    @Option(name = "-metrics-port", usage = "Serve the analysis metrics in Prometheus format at the given local port while analyzing")
+    private int metricsPort = -1;
+
+    @Option(name = "-jfr", usage = "Emit Java Flight Recorder events for node transfers, propagation and call edge charging (applies to the entire process)")
+    private boolean jfr;
+
+    @Option(name = "-persistent-store", usage = "Represent abstract stores and object properties as persistent hash tries with structural sharing (iteration order follows hash codes)")
+    private boolean persistentStore;
+
+    @Option(name = "-delta-propagation", usage = "Skip objects that are unchanged since they were last propagated from the same block and context (uses more memory)")
+    private boolean deltaPropagation;
+
+    @Option(name = "-compact-cold-states", usage = "Compact the block entry states that have not been used in the given number of block transfers (reduces memory usage)")
+    private int compactColdStates = -1;
+
+    @Option(name = "-adaptive-gc", usage = "Skip abstract garbage collection in functions where it has recently reclaimed nothing, unless the store is large")
+    private boolean adaptiveGc;
+
+    @Option(name = "-nodejs-resolve-cache", usage = "Cache the resolutions of Node.js modules in the given file (use with -nodejs)")
+    private String nodeJSResolveCacheFile;
+
+    @Option(name = "-nodejs-resolve-subprocess", usage = "Resolve Node.js modules by running 'node' instead of using the built-in resolver (use with -nodejs)")
+    private boolean nodeJSResolveSubprocess;
+
+    @Option(name = "-babel-cache", usage = "Cache the files transformed by Babel in the given directory (use with -babel, default: _babel/.cache)")
+    private String babelCacheDir;
+
+    @Option(name = "-type-declaration-cache", usage = "Cache TypeScript declaration files converted for -type-filtering in the given directory (default: tajs-typescript-cache in the temporary directory)")
+    private String typeDeclarationCacheDir;
+
+    @Option(name = "-lazy-function-bodies", usage = "Construct the flow graphs of nested function bodies when the functions are first called (not with -flowgraph-cache)")
+    private boolean lazyFunctionBodies;
+
     @Argument
     private List<Path> arguments = new ArrayList<>();
 
@@ -312,6 +354,7 @@ public class OptionValues {
         if (noGc != that.noGc) return false;
         if (noLazy != that.noLazy) return false;
         if (noCopyOnWrite != that.noCopyOnWrite) return false;
+        if (noValueCache != that.noValueCache) return false;
         if (noHybridCollections != that.noHybridCollections) return false;
         if (noChargedCalls != that.noChargedCalls) return false;
         if (noConcreteNative != that.noConcreteNative) return false;
@@ -377,6 +420,19 @@ public class OptionValues {
         if (!Objects.equals(ignoredLibraries, that.ignoredLibraries)) return false;
         if (!Objects.equals(logFile, that.logFile)) return false;
         if (!Objects.equals(config, that.config)) return false;
+        if (!Objects.equals(flowGraphCacheDir, that.flowGraphCacheDir)) return false;
+        if (!Objects.equals(metricsJsonFile, that.metricsJsonFile)) return false;
+        if (metricsPort != that.metricsPort) return false;
+        if (jfr != that.jfr) return false;
+        if (persistentStore != that.persistentStore) return false;
+        if (deltaPropagation != that.deltaPropagation) return false;
+        if (compactColdStates != that.compactColdStates) return false;
+        if (adaptiveGc != that.adaptiveGc) return false;
+        if (!Objects.equals(nodeJSResolveCacheFile, that.nodeJSResolveCacheFile)) return false;
+        if (nodeJSResolveSubprocess != that.nodeJSResolveSubprocess) return false;
+        if (!Objects.equals(babelCacheDir, that.babelCacheDir)) return false;
+        if (!Objects.equals(typeDeclarationCacheDir, that.typeDeclarationCacheDir)) return false;
+        if (lazyFunctionBodies != that.lazyFunctionBodies) return false;
         if (!Objects.equals(arguments, that.arguments)) return false;
         if (blendedAnalysis != that.blendedAnalysis) return false;
         if (noFiltering != that.noFiltering) return false;
@@ -392,6 +448,7 @@ public class OptionValues {
         result = 31 * result + (noGc ? 1 : 0);
         result = 31 * result + (noLazy ? 1 : 0);
         result = 31 * result + (noCopyOnWrite ? 1 : 0);
+        result = 31 * result + (noValueCache ? 1 : 0);
         result = 31 * result + (noHybridCollections ? 1 : 0);
         result = 31 * result + (noChargedCalls ? 1 : 0);
         result = 31 * result + (noConcreteNative ? 1 : 0);
@@ -441,6 +498,19 @@ public class OptionValues {
         result = 31 * result + (generateLog ? 1 : 0);
         result = 31 * result + (logFile != null ? logFile.hashCode() : 0);
         result = 31 * result + (config != null ? config.hashCode() : 0);
+        result = 31 * result + (flowGraphCacheDir != null ? flowGraphCacheDir.hashCode() : 0);
+        result = 31 * result + (metricsJsonFile != null ? metricsJsonFile.hashCode() : 0);
+        result = 31 * result + metricsPort;
+        result = 31 * result + (jfr ? 1 : 0);
+        result = 31 * result + (persistentStore ? 1 : 0);
+        result = 31 * result + (deltaPropagation ? 1 : 0);
+        result = 31 * result + compactColdStates;
+        result = 31 * result + (adaptiveGc ? 1 : 0);
+        result = 31 * result + (nodeJSResolveCacheFile != null ? nodeJSResolveCacheFile.hashCode() : 0);
+        result = 31 * result + (nodeJSResolveSubprocess ? 1 : 0);
+        result = 31 * result + (babelCacheDir != null ? babelCacheDir.hashCode() : 0);
+        result = 31 * result + (typeDeclarationCacheDir != null ? typeDeclarationCacheDir.hashCode() : 0);
+        result = 31 * result + (lazyFunctionBodies ? 1 : 0);
         result = 31 * result + (showInternalMessages ? 1 : 0);
         result = 31 * result + (consoleModel ? 1 : 0);
         result = 31 * result + (commonAsyncPolyfill ? 1 : 0);
@@ -1425,4 +1495,144 @@ public class OptionValues {
     public boolean isNoErrorCaptureStackTracePolyfillEnabled() {
         return noErrorCaptureStackTracePolyfill;
     }
+
+    public String getFlowGraphCacheDir() {
+        return flowGraphCacheDir;
+    }
+
+    public void setFlowGraphCacheDir(String flowGraphCacheDir) {
+        this.flowGraphCacheDir = flowGraphCacheDir;
+    }
+
+    public String getMetricsJsonFile() {
+        return metricsJsonFile;
+    }
+
+    public void setMetricsJsonFile(String metricsJsonFile) {
+        this.metricsJsonFile = metricsJsonFile;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    public boolean isJFREnabled() {
+        return jfr;
+    }
+
+    public void enableJFR() {
+        jfr = true;
+    }
+
+    public void disableJFR() {
+        jfr = false;
+    }
+
+    public boolean isPersistentStoreEnabled() {
+        return persistentStore;
+    }
+
+    public void enablePersistentStore() {
+        persistentStore = true;
+    }
+
+    public void disablePersistentStore() {
+        persistentStore = false;
+    }
+
+    public boolean isValueCacheDisabled() {
+        return noValueCache;
+    }
+
+    public void enableNoValueCache() {
+        noValueCache = true;
+    }
+
+    public void disableNoValueCache() {
+        noValueCache = false;
+    }
+
+    public boolean isDeltaPropagationEnabled() {
+        return deltaPropagation;
+    }
+
+    public void enableDeltaPropagation() {
+        deltaPropagation = true;
+    }
+
+    public void disableDeltaPropagation() {
+        deltaPropagation = false;
+    }
+
+    public int getCompactColdStates() {
+        return compactColdStates;
+    }
+
+    public void setCompactColdStates(int compactColdStates) {
+        this.compactColdStates = compactColdStates;
+    }
+
+    public boolean isAdaptiveGCEnabled() {
+        return adaptiveGc;
+    }
+
+    public void enableAdaptiveGC() {
+        adaptiveGc = true;
+    }
+
+    public void disableAdaptiveGC() {
+        adaptiveGc = false;
+    }
+
+    public String getNodeJSResolveCacheFile() {
+        return nodeJSResolveCacheFile;
+    }
+
+    public void setNodeJSResolveCacheFile(String nodeJSResolveCacheFile) {
+        this.nodeJSResolveCacheFile = nodeJSResolveCacheFile;
+    }
+
+    public boolean isNodeJSResolveSubprocessEnabled() {
+        return nodeJSResolveSubprocess;
+    }
+
+    public void enableNodeJSResolveSubprocess() {
+        nodeJSResolveSubprocess = true;
+    }
+
+    public void disableNodeJSResolveSubprocess() {
+        nodeJSResolveSubprocess = false;
+    }
+
+    public String getBabelCacheDir() {
+        return babelCacheDir;
+    }
+
+    public void setBabelCacheDir(String babelCacheDir) {
+        this.babelCacheDir = babelCacheDir;
+    }
+
+    public String getTypeDeclarationCacheDir() {
+        return typeDeclarationCacheDir;
+    }
+
+    public void setTypeDeclarationCacheDir(String typeDeclarationCacheDir) {
+        this.typeDeclarationCacheDir = typeDeclarationCacheDir;
+    }
+
+    public boolean isLazyFunctionBodiesEnabled() {
+        return lazyFunctionBodies;
+    }
+
+    public void enableLazyFunctionBodies() {
+        lazyFunctionBodies = true;
+    }
+
+    public void disableLazyFunctionBodies() {
+        lazyFunctionBodies = false;
+    }
 }
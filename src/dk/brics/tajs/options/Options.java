@@ -16,6 +16,7 @@
 
 package dk.brics.tajs.options;
 
+import dk.brics.tajs.util.AnalysisSession;
 import org.apache.log4j.Logger;
 import org.kohsuke.args4j.CmdLineParser;
 
@@ -24,12 +25,13 @@ import java.util.Map.Entry;
 
 /**
  * Global analysis options.
+ * The option values are kept per {@link AnalysisSession}.
  */
 public class Options {
 
     private static final Logger log = Logger.getLogger(Options.class);
 
-    private static OptionValues optionValues = new OptionValues();
+    private static final AnalysisSession.Slot<OptionValues> optionValues = AnalysisSession.newSlot(OptionValues::new);
 
     private Options() {
     }
@@ -38,28 +40,28 @@ public class Options {
      * Sets all the options.
      */
     public static void set(OptionValues optionValues) {
-        Options.optionValues = optionValues.clone();
+        AnalysisSession.current().set(Options.optionValues, optionValues.clone());
     }
 
     /**
      * Gets the options.
      */
     public static OptionValues get() {
-        return optionValues;
+        return AnalysisSession.current().get(optionValues);
     }
 
     /**
      * Resets all options.
      */
     public static void reset() {
-        optionValues = new OptionValues();
+        AnalysisSession.current().clear(optionValues);
     }
 
     /**
      * Prints the settings (if in debug mode).
      */
     public static void dump() {
-        for (Entry<String, Object> optionValue : optionValues.getOptionValues().entrySet()) {
+        for (Entry<String, Object> optionValue : get().getOptionValues().entrySet()) {
             log.debug(String.format("%-30s %20s", optionValue.getKey(), optionValue.getValue()));
         }
     }
@@ -69,11 +71,11 @@ public class Options {
      */
     public static void showUsage() {
         StringWriter w = new StringWriter();
-        CmdLineParser p = new CmdLineParser(optionValues);
+        CmdLineParser p = new CmdLineParser(get());
         p.getProperties().withUsageWidth(150);
         p.printUsage(w, null);
         w.write("\n Arguments to option '-unsound':\n\n");
-        CmdLineParser pu = new CmdLineParser(optionValues.getUnsoundness());
+        CmdLineParser pu = new CmdLineParser(get().getUnsoundness());
         pu.getProperties().withUsageWidth(150);
         pu.printUsage(w, null);
         log.info(w);
@@ -93,5 +95,9 @@ public class Options {
         // Fine performance tuning
         public static final int HYBRID_ARRAY_HASH_SET_ARRAY_SIZE = 8;
         public static final int HYBRID_ARRAY_HASH_MAP_ARRAY_SIZE = 8;
+        public static final int VALUE_OPERATION_CACHE_SIZE = 1 << 16;
+        public static final int ADAPTIVE_GC_STORE_SIZE_THRESHOLD = 1000;
+        public static final int ADAPTIVE_GC_FRUITLESS_LIMIT = 4;
+        public static final int ADAPTIVE_GC_MAX_BACKOFF = 64;
     }
 }
@@ -17,6 +17,7 @@
 package dk.brics.tajs.options;
 
 import dk.brics.tajs.util.AnalysisException;
+import dk.brics.tajs.util.AnalysisSession;
 import dk.brics.tajs.util.Collectors;
 
 import java.io.FileInputStream;
@@ -40,7 +41,7 @@ public class TAJSEnvironmentConfig {
 
     private static final String filename = "tajs.properties";
 
-    private static TAJSEnvironmentConfig instance;
+    private static final AnalysisSession.Slot<TAJSEnvironmentConfig> instance = AnalysisSession.newSlot(() -> null);
 
     private final Properties properties;
 
@@ -120,11 +121,11 @@ public class TAJSEnvironmentConfig {
     }
 
     public static void init(Properties properties) {
-        instance = new TAJSEnvironmentConfig(properties);
+        AnalysisSession.current().set(instance, new TAJSEnvironmentConfig(properties));
     }
 
     public static TAJSEnvironmentConfig get() {
-        return instance;
+        return AnalysisSession.current().get(instance);
     }
 
     /**
@@ -152,6 +153,22 @@ public class TAJSEnvironmentConfig {
         return Paths.get(getRequiredProperty("babel"));
     }
 
+    /**
+     * Returns the Babel worker script.
+     * Unless the 'babel-worker' property is defined, the script is worker.js in the Babel installation directory,
+     * which is found from the 'babel' property (INSTALLATION/node_modules/.bin/babel).
+     */
+    public Path getBabelWorker() {
+        String worker = properties.getProperty("babel-worker");
+        if (worker != null)
+            return Paths.get(worker);
+        Path bin = getBabel().toAbsolutePath().getParent();
+        Path script = bin != null && bin.getParent() != null && bin.getParent().getParent() != null ? bin.getParent().getParent().resolve("worker.js") : null;
+        if (script == null || !Files.exists(script))
+            throw new AnalysisException(String.format("Babel worker script not found next to %s, define property 'babel-worker' in %s", getBabel(), filename));
+        return script;
+    }
+
     public Path getJava() {
         return Paths.get(getRequiredProperty("java"));
     }
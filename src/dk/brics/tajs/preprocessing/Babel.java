@@ -24,34 +24,37 @@ import dk.brics.tajs.util.Lists;
 import dk.brics.tajs.util.PathAndURLUtils;
 import org.apache.log4j.Logger;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
+import static dk.brics.tajs.util.Collections.newList;
 import static dk.brics.tajs.util.Collections.newSet;
 
 public class Babel {
 
     private static final Logger log = Logger.getLogger(Babel.class);
 
-    private static final String babelPlugins =
+    private static final List<String> babelPlugins =
             Stream.of("arrow-functions", "block-scoping", "classes", "shorthand-properties", "for-of",
                       "template-literals", "parameters", "spread", "destructuring", "computed-properties")
-            .map(name -> "@babel/plugin-transform-" + name).collect(java.util.stream.Collectors.joining(","));
-
-    private static final Pattern successPattern = Pattern.compile("Successfully compiled (\\d+) files? with Babel\\.");
+            .map(name -> "@babel/plugin-transform-" + name).collect(Collectors.toList());
 
     private static final Set<String> supportedFileExtensions = newSet(Arrays.asList(".es6", ".js", ".es", ".jsx", ".mjs", ""));
 
+    /**
+     * Maximum number of files sent to the Babel worker in one request.
+     */
+    private static final int batchSize = 100;
+
     /**
      * This method performs babel preprocessing on the files listed in the *files* parameter.
      * It replaces the main file of the analysis with the one generated by babel.
@@ -63,6 +66,10 @@ public class Babel {
      *
      * Additional options for babel can be specified in babel.config.js in extras/babel.
      *
+     * The files are transformed by a long-lived Babel process (see {@link BabelWorker}), and the results are cached
+     * by content (see {@link BabelCache}) in the directory given by -babel-cache, or in "_babel/.cache" by default.
+     * Files in the output directory are only rewritten if they have changed.
+     *
      * @param commonAncestor The path to the common ancestor of all files in an application.
      *                       Files output by babel will be put in a directory structure similar to the one
      *                       found in commonAncestor in a subdirectory named "_babel".
@@ -74,7 +81,6 @@ public class Babel {
         Path testFile = Lists.getLast(args);
         Path realCommonAncestor = PathAndURLUtils.toRealPath(commonAncestor);
         Path babelRoot = commonAncestor.resolve("_babel");
-        Path babelPath = TAJSEnvironmentConfig.get().getBabel();
 
         /* If we run babel with the project root as input directory, it will copy all files in it! */
         if (PathAndURLUtils.getWorkingDirectory().startsWith(realCommonAncestor)) {
@@ -92,64 +98,23 @@ public class Babel {
                 .map(file -> realCommonAncestor.relativize(file.toAbsolutePath()))
                 .distinct().collect(Collectors.toList());
 
-        Set<String> fileExtensions = relativeFiles.stream().map(PathAndURLUtils::getFileExtension).collect(Collectors.toSet());
-        fileExtensions.retainAll(supportedFileExtensions);
+        List<Path> transformedFiles = relativeFiles.stream()
+                .filter(file -> supportedFileExtensions.contains(PathAndURLUtils.getFileExtension(file)))
+                .collect(Collectors.toList());
 
-        List<String> baseCmd = Arrays.asList(
-                babelPath.toString(),
-                "--root-mode", "upward",            // Find the nearest babel.config.js in the file-system
-                "--extensions", String.join(",", fileExtensions),
-                "--keep-file-extension",
-                "--verbose",
-                "--plugins", babelPlugins,          // Plugins used for transformations
-                "--out-dir", babelRoot.toString()   // Output directory
-        );
+        Path worker = TAJSEnvironmentConfig.get().getBabelWorker();
+        Path cacheDir = Options.get().getBabelCacheDir() != null ? Paths.get(Options.get().getBabelCacheDir()) : babelRoot.resolve(".cache");
+        BabelCache cache = new BabelCache(cacheDir, babelPlugins, worker.getParent().resolve("babel.config.js"), worker.getParent().resolve("node_modules"));
 
         try {
-            // Split list into sublists to avoid argument list length limit
-            final int sublistSize = 100;
-            for(int i = 0; i < relativeFiles.size(); i += sublistSize) {
-                List<Path> subFiles = relativeFiles.subList(i, Math.min(i + sublistSize, relativeFiles.size()));
-                ArrayList<String> cmd = new ArrayList<>(baseCmd);
-
-                if(i == 0) { // Delete and copy other files in the first pass
-                    cmd.add("--delete-dir-on-start");
-                    cmd.add("--copy-files");
-                }
-
-                cmd.add("--only"); // Control which files to transform (must be absolute for babel to work correctly)
-                cmd.add(subFiles.stream().map(file -> commonAncestor.resolve(file).toString()).collect(java.util.stream.Collectors.joining(",")));
-                cmd.add(commonAncestor.toString()); // Input directory
-
-                // Run the babel command
-                Process process = new ProcessBuilder(cmd).directory(babelPath.getParent().toFile()).start();
-                String output, err;
-
-                try (BufferedReader stdBr = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                     BufferedReader errBr = new BufferedReader(new InputStreamReader(process.getErrorStream()))) {
-
-                    output = stdBr.lines().collect(java.util.stream.Collectors.joining("\n"));
-                    err = errBr.lines().collect(java.util.stream.Collectors.joining("\n"));
-                    process.waitFor();
-                }
-
-                if (process.exitValue() != 0)
-                    throw new AnalysisException("Error occurred while running babel:\n" + err);
-
-                if (!Options.get().isQuietEnabled())
-                    System.out.println(output);
-
-                Matcher m = successPattern.matcher(output);
-                if (!m.find())
-                    log.warn("Babel might not have run successfully!\n" + output);
-                else {
-                    int processedFiles = Integer.parseInt(m.group(1));
-                    if (processedFiles != subFiles.size())
-                        throw new AnalysisException(String.format("Babel processed %d/%d files", processedFiles, subFiles.size()));
-                }
-            }
-        } catch (InterruptedException | IOException e) {
-
+            Set<Path> outputs = newSet();
+            int copied = copyFiles(realCommonAncestor, babelRoot, newSet(transformedFiles), outputs);
+            int fromCache = transformFiles(realCommonAncestor, babelRoot, transformedFiles, cache, worker, outputs);
+            deleteStaleFiles(babelRoot, cacheDir, outputs);
+            log.debug("Babel output written to " + babelRoot);
+            if (!Options.get().isQuietEnabled())
+                System.out.println(String.format("Babel: transformed %d files (%d from cache), copied %d files", transformedFiles.size(), fromCache, copied));
+        } catch (IOException e) {
             throw new AnalysisException("Error occurred while running babel:\n" + e);
         }
 
@@ -169,4 +134,105 @@ public class Babel {
 
         args.set(args.size() - 1, babelTestFile);
     }
+
+    /**
+     * Copies the files in the input directory, except those to be transformed, to the output directory.
+     * Hidden files and directories are skipped, and files that have the same size and modification time
+     * as their copy are not copied again.
+     *
+     * @return the number of files copied
+     */
+    private static int copyFiles(Path inputDir, Path outputDir, Set<Path> transformedFiles, Set<Path> outputs) throws IOException {
+        Path realOutputDir = inputDir.resolve(outputDir.getFileName());
+        int copied = 0;
+        List<Path> sources;
+        try (Stream<Path> s = Files.walk(inputDir)) {
+            sources = s.filter(p -> !p.startsWith(realOutputDir) && Files.isRegularFile(p) && !isHidden(inputDir.relativize(p)))
+                    .collect(Collectors.toList());
+        }
+        for (Path source : sources) {
+            Path relative = inputDir.relativize(source);
+            if (transformedFiles.contains(relative))
+                continue;
+            Path target = outputDir.resolve(relative);
+            outputs.add(target.toAbsolutePath().normalize());
+            if (Files.exists(target)
+                    && Files.size(target) == Files.size(source)
+                    && Files.getLastModifiedTime(target).equals(Files.getLastModifiedTime(source)))
+                continue;
+            Files.createDirectories(target.getParent());
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            copied++;
+        }
+        return copied;
+    }
+
+    private static boolean isHidden(Path relative) {
+        for (Path name : relative)
+            if (name.toString().startsWith("."))
+                return true;
+        return false;
+    }
+
+    /**
+     * Transforms the given files, using the cache where possible.
+     *
+     * @return the number of files found in the cache
+     */
+    private static int transformFiles(Path inputDir, Path outputDir, List<Path> transformedFiles, BabelCache cache, Path worker, Set<Path> outputs) throws IOException {
+        List<Path> missingFiles = newList();
+        List<BabelWorker.Input> missingInputs = newList();
+        List<String> missingKeys = newList();
+        int fromCache = 0;
+        for (Path file : transformedFiles) {
+            Path source = inputDir.resolve(file);
+            String code = new String(Files.readAllBytes(source), StandardCharsets.UTF_8);
+            String key = cache.makeKey(file, code);
+            String result = cache.load(key);
+            if (result != null) {
+                writeIfChanged(outputDir.resolve(file), result, outputs);
+                fromCache++;
+            } else {
+                missingFiles.add(file);
+                missingInputs.add(new BabelWorker.Input(source, code));
+                missingKeys.add(key);
+            }
+        }
+        for (int i = 0; i < missingInputs.size(); i += batchSize) {
+            int end = Math.min(i + batchSize, missingInputs.size());
+            List<String> results = BabelWorker.get(TAJSEnvironmentConfig.get().getNode(), worker).transform(missingInputs.subList(i, end), babelPlugins);
+            for (int j = i; j < end; j++) {
+                String result = results.get(j - i);
+                cache.store(missingKeys.get(j), result);
+                writeIfChanged(outputDir.resolve(missingFiles.get(j)), result, outputs);
+            }
+        }
+        return fromCache;
+    }
+
+    private static void writeIfChanged(Path target, String code, Set<Path> outputs) throws IOException {
+        outputs.add(target.toAbsolutePath().normalize());
+        byte[] bytes = code.getBytes(StandardCharsets.UTF_8);
+        if (Files.exists(target) && Arrays.equals(Files.readAllBytes(target), bytes))
+            return;
+        Files.createDirectories(target.getParent());
+        Files.write(target, bytes);
+    }
+
+    /**
+     * Deletes the files in the output directory that have not been produced by this run, except for the cache.
+     */
+    private static void deleteStaleFiles(Path outputDir, Path cacheDir, Set<Path> outputs) throws IOException {
+        if (!Files.exists(outputDir))
+            return;
+        Path realCacheDir = cacheDir.toAbsolutePath().normalize();
+        List<Path> stale;
+        try (Stream<Path> s = Files.walk(outputDir)) {
+            stale = s.map(p -> p.toAbsolutePath().normalize())
+                    .filter(p -> !p.startsWith(realCacheDir) && Files.isRegularFile(p) && !outputs.contains(p))
+                    .collect(Collectors.toList());
+        }
+        for (Path p : stale)
+            Files.delete(p);
+    }
 }
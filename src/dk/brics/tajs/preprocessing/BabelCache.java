@@ -0,0 +1,151 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.brics.tajs.preprocessing;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import dk.brics.tajs.util.AnalysisException;
+import dk.brics.tajs.util.PathAndURLUtils;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Content-addressed on-disk cache of files transformed by Babel.
+ * <p>
+ * An entry is keyed by the SHA-256 of the source code, the path of the source file relative to the common ancestor
+ * of the transformed files, the Babel plugins and the installed versions of @babel/core and the plugins,
+ * and the Babel configuration file, so it can be shared between checkouts of the same project.
+ */
+class BabelCache {
+
+    private static final Logger log = Logger.getLogger(BabelCache.class);
+
+    /**
+     * Version of the cache format. Must be increased when the transformation changes in ways not reflected by the key.
+     */
+    private static final int VERSION = 2;
+
+    private final Path dir;
+
+    private final byte[] salt;
+
+    /**
+     * Constructs a cache in the given directory.
+     *
+     * @param plugins     Babel plugins used for the transformation
+     * @param config      Babel configuration file, or null if none
+     * @param nodeModules node_modules directory of the Babel installation
+     */
+    BabelCache(Path dir, List<String> plugins, Path config, Path nodeModules) {
+        this.dir = dir;
+        StringBuilder b = new StringBuilder();
+        b.append(VERSION).append('\0');
+        try {
+            b.append("@babel/core@").append(getVersion(nodeModules, "@babel/core")).append('\0');
+            for (String p : plugins)
+                b.append(p).append('@').append(getVersion(nodeModules, p)).append('\0');
+            if (config != null && Files.exists(config))
+                b.append(new String(Files.readAllBytes(config), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new AnalysisException(e);
+        }
+        b.append('\0');
+        salt = b.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the installed version of the given package, or null if it is not installed.
+     */
+    private static String getVersion(Path nodeModules, String pkg) throws IOException {
+        Path packageJson = nodeModules.resolve(pkg).resolve("package.json");
+        if (!Files.exists(packageJson))
+            return null;
+        JsonElement version = new JsonParser().parse(new String(Files.readAllBytes(packageJson), StandardCharsets.UTF_8)).getAsJsonObject().get("version");
+        return version != null ? version.getAsString() : null;
+    }
+
+    /**
+     * Computes the cache key for the given source code.
+     *
+     * @param file path of the source file, relative to the common ancestor of the transformed files
+     */
+    String makeKey(Path file, String code) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AnalysisException(e);
+        }
+        md.update(salt);
+        md.update((PathAndURLUtils.toPortableString(file) + "\0").getBytes(StandardCharsets.UTF_8));
+        md.update(code.getBytes(StandardCharsets.UTF_8));
+        StringBuilder key = new StringBuilder();
+        for (byte x : md.digest())
+            key.append(String.format("%02x", x));
+        return key.toString();
+    }
+
+    /**
+     * Returns the transformed code with the given key, or null if not in the cache.
+     */
+    String load(String key) {
+        Path file = dir.resolve(key + ".js");
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.debug("Ignoring unreadable Babel cache entry " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the transformed code with the given key.
+     * The entry is written to a temporary file and then moved into place, so concurrent readers never see partial entries.
+     */
+    void store(String key, String code) {
+        Path file = dir.resolve(key + ".js");
+        Path tmp = null;
+        try {
+            Files.createDirectories(dir);
+            tmp = Files.createTempFile(dir, key, ".tmp");
+            Files.write(tmp, code.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+        } catch (IOException e) {
+            log.debug("Unable to write Babel cache entry " + file + ": " + e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.brics.tajs.preprocessing;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import dk.brics.tajs.util.AnalysisException;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static dk.brics.tajs.util.Collections.newList;
+
+/**
+ * Long-lived Babel process (extras/babel/worker.js) that transforms source code sent to it over stdin/stdout.
+ * <p>
+ * The process is started on first use and shared by all analyses in the JVM, so Node.js and Babel are only loaded once.
+ * It is restarted if it has died or if a different Node.js or worker script is requested.
+ * The current process is destroyed when the JVM exits.
+ */
+class BabelWorker {
+
+    private static final Logger log = Logger.getLogger(BabelWorker.class);
+
+    private static volatile BabelWorker instance;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            BabelWorker w = instance;
+            if (w != null)
+                w.process.destroy();
+        }));
+    }
+
+    private final Path node;
+
+    private final Path script;
+
+    private final Process process;
+
+    private final Writer in;
+
+    private final BufferedReader out;
+
+    private BabelWorker(Path node, Path script) {
+        this.node = node;
+        this.script = script;
+        try {
+            process = new ProcessBuilder(node.toString(), script.toString())
+                    .directory(script.getParent().toFile())
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+        } catch (IOException e) {
+            throw new AnalysisException("Error occurred while starting babel:\n" + e);
+        }
+        in = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+        out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        log.debug("Started Babel worker " + script);
+    }
+
+    /**
+     * Returns the worker for the given Node.js executable and worker script, starting it if necessary.
+     */
+    static synchronized BabelWorker get(Path node, Path script) {
+        if (instance != null && (!instance.process.isAlive() || !instance.node.equals(node) || !instance.script.equals(script))) {
+            instance.process.destroy();
+            instance = null;
+        }
+        if (instance == null)
+            instance = new BabelWorker(node, script);
+        return instance;
+    }
+
+    /**
+     * Source file to be transformed.
+     */
+    static class Input {
+
+        final Path file;
+
+        final String code;
+
+        Input(Path file, String code) {
+            this.file = file;
+            this.code = code;
+        }
+    }
+
+    /**
+     * Transforms the given source files in one request.
+     * Returns the transformed code in the same order as the inputs.
+     *
+     * @throws AnalysisException if Babel fails on any of the files or the worker does not respond
+     */
+    synchronized List<String> transform(List<Input> inputs, List<String> plugins) {
+        JsonObject request = new JsonObject();
+        JsonArray ps = new JsonArray();
+        plugins.forEach(ps::add);
+        request.add("plugins", ps);
+        JsonArray files = new JsonArray();
+        for (Input input : inputs) {
+            JsonObject file = new JsonObject();
+            file.addProperty("filename", input.file.toString());
+            file.addProperty("code", input.code);
+            files.add(file);
+        }
+        request.add("files", files);
+        String line;
+        try {
+            in.write(request.toString());
+            in.write('\n');
+            in.flush();
+            line = out.readLine();
+        } catch (IOException e) {
+            process.destroy();
+            throw new AnalysisException("Error occurred while running babel:\n" + e);
+        }
+        if (line == null) {
+            process.destroy();
+            throw new AnalysisException("Error occurred while running babel: worker terminated");
+        }
+        JsonArray results = new JsonParser().parse(line).getAsJsonObject().getAsJsonArray("results");
+        List<String> res = newList();
+        for (int i = 0; i < inputs.size(); i++) {
+            JsonObject result = results.get(i).getAsJsonObject();
+            JsonElement error = result.get("error");
+            if (error != null)
+                throw new AnalysisException("Error occurred while running babel on " + inputs.get(i).file + ":\n" + error.getAsString());
+            res.add(result.get("code").getAsString());
+        }
+        return res;
+    }
+}
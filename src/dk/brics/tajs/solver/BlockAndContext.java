@@ -67,7 +67,7 @@ public final class BlockAndContext<ContextType extends IContext<?>> {
         if (!(obj instanceof BlockAndContext))
             return false;
         BlockAndContext<ContextType> fcp = (BlockAndContext<ContextType>) obj;
-        return fcp.b == b && fcp.c.equals(c);
+        return fcp.b == b && fcp.c == c; // contexts are canonical
     }
 
     /**
@@ -184,6 +184,8 @@ public class CallDependencies<ContextType extends IContext<ContextType>> {
             addToMapSet(node_charged_call_edges, Pair.make(caller, caller_context), e);
             if (log.isDebugEnabled())
                 log.debug("charging call edge " + e);
+            if (FlightRecorderEvents.isEnabled())
+                FlightRecorderEvents.callEdge(true, caller, caller_context, callee, callee_context);
         }
     }
 
@@ -214,6 +216,8 @@ public class CallDependencies<ContextType extends IContext<ContextType>> {
             }
             if (log.isDebugEnabled())
                 log.debug("discharging call edge " + e);
+            if (FlightRecorderEvents.isEnabled())
+                FlightRecorderEvents.callEdge(false, e.caller, e.caller_context, e.callee, e.callee_context);
             dischargeIfInactive(caller_entry);
         }
     }
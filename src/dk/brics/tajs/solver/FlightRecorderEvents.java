@@ -0,0 +1,133 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.brics.tajs.solver;
+
+import dk.brics.tajs.flowgraph.AbstractNode;
+import dk.brics.tajs.flowgraph.BasicBlock;
+import org.apache.log4j.Logger;
+
+/**
+ * Java Flight Recorder events for node transfers, propagation, and call edge charging.
+ * <p>
+ * The events are only created if enabled (see {@link #enable()}), and they are only recorded
+ * while a flight recording is running, e.g. with <code>-XX:StartFlightRecording</code> or <code>jcmd</code>.
+ * The events are implemented in the optional <code>jfr/src</code> source directory, which is only compiled if the
+ * JDK provides <code>jdk.jfr</code>, and the implementation is loaded by reflection.
+ * This class therefore compiles and runs on all Java 8 JDKs.
+ * Enabling is process-wide, so it affects all analysis sessions.
+ */
+public final class FlightRecorderEvents {
+
+    private static final Logger log = Logger.getLogger(FlightRecorderEvents.class);
+
+    private static final String IMPLEMENTATION = "dk.brics.tajs.solver.FlightRecorderEventsImpl";
+
+    /**
+     * Creates and commits the events.
+     */
+    interface Recorder {
+
+        Object beginNodeTransfer();
+
+        void endNodeTransfer(Object event, AbstractNode n, IContext<?> context, IState<?, ?, ?> state);
+
+        Object beginPropagation();
+
+        void endPropagation(Object event, BlockAndContext<?> from, BlockAndContext<?> to, IState<?, ?, ?> state, IState<?, ?, ?> result, boolean changed);
+
+        void callEdge(boolean charge, AbstractNode caller, IContext<?> callerContext, BasicBlock callee, IContext<?> calleeContext);
+    }
+
+    private static volatile Recorder recorder = null;
+
+    private FlightRecorderEvents() {
+    }
+
+    /**
+     * Enables the events, if JFR is available.
+     */
+    public static void enable() {
+        if (recorder != null)
+            return;
+        try {
+            recorder = (Recorder) Class.forName(IMPLEMENTATION).newInstance();
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | LinkageError e) {
+            log.warn("Java Flight Recorder is not available in this build or JVM, ignoring -jfr");
+        }
+    }
+
+    /**
+     * Disables the events.
+     */
+    public static void disable() {
+        recorder = null;
+    }
+
+    /**
+     * Checks whether the events are enabled.
+     */
+    public static boolean isEnabled() {
+        return recorder != null;
+    }
+
+    /**
+     * Starts a node transfer event.
+     *
+     * @return event to pass to {@link #endNodeTransfer}, or null if not enabled
+     */
+    public static Object beginNodeTransfer() {
+        Recorder r = recorder;
+        return r != null ? r.beginNodeTransfer() : null;
+    }
+
+    /**
+     * Ends and commits a node transfer event.
+     */
+    public static void endNodeTransfer(Object event, AbstractNode n, IContext<?> context, IState<?, ?, ?> state) {
+        Recorder r = recorder;
+        if (r != null)
+            r.endNodeTransfer(event, n, context, state);
+    }
+
+    /**
+     * Starts a propagation event.
+     *
+     * @return event to pass to {@link #endPropagation}, or null if not enabled
+     */
+    public static Object beginPropagation() {
+        Recorder r = recorder;
+        return r != null ? r.beginPropagation() : null;
+    }
+
+    /**
+     * Ends and commits a propagation event.
+     */
+    public static void endPropagation(Object event, BlockAndContext<?> from, BlockAndContext<?> to, IState<?, ?, ?> state, IState<?, ?, ?> result, boolean changed) {
+        Recorder r = recorder;
+        if (r != null)
+            r.endPropagation(event, from, to, state, result, changed);
+    }
+
+    /**
+     * Commits a call edge charging or discharging event.
+     */
+    public static void callEdge(boolean charge, AbstractNode caller, IContext<?> callerContext, BasicBlock callee, IContext<?> calleeContext) {
+        Recorder r = recorder;
+        if (r != null)
+            r.callEdge(charge, caller, callerContext, callee, calleeContext);
+    }
+}
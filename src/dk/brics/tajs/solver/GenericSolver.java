@@ -34,6 +34,15 @@ import java.util.function.Supplier;
 
 /**
  * Generic fixpoint solver for flow graphs.
+ * <p>
+ * Work list entries are processed one at a time, also when they belong to different function entries and contexts.
+ * The transfer functions are not safe to run concurrently within one analysis: they read and update the current node
+ * and state of the {@link SolverInterface}, and the analysis lattice element, call graph, call dependencies and
+ * work list are unsynchronized. With lazy propagation, recovery of 'unknown' values also reads and updates the states
+ * of other function entries and contexts, so the entries are not independent.
+ * Moreover, the fixpoint depends on the iteration order (because of widening and recovery), so concurrent processing
+ * would not in general reproduce the sequential result.
+ * Separate analyses can run concurrently in different {@link dk.brics.tajs.util.AnalysisSession}s.
  */
 public class GenericSolver<StateType extends IState<StateType, ContextType, CallEdgeType>,
         ContextType extends IContext<ContextType>,
@@ -202,8 +211,11 @@ public class GenericSolver<StateType extends IState<StateType, ContextType, Call
         public boolean propagate(StateType state, BlockAndContext<ContextType> to, boolean localize) {
             BlockAndContext<ContextType> from = new BlockAndContext<>(state.getBasicBlock(), state.getContext()); // save the block and context; they change during the call to propagate
             getMonitoring().visitPropagationPre(from, to);
+            Object jfr_event = FlightRecorderEvents.isEnabled() ? FlightRecorderEvents.beginPropagation() : null;
             MergeResult res = the_analysis_lattice_element.propagate(state, to, localize);
             boolean changed = res != null;
+            if (jfr_event != null)
+                FlightRecorderEvents.endPropagation(jfr_event, from, to, state, the_analysis_lattice_element.getState(to), changed);
             getMonitoring().visitPropagationPost(from, to, changed);
             if (changed) {
                 analysis.getMonitoring().visitNewFlow(to.getBlock(), to.getContext(), the_analysis_lattice_element.getState(to), res.getDiff(), "CALL");
@@ -380,6 +392,7 @@ public class GenericSolver<StateType extends IState<StateType, ContextType, Call
                                 log.debug("Visiting node " + current_node.getIndex() + ": "
                                         + current_node + " at " + current_node.getSourceLocation());
                             analysis.getMonitoring().visitNodeTransferPre(current_node, current_state);
+                            Object jfr_event = FlightRecorderEvents.isEnabled() ? FlightRecorderEvents.beginNodeTransfer() : null;
                             try {
                                 try {
                                     analysis.getNodeTransferFunctions().transfer(current_node);
@@ -398,6 +411,8 @@ public class GenericSolver<StateType extends IState<StateType, ContextType, Call
                                     break block_loop;
                                 }
                             } finally {
+                                if (jfr_event != null)
+                                    FlightRecorderEvents.endNodeTransfer(jfr_event, current_node, context, current_state);
                                 analysis.getMonitoring().visitNodeTransferPost(current_node, current_state);
                             }
                             if (current_state.isBottom()) {
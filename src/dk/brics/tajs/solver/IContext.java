@@ -18,7 +18,7 @@ package dk.brics.tajs.solver;
 
 /**
  * Interface for analysis contexts.
- * Must be immutable.
+ * Must be immutable and canonical (equal contexts are the same object), so contexts can be compared by identity.
  */
 public interface IContext<ContextType extends IContext<?>> {
 
@@ -29,6 +29,7 @@ public interface IContext<ContextType extends IContext<?>> {
 
     /**
      * Checks whether this context is equal to the given object.
+     * Must be consistent with object identity.
      */
     @Override
     boolean equals(Object obj);
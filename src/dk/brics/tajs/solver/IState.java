@@ -105,4 +105,11 @@ public interface IState
      * Returns the basic block for this state.
      */
     BasicBlock getBasicBlock();
+
+    /**
+     * Returns a measure of the size of this state, for diagnostics.
+     */
+    default int getSize() {
+        return 0;
+    }
 }
@@ -58,7 +58,7 @@ public final class NodeAndContext<ContextType extends IContext<?>> {
         if (!(obj instanceof NodeAndContext))
             return false;
         NodeAndContext<ContextType> ncp = (NodeAndContext<ContextType>) obj;
-        return ncp.n == n && ncp.c.equals(c);
+        return ncp.n == n && ncp.c == c; // contexts are canonical
     }
 
     /**
@@ -16,40 +16,85 @@
 
 package dk.brics.tajs.solver;
 
+import dk.brics.tajs.flowgraph.Function;
 import dk.brics.tajs.options.Options;
 import dk.brics.tajs.typetesting.ITypeTester;
 import dk.brics.tajs.util.AnalysisException;
 import org.apache.log4j.Logger;
 
-import javax.annotation.Nonnull;
-import java.util.Objects;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.stream.Collectors;
 
+import static dk.brics.tajs.util.Collections.newList;
+import static dk.brics.tajs.util.Collections.newMap;
 import static dk.brics.tajs.util.Collections.newSet;
 
 /**
  * Work list used by solver.
+ * <p>
+ * Each (block, context) is interned to a dense number the first time it is added,
+ * together with its priority (function entry order, block order, context order).
+ * The pending entries are kept in a binary heap of entry numbers, so adding and removing entries
+ * do not allocate after the entry has been seen once.
+ * The block orders change when the flow graph is extended (see {@link Function#getBlockOrderGeneration()}),
+ * in which case they are reread and the heap is rebuilt.
  */
 public class WorkList<ContextType extends IContext<ContextType>> {
 
     private static Logger log = Logger.getLogger(WorkList.class);
 
-    private TreeSet<Entry> pending_queue;
-
-    private Set<Entry> pending_set; // only for test mode
+    private static final int INITIAL_CAPACITY = 64;
 
     private CallGraph<?, ContextType, ?> call_graph;
 
     private ITypeTester<ContextType> ttr;
 
+    /**
+     * Map from (block, context) to entry number.
+     */
+    private Map<BlockAndContext<ContextType>, Integer> entry_numbers;
+
+    /**
+     * Map from entry number to (block, context).
+     */
+    private List<BlockAndContext<ContextType>> entries;
+
+    private int[] funentry_order; // indexed by entry number
+
+    private int[] block_order; // indexed by entry number
+
+    private int[] context_order; // indexed by entry number
+
+    private boolean[] pending; // indexed by entry number
+
+    /**
+     * Binary heap of entry numbers, ordered by priority.
+     */
+    private int[] heap;
+
+    private int size;
+
+    private int block_order_generation;
+
+    private Set<BlockAndContext<ContextType>> pending_set; // only for test mode
+
     /**
      * Constructs a new empty work list.
      */
     public WorkList(CallGraph<?, ContextType, ?> call_graph, ITypeTester<ContextType> ttr) {
         this.call_graph = call_graph;
         this.ttr = ttr;
-        pending_queue = new TreeSet<>();
+        entry_numbers = newMap();
+        entries = newList();
+        funentry_order = new int[INITIAL_CAPACITY];
+        block_order = new int[INITIAL_CAPACITY];
+        context_order = new int[INITIAL_CAPACITY];
+        pending = new boolean[INITIAL_CAPACITY];
+        heap = new int[INITIAL_CAPACITY];
+        block_order_generation = Function.getBlockOrderGeneration();
         pending_set = newSet();
     }
 
@@ -59,37 +104,58 @@ public class WorkList<ContextType extends IContext<ContextType>> {
      * @return true if changed
      */
     public boolean add(BlockAndContext<ContextType> bc) {
-        Entry e = new Entry(bc);
-        boolean added = pending_queue.add(e);
-        if (added && log.isDebugEnabled())
-            log.debug("Adding worklist entry for " + bc);
-        if (Options.get().isTestEnabled() && pending_set.add(e) != added)
+        refreshBlockOrders();
+        int e = getEntryNumber(bc);
+        boolean added = !pending[e];
+        if (Options.get().isTestEnabled() && pending_set.add(bc) != added)
             throw new AnalysisException("Failed to add to worklist - entries perhaps not totally ordered?");
-        return added;
+        if (!added)
+            return false;
+        pending[e] = true;
+        block_order[e] = bc.getBlock().getWorklistOrder();
+        if (size == heap.length)
+            heap = Arrays.copyOf(heap, 2 * size);
+        heap[size] = e;
+        siftUp(size++);
+        if (log.isDebugEnabled())
+            log.debug("Adding worklist entry for " + bc);
+        return true;
     }
 
     /**
      * Checks whether the work list is empty.
      */
     public boolean isEmpty() {
-        return pending_queue.isEmpty();
+        return size == 0;
     }
 
     /**
      * Picks and removes the next entry.
      */
     public BlockAndContext<ContextType> removeNext() {
-        Entry e = Objects.requireNonNull(pending_queue.pollFirst());
-        if (Options.get().isTestEnabled() && !pending_set.remove(e))
-            throw new AnalysisException("Failed to remove from worklist - entries perhaps not totally ordered?");
-        return e.bc;
+        if (size == 0)
+            throw new AnalysisException("Work list is empty");
+        refreshBlockOrders();
+        int e = heap[0];
+        heap[0] = heap[--size];
+        if (size > 0)
+            siftDown(0);
+        pending[e] = false;
+        BlockAndContext<ContextType> bc = entries.get(e);
+        if (Options.get().isTestEnabled()) {
+            if (!pending_set.remove(bc))
+                throw new AnalysisException("Failed to remove from worklist - entries perhaps not totally ordered?");
+            if (size > 0 && compare(e, heap[0]) > 0)
+                throw new AnalysisException("Work list entries removed out of order - block orders perhaps changed?");
+        }
+        return bc;
     }
 
     /**
      * Returns the number of entries in the work list.
      */
     public int size() {
-        return pending_queue.size();
+        return size;
     }
 
     /**
@@ -97,112 +163,104 @@ public class WorkList<ContextType extends IContext<ContextType>> {
      */
     @Override
     public String toString() {
-        return pending_queue.toString();
+        return Arrays.stream(heap, 0, size).boxed()
+                .sorted(this::compare)
+                .map(e -> "(" + entries.get(e) + ")")
+                .collect(Collectors.joining(", ", "[", "]"));
     }
 
     /**
-     * Work list entry.
-     * Consists of a block and a context.
+     * Returns the entry number of the given (block, context), assigning a new one if it has not been seen before.
      */
-    private class Entry implements Comparable<Entry> {
-
-        private BlockAndContext<ContextType> bc;
-
-        private int hash; // uniquely determined by bc
-
-        private BlockAndContext<ContextType> funentry; // uniquely determined by bc
-
-        private int funentry_order; // uniquely determined by bc
-
-        private int context_order; // uniquely determined by bc
-
-        /**
-         * Constructs a new entry.
-         */
-        public Entry(BlockAndContext<ContextType> bc) {
-            this.bc = bc;
-            hash = bc.hashCode();
-            funentry = BlockAndContext.makeEntry(bc.getBlock(), bc.getContext());
-            funentry_order = call_graph.getFunctionEntryOrder(funentry);
-            context_order = call_graph.getContextOrder(bc.getContext());
+    private int getEntryNumber(BlockAndContext<ContextType> bc) {
+        Integer n = entry_numbers.get(bc);
+        if (n != null)
+            return n;
+        int e = entries.size();
+        if (e == pending.length) {
+            int capacity = 2 * e;
+            funentry_order = Arrays.copyOf(funentry_order, capacity);
+            block_order = Arrays.copyOf(block_order, capacity);
+            context_order = Arrays.copyOf(context_order, capacity);
+            pending = Arrays.copyOf(pending, capacity);
         }
+        entries.add(bc);
+        entry_numbers.put(bc, e);
+        funentry_order[e] = call_graph.getFunctionEntryOrder(BlockAndContext.makeEntry(bc.getBlock(), bc.getContext()));
+        context_order[e] = call_graph.getContextOrder(bc.getContext());
+        return e;
+    }
 
-        /**
-         * Checks whether this entry is equal to the given one.
-         */
-        @Override
-        public boolean equals(Object obj) {
-            if (obj == null || !getClass().equals(obj.getClass()))
-                return false;
-            WorkList<?>.Entry p = (WorkList<?>.Entry) obj;
-            return p.bc.equals(bc);
+    /**
+     * Rereads the block orders of the pending entries and rebuilds the heap, if the block orders have changed.
+     * Entries that are not pending get their block order when they are added again.
+     */
+    private void refreshBlockOrders() {
+        int generation = Function.getBlockOrderGeneration();
+        if (generation == block_order_generation)
+            return;
+        block_order_generation = generation;
+        for (int i = 0; i < size; i++) {
+            int e = heap[i];
+            block_order[e] = entries.get(e).getBlock().getWorklistOrder();
         }
+        for (int i = (size >>> 1) - 1; i >= 0; i--)
+            siftDown(i);
+    }
 
-        /**
-         * Computes a hash code for this entry.
-         */
-        @Override
-        public int hashCode() {
-            return hash;
+    private void siftUp(int i) {
+        int e = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            int p = heap[parent];
+            if (compare(e, p) >= 0)
+                break;
+            heap[i] = p;
+            i = parent;
         }
+        heap[i] = e;
+    }
 
-        /**
-         * Returns a string description of this entry.
-         */
-        @Override
-        public String toString() {
-            return "(" + bc + ")";
-//            return Integer.toString(bc.getBlock().getIndex());
+    private void siftDown(int i) {
+        int e = heap[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int c = heap[child];
+            int right = child + 1;
+            if (right < size && compare(heap[right], c) < 0)
+                c = heap[child = right];
+            if (compare(e, c) <= 0)
+                break;
+            heap[i] = c;
+            i = child;
         }
+        heap[i] = e;
+    }
 
-        /**
-         * Compares this and the given entry.
-         * This method defines the work list priority using the work list strategy.
-         * A negative return value means that this first has higher priority than the other,
-         * a positive return value means that the other has higher priority than this.
-         */
-        @Override
-        public int compareTo(@Nonnull Entry other) {
-            if (bc.equals(other.bc))
-                return 0;
-
-            final int THIS_FIRST = -1;
-            final int OTHER_FIRST = 1;
-
-//            // low priority for event dispatcher node
-//            if (bc.getBlock().getFirstNode() instanceof EventDispatcherNode && !(other.bc.getBlock().getFirstNode() instanceof EventDispatcherNode))
-//                return OTHER_FIRST;
-//            if (other.bc.getBlock().getFirstNode() instanceof EventDispatcherNode && !(bc.getBlock().getFirstNode() instanceof EventDispatcherNode))
-//                return THIS_FIRST;
-
-//            // low priority for exceptional return nodes
-//            if (bc.getBlock().getFirstNode() instanceof ExceptionalReturnNode && !(other.bc.getBlock().getFirstNode() instanceof ExceptionalReturnNode))
-//                return OTHER_FIRST;
-//            if (other.bc.getBlock().getFirstNode() instanceof ExceptionalReturnNode && !(bc.getBlock().getFirstNode() instanceof ExceptionalReturnNode))
-//                return THIS_FIRST;
-
-            if (ttr != null) {
-                Integer c = ttr.compareWorkListEntries(bc, other.bc);
-                if (c != null)
-                    return c;
-            }
-
-            if (funentry.equals(other.funentry)) {
-                // same function and same context at entry: use block order (reverse post order)
-                if (bc.getBlock().getWorklistOrder() < other.bc.getBlock().getWorklistOrder())
-                    return THIS_FIRST;
-                else if (other.bc.getBlock().getWorklistOrder() < bc.getBlock().getWorklistOrder())
-                    return OTHER_FIRST;
-                // same block, same function and context at entry, but different context: order by context number (not important, but need a tiebreaker)
-                return context_order - other.context_order;
-            } else {
-                // different function/context at entry: order by entry occurrence number (lower first)
-                if (funentry_order < other.funentry_order)
-                    return THIS_FIRST;
-                else if (other.funentry_order < funentry_order)
-                    return OTHER_FIRST;
-                throw new AnalysisException("Failed to compare " + this + " + and " + other);
-            }
+    /**
+     * Compares the given entries.
+     * This method defines the work list priority using the work list strategy.
+     * A negative return value means that e1 has higher priority than e2,
+     * a positive return value means that e2 has higher priority than e1.
+     */
+    private int compare(int e1, int e2) {
+        if (e1 == e2)
+            return 0;
+        if (ttr != null) {
+            Integer c = ttr.compareWorkListEntries(entries.get(e1), entries.get(e2));
+            if (c != null)
+                return c;
         }
+        // different function/context at entry: order by entry occurrence number (lower first)
+        if (funentry_order[e1] != funentry_order[e2])
+            return Integer.compare(funentry_order[e1], funentry_order[e2]);
+        // same function and same context at entry: use block order (reverse post order)
+        if (block_order[e1] != block_order[e2])
+            return Integer.compare(block_order[e1], block_order[e2]);
+        // same block, same function and context at entry, but different context: order by context number (not important, but need a tiebreaker)
+        if (context_order[e1] != context_order[e2])
+            return Integer.compare(context_order[e1], context_order[e2]);
+        throw new AnalysisException("Failed to compare " + entries.get(e1) + " and " + entries.get(e2));
     }
 }
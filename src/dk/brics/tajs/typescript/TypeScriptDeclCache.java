@@ -0,0 +1,408 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.brics.tajs.typescript;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import dk.brics.tajs.options.ExternalDependencies;
+import dk.brics.tajs.options.Options;
+import dk.brics.tajs.options.TAJSEnvironmentConfig;
+import dk.brics.tajs.util.AnalysisException;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static dk.brics.tajs.util.Collections.newList;
+
+/**
+ * Content-addressed on-disk cache of TypeScript declaration files converted to the JSON format of ts-spec-reader.
+ * <p>
+ * An entry is keyed by the SHA-256 of the ts-spec-reader package.json, the declaration file, and the declaration files
+ * it references (transitively), and contains the gzip-compressed JSON.
+ * The referenced files are those of relative references and imports, and the declarations of packages
+ * referenced by <code>/// &lt;reference types="..."/&gt;</code> or imported by name, which are looked up in the
+ * <code>node_modules</code> and <code>node_modules/@types</code> directories like TypeScript does.
+ * Modules that are only declared ambiently (such as the Node.js core modules) are covered through the package
+ * that declares them, if that package is referenced.
+ * Conversions run concurrently in a shared pool of threads, and a declaration file that is requested again while being
+ * converted is not converted twice.
+ * A .d.ts.json file next to the declaration file that is not older than the declaration file is used instead of converting.
+ * Such files are keyed by their own content and are never stored in the cache.
+ */
+class TypeScriptDeclCache {
+
+    private static final Logger log = Logger.getLogger(TypeScriptDeclCache.class);
+
+    /**
+     * Version of the cache format. Must be increased when the conversion changes.
+     */
+    private static final int VERSION = 3;
+
+    /**
+     * Type environment used for the conversion.
+     */
+    private static final String ENV = "es6-dom";
+
+    private static final ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+        Thread t = new Thread(r, "TypeScriptDeclCache");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Conversions in progress, indexed by key.
+     */
+    private static final Map<String, CompletableFuture<String>> conversions = new ConcurrentHashMap<>();
+
+    private final Path dir;
+
+    TypeScriptDeclCache(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Returns the cache selected by the options.
+     */
+    static TypeScriptDeclCache get() {
+        String dir = Options.get().getTypeDeclarationCacheDir();
+        return new TypeScriptDeclCache(dir != null ? Paths.get(dir) : Paths.get(System.getProperty("java.io.tmpdir"), "tajs-typescript-cache"));
+    }
+
+    /**
+     * Matches triple-slash path and types references, and module specifiers in declaration files.
+     * Group 1 is a path, and group 2 is a package name or a relative module specifier.
+     */
+    private static final Pattern REFERENCE = Pattern.compile("///\\s*<reference\\s+(?:path\\s*=\\s*[\"']([^\"']+)[\"']|types\\s*=\\s*[\"']([^\"']+)[\"'])|(?:from|import|import\\(|require\\()\\s*[\"']([^\"']+)[\"']");
+
+    /**
+     * Computes the cache key for the given declaration file.
+     */
+    String makeKey(Path dts) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AnalysisException(e);
+        }
+        Path pregenerated = getPregenerated(dts);
+        if (pregenerated != null) {
+            md.update(("pregenerated\0").getBytes(StandardCharsets.UTF_8));
+            md.update(Files.readAllBytes(pregenerated));
+            return toHex(md.digest());
+        }
+        md.update((VERSION + "\0" + ENV + "\0" + dts.getFileName() + "\0").getBytes(StandardCharsets.UTF_8));
+        Optional<Path> specReader = ExternalDependencies.getTSSpecReaderDirectory();
+        if (specReader.isPresent() && Files.isRegularFile(specReader.get().resolve("package.json")))
+            md.update(Files.readAllBytes(specReader.get().resolve("package.json"))); // contains the ts-spec-reader version
+        md.update((byte) 0);
+        Path parent = dts.toAbsolutePath().normalize().getParent();
+        for (Path p : getReferencedFiles(dts)) {
+            md.update((parent.relativize(p) + "\0").getBytes(StandardCharsets.UTF_8));
+            md.update(Files.readAllBytes(p));
+            md.update((byte) 0);
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * Finds the given declaration file and the declaration files it references, transitively.
+     */
+    private static List<Path> getReferencedFiles(Path dts) throws IOException {
+        Set<Path> visited = new TreeSet<>();
+        Deque<Path> pending = new ArrayDeque<>();
+        Path start = dts.toAbsolutePath().normalize();
+        visited.add(start);
+        pending.add(start);
+        while (!pending.isEmpty()) {
+            Path p = pending.remove();
+            Matcher m = REFERENCE.matcher(new String(Files.readAllBytes(p), StandardCharsets.UTF_8));
+            while (m.find()) {
+                Path ref;
+                if (m.group(1) != null)
+                    ref = resolveDeclFile(p.getParent().resolve(m.group(1)).normalize());
+                else {
+                    String name = m.group(2) != null ? m.group(2) : m.group(3);
+                    if (name.startsWith("./") || name.startsWith("../"))
+                        ref = resolveDeclFile(p.getParent().resolve(name).normalize());
+                    else
+                        ref = resolvePackage(p.getParent(), name);
+                }
+                if (ref != null && visited.add(ref))
+                    pending.add(ref);
+            }
+        }
+        return newList(visited);
+    }
+
+    /**
+     * Finds the declaration file of the given package or package subpath,
+     * in the node_modules/@types and node_modules directories of the given directory and its ancestors.
+     * Returns null if not found.
+     */
+    private static Path resolvePackage(Path dir, String name) throws IOException {
+        if (name.startsWith("/") || name.contains(":"))
+            return null;
+        String types_name = name.startsWith("@") ? name.substring(1).replaceFirst("/", "__") : name; // @scope/pkg is in @types/scope__pkg
+        for (Path d = dir; d != null; d = d.getParent()) {
+            Path node_modules = d.resolve("node_modules");
+            if (!Files.isDirectory(node_modules))
+                continue;
+            Path ref = resolvePackageDeclFile(node_modules.resolve("@types").resolve(types_name).normalize());
+            if (ref == null)
+                ref = resolvePackageDeclFile(node_modules.resolve(name).normalize());
+            if (ref != null)
+                return ref;
+        }
+        return null;
+    }
+
+    /**
+     * Finds the declaration file of the given package directory (using the 'types' or 'typings' field of its package.json)
+     * or package subpath. Returns null if not found.
+     */
+    private static Path resolvePackageDeclFile(Path p) throws IOException {
+        Path package_json = p.resolve("package.json");
+        if (Files.isRegularFile(package_json)) {
+            try {
+                JsonObject json = new JsonParser().parse(new String(Files.readAllBytes(package_json), StandardCharsets.UTF_8)).getAsJsonObject();
+                for (String field : Arrays.asList("types", "typings")) {
+                    JsonElement e = json.get(field);
+                    if (e != null && e.isJsonPrimitive()) {
+                        Path ref = resolveDeclFile(p.resolve(e.getAsString()).normalize());
+                        if (ref != null)
+                            return ref;
+                    }
+                }
+            } catch (JsonParseException | IllegalStateException e) {
+                log.debug("Unable to read " + package_json + ": " + e);
+            }
+        }
+        return resolveDeclFile(p);
+    }
+
+    private static Path resolveDeclFile(Path p) {
+        String s = p.toString();
+        for (Path candidate : Arrays.asList(p, Paths.get(s + ".d.ts"), Paths.get(s.replaceFirst("\\.js$", "") + ".d.ts"), p.resolve("index.d.ts")))
+            if (candidate.getFileName().toString().endsWith(".d.ts") && Files.isRegularFile(candidate))
+                return candidate;
+        return null;
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder key = new StringBuilder();
+        for (byte x : digest)
+            key.append(String.format("%02x", x));
+        return key.toString();
+    }
+
+    /**
+     * Returns the .d.ts.json file next to the given declaration file if it exists and is not older, and otherwise null.
+     */
+    private static Path getPregenerated(Path dts) throws IOException {
+        Path pregenerated = Paths.get(dts + ".json");
+        if (Files.exists(pregenerated) && Files.getLastModifiedTime(pregenerated).compareTo(Files.getLastModifiedTime(dts)) >= 0)
+            return pregenerated;
+        return null;
+    }
+
+    /**
+     * Returns the JSON for the given declaration file, converting it if necessary.
+     */
+    String getJSON(Path dts, String key) {
+        try {
+            return request(dts, key).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof AnalysisException)
+                throw (AnalysisException) e.getCause();
+            throw new AnalysisException(e.getCause());
+        }
+    }
+
+    /**
+     * Starts converting the declaration files of the packages in the given @types directory that are not in the cache.
+     */
+    void prefetch(Path types) {
+        List<Path> files;
+        try (Stream<Path> s = Files.list(types)) {
+            files = s.map(p -> p.resolve("index.d.ts")).filter(Files::exists).collect(Collectors.toList());
+        } catch (IOException e) {
+            log.debug("Unable to list " + types + ": " + e);
+            return;
+        }
+        for (Path dts : files) {
+            try {
+                request(dts, makeKey(dts));
+            } catch (IOException | AnalysisException e) {
+                log.debug("Unable to convert " + dts + ": " + e);
+            }
+        }
+    }
+
+    private CompletableFuture<String> request(Path dts, String key) {
+        try {
+            Path pregenerated = getPregenerated(dts);
+            if (pregenerated != null)
+                return CompletableFuture.completedFuture(new String(Files.readAllBytes(pregenerated), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new AnalysisException(e);
+        }
+        String json = load(key);
+        if (json != null)
+            return CompletableFuture.completedFuture(json);
+        CompletableFuture<String> f = conversions.computeIfAbsent(key, k -> {
+            String[] cmd = makeCommand(dts);
+            boolean verbose = !Options.get().isTestEnabled();
+            return CompletableFuture.supplyAsync(() -> convert(dts, k, cmd, verbose), pool);
+        });
+        f.whenComplete((r, e) -> conversions.remove(key, f));
+        return f;
+    }
+
+    private static String[] makeCommand(Path dts) {
+        return new String[]{
+                TAJSEnvironmentConfig.get().getNode().toString(),
+                ExternalDependencies.getTSSpecReaderDirectory().orElseGet(() -> {
+                    throw new AnalysisException("Can't find ts-spec-reader directory!?");
+                }).resolve("src/CLI.js").toString(), // TODO: possible to load as resource (from tajs-all.jar)?
+                dts.toString(),
+                "--env",
+                ENV,
+                "-o"};
+    }
+
+    /**
+     * Runs ts-spec-reader on the given declaration file and stores the result.
+     */
+    private String convert(Path dts, String key, String[] cmd, boolean verbose) {
+        if (verbose)
+            log.info("Converting " + dts + " to .json");
+        Path tmp = null;
+        try {
+            Files.createDirectories(dir);
+            tmp = Files.createTempFile(dir, key, ".json");
+            String[] fullCmd = Arrays.copyOf(cmd, cmd.length + 1);
+            fullCmd[cmd.length] = tmp.toString();
+            log.debug(">>> " + String.join(" ", fullCmd));
+            Process p = new ProcessBuilder(fullCmd).redirectErrorStream(true).start();
+            String output = readAll(p.getInputStream());
+            if (p.waitFor() != 0) {
+                log.error("Error:\n" + output);
+                throw new AnalysisException("Unable to convert .d.ts file " + dts);
+            }
+            String json = new String(Files.readAllBytes(tmp), StandardCharsets.UTF_8);
+            store(key, json);
+            return json;
+        } catch (IOException e) {
+            throw new AnalysisException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AnalysisException(e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) != -1)
+            out.write(buf, 0, n);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the JSON with the given key, or null if not in the cache.
+     */
+    String load(String key) {
+        Path file = dir.resolve(key + ".json.gz");
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            return readAll(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.debug("Ignoring unreadable TypeScript declaration cache entry " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the JSON with the given key.
+     * The entry is written to a temporary file and then moved into place, so concurrent readers never see partial entries.
+     */
+    void store(String key, String json) {
+        Path file = dir.resolve(key + ".json.gz");
+        Path tmp = null;
+        try {
+            Files.createDirectories(dir);
+            tmp = Files.createTempFile(dir, key, ".tmp");
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp))) {
+                out.write(json.getBytes(StandardCharsets.UTF_8));
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+        } catch (IOException e) {
+            log.debug("Unable to write TypeScript declaration cache entry " + file + ": " + e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
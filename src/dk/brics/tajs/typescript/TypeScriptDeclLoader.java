@@ -21,25 +21,24 @@ import dk.au.cs.casa.typescript.types.Type;
 import dk.brics.tajs.analysis.Solver;
 import dk.brics.tajs.analysis.nativeobjects.FunctionFileLoader;
 import dk.brics.tajs.lattice.ObjectLabel;
-import dk.brics.tajs.options.ExternalDependencies;
-import dk.brics.tajs.options.Options;
-import dk.brics.tajs.options.TAJSEnvironmentConfig;
 import dk.brics.tajs.util.AnalysisException;
+import dk.brics.tajs.util.AnalysisSession;
 import dk.brics.tajs.util.Loader;
 import dk.brics.tajs.util.PathAndURLUtils;
 import org.apache.log4j.Logger;
 
-import java.io.BufferedReader;
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 import static dk.brics.tajs.util.Collections.newMap;
+import static dk.brics.tajs.util.Collections.newSet;
 
 //import org.apache.log4j.Level;
 //import org.apache.log4j.LogManager;
@@ -55,9 +54,41 @@ public class TypeScriptDeclLoader {
 //        LogManager.getLogger(TypeScriptDeclLoader.class).setLevel(Level.DEBUG);
 //    }
 
-    private static SpecReader env; // standard type environment
+    private static volatile SpecReader env; // standard type environment, shared by all analysis sessions
 
-    private static Map<Type, ObjectLabel.Kind> stdTypes = newMap(); // standard types
+    private static final AnalysisSession.Slot<Map<Type, ObjectLabel.Kind>> stdTypes = AnalysisSession.newSlot(() -> newMap()); // standard types
+
+    private static final AnalysisSession.Slot<Set<Path>> prefetched = AnalysisSession.newSlot(() -> newSet()); // @types directories being converted
+
+    /**
+     * Maximum number of type environments kept in memory.
+     */
+    private static final int MAX_SPECS = 32;
+
+    /**
+     * Type environments of declaration files, indexed by cache key, shared by all analysis sessions (least recently used first).
+     */
+    private static final Map<String, SpecReader> specs = new LinkedHashMap<String, SpecReader>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SpecReader> eldest) {
+            return size() > MAX_SPECS;
+        }
+    };
+
+    /**
+     * Returns the standard type environment, loading it if not done already.
+     */
+    private static SpecReader getStandardEnvironment() throws IOException {
+        SpecReader e = env;
+        if (e == null) {
+            synchronized (TypeScriptDeclLoader.class) {
+                e = env;
+                if (e == null)
+                    env = e = new SpecReader(Loader.getString(TypeScriptDeclLoader.class.getResource("/tsspecs/es6-dom.json"), StandardCharsets.UTF_8));
+            }
+        }
+        return e;
+    }
 
     /**
      * Attempts to find a TypeScript declaration file for the given JavaScript module, returns null if not found.
@@ -82,21 +113,47 @@ public class TypeScriptDeclLoader {
         }
         try {
             Path libfilepath = PathAndURLUtils.toPath(libfile, false);
-            Path dtsjsonfile = generateJSONDeclFile(libfilepath);
-            if (dtsjsonfile == null)
+            TypeScriptDeclCache cache = TypeScriptDeclCache.get();
+            prefetchTypes(cache, libfilepath);
+            Path dts = findDeclFile(libfilepath);
+            if (dts == null)
                 return null;
-            if (log.isDebugEnabled())
-                log.debug("Loading TypeScript declaration file " + dtsjsonfile);
-            SpecReader spec = new SpecReader(Loader.getString(dtsjsonfile, StandardCharsets.UTF_8));
+            String key = cache.makeKey(dts);
+            SpecReader spec;
+            synchronized (specs) {
+                spec = specs.get(key);
+            }
+            if (spec == null) {
+                if (log.isDebugEnabled())
+                    log.debug("Loading TypeScript declaration file " + dts);
+                spec = new SpecReader(cache.getJSON(dts, key));
+                synchronized (specs) {
+                    specs.put(key, spec);
+                }
+            }
             String basename = PathAndURLUtils.removeExtension(libfilepath.getFileName());
             findStandardTypes(spec);
-            return findModuleType(spec, dtsjsonfile, basename);
-        } catch (IOException | InterruptedException e) {
+            return findModuleType(spec, dts, basename);
+        } catch (IOException e) {
             throw new AnalysisException(e);
         }
     }
 
+    /**
+     * Starts converting the declaration files in the node_modules/@types directories of the ancestors of the given file,
+     * unless done already in this analysis session.
+     */
+    private static void prefetchTypes(TypeScriptDeclCache cache, Path libfilepath) {
+        Set<Path> done = AnalysisSession.current().get(prefetched);
+        for (Path dir = libfilepath.toAbsolutePath().getParent(); dir != null; dir = dir.getParent()) {
+            Path types = dir.resolve("node_modules").resolve("@types");
+            if (done.add(types) && Files.isDirectory(types))
+                cache.prefetch(types);
+        }
+    }
+
     private static void findStandardTypes(SpecReader spec) {
+        Map<Type, ObjectLabel.Kind> stdTypes = getStdTypes();
         for (SpecReader.NamedType nt : spec.getNamedTypes()) {
             for (ObjectLabel.Kind k : ObjectLabel.Kind.values())
                 if (nt.qName.contains(k.toString()))
@@ -106,17 +163,16 @@ public class TypeScriptDeclLoader {
     }
 
     public static Map<Type, ObjectLabel.Kind> getStdTypes() {
-        return stdTypes;
+        return AnalysisSession.current().get(stdTypes);
     }
 
-    private static Type findModuleType(SpecReader spec, Path dtsjsonfile, String basename) throws IOException {
+    private static Type findModuleType(SpecReader spec, Path dtsfile, String basename) throws IOException {
         // look for single ambient named basename
         for (SpecReader.NamedType n : spec.getAmbientTypes())
             if (n.qName.size() == 1 && n.qName.get(0).equals(basename))
                 return n.type;
         // load empty environment (if not done already)
-        if (env == null)
-            env = new SpecReader(Loader.getString(TypeScriptDeclLoader.class.getResource("/tsspecs/es6-dom.json"), StandardCharsets.UTF_8));
+        SpecReader env = getStandardEnvironment();
         // look for user-defined global property
         Map<String, Type> userDefinedTypes = newMap();
         for (Map.Entry<String, Type> entry : spec.getGlobal().getDeclaredProperties().entrySet())
@@ -124,62 +180,32 @@ public class TypeScriptDeclLoader {
                 userDefinedTypes.put(entry.getKey(), entry.getValue());
         if (userDefinedTypes.size() == 1)
             return userDefinedTypes.values().stream().findFirst().get();
-        throw new AnalysisException("Unable to resolve module type in " + dtsjsonfile);
+        throw new AnalysisException("Unable to resolve module type in " + dtsfile);
     }
 
     /**
-     * If the .d.ts.json file is missing or outdated, attempt to (re-)generate it.
+     * Finds the .d.ts file for the given library file, either next to it or in @types in a node_modules ancestor directory.
      *
      * @param libfilepath path of library file
-     * @return URL of .d.t.json file
+     * @return path of .d.ts file, or null if not found
      */
-    private static Path generateJSONDeclFile(Path libfilepath) throws IOException, InterruptedException {
+    private static Path findDeclFile(Path libfilepath) {
         String libfilestrnoext = PathAndURLUtils.removeExtension(libfilepath);
         // first look in directory containing the .js file
-        String dtsfile = libfilestrnoext + ".d.ts";
-        File dts = new File(dtsfile);
-        if (!dts.exists()) {
-            // then look in @types in node_modules ancestor directories
-            dts = null;
-            Path nodemodules = libfilepath;
-            while (nodemodules != null && nodemodules.getFileName() != null && !nodemodules.getFileName().toString().equals("node_modules"))
-                nodemodules = nodemodules.getParent();
-            if (nodemodules != null && nodemodules.getFileName() != null) {
-                Path relative = nodemodules.relativize(libfilepath).getParent();
-                dts = nodemodules.resolve("@types").resolve(relative).resolve("index.d.ts").toFile();
-                if (dts.exists())
-                    dtsfile = dts.toString();
-                else
-                    dts = null;
-            }
-            if (dts == null) {
-                log.debug("No TypeScript declaration file found for module " + libfilepath);
-                return null;
-            }
-        }
-        // convert .d.ts to .d.ts.json if necessary
-        File dtsjson = new File(dtsfile + ".json");
-        if (!dtsjson.exists() || dts.lastModified() >= dtsjson.lastModified()) { // TODO: timestamp useless if files checked out together :-(
-            if (!Options.get().isTestEnabled())
-                log.info("Converting " + dtsfile + " to .json");
-            String[] cmd = {
-                    TAJSEnvironmentConfig.get().getNode().toString(),
-                    ExternalDependencies.getTSSpecReaderDirectory().orElseGet(() -> {
-                        throw new AnalysisException("Can't find ts-spec-reader directory!?");
-                    }).resolve("src/CLI.js").toString(), // TODO: possible to load as resource (from tajs-all.jar)?
-                    dtsfile,
-                    "--env",
-                    "es6-dom",
-                    "-o",
-                    dtsjson.toString()};
-            log.debug(">>> " + String.join(" ", cmd));
-            Process p = Runtime.getRuntime().exec(cmd);
-            if (p.waitFor() != 0) {
-                String err = new BufferedReader(new InputStreamReader(p.getErrorStream())).lines().collect(Collectors.joining("\n"));
-                log.error("Error:\n" + err);
-                throw new AnalysisException("Unable to convert .d.ts file " + dts);
-            }
+        Path dts = Paths.get(libfilestrnoext + ".d.ts");
+        if (Files.exists(dts))
+            return dts;
+        // then look in @types in node_modules ancestor directories
+        Path nodemodules = libfilepath;
+        while (nodemodules != null && nodemodules.getFileName() != null && !nodemodules.getFileName().toString().equals("node_modules"))
+            nodemodules = nodemodules.getParent();
+        if (nodemodules != null && nodemodules.getFileName() != null) {
+            Path relative = nodemodules.relativize(libfilepath).getParent();
+            dts = nodemodules.resolve("@types").resolve(relative).resolve("index.d.ts");
+            if (Files.exists(dts))
+                return dts;
         }
-        return dtsjson.toPath();
+        log.debug("No TypeScript declaration file found for module " + libfilepath);
+        return null;
     }
 }
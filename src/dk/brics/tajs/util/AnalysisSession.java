@@ -0,0 +1,181 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.brics.tajs.util;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Owner of the mutable state of an analysis run.
+ * <p>
+ * Options, counters and caches that belong to a single analysis are kept in session slots instead of static fields,
+ * so that several analyses can run concurrently in different threads of the same JVM.
+ * A session is bound to the current thread by {@link #call(Callable)} or {@link #run(Runnable)};
+ * code running outside of a bound session uses the default session of the process,
+ * so single-analysis use is unaffected.
+ * <p>
+ * Canonicalized constants (the shared instances in <code>Value</code>, <code>Obj</code>,
+ * <code>PKey.StringPKey</code>, <code>ObjectLabel</code>, <code>InitialStateBuilder</code>, etc.)
+ * are shared by all sessions via the thread-safe {@link Canonicalizer}.
+ * Since <code>Main.reset()</code> recreates those constants, it may be called before
+ * concurrent sessions are started but not while any of them are running.
+ * A new session starts with fresh per-session state and needs no reset.
+ * The DOM models (<code>dk.brics.tajs.analysis.dom</code>) still keep static state,
+ * so analyses with DOM enabled must not run concurrently.
+ */
+public final class AnalysisSession {
+
+    /**
+     * Key of a piece of per-session state.
+     */
+    public static final class Slot<T> {
+
+        private final int index;
+
+        private final Supplier<T> initial;
+
+        private Slot(int index, Supplier<T> initial) {
+            this.index = index;
+            this.initial = initial;
+        }
+    }
+
+    private static final AtomicInteger number_of_slots = new AtomicInteger();
+
+    private static final AnalysisSession process_session = new AnalysisSession();
+
+    private static final ThreadLocal<AnalysisSession> bound = new ThreadLocal<>();
+
+    /**
+     * Number of threads that currently have a session bound.
+     * Allows {@link #current()} to avoid the thread-local lookup when no sessions are in use.
+     */
+    private static final AtomicInteger active = new AtomicInteger();
+
+    private volatile Object[] values = new Object[0];
+
+    /**
+     * Constructs a new session with fresh state.
+     */
+    public AnalysisSession() {
+    }
+
+    /**
+     * Creates a slot for per-session state.
+     * The initial value is created lazily, the first time the slot is read in a session (or after it has been cleared).
+     * Slots are normally held in static final fields of the class that owns the state.
+     */
+    public static <T> Slot<T> newSlot(Supplier<T> initial) {
+        return new Slot<>(number_of_slots.getAndIncrement(), initial);
+    }
+
+    /**
+     * Returns the session bound to the current thread, or the default session of the process if none is bound.
+     */
+    public static AnalysisSession current() {
+        if (active.get() == 0)
+            return process_session;
+        AnalysisSession s = bound.get();
+        return s != null ? s : process_session;
+    }
+
+    /**
+     * Returns the value of the given slot in this session.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Slot<T> slot) {
+        Object[] vs = values;
+        if (slot.index < vs.length) {
+            Object v = vs[slot.index];
+            if (v != null)
+                return (T) v;
+        }
+        return initialize(slot);
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized <T> T initialize(Slot<T> slot) {
+        Object v = ensureCapacity(slot.index)[slot.index];
+        if (v == null) {
+            v = slot.initial.get();
+            ensureCapacity(slot.index)[slot.index] = v; // the initializer may have read other slots and thereby replaced the array
+        }
+        return (T) v;
+    }
+
+    /**
+     * Sets the value of the given slot in this session.
+     * Setting null clears the slot.
+     */
+    public synchronized <T> void set(Slot<T> slot, T value) {
+        ensureCapacity(slot.index)[slot.index] = value;
+    }
+
+    /**
+     * Clears the given slot in this session.
+     */
+    public <T> void clear(Slot<T> slot) {
+        set(slot, null);
+    }
+
+    private Object[] ensureCapacity(int index) {
+        Object[] vs = values;
+        if (index >= vs.length) {
+            vs = Arrays.copyOf(vs, Math.max(number_of_slots.get(), index + 1));
+            values = vs;
+        }
+        return vs;
+    }
+
+    /**
+     * Runs the given task with this session bound to the current thread.
+     * The previously bound session (if any) is restored afterwards.
+     */
+    public <T> T call(Callable<T> task) throws Exception {
+        AnalysisSession previous = bound.get();
+        bound.set(this);
+        active.incrementAndGet();
+        try {
+            return task.call();
+        } finally {
+            active.decrementAndGet();
+            if (previous != null)
+                bound.set(previous);
+            else
+                bound.remove();
+        }
+    }
+
+    /**
+     * Runs the given task with this session bound to the current thread.
+     * The previously bound session (if any) is restored afterwards.
+     */
+    public void run(Runnable task) {
+        try {
+            call(() -> {
+                task.run();
+                return null;
+            });
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Exception e) {
+            throw new AnalysisException(e);
+        }
+    }
+}
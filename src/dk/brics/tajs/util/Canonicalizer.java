@@ -16,80 +16,132 @@
 
 package dk.brics.tajs.util;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
-
-import static dk.brics.tajs.util.Collections.newMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A canonicalizer based on object equality and weak references.
+ * <p>
+ * Thread-safe. The canonical instances are kept in a concurrent table of weak references,
+ * and entries whose referents have been garbage collected are purged via a reference queue.
+ * Lookups compare {@link DeepImmutable} objects using {@link DeepImmutable#canonicalEquals(Object)},
+ * so the canonicalized classes can use object identity in their <code>equals</code> methods.
+ * Statistics are recorded both in total and for each class of canonicalized objects.
  */
 public class Canonicalizer {
 
-    private static Canonicalizer instance;
+    private static volatile Canonicalizer instance;
+
+    private final Map<Object, CanonicalReference> canonicalInstances = new ConcurrentHashMap<>();
+
+    private final ReferenceQueue<Object> cleared = new ReferenceQueue<>();
+
+    private final LongAdder cacheHits = new LongAdder();
+
+    private final LongAdder cacheMisses = new LongAdder();
+
+    private final LongAdder purged = new LongAdder();
+
+    private final ClassValue<ClassStatistics> classStatistics = new ClassValue<ClassStatistics>() {
+        @Override
+        protected ClassStatistics computeValue(Class<?> type) {
+            return new ClassStatistics();
+        }
+    };
+
+    /**
+     * Statistics for a class of canonicalized objects.
+     */
+    private static final class ClassStatistics {
 
-    private final Map<DeepImmutable, WeakReference<DeepImmutable>> canonicalInstances = newMap();
+        final LongAdder hits = new LongAdder();
 
-    private int cacheHits = 0;
+        final LongAdder misses = new LongAdder();
 
-    private int cacheMisses = 0;
+        final LongAdder size = new LongAdder();
+    }
 
-    private boolean canonicalizing;
+    /**
+     * Lookup key of each thread, reused for all lookups by that thread.
+     */
+    private final ThreadLocal<Probe> probes = ThreadLocal.withInitial(Probe::new);
 
     public static void reset() {
         instance = null;
     }
 
     public static Canonicalizer get() {
-        if (instance == null) {
-            instance = new Canonicalizer();
+        Canonicalizer c = instance;
+        if (c == null) {
+            synchronized (Canonicalizer.class) {
+                c = instance;
+                if (c == null)
+                    instance = c = new Canonicalizer();
+            }
         }
-        return instance;
+        return c;
     }
 
-    public int getCacheHits() {
-        return cacheHits;
+    public long getCacheHits() {
+        return cacheHits.sum();
     }
 
-    public int getCacheMisses() {
-        return cacheMisses;
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    /**
+     * Returns the number of entries in the canonicalization table (including entries that have not yet been purged).
+     */
+    public int getSize() {
+        return canonicalInstances.size();
+    }
+
+    /**
+     * Returns the number of entries that have been purged after their canonical instances were garbage collected.
+     */
+    public long getPurged() {
+        return purged.sum();
+    }
+
+    /**
+     * Returns the number of lookups of instances of the given class that found an existing instance.
+     */
+    public long getCacheHits(Class<?> c) {
+        return classStatistics.get(c).hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups of instances of the given class that added a new instance.
+     */
+    public long getCacheMisses(Class<?> c) {
+        return classStatistics.get(c).misses.sum();
     }
 
     /**
-     * Checks whether an object is currently being canonicalized.
+     * Returns the number of canonical instances of the given class (including instances that have not yet been purged).
      */
-    public boolean isCanonicalizing() {
-        return canonicalizing;
+    public long getSize(Class<?> c) {
+        return classStatistics.get(c).size.sum();
     }
 
     /**
      * Canonicalizes the given instance.
      */
-    @SuppressWarnings("unchecked")
     public <T extends DeepImmutable> T canonicalize(T instance) {
-        if (canonicalizing)
-            throw new AnalysisException("Already canonicalizing!");
-        canonicalizing = true;
-        WeakReference<T> canonical = (WeakReference<T>) canonicalInstances.get(instance);
-        if (canonical == null || canonical.get() == null) {
-            canonicalInstances.put(instance, new WeakReference<>(instance));
-            canonicalizing = false;
-            cacheMisses++;
-            return instance;
-        } else {
-            canonicalizing = false;
-            cacheHits++;
-            return canonical.get();
-        }
+        return intern(instance);
     }
 
     /**
      * Canonicalizes a set into an immutable version.
      */
     public <T extends DeepImmutable> Set<T> canonicalizeSet(Set<T> set) {
-        return canonicalizeViaImmutableBox(set);
+        return intern(java.util.Collections.unmodifiableSet(set));
     }
 
     /**
@@ -98,61 +150,133 @@ public class Canonicalizer {
     public <K, V extends DeepImmutable> Map<K, V> canonicalizeMap(Map<K, V> map) {
         if (map == null || map.isEmpty())
             return null;
-
-        return canonicalizeViaImmutableBox(map);
+        return intern(java.util.Collections.unmodifiableMap(map));
     }
 
     /**
      * Canonicalizes a set of strings into an immutable version.
      */
-    public Set<String> canonicalizeStringSet(Set<String> strings) {
-        return canonicalizeViaImmutableBox(strings);
+    public StringSet canonicalizeStringSet(Set<String> strings) {
+        return intern(StringSet.of(strings));
     }
 
     /**
-     * Canonicalizes an object into an immutable version.
+     * Canonicalizes an object that is not a {@link DeepImmutable}. The object must be immutable in practice!
      */
     public <T> T canonicalizeViaImmutableBox(T obj) {
-        return canonicalize(new ImmutableBox<>(obj)).get();
+        return intern(obj);
     }
 
-    private <T> Set<T> canonicalizeViaImmutableBox(Set<T> set) {
-        return canonicalize(new ImmutableBox<>(java.util.Collections.unmodifiableSet(set))).get();
+    /**
+     * Looks up the canonical instance that is equal to the given object, or makes the given object canonical if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T intern(T obj) {
+        Probe probe = probes.get();
+        if (probe.obj != null)
+            throw new AnalysisException("Already canonicalizing!");
+        probe.obj = obj;
+        probe.hashCode = obj.hashCode();
+        try {
+            purge();
+            ClassStatistics stats = classStatistics.get(obj.getClass());
+            while (true) {
+                CanonicalReference existing = canonicalInstances.get(probe);
+                Object canonical = existing != null ? existing.get() : null;
+                if (canonical != null) {
+                    cacheHits.increment();
+                    stats.hits.increment();
+                    return (T) canonical;
+                }
+                CanonicalReference ref = new CanonicalReference(obj, probe.hashCode, cleared, stats);
+                if (canonicalInstances.putIfAbsent(ref, ref) == null) {
+                    cacheMisses.increment();
+                    stats.misses.increment();
+                    stats.size.increment();
+                    return obj;
+                }
+                // another thread added an equal instance in the meantime (or it has just been cleared), try again
+            }
+        } finally {
+            probe.obj = null; // don't keep the object alive
+        }
     }
 
-    private <K, V> Map<K, V> canonicalizeViaImmutableBox(Map<K, V> map) {
-        return canonicalize(new ImmutableBox<>(java.util.Collections.unmodifiableMap(map))).get();
+    /**
+     * Removes the table entries whose canonical instances have been garbage collected.
+     */
+    private void purge() {
+        Reference<?> r;
+        while ((r = cleared.poll()) != null) {
+            ((CanonicalReference) r).stats.size.decrement();
+            if (canonicalInstances.remove(r) != null)
+                purged.increment();
+        }
     }
 
     /**
-     * Immutable-type wrapper for mutable objects. The wrapped object must be immutable in practice!
+     * Checks whether the two objects are structurally equal.
      */
-    private static class ImmutableBox<T> implements DeepImmutable {
+    private static boolean canonicalEquals(Object x, Object y) {
+        if (x == null || y == null)
+            return false;
+        if (x instanceof DeepImmutable)
+            return ((DeepImmutable) x).canonicalEquals(y);
+        return x.equals(y);
+    }
 
-        private final T element;
+    /**
+     * Weak reference to a canonical instance.
+     * Equality is determined by the referents, and a cleared reference is only equal to itself.
+     */
+    private static final class CanonicalReference extends WeakReference<Object> {
 
         private final int hashCode;
 
-        public ImmutableBox(T element) {
-            this.element = element;
-            this.hashCode = element.hashCode();
+        private final ClassStatistics stats;
+
+        CanonicalReference(Object referent, int hashCode, ReferenceQueue<Object> queue, ClassStatistics stats) {
+            super(referent, queue);
+            this.hashCode = hashCode;
+            this.stats = stats;
         }
 
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            ImmutableBox<?> that = (ImmutableBox<?>) o;
-            return Objects.equals(element, that.element);
+            if (o instanceof Probe) return o.equals(this);
+            if (!(o instanceof CanonicalReference)) return false;
+            CanonicalReference that = (CanonicalReference) o;
+            return hashCode == that.hashCode && canonicalEquals(get(), that.get());
         }
 
         @Override
         public int hashCode() {
             return hashCode;
         }
+    }
+
+    /**
+     * Mutable lookup key for the canonicalization table.
+     * Equal to the references whose referents are structurally equal to the probed object.
+     */
+    private static final class Probe {
+
+        private Object obj;
 
-        public T get() {
-            return element;
+        private int hashCode;
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CanonicalReference)) return false;
+            CanonicalReference that = (CanonicalReference) o;
+            return hashCode == that.hashCode && canonicalEquals(obj, that.get());
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
         }
     }
 }
@@ -66,6 +66,26 @@ public class Collections {
             return new HashMap<>(m);
     }
 
+    /**
+     * Constructs a new empty map for an abstract store or the properties of an abstract object.
+     * A {@link PersistentMap} is used if enabled by the options.
+     */
+    public static <T1, T2> Map<T1, T2> newStoreMap() {
+        if (Options.get().isPersistentStoreEnabled())
+            return new PersistentMap<>();
+        return newMap();
+    }
+
+    /**
+     * Constructs a new map for an abstract store or the properties of an abstract object as a copy of the given map.
+     * A {@link PersistentMap} is used if enabled by the options, which makes the copy take constant time.
+     */
+    public static <T1, T2> Map<T1, T2> newStoreMap(Map<T1, T2> m) {
+        if (Options.get().isPersistentStoreEnabled())
+            return new PersistentMap<>(m);
+        return newMap(m);
+    }
+
     /**
      * Constructs a new map with the element key -> value.
      */
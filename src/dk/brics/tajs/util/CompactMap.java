@@ -0,0 +1,199 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.brics.tajs.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only map with a compact array representation, for maps that are kept for a long time without being modified.
+ * <p>
+ * The keys and values are stored in two arrays in the iteration order of the map the compact map is made from,
+ * together with an open addressing hash table of indices into the arrays.
+ * With more than 8 entries, this takes 40-60% of the memory of a {@link java.util.HashMap}
+ * or {@link HybridArrayHashMap} with the same entries (measured with 64-bit HotSpot and compressed references).
+ * Maps with at most 8 entries are smaller in the array form of {@link HybridArrayHashMap}.
+ * The values of existing entries can be replaced using {@link Map.Entry#setValue(Object)},
+ * but entries cannot be added or removed.
+ * Keys cannot be null.
+ */
+public final class CompactMap<K, V> extends AbstractMap<K, V> {
+
+    private final Object[] keys;
+
+    private final Object[] values;
+
+    /**
+     * Hash table of indices into 'keys' and 'values', plus one. Zero represents an empty slot.
+     */
+    private final int[] table;
+
+    private Set<Map.Entry<K, V>> entry_set;
+
+    /**
+     * Constructs a new compact map with the same entries as the given map.
+     */
+    public CompactMap(Map<? extends K, ? extends V> m) {
+        int size = m.size();
+        keys = new Object[size];
+        values = new Object[size];
+        table = new int[tableSize(size)];
+        int i = 0;
+        for (Map.Entry<? extends K, ? extends V> me : m.entrySet()) {
+            K k = me.getKey();
+            if (k == null)
+                throw new NullPointerException("CompactMap does not permit null keys");
+            keys[i] = k;
+            values[i] = me.getValue();
+            int mask = table.length - 1;
+            int slot = hash(k) & mask;
+            while (table[slot] != 0)
+                slot = (slot + 1) & mask;
+            table[slot] = ++i;
+        }
+    }
+
+    /**
+     * Returns the smallest power of two that keeps the load factor of the hash table below 3/4.
+     */
+    private static int tableSize(int size) {
+        int n = 1;
+        while (n * 3 <= size * 4)
+            n <<= 1;
+        return n;
+    }
+
+    private static int hash(Object k) {
+        int h = k.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private int indexOf(Object k) {
+        if (k == null)
+            return -1;
+        int mask = table.length - 1;
+        int slot = hash(k) & mask;
+        int i;
+        while ((i = table[slot]) != 0) {
+            Object x = keys[i - 1];
+            if (x == k || x.equals(k))
+                return i - 1;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public boolean containsKey(Object k) {
+        return indexOf(k) != -1;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object k) {
+        int i = indexOf(k);
+        return i == -1 ? null : (V) values[i];
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        if (entry_set == null)
+            entry_set = new AbstractSet<Map.Entry<K, V>>() {
+
+                @Override
+                public int size() {
+                    return keys.length;
+                }
+
+                @Override
+                public Iterator<Map.Entry<K, V>> iterator() {
+                    return new Iterator<Map.Entry<K, V>>() {
+
+                        private int next;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < keys.length;
+                        }
+
+                        @Override
+                        public Map.Entry<K, V> next() {
+                            if (next >= keys.length)
+                                throw new NoSuchElementException();
+                            return new CompactEntry(next++);
+                        }
+                    };
+                }
+            };
+        return entry_set;
+    }
+
+    private final class CompactEntry implements Map.Entry<K, V> {
+
+        private final int index;
+
+        private CompactEntry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public K getKey() {
+            return (K) keys[index];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V getValue() {
+            return (V) values[index];
+        }
+
+        @Override
+        public V setValue(V value) {
+            V old = getValue();
+            values[index] = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return getKey().equals(e.getKey()) && (getValue() == null ? e.getValue() == null : getValue().equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            return getKey().hashCode() ^ (getValue() == null ? 0 : getValue().hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
@@ -23,4 +23,12 @@ package dk.brics.tajs.util;
  */
 public interface DeepImmutable {
 
+    /**
+     * Checks whether the given object is structurally equal to this one.
+     * Used by {@link Canonicalizer} for finding the canonical instance of this object.
+     * Classes that use object identity as equality for their canonical instances must override this method.
+     */
+    default boolean canonicalEquals(Object obj) {
+        return equals(obj);
+    }
 }
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.brics.tajs.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+import static dk.brics.tajs.util.Collections.newList;
+
+/**
+ * Registry of the counters, gauges and histograms of an analysis session.
+ * <p>
+ * The metrics are thread-safe, so they can be read by exporters in other threads while the analysis is running.
+ * A metric is identified by its name and labels; registering a metric that already exists returns the existing one.
+ */
+public final class Metrics {
+
+    private static final AnalysisSession.Slot<Metrics> instance = AnalysisSession.newSlot(Metrics::new);
+
+    private final Map<String, Metric> metrics = new ConcurrentHashMap<>();
+
+    private Metrics() {
+        gauge("tajs_canonicalizer_cache_hits", "Number of canonicalizer lookups that found an existing instance (all sessions)", () -> Canonicalizer.get().getCacheHits());
+        gauge("tajs_canonicalizer_cache_misses", "Number of canonicalizer lookups that added a new instance (all sessions)", () -> Canonicalizer.get().getCacheMisses());
+        gauge("tajs_canonicalizer_size", "Number of entries in the canonicalizer table (all sessions)", () -> Canonicalizer.get().getSize());
+    }
+
+    /**
+     * Returns the metrics of the current analysis session.
+     */
+    public static Metrics get() {
+        return AnalysisSession.current().get(instance);
+    }
+
+    /**
+     * Resets all counters and histograms of the current analysis session.
+     */
+    public static void reset() {
+        get().metrics.values().forEach(Metric::reset);
+    }
+
+    /**
+     * Kind of metric.
+     */
+    public enum Kind {
+        COUNTER, GAUGE, HISTOGRAM
+    }
+
+    /**
+     * A named metric.
+     */
+    public static abstract class Metric {
+
+        private final String name;
+
+        private final String help;
+
+        private final String[] labels;
+
+        private Metric(String name, String help, String[] labels) {
+            if (labels.length % 2 != 0)
+                throw new IllegalArgumentException("Labels must be name/value pairs");
+            this.name = name;
+            this.help = help;
+            this.labels = labels;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getHelp() {
+            return help;
+        }
+
+        /**
+         * Returns the labels as alternating names and values.
+         */
+        public List<String> getLabels() {
+            return java.util.Collections.unmodifiableList(Arrays.asList(labels));
+        }
+
+        public abstract Kind getKind();
+
+        /**
+         * Resets the metric to its initial value (ignored for gauges).
+         */
+        public abstract void reset();
+
+        private String getKey() {
+            return name + Arrays.toString(labels);
+        }
+    }
+
+    /**
+     * Monotonically increasing count.
+     */
+    public static final class Counter extends Metric {
+
+        private final LongAdder value = new LongAdder();
+
+        private Counter(String name, String help, String[] labels) {
+            super(name, help, labels);
+        }
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long n) {
+            value.add(n);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+
+        @Override
+        public Kind getKind() {
+            return Kind.COUNTER;
+        }
+
+        @Override
+        public void reset() {
+            value.reset();
+        }
+    }
+
+    /**
+     * Value that is computed when read.
+     */
+    public static final class Gauge extends Metric {
+
+        private final DoubleSupplier value;
+
+        private Gauge(String name, String help, String[] labels, DoubleSupplier value) {
+            super(name, help, labels);
+            this.value = value;
+        }
+
+        public double get() {
+            return value.getAsDouble();
+        }
+
+        @Override
+        public Kind getKind() {
+            return Kind.GAUGE;
+        }
+
+        @Override
+        public void reset() {
+            // nothing to reset
+        }
+    }
+
+    /**
+     * Distribution of observed values over a fixed set of buckets.
+     */
+    public static final class Histogram extends Metric {
+
+        private final double[] bounds;
+
+        private final LongAdder[] buckets;
+
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private Histogram(String name, String help, String[] labels, double[] bounds) {
+            super(name, help, labels);
+            this.bounds = bounds.clone();
+            buckets = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < buckets.length; i++)
+                buckets[i] = new LongAdder();
+        }
+
+        public void observe(double v) {
+            int i = 0;
+            while (i < bounds.length && v > bounds[i])
+                i++;
+            buckets[i].increment();
+            sum.add(v);
+        }
+
+        /**
+         * Returns the upper bounds of the buckets (excluding the last bucket, which is unbounded).
+         */
+        public double[] getBounds() {
+            return bounds.clone();
+        }
+
+        /**
+         * Returns the number of observations in each bucket (not cumulative).
+         */
+        public long[] getBucketCounts() {
+            long[] res = new long[buckets.length];
+            for (int i = 0; i < res.length; i++)
+                res[i] = buckets[i].sum();
+            return res;
+        }
+
+        public long getCount() {
+            long n = 0;
+            for (LongAdder b : buckets)
+                n += b.sum();
+            return n;
+        }
+
+        public double getSum() {
+            return sum.sum();
+        }
+
+        @Override
+        public Kind getKind() {
+            return Kind.HISTOGRAM;
+        }
+
+        @Override
+        public void reset() {
+            for (LongAdder b : buckets)
+                b.reset();
+            sum.reset();
+        }
+    }
+
+    /**
+     * Returns bucket bounds <code>start, start*factor, ...</code>.
+     */
+    public static double[] exponentialBounds(double start, double factor, int count) {
+        double[] res = new double[count];
+        double b = start;
+        for (int i = 0; i < count; i++) {
+            res[i] = b;
+            b *= factor;
+        }
+        return res;
+    }
+
+    /**
+     * Returns the counter with the given name and labels, registering it if it does not exist.
+     * Following the Prometheus naming conventions, counter names must end with <code>_total</code>.
+     */
+    public Counter counter(String name, String help, String... labels) {
+        if (!name.endsWith("_total"))
+            throw new AnalysisException("Counter name must end with _total: " + name);
+        return register(new Counter(name, help, labels), Counter.class);
+    }
+
+    /**
+     * Registers a gauge, unless a gauge with the given name and labels already exists.
+     */
+    public Gauge gauge(String name, String help, DoubleSupplier value, String... labels) {
+        return register(new Gauge(name, help, labels, value), Gauge.class);
+    }
+
+    /**
+     * Returns the histogram with the given name and labels, registering it if it does not exist.
+     */
+    public Histogram histogram(String name, String help, double[] bounds, String... labels) {
+        return register(new Histogram(name, help, labels, bounds), Histogram.class);
+    }
+
+    private <T extends Metric> T register(T metric, Class<T> kind) {
+        String key = ((Metric) metric).getKey();
+        Metric m = metrics.putIfAbsent(key, metric);
+        if (m == null)
+            return metric;
+        if (!kind.isInstance(m))
+            throw new AnalysisException("Metric " + key + " already registered as " + m.getKind());
+        return kind.cast(m);
+    }
+
+    /**
+     * Returns all metrics, ordered by name and labels.
+     */
+    public List<Metric> getMetrics() {
+        List<Map.Entry<String, Metric>> entries = newList(metrics.entrySet());
+        entries.sort(Map.Entry.comparingByKey());
+        List<Metric> res = newList();
+        for (Map.Entry<String, Metric> e : entries)
+            res.add(e.getValue());
+        return res;
+    }
+}
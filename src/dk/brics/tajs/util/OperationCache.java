@@ -0,0 +1,151 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.brics.tajs.util;
+
+import java.util.Arrays;
+
+/**
+ * Bounded cache of the results of operations on canonical instances.
+ * <p>
+ * Entries are keyed by an operation number and the identities of the operands (the second operand may be null),
+ * so the operands must be canonical, and the results must only depend on the operands.
+ * The operands should have cheap hash codes, which are used for indexing.
+ * The cache is set associative with clock (second chance) eviction within each set.
+ * The entries are allocated when the first result is added, so an unused cache takes no space.
+ * Not thread-safe.
+ */
+public final class OperationCache<T> {
+
+    private static final int WAYS = 4;
+
+    private final int mask;
+
+    private int[] ops;
+
+    private Object[] firsts;
+
+    private Object[] seconds;
+
+    private Object[] results;
+
+    private boolean[] referenced;
+
+    private byte[] hands;
+
+    private long hits;
+
+    private long misses;
+
+    /**
+     * Constructs a new cache with room for approximately the given number of entries.
+     */
+    public OperationCache(int capacity) {
+        mask = Integer.highestOneBit(Math.max(capacity / WAYS, 1)) - 1;
+    }
+
+    private void allocate() {
+        int sets = mask + 1;
+        ops = new int[sets * WAYS];
+        firsts = new Object[sets * WAYS];
+        seconds = new Object[sets * WAYS];
+        results = new Object[sets * WAYS];
+        referenced = new boolean[sets * WAYS];
+        hands = new byte[sets];
+    }
+
+    private int getSet(int op, Object a, Object b) {
+        int h = op * 0x9E3779B9 + 31 * a.hashCode() + (b != null ? b.hashCode() : 0);
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Returns the cached result of the given operation, or null if not in the cache.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int op, Object a, Object b) {
+        if (firsts == null) {
+            misses++;
+            return null;
+        }
+        int start = getSet(op, a, b) * WAYS;
+        for (int i = start; i < start + WAYS; i++)
+            if (firsts[i] == a && seconds[i] == b && ops[i] == op) {
+                referenced[i] = true;
+                hits++;
+                return (T) results[i];
+            }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Adds the result of the given operation, evicting an entry of the same set if necessary.
+     *
+     * @return the result
+     */
+    public T put(int op, Object a, Object b, T result) {
+        if (firsts == null)
+            allocate();
+        int set = getSet(op, a, b);
+        int start = set * WAYS;
+        int hand = hands[set];
+        while (referenced[start + hand]) { // give referenced entries a second chance
+            referenced[start + hand] = false;
+            hand = (hand + 1) % WAYS;
+        }
+        int i = start + hand;
+        ops[i] = op;
+        firsts[i] = a;
+        seconds[i] = b;
+        results[i] = result;
+        hands[set] = (byte) ((hand + 1) % WAYS);
+        return result;
+    }
+
+    /**
+     * Removes all entries and resets the statistics.
+     */
+    public void clear() {
+        if (firsts != null) {
+            Arrays.fill(firsts, null);
+            Arrays.fill(seconds, null);
+            Arrays.fill(results, null);
+            Arrays.fill(referenced, false);
+        }
+        hits = misses = 0;
+    }
+
+    /**
+     * Checks whether the entries have been allocated.
+     */
+    public boolean isAllocated() {
+        return firsts != null;
+    }
+
+    /**
+     * Returns the number of lookups that found a result.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that did not find a result.
+     */
+    public long getMisses() {
+        return misses;
+    }
+}
@@ -41,26 +41,31 @@ import java.util.WeakHashMap;
 
 public class PathAndURLUtils {
 
-    private static Map<Path, URL> pathURLCache = new WeakHashMap<>();
+    private static final AnalysisSession.Slot<Caches> caches = AnalysisSession.newSlot(Caches::new);
 
-    private static Map<URL, Path> urlPathCache = new WeakHashMap<>();
+    /**
+     * Caches of an analysis session.
+     */
+    private static final class Caches {
+
+        final Map<Path, URL> pathURLCache = new WeakHashMap<>();
 
-    private static Map<Path, Path> realPathCache = new WeakHashMap<>();
+        final Map<URL, Path> urlPathCache = new WeakHashMap<>();
 
-    private static Map<Path, Boolean> tajsRootDirectoryCache = new WeakHashMap<>();
+        final Map<Path, Path> realPathCache = new WeakHashMap<>();
+
+        final Map<Path, Boolean> tajsRootDirectoryCache = new WeakHashMap<>();
+    }
 
     public static void reset() {
-        pathURLCache.clear();
-        urlPathCache.clear();
-        realPathCache.clear();
-        tajsRootDirectoryCache.clear();
+        AnalysisSession.current().clear(caches);
     }
 
     /**
      * Converts a Path to a URL.
      */
     public static URL toURL(Path p) {
-        return pathURLCache.computeIfAbsent(p, k -> {
+        return AnalysisSession.current().get(caches).pathURLCache.computeIfAbsent(p, k -> {
             try {
                 // normalize the path before making it a URL, the URL normalization might not work!
                 Path normalized = p.normalize();
@@ -79,7 +84,7 @@ public class PathAndURLUtils {
      * @throws AnalysisException if 'normalize' is set and the file does not exist (or some other error occurred)
      */
     public static Path toPath(URL url, boolean normalize) {
-        return urlPathCache.computeIfAbsent(url, k -> {
+        return AnalysisSession.current().get(caches).urlPathCache.computeIfAbsent(url, k -> {
             URI uri;
             Path path;
             try {
@@ -180,7 +185,7 @@ public class PathAndURLUtils {
      * Decides if the given directory is the TAJS root directory
      */
     private static boolean isTAJSRootDirectory(Path dir) {
-        return tajsRootDirectoryCache.computeIfAbsent(dir, k -> {
+        return AnalysisSession.current().get(caches).tajsRootDirectoryCache.computeIfAbsent(dir, k -> {
             String thisRelativeSourceFilePath = PathAndURLUtils.class.getCanonicalName().replace('.', File.separatorChar) + ".java";
             Path thisSourceFilePath = dir.resolve("src").resolve(thisRelativeSourceFilePath);
             return Files.exists(thisSourceFilePath);
@@ -193,7 +198,7 @@ public class PathAndURLUtils {
      * @throws AnalysisException if the file does not exist (or some other error occurred)
      */
     public static Path toRealPath(Path p) {
-        return realPathCache.computeIfAbsent(p, k -> {
+        return AnalysisSession.current().get(caches).realPathCache.computeIfAbsent(p, k -> {
             try {
                 return p.toRealPath();
             } catch (NoSuchFileException e) {
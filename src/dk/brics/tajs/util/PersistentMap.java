@@ -0,0 +1,659 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.brics.tajs.util;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+import static dk.brics.tajs.util.Collections.newSet;
+
+/**
+ * Map represented as a hash array mapped trie with structural sharing.
+ * <p>
+ * Copying a persistent map (with {@link #PersistentMap(Map)}) takes constant time, and the copies share all nodes
+ * until they are modified. A modification copies only the path to the modified entry, unless the nodes on the path
+ * are owned exclusively by the map, in which case they are modified in place.
+ * The trie has a canonical shape for a given set of keys, so equality checks and {@link #getKeysWithDifferentValues(PersistentMap)}
+ * skip shared subtries, and the hash codes of subtries are cached.
+ * Like keys of a hash map, values must therefore not change their hash codes while in the map.
+ * <p>
+ * Iterators traverse a snapshot of the map, so the map may be modified during iteration.
+ * The iteration order is determined by the hash codes of the keys.
+ * Keys cannot be null.
+ */
+public final class PersistentMap<K, V> extends AbstractMap<K, V> implements Serializable {
+
+    private static final String NULL_KEY = "PersistentMap does not permit null keys";
+
+    /**
+     * Number of hash bits consumed at each level of the trie.
+     */
+    private static final int BITS = 5;
+
+    private static final int MASK = (1 << BITS) - 1;
+
+    /**
+     * Maximal depth of the trie, including the level of collision nodes.
+     */
+    private static final int MAX_DEPTH = (32 + BITS - 1) / BITS + 1;
+
+    /**
+     * Marker for absent entries (values may be null).
+     */
+    private static final Object NOT_FOUND = new Object();
+
+    private static final Node EMPTY = new Node(null, 0, 0, new Object[0]);
+
+    private Node root;
+
+    private int size;
+
+    /**
+     * Token identifying the nodes that are owned exclusively by this map. Null if no nodes are owned.
+     */
+    private transient Object owner;
+
+    /**
+     * Result of the latest put or remove operation.
+     */
+    private transient Object old_value;
+
+    /**
+     * Set if the latest put or remove operation modified the map.
+     */
+    private transient boolean changed;
+
+    private transient Set<Entry<K, V>> entry_set;
+
+    /**
+     * Trie node. Contains the key/value pairs of the entries at this level followed by the child nodes,
+     * each ordered by their hash bits at this level.
+     */
+    private static class Node implements Serializable {
+
+        transient Object owner;
+
+        final int datamap;
+
+        final int nodemap;
+
+        final Object[] content;
+
+        transient int hash;
+
+        transient boolean hash_valid;
+
+        Node(Object owner, int datamap, int nodemap, Object[] content) {
+            this.owner = owner;
+            this.datamap = datamap;
+            this.nodemap = nodemap;
+            this.content = content;
+        }
+
+        int getDataLength() {
+            return 2 * Integer.bitCount(datamap);
+        }
+
+        Node copy(Object owner) {
+            return new Node(owner, datamap, nodemap, content.clone());
+        }
+    }
+
+    /**
+     * Node containing entries whose keys have identical hash codes.
+     */
+    private static final class CollisionNode extends Node {
+
+        CollisionNode(Object owner, Object[] content) {
+            super(owner, 0, 0, content);
+        }
+
+        @Override
+        int getDataLength() {
+            return content.length;
+        }
+
+        @Override
+        Node copy(Object owner) {
+            return new CollisionNode(owner, content.clone());
+        }
+    }
+
+    /**
+     * Constructs a new empty map.
+     */
+    public PersistentMap() {
+        root = EMPTY;
+    }
+
+    /**
+     * Constructs a new map as a copy of the given map.
+     * Takes constant time if the given map is a persistent map.
+     */
+    @SuppressWarnings("unchecked")
+    public PersistentMap(Map<? extends K, ? extends V> m) {
+        if (m instanceof PersistentMap) {
+            PersistentMap<K, V> p = (PersistentMap<K, V>) m;
+            root = p.root;
+            size = p.size;
+            p.owner = null; // the nodes are now shared
+        } else {
+            root = EMPTY;
+            putAll(m);
+        }
+    }
+
+    private Object getOwner() {
+        if (owner == null)
+            owner = new Object();
+        return owner;
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static int dataIndex(Node n, int bit) {
+        return 2 * Integer.bitCount(n.datamap & (bit - 1));
+    }
+
+    private static int nodeIndex(Node n, int bit) {
+        return n.getDataLength() + Integer.bitCount(n.nodemap & (bit - 1));
+    }
+
+    /**
+     * Returns the node itself if it is owned by this map, and otherwise an owned copy.
+     */
+    private Node makeEditable(Node n) {
+        if (owner != null && n.owner == owner) {
+            n.hash_valid = false;
+            return n;
+        }
+        return n.copy(getOwner());
+    }
+
+    private static Object lookup(Node n, Object key, int hash, int shift) {
+        while (true) {
+            if (n instanceof CollisionNode) {
+                for (int i = 0; i < n.content.length; i += 2)
+                    if (key.equals(n.content[i]))
+                        return n.content[i + 1];
+                return NOT_FOUND;
+            }
+            int bit = bit(hash, shift);
+            if ((n.datamap & bit) != 0) {
+                int i = dataIndex(n, bit);
+                return key.equals(n.content[i]) ? n.content[i + 1] : NOT_FOUND;
+            }
+            if ((n.nodemap & bit) == 0)
+                return NOT_FOUND;
+            n = (Node) n.content[nodeIndex(n, bit)];
+            shift += BITS;
+        }
+    }
+
+    private Node put(Node n, Object key, Object value, int hash, int shift) {
+        if (n instanceof CollisionNode) {
+            Object[] c = n.content;
+            for (int i = 0; i < c.length; i += 2)
+                if (key.equals(c[i]))
+                    return replaceValue(n, i, value);
+            old_value = NOT_FOUND;
+            changed = true;
+            Object[] nc = Arrays.copyOf(c, c.length + 2);
+            nc[c.length] = key;
+            nc[c.length + 1] = value;
+            return new CollisionNode(getOwner(), nc);
+        }
+        int bit = bit(hash, shift);
+        Object[] c = n.content;
+        if ((n.datamap & bit) != 0) {
+            int i = dataIndex(n, bit);
+            Object k = c[i];
+            if (key.equals(k))
+                return replaceValue(n, i, value);
+            // replace the entry by a node containing both entries
+            old_value = NOT_FOUND;
+            changed = true;
+            Node sub = makeNode(k, c[i + 1], hash(k), key, value, hash, shift + BITS);
+            int j = nodeIndex(n, bit) - 2;
+            Object[] nc = new Object[c.length - 1];
+            System.arraycopy(c, 0, nc, 0, i);
+            System.arraycopy(c, i + 2, nc, i, j - i);
+            nc[j] = sub;
+            System.arraycopy(c, j + 2, nc, j + 1, c.length - j - 2);
+            return new Node(getOwner(), n.datamap ^ bit, n.nodemap | bit, nc);
+        }
+        if ((n.nodemap & bit) != 0) {
+            int j = nodeIndex(n, bit);
+            Node sub = put((Node) c[j], key, value, hash, shift + BITS);
+            if (!changed)
+                return n;
+            Node m = makeEditable(n);
+            m.content[j] = sub;
+            return m;
+        }
+        // add a new entry at this level
+        old_value = NOT_FOUND;
+        changed = true;
+        int i = dataIndex(n, bit);
+        Object[] nc = new Object[c.length + 2];
+        System.arraycopy(c, 0, nc, 0, i);
+        nc[i] = key;
+        nc[i + 1] = value;
+        System.arraycopy(c, i, nc, i + 2, c.length - i);
+        return new Node(getOwner(), n.datamap | bit, n.nodemap, nc);
+    }
+
+    private Node replaceValue(Node n, int i, Object value) {
+        old_value = n.content[i + 1];
+        if (old_value == value)
+            return n;
+        changed = true;
+        Node m = makeEditable(n);
+        m.content[i + 1] = value;
+        return m;
+    }
+
+    private Node makeNode(Object k1, Object v1, int h1, Object k2, Object v2, int h2, int shift) {
+        if (shift >= 32)
+            return new CollisionNode(getOwner(), new Object[]{k1, v1, k2, v2});
+        int b1 = bit(h1, shift);
+        int b2 = bit(h2, shift);
+        if (b1 == b2)
+            return new Node(getOwner(), 0, b1, new Object[]{makeNode(k1, v1, h1, k2, v2, h2, shift + BITS)});
+        if (Integer.compareUnsigned(b1, b2) < 0)
+            return new Node(getOwner(), b1 | b2, 0, new Object[]{k1, v1, k2, v2});
+        return new Node(getOwner(), b1 | b2, 0, new Object[]{k2, v2, k1, v1});
+    }
+
+    /**
+     * Removes the entry with the given key.
+     * A node that is left with a single entry and no child nodes is inlined into its parent, which keeps the shape canonical.
+     */
+    private Node remove(Node n, Object key, int hash, int shift) {
+        Object[] c = n.content;
+        if (n instanceof CollisionNode) {
+            for (int i = 0; i < c.length; i += 2)
+                if (key.equals(c[i])) {
+                    old_value = c[i + 1];
+                    changed = true;
+                    if (c.length == 4) // single entry left, to be inlined by the parent
+                        return new Node(getOwner(), 1, 0, new Object[]{c[2 - i], c[3 - i]});
+                    return new CollisionNode(getOwner(), removePair(c, i));
+                }
+            return n;
+        }
+        int bit = bit(hash, shift);
+        if ((n.datamap & bit) != 0) {
+            int i = dataIndex(n, bit);
+            if (!key.equals(c[i]))
+                return n;
+            old_value = c[i + 1];
+            changed = true;
+            return new Node(getOwner(), n.datamap ^ bit, n.nodemap, removePair(c, i));
+        }
+        if ((n.nodemap & bit) != 0) {
+            int j = nodeIndex(n, bit);
+            Node sub = remove((Node) c[j], key, hash, shift + BITS);
+            if (!changed)
+                return n;
+            if (sub.nodemap == 0 && sub.getDataLength() == 2) {
+                // inline the remaining entry
+                int i = dataIndex(n, bit);
+                Object[] nc = new Object[c.length + 1];
+                System.arraycopy(c, 0, nc, 0, i);
+                nc[i] = sub.content[0];
+                nc[i + 1] = sub.content[1];
+                System.arraycopy(c, i, nc, i + 2, j - i);
+                System.arraycopy(c, j + 1, nc, j + 2, c.length - j - 1);
+                return new Node(getOwner(), n.datamap | bit, n.nodemap ^ bit, nc);
+            }
+            Node m = makeEditable(n);
+            m.content[j] = sub;
+            return m;
+        }
+        return n;
+    }
+
+    private static Object[] removePair(Object[] c, int i) {
+        Object[] nc = new Object[c.length - 2];
+        System.arraycopy(c, 0, nc, 0, i);
+        System.arraycopy(c, i + 2, nc, i, c.length - i - 2);
+        return nc;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (key == null)
+            return false;
+        return lookup(root, key, hash(key), 0) != NOT_FOUND;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (key == null)
+            return null;
+        Object v = lookup(root, key, hash(key), 0);
+        return v == NOT_FOUND ? null : (V) v;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        if (key == null)
+            throw new NullPointerException(NULL_KEY);
+        changed = false;
+        root = put(root, key, value, hash(key), 0);
+        Object old = old_value;
+        old_value = null;
+        if (old == NOT_FOUND) {
+            size++;
+            return null;
+        }
+        return (V) old;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        if (key == null)
+            return null;
+        changed = false;
+        old_value = null;
+        root = remove(root, key, hash(key), 0);
+        Object old = old_value;
+        old_value = null;
+        if (changed)
+            size--;
+        return (V) old;
+    }
+
+    @Override
+    public void clear() {
+        root = EMPTY;
+        size = 0;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        if (entry_set == null)
+            entry_set = new AbstractSet<Entry<K, V>>() {
+
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public void clear() {
+                    PersistentMap.this.clear();
+                }
+            };
+        return entry_set;
+    }
+
+    /**
+     * Returns the keys that are mapped to different values (by identity) in this map and the given map,
+     * including the keys that only exist in one of them. Subtries that are shared by the maps are skipped.
+     */
+    public Set<K> getKeysWithDifferentValues(PersistentMap<K, V> other) {
+        Set<K> res = newSet();
+        diff(root, other.root, 0, res);
+        return res;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> void diff(Node a, Node b, int shift, Set<K> res) {
+        if (a == b)
+            return;
+        if (a instanceof CollisionNode || b instanceof CollisionNode) {
+            diffEntries(a, b, shift, res);
+            diffEntries(b, a, shift, res);
+            return;
+        }
+        for (int bits = a.datamap | a.nodemap | b.datamap | b.nodemap; bits != 0; bits &= bits - 1) {
+            int bit = bits & -bits;
+            if ((a.nodemap & bit) != 0 && (b.nodemap & bit) != 0)
+                diff((Node) a.content[nodeIndex(a, bit)], (Node) b.content[nodeIndex(b, bit)], shift + BITS, res);
+            else if ((a.datamap & bit) != 0 && (b.datamap & bit) != 0) {
+                int i = dataIndex(a, bit);
+                int j = dataIndex(b, bit);
+                if (!a.content[i].equals(b.content[j])) {
+                    res.add((K) a.content[i]);
+                    res.add((K) b.content[j]);
+                } else if (a.content[i + 1] != b.content[j + 1])
+                    res.add((K) a.content[i]);
+            } else {
+                Node sa = subtrie(a, bit);
+                Node sb = subtrie(b, bit);
+                diffEntries(sa, sb, shift + BITS, res);
+                diffEntries(sb, sa, shift + BITS, res);
+            }
+        }
+    }
+
+    /**
+     * Returns the subtrie at the given position, with a data entry represented as a node at the next level.
+     */
+    private static Node subtrie(Node n, int bit) {
+        if ((n.nodemap & bit) != 0)
+            return (Node) n.content[nodeIndex(n, bit)];
+        if ((n.datamap & bit) != 0) {
+            int i = dataIndex(n, bit);
+            return new CollisionNode(null, new Object[]{n.content[i], n.content[i + 1]});
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Adds the keys of the entries in a that are not mapped to the same value in b.
+     */
+    @SuppressWarnings("unchecked")
+    private static <K> void diffEntries(Node a, Node b, int shift, Set<K> res) {
+        forEachEntry(a, (k, v) -> {
+            if (lookup(b, k, hash(k), shift) != v)
+                res.add((K) k);
+        });
+    }
+
+    private interface EntryVisitor {
+        void visit(Object key, Object value);
+    }
+
+    private static void forEachEntry(Node n, EntryVisitor v) {
+        int d = n.getDataLength();
+        for (int i = 0; i < d; i += 2)
+            v.visit(n.content[i], n.content[i + 1]);
+        for (int i = d; i < n.content.length; i++)
+            forEachEntry((Node) n.content[i], v);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this)
+            return true;
+        if (o instanceof PersistentMap) {
+            PersistentMap<?, ?> p = (PersistentMap<?, ?>) o;
+            return size == p.size && equals(root, p.root);
+        }
+        return super.equals(o);
+    }
+
+    private static boolean equals(Node a, Node b) {
+        if (a == b)
+            return true;
+        if (a instanceof CollisionNode || b instanceof CollisionNode) {
+            if (!(a instanceof CollisionNode && b instanceof CollisionNode) || a.content.length != b.content.length)
+                return false;
+            for (int i = 0; i < a.content.length; i += 2) {
+                Object v = lookup(b, a.content[i], 0, 0);
+                if (v == NOT_FOUND || !Objects.equals(a.content[i + 1], v))
+                    return false;
+            }
+            return true;
+        }
+        if (a.datamap != b.datamap || a.nodemap != b.nodemap)
+            return false;
+        if (a.hash_valid && b.hash_valid && a.hash != b.hash)
+            return false;
+        int d = a.getDataLength();
+        for (int i = 0; i < d; i += 2)
+            if (!a.content[i].equals(b.content[i]) || !Objects.equals(a.content[i + 1], b.content[i + 1]))
+                return false;
+        for (int i = d; i < a.content.length; i++)
+            if (!equals((Node) a.content[i], (Node) b.content[i]))
+                return false;
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode(root);
+    }
+
+    private static int hashCode(Node n) {
+        if (!n.hash_valid) {
+            int h = 0;
+            int d = n.getDataLength();
+            for (int i = 0; i < d; i += 2)
+                h += n.content[i].hashCode() ^ Objects.hashCode(n.content[i + 1]);
+            for (int i = d; i < n.content.length; i++)
+                h += hashCode((Node) n.content[i]);
+            n.hash = h;
+            n.hash_valid = true;
+        }
+        return n.hash;
+    }
+
+    /**
+     * Iterator over a snapshot of the map.
+     */
+    private final class EntryIterator implements Iterator<Entry<K, V>> {
+
+        private final Node[] nodes = new Node[MAX_DEPTH];
+
+        private final int[] positions = new int[MAX_DEPTH];
+
+        private int depth;
+
+        private Object next_key;
+
+        private Object next_value;
+
+        private boolean has_next;
+
+        private Object last_key = NOT_FOUND;
+
+        EntryIterator() {
+            owner = null; // the nodes are now shared with the iterator
+            nodes[0] = root;
+            advance();
+        }
+
+        private void advance() {
+            while (depth >= 0) {
+                Node n = nodes[depth];
+                int p = positions[depth];
+                if (p < n.getDataLength()) {
+                    next_key = n.content[p];
+                    next_value = n.content[p + 1];
+                    positions[depth] = p + 2;
+                    has_next = true;
+                    return;
+                }
+                if (p < n.content.length) {
+                    positions[depth] = p + 1;
+                    depth++;
+                    nodes[depth] = (Node) n.content[p];
+                    positions[depth] = 0;
+                } else {
+                    nodes[depth] = null;
+                    depth--;
+                }
+            }
+            has_next = false;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return has_next;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Entry<K, V> next() {
+            if (!has_next)
+                throw new NoSuchElementException();
+            Entry<K, V> e = new MapEntry((K) next_key, (V) next_value);
+            last_key = next_key;
+            advance();
+            return e;
+        }
+
+        @Override
+        public void remove() {
+            if (last_key == NOT_FOUND)
+                throw new IllegalStateException();
+            PersistentMap.this.remove(last_key);
+            last_key = NOT_FOUND;
+        }
+    }
+
+    /**
+     * Map entry that writes through to the map.
+     */
+    private final class MapEntry extends SimpleEntry<K, V> {
+
+        MapEntry(K key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            super.setValue(value);
+            return put(getKey(), value);
+        }
+    }
+}
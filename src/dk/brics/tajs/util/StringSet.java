@@ -0,0 +1,220 @@
+/*
+ * Copyright 2009-2020 Aarhus University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package dk.brics.tajs.util;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * Immutable set of strings, represented as a sorted array without duplicates.
+ * <p>
+ * Lookups use binary search, unions and subset tests merge the arrays, and the hash code (which follows the
+ * {@link java.util.Set} contract) is computed on construction.
+ * Operations that do not change the set return the same instance.
+ * Iteration is in the order of {@link String#compareTo}.
+ */
+public final class StringSet extends AbstractSet<String> {
+
+    private static final StringSet EMPTY = new StringSet(new String[0]);
+
+    private final String[] strings;
+
+    private final int hashcode;
+
+    private StringSet(String[] strings) {
+        this.strings = strings;
+        int h = 0;
+        for (String s : strings)
+            h += s.hashCode();
+        hashcode = h;
+    }
+
+    /**
+     * Returns the empty set.
+     */
+    public static StringSet empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Returns a set containing the given strings.
+     */
+    public static StringSet of(Collection<String> strings) {
+        if (strings instanceof StringSet)
+            return (StringSet) strings;
+        if (strings.isEmpty())
+            return EMPTY;
+        String[] a = strings.toArray(new String[0]);
+        Arrays.sort(a);
+        int n = 1;
+        for (int i = 1; i < a.length; i++)
+            if (!a[i].equals(a[n - 1]))
+                a[n++] = a[i];
+        return new StringSet(n == a.length ? a : Arrays.copyOf(a, n));
+    }
+
+    /**
+     * Returns the set of concatenations of a string from the first collection and a string from the second collection.
+     */
+    public static StringSet concat(Collection<String> prefixes, Collection<String> suffixes) {
+        String[] a = new String[prefixes.size() * suffixes.size()];
+        int i = 0;
+        for (String p : prefixes)
+            for (String s : suffixes)
+                a[i++] = p.concat(s);
+        return of(Arrays.asList(a));
+    }
+
+    @Override
+    public int size() {
+        return strings.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return strings.length == 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof String && Arrays.binarySearch(strings, o) >= 0;
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        if (!(c instanceof StringSet))
+            return super.containsAll(c);
+        String[] other = ((StringSet) c).strings;
+        if (other.length > strings.length)
+            return false;
+        int i = 0;
+        for (String s : other) {
+            while (i < strings.length && strings[i].compareTo(s) < 0)
+                i++;
+            if (i == strings.length || !strings[i].equals(s))
+                return false;
+            i++;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the union of this set and the given strings.
+     */
+    public StringSet union(Collection<String> c) {
+        StringSet other = of(c);
+        if (other == this || other.strings.length == 0)
+            return this;
+        if (strings.length == 0)
+            return other;
+        String[] a = strings, b = other.strings;
+        String[] res = new String[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            int cmp = a[i].compareTo(b[j]);
+            if (cmp < 0)
+                res[n++] = a[i++];
+            else if (cmp > 0)
+                res[n++] = b[j++];
+            else {
+                res[n++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length)
+            res[n++] = a[i++];
+        while (j < b.length)
+            res[n++] = b[j++];
+        if (n == a.length)
+            return this;
+        if (n == b.length)
+            return other;
+        return new StringSet(n == res.length ? res : Arrays.copyOf(res, n));
+    }
+
+    /**
+     * Returns this set with the given string added.
+     */
+    public StringSet with(String s) {
+        int i = Arrays.binarySearch(strings, s);
+        if (i >= 0)
+            return this;
+        i = -i - 1;
+        String[] res = new String[strings.length + 1];
+        System.arraycopy(strings, 0, res, 0, i);
+        res[i] = s;
+        System.arraycopy(strings, i, res, i + 1, strings.length - i);
+        return new StringSet(res);
+    }
+
+    /**
+     * Returns the subset of the strings that satisfy the given predicate.
+     */
+    public StringSet filter(Predicate<String> p) {
+        String[] res = new String[strings.length];
+        int n = 0;
+        for (String s : strings)
+            if (p.test(s))
+                res[n++] = s;
+        if (n == strings.length)
+            return this;
+        if (n == 0)
+            return EMPTY;
+        return new StringSet(Arrays.copyOf(res, n));
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < strings.length;
+            }
+
+            @Override
+            public String next() {
+                if (i == strings.length)
+                    throw new NoSuchElementException();
+                return strings[i++];
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this)
+            return true;
+        if (o instanceof StringSet) {
+            StringSet other = (StringSet) o;
+            return hashcode == other.hashcode && Arrays.equals(strings, other.strings);
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashcode;
+    }
+}
@@ -27,7 +27,7 @@ public class Strings {
 
     static private final String AB = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
 
-    static private Random rnd;
+    static private final AnalysisSession.Slot<Random> rnd = AnalysisSession.newSlot(() -> new Random(0));
 
     static private final Pattern NUMBER =
             Pattern.compile("-?(([0-9]+(\\.[0-9]*)?|\\.[0-9]+)([eE][-+][0-9]+)?|Infinity)|NaN"); // TODO: check that this over-approximates the possible output of Number.toString
@@ -44,10 +44,6 @@ public class Strings {
 
     // TODO: what about Unicode escape sequences in IDENTIFIER and IDENTIFIERPARTS?
 
-    static {
-        reset();
-    }
-
     private Strings() {
     }
 
@@ -55,7 +51,7 @@ public class Strings {
      * Resets the random string generator.
      */
     public static void reset() {
-        rnd = new Random(0);
+        AnalysisSession.current().clear(rnd);
     }
 
     /**
@@ -329,9 +325,10 @@ public class Strings {
      * Generates a random string of the given length containing digits and letters.
      */
     public static String randomString(int len) {
+        Random r = AnalysisSession.current().get(rnd);
         StringBuilder sb = new StringBuilder(len);
         for (int i = 0; i < len; i++)
-            sb.append(AB.charAt(rnd.nextInt(AB.length())));
+            sb.append(AB.charAt(r.nextInt(AB.length())));
         return sb.toString();
     }
 
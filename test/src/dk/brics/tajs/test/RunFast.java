@@ -1,5 +1,6 @@
 package dk.brics.tajs.test;
 
+import dk.brics.tajs.test.nodejs.TestNodeJSResolver;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
@@ -29,7 +30,20 @@ import org.junit.runners.Suite;
         TestStrict.class,
         TestConversion.class,
         TestTypePartitioning.class,
-        TestMicroDifferentLoopKinds.class
+        TestMicroDifferentLoopKinds.class,
+        TestAnalysisSession.class,
+        TestFlowGraphCache.class,
+        TestMetrics.class,
+        TestPersistentMap.class,
+        TestOperationCache.class,
+        TestDeltaPropagation.class,
+        TestInterning.class,
+        TestStringSet.class,
+        TestColdStateCompaction.class,
+        TestAdaptiveGC.class,
+        TestNodeJSResolver.class,
+        TestParallelParsing.class,
+        TestLazyFunctionBodies.class
 })
 public class RunFast {
 
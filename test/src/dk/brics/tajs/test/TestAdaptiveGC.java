@@ -0,0 +1,73 @@
+package dk.brics.tajs.test;
+
+import dk.brics.tajs.Main;
+import dk.brics.tajs.lattice.GarbageCollectionPolicy;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the adaptive garbage collection policy (the -adaptive-gc option).
+ */
+public class TestAdaptiveGC {
+
+    @Before
+    public void init() {
+        Misc.disableLogging();
+        Main.reset();
+    }
+
+    @Test
+    public void statistics() {
+        analyze("test-resources/src/google/richards.js", false);
+        GarbageCollectionPolicy gc = GarbageCollectionPolicy.get();
+        assertTrue(gc.getRuns() > 0);
+        assertTrue(gc.getReclaimedObjects() > 0);
+        assertEquals(0, gc.getSkipped());
+    }
+
+    @Test
+    public void skipFruitless() throws IOException {
+        // the objects created by f remain reachable from the returned closure, so collection at its return reclaims nothing
+        StringBuilder b = new StringBuilder("function f() { var a = arguments; return function () { return a; }; }\n");
+        for (int i = 0; i < 20; i++)
+            b.append("var g").append(i).append(" = f();\n");
+        Path file = Files.createTempFile("tajs-adaptive-gc", ".js");
+        try {
+            Files.write(file, b.toString().getBytes(StandardCharsets.UTF_8));
+            analyze(file.toString(), false);
+            long runs = GarbageCollectionPolicy.get().getRuns();
+            assertEquals(0, GarbageCollectionPolicy.get().getSkipped());
+            analyze(file.toString(), true);
+            GarbageCollectionPolicy gc = GarbageCollectionPolicy.get();
+            assertTrue(gc.getSkipped() > 0);
+            assertEquals(runs, gc.getRuns() + gc.getSkipped());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void resetDiscardsStatistics() {
+        analyze("test-resources/src/google/richards.js", true);
+        GarbageCollectionPolicy gc = GarbageCollectionPolicy.get();
+        Main.reset();
+        assertNotSame(gc, GarbageCollectionPolicy.get());
+        assertEquals(0, GarbageCollectionPolicy.get().getRuns());
+    }
+
+    private static void analyze(String file, boolean adaptive) {
+        if (adaptive)
+            Misc.getExitStates(file, "-adaptive-gc");
+        else
+            Misc.getExitStates(file);
+    }
+}
@@ -0,0 +1,83 @@
+package dk.brics.tajs.test;
+
+import dk.brics.tajs.Main;
+import dk.brics.tajs.analysis.Analysis;
+import dk.brics.tajs.lattice.Obj;
+import dk.brics.tajs.lattice.State;
+import dk.brics.tajs.options.OptionValues;
+import dk.brics.tajs.options.Options;
+import dk.brics.tajs.util.AnalysisSession;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static dk.brics.tajs.util.Collections.newList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that analyses in different {@link AnalysisSession}s do not interfere.
+ */
+public class TestAnalysisSession {
+
+    private static final String[] files = {
+            "test-resources/src/google/richards.js",
+            "test-resources/src/google/delta-blue.js",
+            "test-resources/src/micro/test00.js",
+            "test-resources/src/google/benchpress.js"
+    };
+
+    @Before
+    public void init() {
+        Misc.disableLogging();
+        Main.reset();
+    }
+
+    @Test
+    public void optionsArePerSession() {
+        OptionValues processOptions = Options.get();
+        AnalysisSession session = new AnalysisSession();
+        session.run(() -> {
+            assertNotSame(processOptions, Options.get());
+            OptionValues o = new OptionValues();
+            o.enableTest();
+            Options.set(o);
+            assertTrue(Options.get().isTestEnabled());
+        });
+        assertSame(processOptions, Options.get());
+        assertFalse(Options.get().isTestEnabled());
+        session.run(() -> assertTrue(Options.get().isTestEnabled()));
+    }
+
+    @Test
+    public void concurrentAnalysesMatchSequential() throws Exception {
+        List<String> sequential = newList();
+        for (String file : files)
+            sequential.add(new AnalysisSession().call(() -> analyze(file)));
+        ExecutorService executor = Executors.newFixedThreadPool(files.length);
+        try {
+            List<Future<String>> futures = newList();
+            for (String file : files)
+                futures.add(executor.submit(() -> new AnalysisSession().call(() -> analyze(file))));
+            for (int i = 0; i < files.length; i++)
+                assertEquals(files[i], sequential.get(i), futures.get(i).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static String analyze(String file) {
+        Analysis a = Main.init(new String[]{"-test", "-quiet", file}, null);
+        Main.run(a);
+        return "states=" + State.getNumberOfStatesCreated()
+                + ", objs=" + Obj.getNumberOfObjsCreated()
+                + ", makeWritableStore=" + State.getNumberOfMakeWritableStoreCalls();
+    }
+}
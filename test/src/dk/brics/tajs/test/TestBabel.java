@@ -8,6 +8,13 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
 public class TestBabel { // TODO: add to RunFast?
 
     private OptionValues options = null;
@@ -73,4 +80,18 @@ public class TestBabel { // TODO: add to RunFast?
         Misc.runSource(forOfStringProgram);
         Misc.checkSystemOutput();
     }
+
+    @Test
+    public void testBabelCacheReused() throws IOException {
+        Path cache = Files.createTempDirectory("babel-cache");
+        Options.get().enableBabel();
+        Options.get().setBabelCacheDir(cache.toString());
+        for (int i = 0; i < 2; i++) {
+            Options.get().getArguments().clear();
+            Misc.runSource(arrowProgram);
+        }
+        try (Stream<Path> entries = Files.list(cache)) {
+            assertEquals(1, entries.count());
+        }
+    }
 }
@@ -0,0 +1,59 @@
+package dk.brics.tajs.test;
+
+import dk.brics.tajs.Main;
+import dk.brics.tajs.lattice.State;
+import dk.brics.tajs.util.CompactMap;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static dk.brics.tajs.util.Collections.newList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for compaction of cold states (the -compact-cold-states option).
+ */
+public class TestColdStateCompaction {
+
+    @Before
+    public void init() {
+        Misc.disableLogging();
+        Main.reset();
+    }
+
+    @Test
+    public void compactMap() {
+        Map<String, Integer> m = new LinkedHashMap<>();
+        for (int i = 0; i < 100; i++)
+            m.put("k" + (i * 7919 % 100), i);
+        CompactMap<String, Integer> c = new CompactMap<>(m);
+        assertEquals(m, c);
+        assertEquals(m.hashCode(), c.hashCode());
+        assertEquals(newList(m.keySet()), newList(c.keySet()));
+        assertEquals(Integer.valueOf(3), c.get("k" + (3 * 7919 % 100)));
+        assertNull(c.get("x"));
+        assertFalse(c.containsKey(null));
+        for (Map.Entry<String, Integer> me : c.entrySet())
+            me.setValue(me.getValue() + 1);
+        assertEquals(Integer.valueOf(4), c.get("k" + (3 * 7919 % 100)));
+        assertTrue(new CompactMap<>(new LinkedHashMap<>()).isEmpty());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void compactMapReadOnly() {
+        new CompactMap<>(new LinkedHashMap<String, String>()).put("a", "b");
+    }
+
+    @Test
+    public void sameResult() {
+        String file = "test-resources/src/google/richards.js";
+        Map<String, String> expected = Misc.getExitStates(file);
+        assertEquals(expected, Misc.getExitStates(file, "-compact-cold-states", "20"));
+        assertTrue(State.getNumberOfCompactions() > 0);
+    }
+}
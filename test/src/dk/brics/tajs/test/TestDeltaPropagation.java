@@ -0,0 +1,38 @@
+package dk.brics.tajs.test;
+
+import dk.brics.tajs.Main;
+import dk.brics.tajs.util.Metrics;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for delta propagation (the -delta-propagation option).
+ */
+public class TestDeltaPropagation {
+
+    @Before
+    public void init() {
+        Misc.disableLogging();
+        Main.reset();
+    }
+
+    @Test
+    public void sameResult() {
+        String file = "test-resources/src/google/richards.js";
+        Map<String, String> expected = Misc.getExitStates(file);
+        assertEquals(expected, Misc.getExitStates(file, "-delta-propagation"));
+        assertTrue(getSkippedObjects() > 0);
+    }
+
+    private static long getSkippedObjects() {
+        for (Metrics.Metric m : Metrics.get().getMetrics())
+            if (m.getName().equals("tajs_state_delta_skipped_objects_total"))
+                return ((Metrics.Counter) m).get();
+        throw new AssertionError();
+    }
+}
@@ -0,0 +1,84 @@
+package dk.brics.tajs.test;
+
+import dk.brics.tajs.Main;
+import dk.brics.tajs.analysis.Analysis;
+import dk.brics.tajs.lattice.State;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the on-disk flow graph cache (-flowgraph-cache) does not affect the analysis.
+ */
+public class TestFlowGraphCache {
+
+    private Path dir;
+
+    @Before
+    public void init() throws IOException {
+        Misc.disableLogging();
+        dir = Files.createTempDirectory("tajs-flowgraph-cache");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void polyfill() {
+        check("-polyfill-mdn", "test-resources/src/google/richards.js");
+    }
+
+    @Test
+    public void nodejs() {
+        check("-nodejs", "test-resources/src/nodejs/require/require-nested/main.js");
+    }
+
+    private void check(String... args) {
+        String expected = analyze(args);
+        String cold = analyze(withCache(args));
+        assertTrue(hasEntries());
+        String warm = analyze(withCache(args));
+        assertEquals(expected, cold);
+        assertEquals(expected, warm);
+    }
+
+    private String[] withCache(String... args) {
+        String[] res = new String[args.length + 2];
+        res[0] = "-flowgraph-cache";
+        res[1] = dir.toString();
+        System.arraycopy(args, 0, res, 2, args.length);
+        return res;
+    }
+
+    private boolean hasEntries() {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.anyMatch(p -> p.toString().endsWith(".fg"));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String analyze(String... args) {
+        Main.reset();
+        String[] all = new String[args.length + 2];
+        all[0] = "-test";
+        all[1] = "-quiet";
+        System.arraycopy(args, 0, all, 2, args.length);
+        Analysis a = Main.init(all, null);
+        Main.run(a);
+        return a.getSolver().getFlowGraph().toString() + "\nstates=" + State.getNumberOfStatesCreated();
+    }
+}
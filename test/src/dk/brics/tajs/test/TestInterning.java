@@ -0,0 +1,92 @@
+package dk.brics.tajs.test;
+
+import dk.brics.tajs.Main;
+import dk.brics.tajs.analysis.InitialStateBuilder;
+import dk.brics.tajs.lattice.ObjectLabel;
+import dk.brics.tajs.lattice.PKey;
+import dk.brics.tajs.lattice.ScopeChain;
+import dk.brics.tajs.util.Canonicalizer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static dk.brics.tajs.util.Collections.newList;
+import static dk.brics.tajs.util.Collections.newSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for the interning of immutable lattice elements by {@link Canonicalizer}.
+ */
+public class TestInterning {
+
+    @Before
+    public void init() {
+        Main.reset();
+    }
+
+    @Test
+    public void scopeChains() {
+        ObjectLabel global = InitialStateBuilder.GLOBAL;
+        ObjectLabel other = InitialStateBuilder.OBJECT_PROTOTYPE;
+        long misses = ScopeChain.getNumberOfCacheMisses();
+        long hits = ScopeChain.getNumberOfCacheHits();
+        ScopeChain s1 = ScopeChain.make(global);
+        ScopeChain s2 = ScopeChain.make(global);
+        assertSame(s1, s2);
+        assertEquals(misses + 1, ScopeChain.getNumberOfCacheMisses());
+        assertEquals(hits + 1, ScopeChain.getNumberOfCacheHits());
+        Set<ObjectLabel> both1 = newSet();
+        both1.add(global);
+        both1.add(other);
+        Set<ObjectLabel> both2 = newSet();
+        both2.add(other);
+        both2.add(global);
+        ScopeChain t1 = ScopeChain.make(both1, s1);
+        ScopeChain t2 = ScopeChain.make(both2, s2);
+        assertSame(t1, t2);
+        assertSame(t1.getObject(), t2.getObject());
+        assertNotSame(t1, ScopeChain.make(both1, null));
+        assertSame(t1, ScopeChain.add(t1, t2));
+        assertSame(t1, ScopeChain.add(ScopeChain.make(newSet(java.util.Collections.singleton(global)), s1), ScopeChain.make(newSet(java.util.Collections.singleton(other)), s1)));
+    }
+
+    @Test
+    public void classStatistics() {
+        long size = Canonicalizer.get().getSize(PKey.StringPKey.class);
+        long misses = Canonicalizer.get().getCacheMisses(PKey.StringPKey.class);
+        PKey.StringPKey k = PKey.StringPKey.make("TestInterning.classStatistics");
+        assertSame(k, PKey.StringPKey.make("TestInterning.classStatistics"));
+        assertEquals(misses + 1, Canonicalizer.get().getCacheMisses(PKey.StringPKey.class));
+        assertEquals(size + 1, Canonicalizer.get().getSize(PKey.StringPKey.class));
+    }
+
+    @Test
+    public void concurrentThreads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<PKey.StringPKey>>> futures = newList();
+            for (int t = 0; t < 4; t++)
+                futures.add(executor.submit(() -> {
+                    List<PKey.StringPKey> keys = newList();
+                    for (int i = 0; i < 1000; i++)
+                        keys.add(PKey.StringPKey.make("TestInterning.concurrentThreads" + i));
+                    return keys;
+                }));
+            List<PKey.StringPKey> first = futures.get(0).get();
+            for (Future<List<PKey.StringPKey>> f : futures) {
+                List<PKey.StringPKey> keys = f.get();
+                for (int i = 0; i < keys.size(); i++)
+                    assertSame(first.get(i), keys.get(i));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
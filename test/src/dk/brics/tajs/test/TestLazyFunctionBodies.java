@@ -0,0 +1,114 @@
+package dk.brics.tajs.test;
+
+import dk.brics.tajs.Main;
+import dk.brics.tajs.analysis.Solver;
+import dk.brics.tajs.flowgraph.FlowGraph;
+import dk.brics.tajs.flowgraph.Function;
+import dk.brics.tajs.monitoring.AnalysisMonitor;
+import dk.brics.tajs.options.Options;
+import dk.brics.tajs.solver.Message;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that postponing the construction of function bodies (-lazy-function-bodies) does not affect the analysis results.
+ */
+public class TestLazyFunctionBodies {
+
+    @Before
+    public void init() {
+        Main.reset();
+        Options.get().enableTest();
+    }
+
+    @Test
+    public void richards() {
+        check("test-resources/src/google/richards.js");
+    }
+
+    @Test
+    public void deltaBlue() {
+        check("test-resources/src/google/delta-blue.js");
+    }
+
+    @Test
+    public void raytrace() {
+        check("test-resources/src/sunspider/3d-raytrace.js");
+    }
+
+    @Test
+    public void nestedFunctions() {
+        Options.get().enableLazyFunctionBodies();
+        Misc.runSource("var x = 1;",
+                "function outer(a) {",
+                "  var y = a + x;",
+                "  function inner() { return y + z; }",
+                "  var z = 2;",
+                "  for (var p in {q: 1}) {",
+                "    TAJS_assert(p, 'isMaybeSingleStr');",
+                "  }",
+                "  try { throw y; } catch (e) { TAJS_assertEquals(2, e); }",
+                "  return inner();",
+                "}",
+                "function unused() { return unknownVariable; }",
+                "TAJS_assertEquals(4, outer(1));");
+    }
+
+    @Test
+    public void uncalledFunctionsAreNotBuilt() {
+        Options.get().enableLazyFunctionBodies();
+        FlowGraphMonitor monitor = new FlowGraphMonitor();
+        Misc.runSource(new String[]{"function called() { function nested() { var a = 1; } return 42; }",
+                "function uncalled() { var b = 1; b++; return b; }",
+                "TAJS_assertEquals(42, called());"}, monitor);
+        FlowGraph fg = monitor.c.getFlowGraph();
+        assertTrue(getFunction(fg, "called").getBlocks().size() > 3);
+        assertEquals(3, getFunction(fg, "uncalled").getBlocks().size()); // entry, ordinary exit and exceptional exit
+        assertEquals(3, getFunction(fg, "nested").getBlocks().size());
+        assertFalse(getFunction(fg, "uncalled").getVariableNames().contains("b"));
+    }
+
+    private static void check(String file) {
+        List<String> expected = messages(file);
+        Main.reset();
+        Options.get().enableTest();
+        Options.get().enableLazyFunctionBodies();
+        List<String> lazy = messages(file);
+        assertFalse(expected.isEmpty());
+        // functions declared inside unreachable functions are not constructed, so they are not reported as unreachable
+        assertTrue(expected.containsAll(lazy));
+        assertEquals(withoutUnreachableFunctions(expected), withoutUnreachableFunctions(lazy));
+    }
+
+    private static List<String> withoutUnreachableFunctions(List<String> messages) {
+        return messages.stream().filter(m -> !m.contains("Unreachable function")).collect(Collectors.toList());
+    }
+
+    private static List<String> messages(String file) {
+        AnalysisMonitor monitor = new AnalysisMonitor();
+        Misc.run(file, monitor);
+        return monitor.getSortedMessages().stream().map(Message::toString).collect(Collectors.toList());
+    }
+
+    private static Function getFunction(FlowGraph fg, String name) {
+        return fg.getFunctions().stream().filter(f -> name.equals(f.getName())).findFirst().get();
+    }
+
+    private static class FlowGraphMonitor extends AnalysisMonitor {
+
+        private Solver.SolverInterface c;
+
+        @Override
+        public void setSolverInterface(Solver.SolverInterface c) {
+            super.setSolverInterface(c);
+            this.c = c;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package dk.brics.tajs.test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import dk.brics.tajs.Main;
+import dk.brics.tajs.lattice.Obj;
+import dk.brics.tajs.lattice.State;
+import dk.brics.tajs.util.AnalysisException;
+import dk.brics.tajs.util.AnalysisLimitationException;
+import dk.brics.tajs.util.Metrics;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link Metrics}.
+ */
+public class TestMetrics {
+
+    @Before
+    public void init() {
+        Misc.disableLogging();
+        Main.reset();
+    }
+
+    @Test
+    public void registry() {
+        Metrics.Counter c = Metrics.get().counter("test_counter_total", "help", "k", "v");
+        assertSame(c, Metrics.get().counter("test_counter_total", "help", "k", "v"));
+        c.add(3);
+        Metrics.Histogram h = Metrics.get().histogram("test_histogram", "help", new double[]{1, 10});
+        h.observe(0.5);
+        h.observe(5);
+        h.observe(50);
+        h.observe(10);
+        assertEquals(4, h.getCount());
+        assertEquals(65.5, h.getSum(), 0);
+        assertArrayEquals(new long[]{1, 2, 1}, h.getBucketCounts());
+        Metrics.reset();
+        assertEquals(0, c.get());
+        assertEquals(0, h.getCount());
+    }
+
+    @Test(expected = AnalysisException.class)
+    public void counterWithoutTotalSuffix() {
+        Metrics.get().counter("test_counter", "help");
+    }
+
+    @Test
+    public void json() throws IOException {
+        Path file = Files.createTempFile("tajs-metrics", ".json");
+        try {
+            Main.run(Main.init(new String[]{"-test", "-quiet", "-metrics-json", file.toString(), "test-resources/src/google/richards.js"}, null));
+            JsonArray metrics = new JsonParser().parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)).getAsJsonArray();
+            long transferSamples = 0;
+            boolean seenStates = false, seenObjs = false, seenWorklist = false;
+            for (JsonElement e : metrics) {
+                JsonObject m = e.getAsJsonObject();
+                switch (m.get("name").getAsString()) {
+                    case "tajs_states_created_total":
+                        assertEquals(State.getNumberOfStatesCreated(), m.get("value").getAsLong());
+                        seenStates = true;
+                        break;
+                    case "tajs_objs_created_total":
+                        assertEquals(Obj.getNumberOfObjsCreated(), m.get("value").getAsLong());
+                        seenObjs = true;
+                        break;
+                    case "tajs_worklist_length":
+                        assertTrue(m.get("count").getAsLong() > 0);
+                        seenWorklist = true;
+                        break;
+                    case "tajs_node_transfer_seconds":
+                        assertTrue(m.has("labels"));
+                        transferSamples += m.get("count").getAsLong();
+                        break;
+                }
+            }
+            assertTrue(seenStates && seenObjs && seenWorklist);
+            assertEquals(Metrics.get().counter("tajs_node_transfers_total", "").get(), transferSamples);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void jsonWhenAborted() throws IOException {
+        Path file = Files.createTempFile("tajs-metrics", ".json");
+        try {
+            Files.delete(file);
+            try {
+                Main.run(Main.init(new String[]{"-test", "-quiet", "-transfer-limit", "100", "-metrics-json", file.toString(), "test-resources/src/google/richards.js"}, null));
+                fail();
+            } catch (AnalysisLimitationException e) {
+                assertTrue(Files.exists(file));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
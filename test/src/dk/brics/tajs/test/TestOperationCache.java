@@ -0,0 +1,106 @@
+package dk.brics.tajs.test;
+
+import dk.brics.tajs.Main;
+import dk.brics.tajs.lattice.Value;
+import dk.brics.tajs.options.Options;
+import dk.brics.tajs.util.Metrics;
+import dk.brics.tajs.util.OperationCache;
+import org.junit.Before;
+import org.junit.Test;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link OperationCache}.
+ */
+public class TestOperationCache {
+
+    @Before
+    public void init() {
+        Misc.disableLogging();
+        Main.reset();
+    }
+
+    /**
+     * Key whose instances all fall in the same set.
+     */
+    private static class Key {
+
+        @Override
+        public int hashCode() {
+            return 0;
+        }
+    }
+
+    @Test
+    public void clockEviction() {
+        OperationCache<String> c = new OperationCache<>(4);
+        Key[] keys = new Key[5];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = new Key();
+        for (int i = 0; i < 4; i++)
+            c.put(0, keys[i], null, "r" + i);
+        assertEquals("r0", c.get(0, keys[0], null));
+        assertNull(c.get(1, keys[0], null));
+        assertNull(c.get(0, keys[0], keys[1]));
+        c.put(0, keys[4], null, "r4"); // evicts the oldest entry that has not been referenced since
+        assertEquals("r0", c.get(0, keys[0], null));
+        assertNull(c.get(0, keys[1], null));
+        assertEquals("r4", c.get(0, keys[4], null));
+        assertEquals(3, c.getHits());
+        assertEquals(3, c.getMisses());
+        c.clear();
+        assertNull(c.get(0, keys[0], null));
+        assertEquals(0, c.getHits());
+    }
+
+    @Test
+    public void allocatedOnFirstPut() {
+        OperationCache<String> c = new OperationCache<>(1 << 16);
+        Key k = new Key();
+        c.clear();
+        assertNull(c.get(0, k, null));
+        assertFalse(c.isAllocated());
+        c.put(0, k, null, "r");
+        assertTrue(c.isAllocated());
+        assertEquals("r", c.get(0, k, null));
+    }
+
+    @Test
+    public void valueJoins() {
+        Value a = Value.makeNum(1);
+        Value b = Value.makeStr("x");
+        Value ab = a.join(b);
+        assertSame(ab, a.join(b));
+        assertSame(ab.joinModified(), ab.joinModified());
+        assertSame(ab.joinAbsent().restrictToNotAbsent(), ab);
+        assertEquals(2.0, getGauge("tajs_value_operation_cache_hits"), 0);
+        Options.get().enableNoValueCache();
+        assertSame(ab, a.join(b));
+        assertEquals(2.0, getGauge("tajs_value_operation_cache_hits"), 0);
+    }
+
+    @Test
+    public void valueReplace() {
+        Value attributes = Value.makeAbsent();
+        Value v = Value.makeStr("x");
+        assertSame(v, Value.makeNum(1).replaceValue(v)); // no attributes to replace
+        Value r = attributes.replaceValue(v);
+        assertEquals(Value.makeStr("x").joinAbsent(), r);
+        double hits = getGauge("tajs_value_operation_cache_hits");
+        assertSame(r, attributes.replaceValue(v));
+        assertEquals(hits + 1, getGauge("tajs_value_operation_cache_hits"), 0);
+    }
+
+    private static double getGauge(String name) {
+        for (Metrics.Metric m : Metrics.get().getMetrics())
+            if (m.getName().equals(name))
+                return ((Metrics.Gauge) m).get();
+        throw new AssertionError(name);
+    }
+}
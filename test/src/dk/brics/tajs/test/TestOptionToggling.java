@@ -5,7 +5,6 @@ import dk.brics.tajs.options.OptionValues;
 import dk.brics.tajs.options.Options;
 import dk.brics.tajs.util.AnalysisLimitationException;
 import dk.brics.tajs.util.Collectors;
-import org.apache.log4j.PropertyConfigurator;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -14,7 +13,6 @@ import org.junit.runners.Parameterized;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Properties;
 
 /**
  * Tests that each togglable option makes sense with and without debug. The analyzability of the test targets are not important in this test.
@@ -29,10 +27,7 @@ public class TestOptionToggling {
     public static List<Configuration> configurations() {
         // *Lots* of output from these tests.
         // Squelch the loggers (see dk.brics.tajs.Main#initLogging):
-        Properties prop = new Properties();
-        prop.put("log4j.rootLogger", "INFO, tajs");
-        prop.put("log4j.appender.tajs", "org.apache.log4j.varia.NullAppender");
-        PropertyConfigurator.configure(prop);
+        Misc.disableLogging();
         return Arrays.stream(OptionValues.class.getDeclaredMethods())
                 .filter(m -> m.getName().startsWith("enable"))
                 .filter(m -> !m.getName().equals("enableDebug"))
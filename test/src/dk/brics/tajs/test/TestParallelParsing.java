@@ -0,0 +1,89 @@
+package dk.brics.tajs.test;
+
+import dk.brics.tajs.Main;
+import dk.brics.tajs.flowgraph.AbstractNode;
+import dk.brics.tajs.flowgraph.BasicBlock;
+import dk.brics.tajs.flowgraph.FlowGraph;
+import dk.brics.tajs.flowgraph.Function;
+import dk.brics.tajs.flowgraph.SourceLocation;
+import dk.brics.tajs.flowgraph.SourceLocation.SourceLocationMaker;
+import dk.brics.tajs.js2flowgraph.FlowGraphBuilder;
+import dk.brics.tajs.options.Options;
+import dk.brics.tajs.util.Lists;
+import dk.brics.tajs.util.Loader;
+import dk.brics.tajs.util.Pair;
+import dk.brics.tajs.util.ParseError;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static dk.brics.tajs.util.Collections.newList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that parsing several sources concurrently gives the same flow graph as transforming them one at a time.
+ */
+public class TestParallelParsing {
+
+    private static final String[] files = {
+            "test-resources/src/google/richards.js",
+            "test-resources/src/google/delta-blue.js",
+            "test-resources/src/google/cryptobench.js",
+            "test-resources/src/google/splay.js"
+    };
+
+    @Before
+    public void init() {
+        Main.reset();
+        Options.get().enableTest();
+    }
+
+    @Test
+    public void sameFlowGraph() throws IOException {
+        List<Pair<String, SourceLocationMaker>> sources = load(files);
+        FlowGraphBuilder sequential = FlowGraphBuilder.makeForMain(Lists.getLast(sources).getSecond());
+        for (Pair<String, SourceLocationMaker> s : sources)
+            sequential.transformStandAloneCode(s.getFirst(), s.getSecond());
+        FlowGraphBuilder parallel = FlowGraphBuilder.makeForMain(Lists.getLast(sources).getSecond());
+        parallel.transformStandAloneCode(sources);
+        Map<Integer, String> expected = describe(sequential.close());
+        assertTrue(expected.size() > 1000);
+        assertEquals(expected, describe(parallel.close()));
+    }
+
+    @Test(expected = ParseError.class)
+    public void parseError() throws IOException {
+        List<Pair<String, SourceLocationMaker>> sources = load(files);
+        sources.add(1, Pair.make("var x = ;", new SourceLocation.SyntheticLocationMaker("broken")));
+        FlowGraphBuilder.makeForMain(Lists.getLast(sources).getSecond()).transformStandAloneCode(sources);
+    }
+
+    private static List<Pair<String, SourceLocationMaker>> load(String... files) throws IOException {
+        List<Pair<String, SourceLocationMaker>> sources = newList();
+        for (String file : files) {
+            URL url = Paths.get(file).toUri().toURL();
+            sources.add(Pair.make(Loader.getString(url, StandardCharsets.UTF_8), new SourceLocation.StaticLocationMaker(url)));
+        }
+        return sources;
+    }
+
+    /**
+     * Describes each node by its index, block, function and source location.
+     */
+    private static Map<Integer, String> describe(FlowGraph fg) {
+        Map<Integer, String> res = new TreeMap<>();
+        for (Function f : fg.getFunctions())
+            for (BasicBlock b : f.getBlocks())
+                for (AbstractNode n : b.getNodes())
+                    res.put(n.getIndex(), "block " + b.getIndex() + " in " + f + ": " + n + " " + n.getSourceLocation());
+        return res;
+    }
+}
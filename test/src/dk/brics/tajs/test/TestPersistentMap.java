@@ -0,0 +1,178 @@
+package dk.brics.tajs.test;
+
+import dk.brics.tajs.Main;
+import dk.brics.tajs.lattice.State;
+import dk.brics.tajs.util.PersistentMap;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+
+import static dk.brics.tajs.util.Collections.newList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link PersistentMap}.
+ */
+public class TestPersistentMap {
+
+    @Before
+    public void init() {
+        Misc.disableLogging();
+        Main.reset();
+    }
+
+    /**
+     * Key with few distinct hash codes, to exercise collisions.
+     */
+    private static class Key {
+
+        private final int id;
+
+        Key(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id % 7 == 0 ? 42 : id * 0x9E3779B9;
+        }
+
+        @Override
+        public String toString() {
+            return "k" + id;
+        }
+    }
+
+    private static void check(Map<Key, Integer> expected, PersistentMap<Key, Integer> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected, actual);
+        assertEquals(actual, expected);
+        assertEquals(expected.hashCode(), actual.hashCode());
+        Map<Key, Integer> iterated = new HashMap<>();
+        for (Map.Entry<Key, Integer> e : actual.entrySet())
+            assertNull(iterated.put(e.getKey(), e.getValue()));
+        assertEquals(expected, iterated);
+        for (Key k : expected.keySet())
+            assertTrue(actual.containsKey(k));
+    }
+
+    @Test
+    public void randomOperations() {
+        Random r = new Random(1);
+        List<Map<Key, Integer>> expected = newList();
+        List<PersistentMap<Key, Integer>> actual = newList();
+        expected.add(new HashMap<>());
+        actual.add(new PersistentMap<>());
+        for (int i = 0; i < 20000; i++) {
+            int m = r.nextInt(actual.size());
+            Key k = new Key(r.nextInt(300));
+            Integer v = r.nextInt(5);
+            switch (r.nextInt(10)) {
+                case 0:
+                    if (actual.size() < 20) {
+                        expected.add(new HashMap<>(expected.get(m)));
+                        actual.add(new PersistentMap<>(actual.get(m)));
+                    }
+                    break;
+                case 1:
+                case 2:
+                case 3:
+                    assertEquals(expected.get(m).remove(k), actual.get(m).remove(k));
+                    break;
+                default:
+                    assertEquals(expected.get(m).put(k, v), actual.get(m).put(k, v));
+            }
+            assertEquals(expected.get(m).get(k), actual.get(m).get(k));
+        }
+        for (int i = 0; i < actual.size(); i++)
+            check(expected.get(i), actual.get(i));
+        for (int i = 0; i < actual.size(); i++)
+            for (int j = 0; j < actual.size(); j++) {
+                assertEquals(expected.get(i).equals(expected.get(j)), actual.get(i).equals(actual.get(j)));
+                Set<Key> diff = new HashSet<>();
+                Set<Key> keys = new HashSet<>(expected.get(i).keySet());
+                keys.addAll(expected.get(j).keySet());
+                for (Key k : keys)
+                    if (!expected.get(i).containsKey(k) || !expected.get(j).containsKey(k) || !Objects.equals(expected.get(i).get(k), expected.get(j).get(k)))
+                        diff.add(k);
+                Set<Key> actual_diff = actual.get(i).getKeysWithDifferentValues(actual.get(j));
+                // values are compared by identity, so the result may include keys with equal but non-identical values
+                assertTrue(actual_diff.containsAll(diff));
+                for (Key k : actual_diff)
+                    assertTrue(diff.contains(k) || actual.get(i).get(k) != actual.get(j).get(k));
+            }
+    }
+
+    @Test
+    public void sharing() {
+        PersistentMap<Key, Integer> m1 = new PersistentMap<>();
+        for (int i = 0; i < 1000; i++)
+            m1.put(new Key(i), i);
+        PersistentMap<Key, Integer> m2 = new PersistentMap<>(m1);
+        assertTrue(m1.getKeysWithDifferentValues(m2).isEmpty());
+        m2.put(new Key(5), -1);
+        m2.remove(new Key(7));
+        m2.put(new Key(2000), 0);
+        assertEquals(Integer.valueOf(5), m1.get(new Key(5)));
+        assertEquals(Integer.valueOf(7), m1.get(new Key(7)));
+        assertFalse(m1.containsKey(new Key(2000)));
+        Set<Key> diff = m1.getKeysWithDifferentValues(m2);
+        assertEquals(3, diff.size());
+        assertTrue(diff.contains(new Key(5)) && diff.contains(new Key(7)) && diff.contains(new Key(2000)));
+        assertNotEquals(m1, m2);
+        m2.put(new Key(5), m1.get(new Key(5)));
+        m2.put(new Key(7), m1.get(new Key(7)));
+        m2.remove(new Key(2000));
+        assertEquals(m1, m2);
+        assertEquals(m1.hashCode(), m2.hashCode());
+    }
+
+    @Test
+    public void modifyWhileIterating() {
+        PersistentMap<Key, Integer> m = new PersistentMap<>();
+        Map<Key, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            m.put(new Key(i), i);
+            expected.put(new Key(i), i);
+        }
+        for (Iterator<Map.Entry<Key, Integer>> it = m.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Key, Integer> e = it.next();
+            if (e.getValue() % 2 == 0)
+                it.remove();
+            else
+                e.setValue(-e.getValue());
+            m.put(new Key(1000 + e.getKey().id), 0);
+        }
+        expected.entrySet().removeIf(e -> e.getValue() % 2 == 0);
+        expected.replaceAll((k, v) -> -v);
+        for (int i = 0; i < 500; i++)
+            expected.put(new Key(1000 + i), 0);
+        check(expected, m);
+    }
+
+    @Test
+    public void analysis() {
+        String file = "test-resources/src/google/richards.js";
+        Map<String, String> expected = Misc.getExitStates(file);
+        int states = State.getNumberOfStatesCreated();
+        assertEquals(expected, Misc.getExitStates(file, "-persistent-store"));
+        assertEquals(states, State.getNumberOfStatesCreated());
+    }
+}
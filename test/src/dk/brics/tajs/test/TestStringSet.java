@@ -0,0 +1,98 @@
+package dk.brics.tajs.test;
+
+import dk.brics.tajs.Main;
+import dk.brics.tajs.lattice.Value;
+import dk.brics.tajs.util.StringSet;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static dk.brics.tajs.util.Collections.newList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link StringSet}.
+ */
+public class TestStringSet {
+
+    private static Set<String> randomSet(Random r) {
+        Set<String> s = new HashSet<>();
+        int n = r.nextInt(20);
+        for (int i = 0; i < n; i++)
+            s.add("s" + r.nextInt(30));
+        return s;
+    }
+
+    @Test
+    public void randomOperations() {
+        Random r = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            Set<String> a = randomSet(r);
+            Set<String> b = randomSet(r);
+            StringSet sa = StringSet.of(a);
+            StringSet sb = StringSet.of(b);
+            assertEquals(a, sa);
+            assertEquals(sa, a);
+            assertEquals(a.hashCode(), sa.hashCode());
+            assertEquals(newList(new TreeSet<>(a)), newList(sa));
+            Set<String> union = new HashSet<>(a);
+            union.addAll(b);
+            assertEquals(union, sa.union(sb));
+            assertEquals(union, sa.union(b));
+            assertEquals(a.containsAll(b), sa.containsAll(sb));
+            String x = "s" + r.nextInt(30);
+            assertEquals(a.contains(x), sa.contains(x));
+            Set<String> with = new HashSet<>(a);
+            with.add(x);
+            assertEquals(with, sa.with(x));
+            Set<String> filtered = new HashSet<>(a);
+            filtered.removeIf(s -> s.length() > 2);
+            assertEquals(filtered, sa.filter(s -> s.length() <= 2));
+            Set<String> product = new HashSet<>();
+            for (String s1 : a)
+                for (String s2 : b)
+                    product.add(s1 + s2);
+            assertEquals(product, StringSet.concat(a, b));
+        }
+    }
+
+    @Test
+    public void sharing() {
+        StringSet a = StringSet.of(Arrays.asList("x", "y", "x"));
+        assertEquals(2, a.size());
+        assertSame(a, StringSet.of(a));
+        assertSame(a, a.with("x"));
+        assertSame(a, a.union(StringSet.of(Collections.singleton("y"))));
+        assertSame(a, a.filter(s -> true));
+        StringSet b = a.with("z");
+        assertSame(b, a.union(b));
+        assertTrue(b.containsAll(a));
+        assertFalse(a.containsAll(b));
+        assertSame(StringSet.empty(), a.filter(s -> false));
+    }
+
+    @Test
+    public void makeStringsEqualsJoin() {
+        Main.reset();
+        for (List<String> strings : Arrays.asList(Arrays.asList("foo", "fob", "fo"), Arrays.asList("x", "1", "y z", "length"), Arrays.asList("a", "a"))) {
+            Value joined = Value.makeNone();
+            for (String s : strings)
+                joined = joined.join(Value.makeStr(s));
+            assertEquals(joined, Value.makeStrings(strings));
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void immutable() {
+        StringSet.of(Arrays.asList("x", "y")).removeIf(s -> s.equals("x"));
+    }
+}
@@ -6,6 +6,13 @@ import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertFalse;
+
 @SuppressWarnings("static-method")
 public class TestTypeScriptDeclarations {
 
@@ -42,6 +49,16 @@ public class TestTypeScriptDeclarations {
         Misc.checkSystemOutput();
     }
 
+    @Test
+    public void myappPregeneratedNotCached() throws IOException {
+        Path cache = Files.createTempDirectory("tsdecl-cache");
+        Options.get().setTypeDeclarationCacheDir(cache.toString());
+        Misc.run("test-resources/src/tsspecs/myapp/myapp.js");
+        try (Stream<Path> entries = Files.list(cache)) {
+            assertFalse(entries.anyMatch(p -> p.toString().endsWith(".json.gz")));
+        }
+    }
+
     @Ignore // TODO: needs models for Node.js
     @Test
     public void lodashtest() {
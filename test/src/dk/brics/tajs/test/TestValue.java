@@ -33,6 +33,9 @@ import java.util.stream.Stream;
 import static dk.brics.tajs.util.Collections.singleton;
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 @SuppressWarnings("static-method")
 public class TestValue {
@@ -497,6 +500,51 @@ public class TestValue {
         assertEquals(Value.makeStrings(Stream.of("foo", "bar", "baz").collect(Collectors.toList())), v2.join(v1));
     }
 
+    @Test
+    public void joinZeroAndNegativeZero() {
+        Value zero = Value.makeNum(0.0);
+        Value negZero = Value.makeNum(-0.0);
+        assertNotSame(zero, negZero);
+        assertSame(zero, Value.makeNum(0.0));
+        assertSame(negZero, Value.makeNum(-0.0));
+        assertEquals(Double.NEGATIVE_INFINITY, 1 / negZero.getNum(), 0);
+        assertSame(zero, Value.join(zero, zero));
+        assertSame(negZero, Value.join(negZero, negZero));
+        assertSame(negZero, negZero.joinNum(-0.0));
+        Value both = Value.join(zero, negZero);
+        assertFalse(both.isMaybeSingleNum());
+        assertTrue(both.isMaybeZero());
+        assertFalse(both.isMaybeNumUIntPos());
+        assertFalse(both.isMaybeNumOther());
+        assertFalse(both.isMaybeNaN());
+        assertSame(both, Value.join(negZero, zero));
+        assertSame(both, zero.joinNum(-0.0));
+        assertSame(both, negZero.joinNum(0.0));
+    }
+
+    @Test
+    public void numNaN() {
+        Value nan = Value.makeNumNaN();
+        assertSame(nan, Value.makeNum(Double.NaN));
+        assertTrue(nan.isNaN());
+        assertFalse(nan.isMaybeSingleNum());
+        assertTrue(Double.isNaN(nan.getNum()));
+        assertSame(nan, Value.join(nan, nan));
+        assertSame(nan, nan.joinNum(Double.NaN));
+        assertSame(nan, nan.joinNumNaN());
+        assertTrue(nan.restrictToNotNaN().isNone());
+        Value one = Value.makeNum(1);
+        Value oneOrNaN = Value.join(one, nan);
+        assertFalse(oneOrNaN.isMaybeSingleNum());
+        assertTrue(oneOrNaN.isMaybeNaN());
+        assertFalse(oneOrNaN.isNaN());
+        assertTrue(oneOrNaN.isMaybeNumUIntPos());
+        assertSame(oneOrNaN, Value.join(nan, one));
+        assertSame(oneOrNaN, one.joinNumNaN());
+        assertSame(oneOrNaN, one.joinNum(Double.NaN));
+        assertSame(Value.makeAnyNumUIntPos(), oneOrNaN.restrictToNotNaN());
+    }
+
     /*
      * Public non-static methods in Value that return a Value (except 'join'), should be overwritten in PartitionedValue
      */
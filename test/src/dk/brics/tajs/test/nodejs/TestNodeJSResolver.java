@@ -0,0 +1,133 @@
+package dk.brics.tajs.test.nodejs;
+
+import dk.brics.tajs.Main;
+import dk.brics.tajs.analysis.nativeobjects.NodeJSRequire;
+import dk.brics.tajs.analysis.nativeobjects.NodeJSResolver;
+import dk.brics.tajs.options.Options;
+import dk.brics.tajs.util.AnalysisLimitationException;
+import dk.brics.tajs.util.PathAndURLUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestNodeJSResolver {
+
+    private Path dir;
+
+    @Before
+    public void init() throws IOException {
+        Main.initLogging();
+        Main.reset();
+        dir = Files.createTempDirectory("tajs-nodejs-resolver").toRealPath();
+        write("main.js", "");
+        write("a.js", "");
+        write("data.json", "{}");
+        write("b/index.js", "");
+        write("c/package.json", "{\"main\": \"lib/main\"}");
+        write("c/lib/main.js", "");
+        write("node_modules/foo/package.json", "{\"main\": \"./x.js\"}");
+        write("node_modules/foo/x.js", "");
+        write("node_modules/foo/y.js", "");
+        write("node_modules/foo/util/index.js", "");
+        write("node_modules/@s/bar/package.json", "{\"exports\": {\".\": {\"import\": \"./esm.mjs\", \"require\": \"./cjs.js\"}, \"./feature/*\": \"./features/*.js\"}}");
+        write("node_modules/@s/bar/cjs.js", "");
+        write("node_modules/@s/bar/esm.mjs", "");
+        write("node_modules/@s/bar/features/one.js", "");
+        write("node_modules/@s/bar/internal.js", "");
+        write("sub/deep/node_modules/foo/index.js", "");
+        write("sub/deep/file.js", "");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    private void write(String file, String contents) throws IOException {
+        Path p = dir.resolve(file);
+        Files.createDirectories(p.getParent());
+        Files.write(p, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Path resolve(String arg, String from) {
+        return new NodeJSResolver().resolve(arg, dir.resolve(from));
+    }
+
+    @Test
+    public void relative() {
+        assertEquals(dir.resolve("a.js"), resolve("./a", "."));
+        assertEquals(dir.resolve("a.js"), resolve("./a.js", "."));
+        assertEquals(dir.resolve("data.json"), resolve("../data", "b"));
+        assertEquals(dir.resolve("b/index.js"), resolve("./b", "."));
+        assertEquals(dir.resolve("b/index.js"), resolve("./b/", "."));
+        assertEquals(dir.resolve("c/lib/main.js"), resolve("./c", "."));
+        assertEquals(dir.resolve("a.js"), resolve(dir.resolve("a").toString(), "sub"));
+        assertNull(resolve("./missing", "."));
+    }
+
+    @Test
+    public void nodeModules() {
+        assertEquals(dir.resolve("node_modules/foo/x.js"), resolve("foo", "."));
+        assertEquals(dir.resolve("node_modules/foo/x.js"), resolve("foo", "b"));
+        assertEquals(dir.resolve("sub/deep/node_modules/foo/index.js"), resolve("foo", "sub/deep"));
+        assertEquals(dir.resolve("node_modules/foo/y.js"), resolve("foo/y", "sub/deep/node_modules/foo"));
+        assertEquals(dir.resolve("node_modules/foo/util/index.js"), resolve("foo/util", "."));
+        assertNull(resolve("missing", "."));
+    }
+
+    @Test
+    public void exports() {
+        assertEquals(dir.resolve("node_modules/@s/bar/cjs.js"), resolve("@s/bar", "."));
+        assertEquals(dir.resolve("node_modules/@s/bar/features/one.js"), resolve("@s/bar/feature/one", "."));
+        assertNull(resolve("@s/bar/feature/two", "."));
+    }
+
+    @Test(expected = AnalysisLimitationException.NodeJSRequireException.class)
+    public void notExported() {
+        resolve("@s/bar/internal.js", ".");
+    }
+
+    @Test
+    public void coreModules() {
+        assertEquals(Paths.get("fs"), resolve("fs", "."));
+        assertEquals(Paths.get("node:path"), resolve("node:path", "."));
+    }
+
+    @Test
+    public void persistentCache() throws IOException {
+        Path cache = dir.resolve("resolve-cache.txt");
+        assertEquals(dir.resolve("node_modules/foo/x.js"), resolveCached("foo", cache));
+        assertEquals(dir.resolve("node_modules/foo/x.js"), resolveCached("foo", cache));
+        assertEquals(1, getEntries(cache).size());
+        Path package_json = dir.resolve("node_modules/foo/package.json");
+        FileTime time = Files.getLastModifiedTime(package_json);
+        write("node_modules/foo/package.json", "{\"main\": \"./y.js\"}");
+        Files.setLastModifiedTime(package_json, FileTime.fromMillis(time.toMillis() + 10000));
+        assertEquals(dir.resolve("node_modules/foo/y.js"), resolveCached("foo", cache));
+        assertEquals(2, getEntries(cache).size());
+    }
+
+    private Path resolveCached(String arg, Path cache) {
+        Main.reset();
+        Options.get().setNodeJSResolveCacheFile(cache.toString());
+        NodeJSRequire.init();
+        return PathAndURLUtils.toPath(NodeJSRequire.get().resolve(arg, PathAndURLUtils.toURL(dir.resolve("main.js"))), false);
+    }
+
+    private static List<String> getEntries(Path cache) throws IOException {
+        return Files.readAllLines(cache, StandardCharsets.UTF_8).stream().filter(s -> s.startsWith("R\t")).collect(Collectors.toList());
+    }
+}
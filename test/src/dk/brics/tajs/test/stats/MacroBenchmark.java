@@ -0,0 +1,368 @@
+package dk.brics.tajs.test.stats;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import dk.brics.tajs.Main;
+import dk.brics.tajs.analysis.Analysis;
+import dk.brics.tajs.flowgraph.AbstractNode;
+import dk.brics.tajs.lattice.Obj;
+import dk.brics.tajs.lattice.State;
+import dk.brics.tajs.monitoring.AnalysisMonitor;
+import dk.brics.tajs.monitoring.CompositeMonitor;
+import dk.brics.tajs.monitoring.DefaultAnalysisMonitoring;
+import dk.brics.tajs.options.OptionValues;
+import dk.brics.tajs.test.Misc;
+import dk.brics.tajs.util.AnalysisException;
+import org.kohsuke.args4j.CmdLineException;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static dk.brics.tajs.util.Collections.newList;
+import static dk.brics.tajs.util.Collections.newMap;
+
+/**
+ * Macro-benchmark runner: analyzes corpora of test programs a number of times and records timing and memory as JSON.
+ * <p>
+ * Usage:
+ * <pre>
+ * MacroBenchmark run [-o FILE] [-warmup N] [-iterations N] [-fork] CORPUS...
+ * MacroBenchmark compare [-threshold PERCENT] BASELINE CURRENT
+ * </pre>
+ * The corpora are those of {@link StatsStandard}: sunspider, google, 10k, chromeexperiments, jqueryload.
+ * With <code>-fork</code>, each program is measured in a fresh JVM, otherwise all programs are measured in this JVM.
+ * <p>
+ * For each program, the median over the measured iterations of the wall time, the number of node transfers,
+ * the number of states and objects created, the peak heap usage, and the GC time are recorded.
+ * The compare mode reports the programs where the median time, object count or peak heap has increased by more than
+ * the threshold (default 10%), or where the number of node transfers or states has increased at all,
+ * and the programs that failed or are missing in the current run, and exits with status 1 if there are any.
+ */
+public class MacroBenchmark {
+
+    private static final String[] METRICS = {"wall_ms", "node_transfers", "states_created", "objs_created", "peak_heap_mb", "gc_ms"};
+
+    /**
+     * Metrics that do not depend on the machine or JVM (with fixed random).
+     * (The number of objects created also includes some that are created only once per JVM.)
+     */
+    private static final List<String> DETERMINISTIC_METRICS = Arrays.asList("node_transfers", "states_created");
+
+    private static final Map<String, String[][]> corpora = new LinkedHashMap<>();
+
+    static {
+        corpora.put("sunspider", StatsStandard.testSunspider);
+        corpora.put("google", StatsStandard.testGoogle);
+        corpora.put("10k", StatsStandard.test10K);
+        corpora.put("chromeexperiments", StatsStandard.testChromeExperiments);
+        corpora.put("jqueryload", StatsStandard.testJQueryLoad);
+    }
+
+    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0)
+            usage();
+        List<String> rest = newList(Arrays.asList(args).subList(1, args.length));
+        switch (args[0]) {
+            case "run":
+                System.exit(run(rest));
+            case "compare":
+                System.exit(compare(rest));
+            case "measure": // internal, used by -fork
+                measureForked(rest);
+                System.exit(0);
+            default:
+                usage();
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: MacroBenchmark run [-o FILE] [-warmup N] [-iterations N] [-fork] CORPUS...");
+        System.err.println("       MacroBenchmark compare [-threshold PERCENT] BASELINE CURRENT");
+        System.err.println("Corpora: " + String.join(", ", corpora.keySet()));
+        System.exit(2);
+    }
+
+    private static int run(List<String> args) throws IOException, InterruptedException {
+        Path out = Paths.get("out/benchmarks/macro.json");
+        int warmup = 1;
+        int iterations = 3;
+        boolean fork = false;
+        List<String[]> tests = newList();
+        for (int i = 0; i < args.size(); i++) {
+            switch (args.get(i)) {
+                case "-o":
+                    out = Paths.get(args.get(++i));
+                    break;
+                case "-warmup":
+                    warmup = Integer.parseInt(args.get(++i));
+                    break;
+                case "-iterations":
+                    iterations = Integer.parseInt(args.get(++i));
+                    break;
+                case "-fork":
+                    fork = true;
+                    break;
+                default:
+                    String[][] corpus = corpora.get(args.get(i));
+                    if (corpus == null)
+                        usage();
+                    tests.addAll(Arrays.asList(corpus));
+            }
+        }
+        if (tests.isEmpty())
+            usage();
+        Misc.disableLogging();
+        JsonObject result = new JsonObject();
+        result.addProperty("timestamp", System.currentTimeMillis());
+        result.addProperty("java", System.getProperty("java.version"));
+        result.addProperty("max_heap_mb", Runtime.getRuntime().maxMemory() / (1024 * 1024));
+        result.addProperty("warmup", warmup);
+        result.addProperty("iterations", iterations);
+        result.addProperty("fork", fork);
+        JsonArray benchmarks = new JsonArray();
+        int current = 0;
+        for (String[] testArgs : tests) {
+            System.out.format("[%d/%d] %s\n", ++current, tests.size(), String.join(" ", testArgs));
+            JsonObject b = fork ? measureInFreshJVM(testArgs, warmup, iterations) : measure(testArgs, warmup, iterations);
+            benchmarks.add(b);
+            if (b.has("median"))
+                System.out.println("  " + b.get("median"));
+            else
+                System.out.println("  Error: " + b.get("error").getAsString());
+        }
+        result.add("benchmarks", benchmarks);
+        if (out.getParent() != null)
+            Files.createDirectories(out.getParent());
+        Files.write(out, gson.toJson(result).getBytes(StandardCharsets.UTF_8));
+        System.out.println("Output written to " + out);
+        return 0;
+    }
+
+    /**
+     * Measures the given program in this JVM.
+     */
+    private static JsonObject measure(String[] testArgs, int warmup, int iterations) {
+        JsonObject b = new JsonObject();
+        b.addProperty("name", testArgs[testArgs.length - 1]);
+        b.addProperty("options", String.join(" ", Arrays.copyOf(testArgs, testArgs.length - 1)));
+        JsonArray runs = new JsonArray();
+        try {
+            for (int i = 0; i < warmup; i++)
+                measureOnce(testArgs);
+            for (int i = 0; i < iterations; i++)
+                runs.add(measureOnce(testArgs));
+        } catch (Throwable e) {
+            b.addProperty("error", e.getMessage() != null ? e.getMessage() : e.toString());
+            return b;
+        }
+        b.add("iterations", runs);
+        b.add("median", median(runs));
+        return b;
+    }
+
+    private static JsonObject measureOnce(String[] testArgs) throws CmdLineException {
+        Main.reset();
+        System.gc();
+        OptionValues options = new OptionValues();
+        options.getUnsoundness().setUseFixedRandom(true);
+        options.parse(testArgs);
+        options.checkConsistency();
+        options.enableNoMessages();
+        options.enableQuiet();
+        NodeTransferCounter counter = new NodeTransferCounter();
+        List<MemoryPoolMXBean> heapPools = newList();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        long gcStart = getGCTime();
+        long start = System.nanoTime();
+        Analysis a = Main.init(options, CompositeMonitor.make(new AnalysisMonitor(), counter), null);
+        if (a == null)
+            throw new AnalysisException("Error during initialization");
+        Main.run(a);
+        long wall = System.nanoTime() - start;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heapPools)
+            peak += pool.getPeakUsage().getUsed();
+        JsonObject r = new JsonObject();
+        r.addProperty("wall_ms", wall / 1000000.0);
+        r.addProperty("node_transfers", counter.nodeTransfers);
+        r.addProperty("states_created", State.getNumberOfStatesCreated());
+        r.addProperty("objs_created", Obj.getNumberOfObjsCreated());
+        r.addProperty("peak_heap_mb", peak / (1024.0 * 1024.0));
+        r.addProperty("gc_ms", getGCTime() - gcStart);
+        return r;
+    }
+
+    private static long getGCTime() {
+        long t = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            t += Math.max(0, gc.getCollectionTime());
+        return t;
+    }
+
+    private static JsonObject median(JsonArray runs) {
+        JsonObject m = new JsonObject();
+        for (String metric : METRICS) {
+            double[] vs = new double[runs.size()];
+            for (int i = 0; i < vs.length; i++)
+                vs[i] = runs.get(i).getAsJsonObject().get(metric).getAsDouble();
+            Arrays.sort(vs);
+            m.addProperty(metric, vs.length % 2 == 1 ? vs[vs.length / 2] : (vs[vs.length / 2 - 1] + vs[vs.length / 2]) / 2);
+        }
+        return m;
+    }
+
+    /**
+     * Measures the given program in a fresh JVM with the same class path and heap settings.
+     */
+    private static JsonObject measureInFreshJVM(String[] testArgs, int warmup, int iterations) throws IOException, InterruptedException {
+        Path tmp = Files.createTempFile("tajs-benchmark", ".json");
+        try {
+            List<String> cmd = newList();
+            cmd.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments())
+                if (!arg.startsWith("-agentlib") && !arg.startsWith("-agentpath") && !arg.startsWith("-javaagent"))
+                    cmd.add(arg); // agents (debuggers, profilers, coverage) would be attached to every benchmark JVM
+            cmd.add("-cp");
+            cmd.add(System.getProperty("java.class.path"));
+            cmd.add(MacroBenchmark.class.getName());
+            cmd.add("measure");
+            cmd.add(tmp.toString());
+            cmd.add(Integer.toString(warmup));
+            cmd.add(Integer.toString(iterations));
+            cmd.addAll(Arrays.asList(testArgs));
+            Process p = new ProcessBuilder(cmd).redirectOutput(ProcessBuilder.Redirect.INHERIT).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            if (p.waitFor() != 0 || Files.size(tmp) == 0) {
+                JsonObject b = new JsonObject();
+                b.addProperty("name", testArgs[testArgs.length - 1]);
+                b.addProperty("options", String.join(" ", Arrays.copyOf(testArgs, testArgs.length - 1)));
+                b.addProperty("error", "Benchmark JVM exited with status " + p.exitValue());
+                return b;
+            }
+            return readJson(tmp);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void measureForked(List<String> args) throws IOException {
+        Misc.disableLogging();
+        JsonObject b = measure(args.subList(3, args.size()).toArray(new String[0]), Integer.parseInt(args.get(1)), Integer.parseInt(args.get(2)));
+        Files.write(Paths.get(args.get(0)), gson.toJson(b).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int compare(List<String> args) throws IOException {
+        double threshold = 10;
+        List<String> files = newList();
+        for (int i = 0; i < args.size(); i++) {
+            if (args.get(i).equals("-threshold"))
+                threshold = Double.parseDouble(args.get(++i));
+            else
+                files.add(args.get(i));
+        }
+        if (files.size() != 2)
+            usage();
+        JsonObject currentResult = readJson(Paths.get(files.get(1)));
+        Map<String, JsonObject> baseline = medians(readJson(Paths.get(files.get(0))));
+        Map<String, JsonObject> current = medians(currentResult);
+        Map<String, String> errors = errors(currentResult);
+        int regressions = 0;
+        int failures = 0;
+        for (Map.Entry<String, String> e : errors.entrySet()) {
+            failures++;
+            System.out.println("FAILED " + e.getKey() + ": " + e.getValue());
+        }
+        for (Map.Entry<String, JsonObject> e : current.entrySet()) {
+            JsonObject base = baseline.get(e.getKey());
+            if (base == null) {
+                System.out.println("New: " + e.getKey());
+                continue;
+            }
+            for (String metric : METRICS) {
+                if (metric.equals("gc_ms"))
+                    continue; // too noisy, only reported
+                double b = base.get(metric).getAsDouble();
+                double c = e.getValue().get(metric).getAsDouble();
+                double change = b == 0 ? (c == 0 ? 0 : Double.POSITIVE_INFINITY) : (c - b) * 100 / b;
+                boolean regression = DETERMINISTIC_METRICS.contains(metric) ? c > b : change > threshold;
+                if (regression) {
+                    regressions++;
+                    System.out.format("REGRESSION %s %s: %.2f -> %.2f (%+.1f%%)\n", e.getKey(), metric, b, c, change);
+                } else if (change < -threshold) {
+                    System.out.format("improvement %s %s: %.2f -> %.2f (%+.1f%%)\n", e.getKey(), metric, b, c, change);
+                }
+            }
+        }
+        for (String name : baseline.keySet())
+            if (!current.containsKey(name) && !errors.containsKey(name)) {
+                failures++;
+                System.out.println("MISSING " + name);
+            }
+        System.out.println(regressions + " regression(s), " + failures + " failed or missing benchmark(s)");
+        return regressions == 0 && failures == 0 ? 0 : 1;
+    }
+
+    /**
+     * Returns the medians of the successful benchmarks by name and options.
+     */
+    private static Map<String, JsonObject> medians(JsonObject result) {
+        Map<String, JsonObject> res = newMap();
+        for (JsonElement e : result.getAsJsonArray("benchmarks")) {
+            JsonObject b = e.getAsJsonObject();
+            if (b.has("median"))
+                res.put(getKey(b), b.getAsJsonObject("median"));
+        }
+        return res;
+    }
+
+    /**
+     * Returns the error messages of the failed benchmarks by name and options.
+     */
+    private static Map<String, String> errors(JsonObject result) {
+        Map<String, String> res = newMap();
+        for (JsonElement e : result.getAsJsonArray("benchmarks")) {
+            JsonObject b = e.getAsJsonObject();
+            if (!b.has("median"))
+                res.put(getKey(b), b.has("error") ? b.get("error").getAsString() : "no result");
+        }
+        return res;
+    }
+
+    private static String getKey(JsonObject b) {
+        return (b.get("options").getAsString() + " " + b.get("name").getAsString()).trim();
+    }
+
+    private static JsonObject readJson(Path file) throws IOException {
+        return new JsonParser().parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)).getAsJsonObject();
+    }
+
+    private static class NodeTransferCounter extends DefaultAnalysisMonitoring {
+
+        private long nodeTransfers = 0;
+
+        @Override
+        public void visitNodeTransferPre(AbstractNode n, State s) {
+            nodeTransfers++;
+        }
+    }
+}